@@ -0,0 +1,66 @@
+package ru.vadimkhalikov.oop.lab5.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrame;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageProtocol;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolFactory;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+/**
+ * Замеры кодирования и разбора одного сообщения; набор протоколов и типов задают наследники.
+ * <p>
+ * Кодирование - {@link MessageProtocol#encode(Message)}, как при рассылке на сервере.
+ * Разбор - {@link MessageProtocol#receiveMessage(java.io.InputStream)} из потока
+ * одного соединения, в котором кадр повторяется: чтение из сокета в замер не входит.
+ * Выделение памяти на операцию показывает профилировщик {@code -prof gc}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class AbstractCodecBenchmark {
+
+    private Message message;
+    private MessageProtocol encoder;
+    private MessageProtocol decoder;
+    private ReplayInputStream in;
+
+    /**
+     * Готовит сообщение и протоколы; вызывается из {@code @Setup} наследника.
+     */
+    protected void init(ProtocolType protocol, Message.MessageType type, Payload payload) throws IOException {
+        message = BenchMessages.create(type, payload);
+        encoder = ProtocolFactory.createProtocol(protocol);
+        // Разбирающий экземпляр хранит состояние соединения (поток объектов для JAVA)
+        decoder = ProtocolFactory.createProtocol(protocol);
+        in = ReplayInputStream.of(protocol, encoder.encode(message));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        decoder.close();
+    }
+
+    @Benchmark
+    public MessageFrame encode() throws IOException {
+        return encoder.encode(message);
+    }
+
+    @Benchmark
+    public Message decode() throws IOException, ClassNotFoundException {
+        return decoder.receiveMessage(in);
+    }
+}
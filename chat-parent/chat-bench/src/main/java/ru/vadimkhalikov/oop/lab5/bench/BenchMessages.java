@@ -0,0 +1,125 @@
+package ru.vadimkhalikov.oop.lab5.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+
+/**
+ * Образцы сообщений каждого типа с заполненными полями, как их отправляют клиент и сервер.
+ */
+public final class BenchMessages {
+
+    // Кириллица проверяет и многобайтовый UTF-8 в текстовых протоколах
+    static final String CHAT_LINE = "Привет всем! Кто идет на обед? ";
+    private static final String ROOM = "general";
+    private static final String NODE = "node-1";
+
+    private BenchMessages() {
+    }
+
+    public static Message create(Message.MessageType type, Payload payload) {
+        Message message;
+        switch (type) {
+            case LOGIN_REQUEST:
+                return new Message(type, user(0));
+            case LOGIN_SUCCESS:
+            case LOGIN_FAILURE:
+            case SERVER_MESSAGE:
+                return new Message(type, text(payload));
+            case USER_MESSAGE:
+                return chatMessage(0, payload);
+            case USER_JOINED:
+            case USER_LEFT:
+                message = new Message(type, user(0), user(0) + " " + text(payload));
+                message.setRoom(ROOM);
+                return message;
+            case USER_LIST_REQUEST:
+            case PING:
+            case PONG:
+                return new Message(type);
+            case USER_LIST_RESPONSE:
+                message = new Message(type);
+                message.setUserList(users(0, payload.getUsers()));
+                message.setListVersion(42L);
+                return message;
+            case USER_LIST_DELTA:
+                // Половина вошла, половина вышла
+                message = new Message(type);
+                message.setUserList(users(0, payload.getUsers() / 2));
+                message.setRemovedUsers(users(payload.getUsers() / 2, payload.getUsers()));
+                message.setBaseVersion(41L);
+                message.setListVersion(42L);
+                return message;
+            case LOGOUT_REQUEST:
+                return new Message(type, user(0), null);
+            case HISTORY_REQUEST:
+                message = new Message(type);
+                message.setSequence(1_000L);
+                message.setLimit(50);
+                message.setRoom(ROOM);
+                return message;
+            case HISTORY_PAGE:
+                message = new Message(type);
+                message.setMessages(chatMessages(payload));
+                message.setSequence(1_000L);
+                message.setRoom(ROOM);
+                return message;
+            case ROOM_JOIN_REQUEST:
+            case ROOM_LEAVE_REQUEST:
+                message = new Message(type);
+                message.setRoom(ROOM);
+                return message;
+            case ROOM_JOIN_SUCCESS:
+            case ROOM_JOIN_FAILURE:
+                message = new Message(type, text(payload));
+                message.setRoom(ROOM);
+                return message;
+            case CLUSTER_HELLO:
+                message = new Message(type, NODE, null);
+                message.setUserList(users(0, payload.getUsers()));
+                return message;
+            case CLUSTER_BATCH:
+                message = new Message(type, NODE, null);
+                message.setMessages(chatMessages(payload));
+                return message;
+            default:
+                throw new IllegalArgumentException("No sample message for type: " + type);
+        }
+    }
+
+    private static Message chatMessage(long sequence, Payload payload) {
+        Message message = new Message(Message.MessageType.USER_MESSAGE, user((int) sequence), text(payload));
+        message.setSequence(sequence);
+        message.setRoom(ROOM);
+        return message;
+    }
+
+    private static List<Message> chatMessages(Payload payload) {
+        List<Message> messages = new ArrayList<>(payload.getMessages());
+        for (int i = 0; i < payload.getMessages(); i++) {
+            messages.add(chatMessage(i, Payload.SMALL));
+        }
+        return messages;
+    }
+
+    private static String text(Payload payload) {
+        StringBuilder text = new StringBuilder(CHAT_LINE.length() * payload.getTextRepeats());
+        for (int i = 0; i < payload.getTextRepeats(); i++) {
+            text.append(CHAT_LINE);
+        }
+        return text.toString();
+    }
+
+    private static List<String> users(int from, int to) {
+        List<String> users = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            users.add(user(i));
+        }
+        return users;
+    }
+
+    private static String user(int index) {
+        return String.format("user%05d", index);
+    }
+}
@@ -0,0 +1,187 @@
+package ru.vadimkhalikov.oop.lab5.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+import ru.vadimkhalikov.oop.lab5.server.ClientSession;
+import ru.vadimkhalikov.oop.lab5.server.OutboundPolicy;
+import ru.vadimkhalikov.oop.lab5.server.Server;
+
+/**
+ * Сервер чата с имитированными клиентами для замеров рассылки и реестра клиентов.
+ * Сервер не слушает порт: клиенты - {@link SimulatedClient} поверх сокетов в памяти,
+ * поэтому замеры включают блокировки, очереди и рассылку, но не сеть.
+ * <p>
+ * Настоящий вход клиента рассылает USER_JOINED и список пользователей всем участникам,
+ * поэтому заполнение сервера N клиентами стоило бы N²/2 отправок - часы для 100 000 клиентов.
+ * {@link #populate(int)} регистрирует клиентов в обход рассылок, выставляя закрытое
+ * состояние сервера через рефлексию; клиенты сценариев входят обычным путем
+ * ({@link SimulatedClient#login(String)}).
+ * <p>
+ * Сервер не останавливается: JMH запускает каждое сочетание параметров в отдельной JVM.
+ */
+public final class BenchServer {
+
+    // Маленький буфер писателя: 100 000 клиентов с буфером по умолчанию заняли бы 800 МБ
+    private static final int WRITE_BUFFER = 512;
+    // Исходящая очередь короче обычной, чтобы отстающие писатели не занимали гигабайты
+    private static final int OUTBOUND_CAPACITY = 64;
+
+    private static final Method REGISTER_CLIENT;
+    private static final Field USERNAME;
+    private static final Field PRESENCE;
+    private static final Field PRESENCE_USERNAMES;
+
+    static {
+        try {
+            REGISTER_CLIENT = Server.class.getDeclaredMethod("registerClient", ClientSession.class);
+            REGISTER_CLIENT.setAccessible(true);
+            USERNAME = ClientSession.class.getDeclaredField("username");
+            USERNAME.setAccessible(true);
+            PRESENCE = Server.class.getDeclaredField("presence");
+            PRESENCE.setAccessible(true);
+            PRESENCE_USERNAMES = PRESENCE.getType().getDeclaredField("usernames");
+            PRESENCE_USERNAMES.setAccessible(true);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Server server;
+    private final ProtocolType protocol;
+    private final Delivery delivery;
+    private int nextId;
+
+    /**
+     * @param protocol протокол всех клиентов
+     * @param delivery как клиенты получают кадры
+     * @param policy что делать с переполненной исходящей очередью клиента
+     * @param presenceWindowMs окно накопления изменений списка пользователей; 0 - публиковать каждое сразу
+     */
+    public BenchServer(ProtocolType protocol, Delivery delivery, OutboundPolicy policy, long presenceWindowMs)
+            throws IOException {
+        this.protocol = protocol;
+        this.delivery = delivery;
+        Properties props = new Properties();
+        props.setProperty("server.protocol", protocol.getCode());
+        props.setProperty("logging.enabled", "false");
+        props.setProperty("history.log.enabled", "false");
+        props.setProperty("heartbeat.timeout.ms", "0");
+        props.setProperty("metrics.jmx.enabled", "false");
+        props.setProperty("server.outbound.policy", policy.getCode());
+        props.setProperty("server.outbound.capacity", String.valueOf(OUTBOUND_CAPACITY));
+        props.setProperty("server.write.buffer", String.valueOf(WRITE_BUFFER));
+        props.setProperty("presence.window.ms", String.valueOf(presenceWindowMs));
+        // Сервер читает настройки только из файла
+        Path config = Files.createTempFile("chat-bench", ".properties");
+        try (OutputStream out = Files.newOutputStream(config)) {
+            props.store(out, "chat-bench");
+        }
+        String previous = System.getProperty("server.config");
+        System.setProperty("server.config", config.toString());
+        try {
+            server = new Server();
+        } finally {
+            if (previous != null) {
+                System.setProperty("server.config", previous);
+            } else {
+                System.clearProperty("server.config");
+            }
+            Files.deleteIfExists(config);
+        }
+    }
+
+    public Server getServer() {
+        return server;
+    }
+
+    /**
+     * Подключает клиента, еще не вошедшего в чат.
+     *
+     * @param writeDelayNanos задержка каждой записи в сокет клиента; 0 - быстрый клиент
+     */
+    public SimulatedClient connect(long writeDelayNanos) {
+        SimulatedClient client = new SimulatedClient(server, protocol,
+            new InMemorySocket(nextId(), writeDelayNanos), delivery);
+        invoke(REGISTER_CLIENT, client);
+        return client;
+    }
+
+    /**
+     * Подключает и вводит в чат {@code count} быстрых клиентов с именами {@code userN} без рассылок о входе.
+     */
+    public List<SimulatedClient> populate(int count) {
+        List<SimulatedClient> clients = new ArrayList<>(count);
+        List<String> usernames = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            SimulatedClient client = enter(connect(0), "user" + i);
+            clients.add(client);
+            usernames.add(client.getUsername());
+        }
+        presenceUsernames().addAll(usernames);
+        return clients;
+    }
+
+    /**
+     * Вводит в чат уже подключенного клиента без рассылок о входе.
+     */
+    public SimulatedClient enter(SimulatedClient client, String username) {
+        try {
+            USERNAME.set(client, username);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        if (!server.claimUsername(username, client)) {
+            throw new IllegalStateException("Username is already taken: " + username);
+        }
+        return client;
+    }
+
+    /**
+     * Заполняет историю общей комнаты; вызывается до подключения клиентов,
+     * чтобы не рассылать эти сообщения.
+     */
+    public void fillHistory(int messages) {
+        for (int i = 0; i < messages; i++) {
+            server.broadcastMessage(chatMessage("history"), null);
+        }
+    }
+
+    /**
+     * @return новое сообщение чата, как его присылает клиент
+     */
+    public Message chatMessage(String sender) {
+        return new Message(Message.MessageType.USER_MESSAGE, sender, BenchMessages.CHAT_LINE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<String> presenceUsernames() {
+        try {
+            return (Set<String>) PRESENCE_USERNAMES.get(PRESENCE.get(server));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void invoke(Method method, Object... args) {
+        try {
+            method.invoke(server, args);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private synchronized int nextId() {
+        return nextId++;
+    }
+}
@@ -0,0 +1,33 @@
+package ru.vadimkhalikov.oop.lab5.bench;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+/**
+ * Кодирование и разбор сообщений между узлами кластера. Узлы обмениваются кадрами
+ * {@code REST_JSON}; {@code JAVA} - для сравнения, XML эти типы не передает.
+ */
+@State(Scope.Thread)
+public class ClusterCodecBenchmark extends AbstractCodecBenchmark {
+
+    @Param({"JAVA", "REST_JSON"})
+    private ProtocolType protocol;
+
+    @Param({"CLUSTER_HELLO", "CLUSTER_BATCH"})
+    private Message.MessageType type;
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    private Payload payload;
+
+    @Setup
+    public void setUp() throws IOException {
+        init(protocol, type, payload);
+    }
+}
@@ -0,0 +1,36 @@
+package ru.vadimkhalikov.oop.lab5.bench;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+/**
+ * Кодирование и разбор сообщений между клиентом и сервером всеми протоколами
+ * для всех размеров содержимого. Размеры кадров печатает {@link FrameSizes}.
+ */
+@State(Scope.Thread)
+public class CodecBenchmark extends AbstractCodecBenchmark {
+
+    @Param({"JAVA", "XML", "REST_JSON"})
+    private ProtocolType protocol;
+
+    @Param({"LOGIN_REQUEST", "LOGIN_SUCCESS", "LOGIN_FAILURE", "USER_MESSAGE", "SERVER_MESSAGE",
+        "USER_LIST_REQUEST", "USER_LIST_RESPONSE", "USER_JOINED", "USER_LEFT", "LOGOUT_REQUEST",
+        "HISTORY_REQUEST", "HISTORY_PAGE", "USER_LIST_DELTA", "ROOM_JOIN_REQUEST", "ROOM_JOIN_SUCCESS",
+        "ROOM_JOIN_FAILURE", "ROOM_LEAVE_REQUEST", "PING", "PONG"})
+    private Message.MessageType type;
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    private Payload payload;
+
+    @Setup
+    public void setUp() throws IOException {
+        init(protocol, type, payload);
+    }
+}
@@ -0,0 +1,88 @@
+package ru.vadimkhalikov.oop.lab5.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+import ru.vadimkhalikov.oop.lab5.server.OutboundPolicy;
+import ru.vadimkhalikov.oop.lab5.server.Server;
+
+/**
+ * Входы и выходы клиентов во время рассылки. Группа {@code loginDuringBroadcast}:
+ * один поток рассылает сообщения, два потока вводят в чат и удаляют новых клиентов
+ * (захват имени, история, USER_JOINED и USER_LEFT всем, публикация списка пользователей).
+ * Сравнение с {@link FanOutBenchmark#broadcastMessage()} и {@link #loginLogout()} без соседей
+ * показывает, насколько рассылка и входы мешают друг другу: реестр клиентов не блокируется,
+ * общие блокировки - шард реестра комнат, история комнаты и публикация списка пользователей.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class ConcurrentLoginBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int clients;
+
+    @Param({"QUEUED", "DIRECT"})
+    private Delivery delivery;
+
+    @Param({"REST_JSON"})
+    private ProtocolType protocol;
+
+    private Server server;
+    private BenchServer bench;
+    private SimulatedClient sender;
+    private final AtomicInteger logins = new AtomicInteger();
+
+    @Setup
+    public void setUp() throws IOException {
+        bench = new BenchServer(protocol, delivery, OutboundPolicy.DROP_OLDEST, 0);
+        server = bench.getServer();
+        bench.fillHistory(FanOutBenchmark.HISTORY);
+        List<SimulatedClient> members = bench.populate(clients);
+        sender = members.get(0);
+    }
+
+    @Benchmark
+    @Group("loginDuringBroadcast")
+    @GroupThreads(1)
+    public void broadcast() {
+        server.broadcastMessage(bench.chatMessage(sender.getUsername()), sender);
+    }
+
+    @Benchmark
+    @Group("loginDuringBroadcast")
+    @GroupThreads(2)
+    public void login() throws IOException {
+        loginLogout();
+    }
+
+    /**
+     * Вход и выход нового клиента без параллельной рассылки.
+     */
+    @Benchmark
+    public void loginLogout() throws IOException {
+        SimulatedClient client = bench.connect(0);
+        client.login("login" + logins.incrementAndGet());
+        server.removeClient(client);
+    }
+}
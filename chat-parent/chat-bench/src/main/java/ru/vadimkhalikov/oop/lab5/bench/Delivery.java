@@ -0,0 +1,14 @@
+package ru.vadimkhalikov.oop.lab5.bench;
+
+/**
+ * Как имитированный клиент получает кадры от сервера.
+ */
+public enum Delivery {
+    /** Как на сервере: исходящая очередь клиента и запись в сокет задачей в пуле писателей */
+    QUEUED,
+    /**
+     * Кадр пишется в сокет в памяти сразу в потоке рассылки. Замер включает только
+     * работу сервера (перебор участников, кодирование, историю, блокировки) без очередей и писателей.
+     */
+    DIRECT
+}
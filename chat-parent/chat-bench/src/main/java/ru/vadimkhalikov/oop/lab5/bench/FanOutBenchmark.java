@@ -0,0 +1,103 @@
+package ru.vadimkhalikov.oop.lab5.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+import ru.vadimkhalikov.oop.lab5.server.OutboundPolicy;
+import ru.vadimkhalikov.oop.lab5.server.Server;
+
+/**
+ * Рассылка и операции реестра клиентов на сервере с {@code clients} вошедшими клиентами.
+ * <p>
+ * {@code broadcastMessage} замеряет поток отправителя: кодирование, историю и передачу
+ * кадра каждому участнику. При {@link Delivery#QUEUED} кадр ставится в очередь, а запись
+ * в сокеты идет параллельно в пуле писателей и конкурирует с рассылкой за процессор;
+ * очереди отбрасывают старые сообщения чата, чтобы отстающие писатели не отключали клиентов
+ * посреди замера. {@link Delivery#DIRECT} оставляет только работу самого сервера.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class FanOutBenchmark {
+
+    // Сообщений в истории общей комнаты до подключения клиентов
+    static final int HISTORY = 1000;
+    // Половина проверяемых имен занята (в другом регистре), половина свободна
+    private static final int NAMES = 1024;
+
+    @Param({"10", "1000", "10000", "100000"})
+    private int clients;
+
+    @Param({"QUEUED", "DIRECT"})
+    private Delivery delivery;
+
+    @Param({"REST_JSON"})
+    private ProtocolType protocol;
+
+    private Server server;
+    private BenchServer bench;
+    private SimulatedClient sender;
+    private SimulatedClient reader;
+    private final String[] names = new String[NAMES];
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        bench = new BenchServer(protocol, delivery, OutboundPolicy.DROP_OLDEST, 0);
+        server = bench.getServer();
+        bench.fillHistory(HISTORY);
+        List<SimulatedClient> members = bench.populate(clients);
+        sender = members.get(0);
+        reader = members.get(members.size() - 1);
+        for (int i = 0; i < NAMES; i++) {
+            names[i] = i % 2 == 0
+                ? members.get((i * 7919) % clients).getUsername().toUpperCase(Locale.ROOT)
+                : "guest" + i;
+        }
+    }
+
+    @Benchmark
+    public void broadcastMessage() {
+        server.broadcastMessage(bench.chatMessage(sender.getUsername()), sender);
+    }
+
+    @Benchmark
+    public boolean isUsernameTaken() {
+        return server.isUsernameTaken(names[next++ & (NAMES - 1)]);
+    }
+
+    /**
+     * Последние сообщения общей комнаты одному клиенту, как при входе.
+     */
+    @Benchmark
+    public void sendHistory() {
+        server.sendHistory(reader);
+    }
+
+    /**
+     * Полный список пользователей, как в ответе на USER_LIST_REQUEST и при входе.
+     */
+    @Benchmark
+    public Message userListSnapshot() {
+        return server.getUserListSnapshot();
+    }
+}
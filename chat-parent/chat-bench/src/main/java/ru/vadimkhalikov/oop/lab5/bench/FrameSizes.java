@@ -0,0 +1,62 @@
+package ru.vadimkhalikov.oop.lab5.bench;
+
+import java.io.IOException;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrame;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageProtocol;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolFactory;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+/**
+ * Печатает размер кадра в байтах для тех же сообщений, что и замеры кодирования:
+ * размер не меняется от запуска к запуску, поэтому замеряется не JMH, а одним проходом.
+ * Каждый кадр заодно разбирается обратно; сообщения, которые протокол не передает
+ * (типы кластера в XML), отмечены прочерком.
+ * <p>
+ * Запуск: {@code java -cp chat-bench/target/benchmarks.jar ru.vadimkhalikov.oop.lab5.bench.FrameSizes}
+ */
+public final class FrameSizes {
+
+    private FrameSizes() {
+    }
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        StringBuilder header = new StringBuilder(String.format("%-20s %-7s", "type", "payload"));
+        for (ProtocolType protocol : ProtocolType.values()) {
+            header.append(String.format(" %10s", protocol.getCode()));
+        }
+        System.out.println(header);
+
+        for (Message.MessageType type : Message.MessageType.values()) {
+            for (Payload payload : Payload.values()) {
+                Message message = BenchMessages.create(type, payload);
+                StringBuilder row = new StringBuilder(String.format("%-20s %-7s", type, payload));
+                for (ProtocolType protocol : ProtocolType.values()) {
+                    int size = roundTrip(protocol, message);
+                    row.append(size >= 0 ? String.format(" %10d", size) : String.format(" %10s", "-"));
+                }
+                System.out.println(row);
+            }
+        }
+    }
+
+    /**
+     * @return размер кадра сообщения в байтах, без заголовка соединения, или -1, если протокол не передает сообщение
+     */
+    private static int roundTrip(ProtocolType protocol, Message message) throws IOException, ClassNotFoundException {
+        MessageProtocol codec = ProtocolFactory.createProtocol(protocol);
+        MessageFrame frame;
+        try {
+            frame = codec.encode(message);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+        Message decoded = codec.receiveMessage(ReplayInputStream.of(protocol, frame));
+        codec.close();
+        if (decoded.getType() != message.getType()) {
+            throw new IllegalStateException(protocol + " decoded " + decoded.getType() + " instead of " + message.getType());
+        }
+        return frame.length();
+    }
+}
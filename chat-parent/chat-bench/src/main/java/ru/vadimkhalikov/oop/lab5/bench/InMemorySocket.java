@@ -0,0 +1,72 @@
+package ru.vadimkhalikov.oop.lab5.bench;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Сокет без сети для имитации клиентов: записанное сервером отбрасывается, читать нечего. Медленный клиент имитируется задержкой каждой записи в сокет.
+ */
+final class InMemorySocket extends Socket {
+
+    private final SocketAddress address;
+    private final SinkOutputStream out;
+    private volatile boolean closed;
+
+    /**
+     * @param writeDelayNanos задержка каждой записи в сокет; 0 - клиент читает без задержек
+     */
+    InMemorySocket(int id, long writeDelayNanos) {
+        this.address = InetSocketAddress.createUnresolved("client-" + id, 0);
+        this.out = new SinkOutputStream(writeDelayNanos);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return InputStream.nullInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return address;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+    }
+
+    private static final class SinkOutputStream extends OutputStream {
+
+        private final long writeDelayNanos;
+
+        SinkOutputStream(long writeDelayNanos) {
+            this.writeDelayNanos = writeDelayNanos;
+        }
+
+        @Override
+        public void write(int b) {
+            write(null, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (writeDelayNanos > 0) {
+                LockSupport.parkNanos(writeDelayNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package ru.vadimkhalikov.oop.lab5.bench;
+
+/**
+ * Размер содержимого сообщения в бенчмарках. Тексту, спискам пользователей и пачкам
+ * сообщений соответствуют свои размеры; сообщения без содержимого переменной длины
+ * (PING, USER_LIST_REQUEST, HISTORY_REQUEST и т.п.) от размера не зависят.
+ */
+public enum Payload {
+    /** Короткая строка чата, 10 пользователей, 10 сообщений в пачке */
+    SMALL(1, 10, 10),
+    /** Текст около 1200 символов, 1000 пользователей, 100 сообщений */
+    MEDIUM(40, 1_000, 100),
+    /** Текст около 12 000 символов, 10 000 пользователей, 1000 сообщений */
+    LARGE(400, 10_000, 1_000);
+
+    private final int textRepeats;
+    private final int users;
+    private final int messages;
+
+    Payload(int textRepeats, int users, int messages) {
+        this.textRepeats = textRepeats;
+        this.users = users;
+        this.messages = messages;
+    }
+
+    /**
+     * @return во сколько раз повторяется короткая строка чата в тексте сообщения
+     */
+    public int getTextRepeats() {
+        return textRepeats;
+    }
+
+    public int getUsers() {
+        return users;
+    }
+
+    /**
+     * @return число сообщений в странице истории и пачке кластера
+     */
+    public int getMessages() {
+        return messages;
+    }
+}
@@ -0,0 +1,83 @@
+package ru.vadimkhalikov.oop.lab5.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrame;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolFactory;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+/**
+ * Бесконечный поток: заголовок соединения, затем один и тот же кадр снова и снова.
+ * Так {@code receiveMessage} разбирает кадры одного долгоживущего соединения, как на сервере,
+ * и в замер не попадает создание потока на каждое сообщение.
+ */
+final class ReplayInputStream extends InputStream {
+
+    private final byte[] header;
+    private final byte[] frame;
+    private int headerPosition;
+    private int position;
+
+    /**
+     * @param header байты, которые соединение пишет один раз перед первым кадром; может быть пустым
+     * @param frame байты одного кадра
+     */
+    ReplayInputStream(byte[] header, byte[] frame) {
+        this.header = header;
+        this.frame = frame;
+    }
+
+    /**
+     * Поток кадра, каким его видит читающая сторона соединения протокола:
+     * заголовок соединения берется из первой записи кадра новым экземпляром протокола.
+     */
+    static ReplayInputStream of(ProtocolType type, MessageFrame frame) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(frame.length() + 16);
+        ProtocolFactory.createProtocol(type).writeFrame(frame, out);
+        byte[] bytes = out.toByteArray();
+        int headerLength = bytes.length - frame.length();
+        return new ReplayInputStream(Arrays.copyOf(bytes, headerLength),
+            Arrays.copyOfRange(bytes, headerLength, bytes.length));
+    }
+
+    @Override
+    public int read() {
+        if (headerPosition < header.length) {
+            return header[headerPosition++] & 0xFF;
+        }
+        int value = frame[position++] & 0xFF;
+        if (position == frame.length) {
+            position = 0;
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (headerPosition < header.length) {
+            int count = Math.min(length, header.length - headerPosition);
+            System.arraycopy(header, headerPosition, buffer, offset, count);
+            headerPosition += count;
+            return count;
+        }
+        // Не дальше конца кадра: читающий получает не больше, чем пришло бы одним кадром
+        int count = Math.min(length, frame.length - position);
+        System.arraycopy(frame, position, buffer, offset, count);
+        position += count;
+        if (position == frame.length) {
+            position = 0;
+        }
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return header.length - headerPosition + frame.length - position;
+    }
+}
@@ -0,0 +1,47 @@
+package ru.vadimkhalikov.oop.lab5.bench;
+
+import java.io.IOException;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrame;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+import ru.vadimkhalikov.oop.lab5.server.ClientHandler;
+import ru.vadimkhalikov.oop.lab5.server.Server;
+
+/**
+ * Блокирующее соединение сервера поверх {@link InMemorySocket}. При {@link Delivery#QUEUED}
+ * исходящая очередь, писатели и буфер записи работают как с настоящим клиентом.
+ * Поток чтения не запускается, сообщения клиента передаются серверу напрямую.
+ */
+public class SimulatedClient extends ClientHandler {
+
+    private final InMemorySocket socket;
+    private final Delivery delivery;
+
+    SimulatedClient(Server server, ProtocolType protocol, InMemorySocket socket, Delivery delivery) {
+        super(socket, server, protocol);
+        this.socket = socket;
+        this.delivery = delivery;
+    }
+
+    @Override
+    public void sendFrame(MessageFrame frame) throws IOException {
+        if (delivery == Delivery.QUEUED) {
+            super.sendFrame(frame);
+        } else if (!socket.isClosed()) {
+            protocol.writeFrame(frame, socket.getOutputStream());
+        }
+    }
+
+    /**
+     * Входит в чат тем же путем, что и клиент по сети: захват имени, история,
+     * USER_JOINED участникам и публикация списка пользователей.
+     */
+    public void login(String username) throws IOException {
+        onMessage(new Message(Message.MessageType.LOGIN_REQUEST, username, null), 0, 0);
+    }
+
+    public boolean isClosed() {
+        return socket.isClosed();
+    }
+}
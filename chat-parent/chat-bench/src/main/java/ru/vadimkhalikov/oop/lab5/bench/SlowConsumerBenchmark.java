@@ -0,0 +1,75 @@
+package ru.vadimkhalikov.oop.lab5.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+import ru.vadimkhalikov.oop.lab5.server.OutboundPolicy;
+import ru.vadimkhalikov.oop.lab5.server.Server;
+
+/**
+ * Рассылка, когда среди участников есть клиент, который читает по 1 мс на каждую запись в сокет.
+ * Сравнение с {@link FanOutBenchmark#broadcastMessage()} ({@code delivery=QUEUED}) показывает, сколько медленный клиент
+ * стоит остальным при каждой политике исходящей очереди: {@code DROP_OLDEST} и {@code DISCONNECT}
+ * не задерживают рассылку, {@code BLOCK} держит ее до {@code server.outbound.block.ms}.
+ * Отключенный медленный клиент подключается заново перед каждой итерацией.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class SlowConsumerBenchmark {
+
+    private static final long SLOW_WRITE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Param({"1000", "10000"})
+    private int clients;
+
+    @Param({"DROP_OLDEST", "DISCONNECT", "BLOCK"})
+    private OutboundPolicy policy;
+
+    @Param({"REST_JSON"})
+    private ProtocolType protocol;
+
+    private Server server;
+    private BenchServer bench;
+    private SimulatedClient sender;
+    private SimulatedClient slow;
+    private int slowCount;
+
+    @Setup
+    public void setUp() throws IOException {
+        bench = new BenchServer(protocol, Delivery.QUEUED, policy, 0);
+        server = bench.getServer();
+        List<SimulatedClient> members = bench.populate(clients);
+        sender = members.get(0);
+    }
+
+    @Setup(Level.Iteration)
+    public void connectSlowClient() {
+        if (slow == null || slow.isClosed()) {
+            slow = bench.enter(bench.connect(SLOW_WRITE_NANOS), "slow" + slowCount++);
+        }
+    }
+
+    @Benchmark
+    public void broadcastMessage() {
+        server.broadcastMessage(bench.chatMessage(sender.getUsername()), sender);
+    }
+}
@@ -0,0 +1,160 @@
+package ru.vadimkhalikov.oop.lab5.client.sdk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrame;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+/**
+ * Соединение протокола без заголовка длины (JAVA). Границы сообщения в потоке сериализации
+ * известны только самому {@code ObjectInputStream}, поэтому соединение читается отдельным потоком,
+ * как на сервере в режиме blocking. Пишет тоже свой поток: вызывающий поток только ставит кадр
+ * в очередь и не ждет сокета, даже если сервер перестал читать. Писатель пишет накопившиеся кадры
+ * подряд и сбрасывает буфер, когда очередь опустела; {@code written} завершается после сброса.
+ */
+final class BlockingChatConnection extends ChatConnection {
+
+    private static final int CONNECT_TIMEOUT_MS = 10_000;
+    private static final long THREAD_STACK_SIZE = 256 * 1024;
+
+    private final Socket socket = new Socket();
+    private final CompletableFuture<ChatConnection> connected = new CompletableFuture<>();
+    // Кадры, ждущие записи; кадры, поставленные до подключения, писатель запишет после него
+    private final BlockingQueue<PendingWrite> outbound = new LinkedBlockingQueue<>();
+    private volatile Thread writer;
+
+    BlockingChatConnection(ProtocolType protocolType, ChatListener listener, Executor callbacks) {
+        super(protocolType, listener, callbacks);
+    }
+
+    @Override
+    CompletableFuture<ChatConnection> open(InetSocketAddress address) {
+        Thread reader = new Thread(null, () -> run(address), "chat-connection-" + address, THREAD_STACK_SIZE);
+        // Поток чтения не должен держать JVM приложения, забывшего закрыть соединение
+        reader.setDaemon(true);
+        reader.start();
+        return connected;
+    }
+
+    private void run(InetSocketAddress address) {
+        InputStream in;
+        OutputStream out;
+        try {
+            socket.connect(address, CONNECT_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream());
+        } catch (IOException e) {
+            failLater(connected, e);
+            close();
+            return;
+        }
+        Thread thread = new Thread(null, () -> writeLoop(out), "chat-writer-" + address, THREAD_STACK_SIZE);
+        thread.setDaemon(true);
+        writer = thread;
+        // Закрытие, случившееся до этой проверки, писатель увидит сам, не дожидаясь прерывания
+        if (!isOpen()) {
+            return;
+        }
+        thread.start();
+        completeLater(connected, this);
+        try {
+            while (isOpen()) {
+                Message message = protocol.receiveMessage(in);
+                received(message);
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            disconnected(e instanceof EOFException ? null : e);
+        }
+    }
+
+    /**
+     * Поток записи: пишет кадры из очереди, пока соединение открыто.
+     */
+    private void writeLoop(OutputStream out) {
+        List<CompletableFuture<Void>> unflushed = new ArrayList<>();
+        try {
+            while (isOpen()) {
+                PendingWrite pending = outbound.take();
+                unflushed.add(pending.written);
+                protocol.writeFrame(pending.frame, out);
+                if (outbound.isEmpty()) {
+                    out.flush();
+                    for (CompletableFuture<Void> written : unflushed) {
+                        completeLater(written, null);
+                    }
+                    unflushed.clear();
+                }
+            }
+        } catch (IOException e) {
+            for (CompletableFuture<Void> written : unflushed) {
+                failLater(written, e);
+            }
+            disconnected(e);
+        } catch (InterruptedException e) {
+            // Соединение закрыто; незаписанные кадры завершает closeChannel
+            for (CompletableFuture<Void> written : unflushed) {
+                failLater(written, new ClosedChannelException());
+            }
+        }
+    }
+
+    @Override
+    void writeFrame(MessageFrame frame, CompletableFuture<Void> written) {
+        outbound.add(new PendingWrite(frame, written));
+        if (!isOpen()) {
+            // Соединение закрылось, пока кадр ставился: очередь уже некому писать
+            failQueued();
+        }
+    }
+
+    @Override
+    void closeChannel() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Соединение закрывается, ошибка закрытия ничего не меняет
+        }
+        Thread thread = writer;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        failQueued();
+        if (!connected.isDone()) {
+            failLater(connected, new ClosedChannelException());
+        }
+    }
+
+    private void failQueued() {
+        PendingWrite pending;
+        while ((pending = outbound.poll()) != null) {
+            failLater(pending.written, new ClosedChannelException());
+        }
+    }
+
+    private static final class PendingWrite {
+
+        final MessageFrame frame;
+        final CompletableFuture<Void> written;
+
+        PendingWrite(MessageFrame frame, CompletableFuture<Void> written) {
+            this.frame = frame;
+            this.written = written;
+        }
+    }
+}
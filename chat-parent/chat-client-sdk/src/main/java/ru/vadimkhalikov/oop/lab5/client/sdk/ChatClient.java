@@ -0,0 +1,106 @@
+package ru.vadimkhalikov.oop.lab5.client.sdk;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+/**
+ * Клиент чата без интерфейса: открывает соединения с сервером и обслуживает их.
+ * Соединения протоколов с заголовком длины (xml, rest) делят между собой несколько циклов событий,
+ * поэтому один процесс держит тысячи соединений; соединения JAVA читаются каждое своим потоком
+ * (см. {@link BlockingChatConnection}).
+ * <pre>{@code
+ * ChatClient client = new ChatClient();
+ * client.connect("localhost", 8080, ProtocolType.REST_JSON, (connection, message) -> System.out.println(message.getContent()))
+ *     .thenCompose(connection -> connection.login("bot").thenCompose(ok -> connection.sendChat(null, "Привет!")))
+ *     .join();
+ * }</pre>
+ */
+public class ChatClient implements AutoCloseable {
+
+    private static final Executor DIRECT = Runnable::run;
+
+    private final ClientEventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final Set<ChatConnection> connections = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Клиент с одним циклом событий.
+     */
+    public ChatClient() throws IOException {
+        this(1);
+    }
+
+    /**
+     * @param eventLoops число потоков-циклов событий для соединений xml и rest
+     */
+    public ChatClient(int eventLoops) throws IOException {
+        if (eventLoops < 1) {
+            throw new IllegalArgumentException("At least one event loop is required");
+        }
+        loops = new ClientEventLoop[eventLoops];
+        for (int i = 0; i < eventLoops; i++) {
+            loops[i] = new ClientEventLoop("chat-client-loop-" + i);
+            loops[i].start();
+        }
+    }
+
+    /**
+     * Подключается к серверу. Обратные вызовы выполняются потоком, прочитавшим или записавшим сообщение:
+     * они не должны блокироваться, иначе задержат остальные соединения того же цикла.
+     */
+    public CompletableFuture<ChatConnection> connect(String host, int port, ProtocolType protocolType,
+                                                     ChatListener listener) {
+        return connect(host, port, protocolType, listener, DIRECT);
+    }
+
+    /**
+     * Подключается к серверу.
+     *
+     * @param listener получатель сообщений, не ставших ответами на запросы, и разрыва соединения
+     * @param callbacks исполнитель, в котором вызывается {@code listener} и завершаются будущие результаты
+     *                  соединения, например {@code SwingUtilities::invokeLater}; должен сохранять порядок задач
+     * @return будущее, завершающееся соединением, когда оно установлено
+     */
+    public CompletableFuture<ChatConnection> connect(String host, int port, ProtocolType protocolType,
+                                                     ChatListener listener, Executor callbacks) {
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (address.isUnresolved()) {
+            return CompletableFuture.failedFuture(new UnknownHostException(host));
+        }
+        ChatConnection connection = protocolType.isLengthPrefixed()
+            ? new NioChatConnection(protocolType, listener, callbacks, nextLoop())
+            : new BlockingChatConnection(protocolType, listener, callbacks);
+        connections.add(connection);
+        connection.onClose(() -> connections.remove(connection));
+        return connection.open(address);
+    }
+
+    /**
+     * Закрывает все соединения и останавливает циклы событий.
+     */
+    @Override
+    public void close() {
+        List<ChatConnection> open = new ArrayList<>(connections);
+        connections.clear();
+        for (ChatConnection connection : open) {
+            connection.close();
+        }
+        for (ClientEventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+    private ClientEventLoop nextLoop() {
+        return loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+    }
+}
@@ -0,0 +1,289 @@
+package ru.vadimkhalikov.oop.lab5.client.sdk;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrame;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageProtocol;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolFactory;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+/**
+ * Соединение с сервером чата. Методы не ждут сети: сообщение кодируется в вызывающем потоке
+ * и ставится в очередь записи, а результат приходит в {@link CompletableFuture}.
+ * Запросы можно отправлять подряд, не дожидаясь ответов: каждый запрос получает номер,
+ * сервер повторяет его в ответе, и ответ достается своему запросу (см. {@link PendingRequests}).
+ * <p>
+ * Будущие результаты завершаются, а {@link ChatListener} вызывается исполнителем обратных вызовов
+ * соединения, в порядке событий. Ждать результата ({@code join}, {@code get}) в этом же исполнителе нельзя:
+ * завершение встанет в очередь за ожидающим.
+ */
+public abstract class ChatConnection implements AutoCloseable {
+
+    private final ProtocolType protocolType;
+    final MessageProtocol protocol;
+    private final ChatListener listener;
+    private final Executor callbacks;
+    private final PendingRequests pending = new PendingRequests();
+    private final AtomicLong requestIds = new AtomicLong();
+    // Запросы регистрируются и пишутся под одной блокировкой: порядок ожидания совпадает с порядком записи
+    private final Object writeOrder = new Object();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile boolean loggingOut;
+    private volatile String username;
+    private volatile Runnable closeHook;
+
+    ChatConnection(ProtocolType protocolType, ChatListener listener, Executor callbacks) {
+        this.protocolType = protocolType;
+        this.protocol = ProtocolFactory.createProtocol(protocolType);
+        this.listener = listener;
+        this.callbacks = callbacks;
+    }
+
+    /**
+     * Входит в чат.
+     *
+     * @return LOGIN_SUCCESS; при отказе будущее завершается {@link RequestFailedException}
+     */
+    public CompletableFuture<Message> login(String username) {
+        this.username = username;
+        return request(new Message(Message.MessageType.LOGIN_REQUEST, username, null));
+    }
+
+    /**
+     * @return USER_LIST_RESPONSE
+     */
+    public CompletableFuture<Message> requestUserList() {
+        return request(new Message(Message.MessageType.USER_LIST_REQUEST));
+    }
+
+    /**
+     * @param room комната или null для общей комнаты
+     * @param before курсор из предыдущей страницы: страница - сообщения с номерами меньше него; null - последние
+     * @param limit сколько сообщений вернуть (сервер ограничивает history.page.max)
+     * @return HISTORY_PAGE
+     */
+    public CompletableFuture<Message> requestHistory(String room, Long before, int limit) {
+        Message request = new Message(Message.MessageType.HISTORY_REQUEST);
+        request.setRoom(room);
+        request.setSequence(before);
+        request.setLimit(limit);
+        return request(request);
+    }
+
+    /**
+     * @return ROOM_JOIN_SUCCESS со списком участников; при отказе будущее завершается {@link RequestFailedException}
+     */
+    public CompletableFuture<Message> joinRoom(String room) {
+        Message request = new Message(Message.MessageType.ROOM_JOIN_REQUEST);
+        request.setRoom(room);
+        return request(request);
+    }
+
+    /**
+     * Выходит из комнаты. Сервер отвечает только на ошибку, текстом в {@link ChatListener#onMessage}.
+     */
+    public CompletableFuture<Void> leaveRoom(String room) {
+        Message request = new Message(Message.MessageType.ROOM_LEAVE_REQUEST);
+        request.setRoom(room);
+        return send(request);
+    }
+
+    /**
+     * Отправляет сообщение чата.
+     *
+     * @param room комната или null для общей комнаты
+     */
+    public CompletableFuture<Void> sendChat(String room, String text) {
+        Message message = new Message(Message.MessageType.USER_MESSAGE, text);
+        message.setRoom(room);
+        return send(message);
+    }
+
+    /**
+     * Отправляет запрос и ждет ответа на него. Номер запроса назначается здесь;
+     * номер, уже заданный в сообщении, заменяется.
+     *
+     * @param request LOGIN_REQUEST, USER_LIST_REQUEST, HISTORY_REQUEST или ROOM_JOIN_REQUEST
+     * @return ответ сервера; будущее завершается ошибкой, если соединение закрылось раньше
+     * @throws IllegalArgumentException если сервер не отвечает на сообщения этого типа
+     */
+    public CompletableFuture<Message> request(Message request) {
+        if (!PendingRequests.expectsResponse(request.getType())) {
+            throw new IllegalArgumentException("Server does not answer " + request.getType());
+        }
+        request.setRequestId(requestIds.incrementAndGet());
+        CompletableFuture<Message> response = new CompletableFuture<>();
+        write(request, response).whenComplete((ignored, error) -> {
+            if (error != null) {
+                response.completeExceptionally(error);
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Отправляет сообщение без ожидания ответа. Ответ, если он есть, придет в {@link ChatListener#onMessage}.
+     *
+     * @return будущее, завершающееся, когда сообщение записано в сокет
+     */
+    public CompletableFuture<Void> send(Message message) {
+        return write(message, null);
+    }
+
+    /**
+     * Выходит из чата и закрывает соединение, когда запрос выхода записан.
+     */
+    public CompletableFuture<Void> logout() {
+        loggingOut = true;
+        CompletableFuture<Void> written = send(new Message(Message.MessageType.LOGOUT_REQUEST));
+        return written.whenComplete((ignored, error) -> close());
+    }
+
+    public boolean isOpen() {
+        return !closed.get();
+    }
+
+    /**
+     * @return имя из последнего запроса входа или null, если входа не было
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    public ProtocolType getProtocolType() {
+        return protocolType;
+    }
+
+    /**
+     * Закрывает соединение. Ожидающие ответа запросы и незаписанные сообщения завершаются ошибкой.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            closeChannel();
+            failPending(new IOException("Connection closed"));
+            runCloseHook();
+        }
+    }
+
+    /**
+     * @param hook вызывается один раз, когда соединение закрыто любым способом
+     */
+    void onClose(Runnable hook) {
+        closeHook = hook;
+    }
+
+    /**
+     * Подключается к серверу.
+     *
+     * @return будущее, завершающееся этим соединением, когда оно установлено
+     */
+    abstract CompletableFuture<ChatConnection> open(InetSocketAddress address);
+
+    /**
+     * Ставит кадр в очередь записи соединения. Вызывается под блокировкой порядка записи.
+     *
+     * @param written завершается, когда кадр записан в сокет, или ошибкой записи
+     */
+    abstract void writeFrame(MessageFrame frame, CompletableFuture<Void> written);
+
+    /**
+     * Закрывает сокет; незаписанные кадры завершаются ошибкой.
+     */
+    abstract void closeChannel();
+
+    /**
+     * Обрабатывает сообщение, прочитанное из соединения. Вызывается потоком чтения.
+     */
+    void received(Message message) {
+        if (message.getType() == Message.MessageType.PING) {
+            // Отвечаем сразу из потока чтения, не дожидаясь исполнителя обратных вызовов
+            send(new Message(Message.MessageType.PONG));
+            return;
+        }
+        CompletableFuture<Message> response = pending.take(message);
+        if (response == null) {
+            callbacks.execute(() -> listener.onMessage(this, message));
+        } else if (message.getType() == Message.MessageType.LOGIN_FAILURE
+                || message.getType() == Message.MessageType.ROOM_JOIN_FAILURE) {
+            callbacks.execute(() -> response.completeExceptionally(new RequestFailedException(message)));
+        } else {
+            callbacks.execute(() -> response.complete(message));
+        }
+    }
+
+    /**
+     * Соединение разорвано сервером или ошибкой ввода-вывода.
+     *
+     * @param cause ошибка или null, если сервер закрыл соединение
+     */
+    void disconnected(Throwable cause) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        closeChannel();
+        failPending(cause != null ? cause : new IOException("Connection closed by server"));
+        runCloseHook();
+        if (!loggingOut) {
+            callbacks.execute(() -> listener.onDisconnected(this, cause));
+        }
+    }
+
+    /**
+     * Завершает будущее результата в исполнителе обратных вызовов.
+     */
+    <T> void completeLater(CompletableFuture<T> future, T value) {
+        callbacks.execute(() -> future.complete(value));
+    }
+
+    /**
+     * Завершает будущее результата ошибкой в исполнителе обратных вызовов.
+     */
+    void failLater(CompletableFuture<?> future, Throwable error) {
+        callbacks.execute(() -> future.completeExceptionally(error));
+    }
+
+    private CompletableFuture<Void> write(Message message, CompletableFuture<Message> response) {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        if (username != null && message.getSender() == null) {
+            message.setSender(username);
+        }
+        MessageFrame frame;
+        try {
+            frame = protocol.encode(message);
+        } catch (IOException | IllegalArgumentException e) {
+            written.completeExceptionally(e);
+            return written;
+        }
+        synchronized (writeOrder) {
+            if (closed.get()) {
+                written.completeExceptionally(new IOException("Connection closed"));
+                return written;
+            }
+            if (response != null) {
+                pending.add(message, response);
+            }
+            writeFrame(frame, written);
+        }
+        return written;
+    }
+
+    private void runCloseHook() {
+        Runnable hook = closeHook;
+        if (hook != null) {
+            hook.run();
+        }
+    }
+
+    private void failPending(Throwable cause) {
+        for (CompletableFuture<Message> response : pending.drain()) {
+            failLater(response, cause);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package ru.vadimkhalikov.oop.lab5.client.sdk;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+
+/**
+ * Получатель событий соединения. Вызывается исполнителем обратных вызовов соединения
+ * (см. {@link ChatClient#connect}) в порядке прихода сообщений.
+ */
+public interface ChatListener {
+
+    /**
+     * Сообщение сервера, не ставшее ответом на запрос с ожиданием: сообщения чата, входы и выходы,
+     * изменения списка пользователей, ответы на запросы, отправленные через {@link ChatConnection#send(Message)}.
+     * PING сюда не попадает: соединение само отвечает на него PONG.
+     */
+    void onMessage(ChatConnection connection, Message message);
+
+    /**
+     * Соединение разорвано не по {@link ChatConnection#close()} и не после {@link ChatConnection#logout()}.
+     *
+     * @param cause ошибка чтения или записи; null, если сервер закрыл соединение
+     */
+    default void onDisconnected(ChatConnection connection, Throwable cause) {
+    }
+}
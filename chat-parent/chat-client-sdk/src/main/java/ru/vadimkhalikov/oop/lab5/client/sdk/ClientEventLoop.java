@@ -0,0 +1,145 @@
+package ru.vadimkhalikov.oop.lab5.client.sdk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Цикл событий клиента: один поток подключает, читает и дописывает множество соединений.
+ * Буфер чтения общий для всех соединений цикла, как в цикле событий сервера.
+ * <p>
+ * Ошибка селектора останавливает цикл: его соединения разрываются с этой ошибкой,
+ * а соединения, переданные циклу позже, разрываются сразу.
+ */
+final class ClientEventLoop implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(ClientEventLoop.class);
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<NioChatConnection> registrations = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private volatile boolean running = true;
+    // Ошибка, остановившая цикл, или null, если цикл остановлен штатно
+    private volatile IOException failure;
+
+    ClientEventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        // Цикл не должен держать JVM приложения, забывшего закрыть клиент
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Передает соединение циклу. Регистрация в селекторе выполняется в потоке цикла.
+     */
+    void register(NioChatConnection connection) {
+        registrations.add(connection);
+        if (running) {
+            selector.wakeup();
+        } else {
+            // Цикл мог уже разобрать очередь регистраций при остановке
+            stopAll();
+        }
+    }
+
+    void wakeup() {
+        selector.wakeup();
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                registerPending();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    process(key);
+                }
+            } catch (IOException e) {
+                log.error("Client event loop {} stopped: select failed", thread.getName(), e);
+                failure = e;
+                running = false;
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            stop((NioChatConnection) key.attachment());
+        }
+        stopAll();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // Цикл уже остановлен, закрыть селектор больше нечего
+        }
+    }
+
+    private void stopAll() {
+        NioChatConnection connection;
+        while ((connection = registrations.poll()) != null) {
+            stop(connection);
+        }
+    }
+
+    /**
+     * Закрывает соединение при штатной остановке цикла или разрывает его с ошибкой цикла:
+     * ожидающие будущие завершаются ошибкой, слушатель получает {@code onDisconnected}.
+     */
+    private void stop(NioChatConnection connection) {
+        IOException cause = failure;
+        if (cause == null) {
+            connection.close();
+        } else {
+            connection.disconnected(cause);
+        }
+    }
+
+    private void registerPending() {
+        NioChatConnection connection;
+        while ((connection = registrations.poll()) != null) {
+            connection.register(selector);
+        }
+    }
+
+    private void process(SelectionKey key) {
+        NioChatConnection connection = (NioChatConnection) key.attachment();
+        try {
+            if (key.isConnectable()) {
+                connection.handleConnect();
+                return;
+            }
+            if (key.isReadable()) {
+                connection.handleRead(readBuffer);
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.handleWrite();
+            }
+        } catch (CancelledKeyException e) {
+            connection.disconnected(e);
+        } catch (RuntimeException e) {
+            // Ошибка одного соединения не должна останавливать цикл, обслуживающий остальные
+            connection.disconnected(e);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package ru.vadimkhalikov.oop.lab5.client.sdk;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import ru.vadimkhalikov.oop.lab5.common.protocol.FrameDecoder;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrame;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+/**
+ * Неблокирующее соединение протокола с заголовком длины, обслуживаемое {@link ClientEventLoop}.
+ * Кадры из любых потоков ставятся в очередь, цикл записывает накопившиеся кадры одной сборной записью.
+ */
+final class NioChatConnection extends ChatConnection {
+
+    // Сколько кадров записывается одним вызовом
+    private static final int MAX_GATHER = 64;
+
+    private final ClientEventLoop loop;
+    private final FrameDecoder decoder;
+    private final CompletableFuture<ChatConnection> connected = new CompletableFuture<>();
+    private final Object writeLock = new Object();
+    // Кадры, ждущие записи; голова может быть записана частично. Доступ под writeLock
+    private final Queue<PendingWrite> outbound = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private SocketChannel channel;
+    private volatile SelectionKey key;
+
+    NioChatConnection(ProtocolType protocolType, ChatListener listener, Executor callbacks, ClientEventLoop loop) {
+        super(protocolType, listener, callbacks);
+        this.loop = loop;
+        this.decoder = new FrameDecoder(protocol, protocolType);
+    }
+
+    @Override
+    CompletableFuture<ChatConnection> open(InetSocketAddress address) {
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.connect(address);
+            loop.register(this);
+        } catch (IOException e) {
+            close();
+            failLater(connected, e);
+        }
+        return connected;
+    }
+
+    /**
+     * Регистрирует канал в селекторе цикла. Вызывается в потоке цикла.
+     */
+    void register(Selector selector) {
+        if (!isOpen()) {
+            return;
+        }
+        try {
+            synchronized (writeLock) {
+                key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+            }
+            if (!channel.isConnectionPending()) {
+                handleConnect();
+            }
+        } catch (IOException e) {
+            failConnect(e);
+        }
+    }
+
+    void handleConnect() {
+        try {
+            if (channel.isConnectionPending() && !channel.finishConnect()) {
+                return;
+            }
+            synchronized (writeLock) {
+                key.interestOps(outbound.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+            completeLater(connected, this);
+        } catch (IOException | CancelledKeyException e) {
+            failConnect(e);
+        }
+    }
+
+    void handleRead(ByteBuffer buffer) {
+        buffer.clear();
+        try {
+            int read = channel.read(buffer);
+            if (read < 0) {
+                disconnected(null);
+                return;
+            }
+            buffer.flip();
+            decoder.decode(buffer, (message, length, decodeNanos) -> received(message));
+        } catch (IOException | ClassNotFoundException e) {
+            disconnected(e);
+        }
+    }
+
+    void handleWrite() {
+        try {
+            synchronized (writeLock) {
+                writePending();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            disconnected(e);
+        }
+    }
+
+    @Override
+    void writeFrame(MessageFrame frame, CompletableFuture<Void> written) {
+        synchronized (writeLock) {
+            outbound.add(new PendingWrite(frame.asByteBuffer(), written));
+            SelectionKey currentKey = key;
+            // До подключения ключ ждет OP_CONNECT; очередь начнет писать handleConnect
+            if (currentKey != null && (currentKey.interestOps() & SelectionKey.OP_CONNECT) == 0) {
+                try {
+                    currentKey.interestOpsOr(SelectionKey.OP_WRITE);
+                    loop.wakeup();
+                } catch (CancelledKeyException e) {
+                    failLater(written, new ClosedChannelException());
+                }
+            }
+        }
+    }
+
+    @Override
+    void closeChannel() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            // Соединение закрывается, ошибка закрытия ничего не меняет
+        }
+        synchronized (writeLock) {
+            PendingWrite pending;
+            while ((pending = outbound.poll()) != null) {
+                failLater(pending.written, new ClosedChannelException());
+            }
+        }
+        if (!connected.isDone()) {
+            failLater(connected, new ClosedChannelException());
+        }
+    }
+
+    /**
+     * Пишет очередь, пока сокет принимает данные. Вызывается под writeLock.
+     */
+    private void writePending() throws IOException {
+        while (!outbound.isEmpty()) {
+            int count = 0;
+            for (PendingWrite pending : outbound) {
+                gather[count++] = pending.buffer;
+                if (count == MAX_GATHER) {
+                    break;
+                }
+            }
+            ByteBuffer last = gather[count - 1];
+            channel.write(gather, 0, count);
+            Arrays.fill(gather, 0, count, null);
+            PendingWrite head;
+            while ((head = outbound.peek()) != null && !head.buffer.hasRemaining()) {
+                outbound.poll();
+                completeLater(head.written, null);
+            }
+            if (last.hasRemaining()) {
+                // Буфер отправки сокета заполнен, остаток допишется по OP_WRITE
+                return;
+            }
+        }
+        key.interestOpsAnd(~SelectionKey.OP_WRITE);
+    }
+
+    private void failConnect(Exception cause) {
+        failLater(connected, cause);
+        close();
+    }
+
+    private static final class PendingWrite {
+
+        final ByteBuffer buffer;
+        final CompletableFuture<Void> written;
+
+        PendingWrite(ByteBuffer buffer, CompletableFuture<Void> written) {
+            this.buffer = buffer;
+            this.written = written;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package ru.vadimkhalikov.oop.lab5.client.sdk;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+
+/**
+ * Запросы соединения, ждущие ответа. Каждый запрос получает номер, и сервер повторяет его в ответе,
+ * поэтому ответ находит свой запрос даже среди запросов того же вида, отправленных подряд.
+ * Сообщение ответного типа без номера сервер прислал сам, а не в ответ на запрос
+ * (например, полный список пользователей после входа или при восстановлении списка):
+ * такое сообщение не завершает ожидающий запрос.
+ * <p>
+ * Сервер, который не повторяет номера, узнается по первому ответу без номера. Тогда ответ относится
+ * к самому старому ожидающему запросу своего вида: сервер обрабатывает сообщения одного соединения
+ * по очереди и отвечает в том же порядке. Ответ на вход в комнату в этом случае сопоставляется
+ * по имени комнаты. Присланное без запроса сообщение такому серверу неотличимо от ответа,
+ * поэтому с ним не стоит отправлять подряд несколько запросов одного вида.
+ */
+final class PendingRequests {
+
+    private final Map<Message.MessageType, Deque<Pending>> byRequest = new EnumMap<>(Message.MessageType.class);
+    private final Map<Long, Pending> byId = new HashMap<>();
+    // Повторяет ли сервер номера запросов; null, пока не пришел первый ответ
+    private Boolean serverEchoesIds;
+
+    /**
+     * @return true, если сервер отвечает на сообщение этого типа отдельным ответом
+     */
+    static boolean expectsResponse(Message.MessageType type) {
+        return type == Message.MessageType.LOGIN_REQUEST
+            || type == Message.MessageType.USER_LIST_REQUEST
+            || type == Message.MessageType.HISTORY_REQUEST
+            || type == Message.MessageType.ROOM_JOIN_REQUEST;
+    }
+
+    /**
+     * @param request запрос с номером ({@link Message#getRequestId()})
+     */
+    synchronized void add(Message request, CompletableFuture<Message> response) {
+        Pending pending = new Pending(request, response);
+        byRequest.computeIfAbsent(request.getType(), type -> new ArrayDeque<>()).add(pending);
+        if (request.getRequestId() != null) {
+            byId.put(request.getRequestId(), pending);
+        }
+    }
+
+    /**
+     * Убирает запрос, на который пришел ответ.
+     *
+     * @return ожидающий ответа запрос или null, если ответ пришел без запроса
+     */
+    synchronized CompletableFuture<Message> take(Message response) {
+        Message.MessageType requestType = requestFor(response.getType());
+        if (requestType == null) {
+            return null;
+        }
+        if (serverEchoesIds == null) {
+            serverEchoesIds = response.getRequestId() != null;
+        }
+        if (serverEchoesIds) {
+            Pending pending = response.getRequestId() != null ? byId.remove(response.getRequestId()) : null;
+            if (pending == null) {
+                return null;
+            }
+            byRequest.get(pending.request.getType()).remove(pending);
+            return pending.response;
+        }
+        Deque<Pending> queue = byRequest.get(requestType);
+        if (queue == null || queue.isEmpty()) {
+            return null;
+        }
+        Pending answered = queue.peek();
+        if (requestType == Message.MessageType.ROOM_JOIN_REQUEST && response.getRoom() != null) {
+            for (Pending pending : queue) {
+                if (response.getRoom().equalsIgnoreCase(pending.request.getRoom())) {
+                    answered = pending;
+                    break;
+                }
+            }
+        }
+        queue.remove(answered);
+        byId.remove(answered.request.getRequestId());
+        return answered.response;
+    }
+
+    /**
+     * @return все ожидающие ответа запросы; очередь ожидания пустеет
+     */
+    synchronized List<CompletableFuture<Message>> drain() {
+        List<CompletableFuture<Message>> drained = new ArrayList<>();
+        for (Deque<Pending> queue : byRequest.values()) {
+            for (Pending pending : queue) {
+                drained.add(pending.response);
+            }
+            queue.clear();
+        }
+        byId.clear();
+        return drained;
+    }
+
+    /**
+     * @return тип запроса, на который отвечает сообщение, или null, если сообщение - не ответ
+     */
+    private static Message.MessageType requestFor(Message.MessageType responseType) {
+        switch (responseType) {
+            case LOGIN_SUCCESS:
+            case LOGIN_FAILURE:
+                return Message.MessageType.LOGIN_REQUEST;
+            case USER_LIST_RESPONSE:
+                return Message.MessageType.USER_LIST_REQUEST;
+            case HISTORY_PAGE:
+                return Message.MessageType.HISTORY_REQUEST;
+            case ROOM_JOIN_SUCCESS:
+            case ROOM_JOIN_FAILURE:
+                return Message.MessageType.ROOM_JOIN_REQUEST;
+            default:
+                return null;
+        }
+    }
+
+    private static final class Pending {
+
+        final Message request;
+        final CompletableFuture<Message> response;
+
+        Pending(Message request, CompletableFuture<Message> response) {
+            this.request = request;
+            this.response = response;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package ru.vadimkhalikov.oop.lab5.client.sdk;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+
+/**
+ * Сервер отказал в запросе: LOGIN_FAILURE или ROOM_JOIN_FAILURE. Причина отказа - в тексте исключения.
+ */
+public class RequestFailedException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Message response;
+
+    public RequestFailedException(Message response) {
+        super(response.getContent());
+        this.response = response;
+    }
+
+    /**
+     * @return ответ сервера с отказом
+     */
+    public Message getResponse() {
+        return response;
+    }
+}
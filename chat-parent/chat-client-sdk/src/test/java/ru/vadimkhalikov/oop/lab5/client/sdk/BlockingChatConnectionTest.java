@@ -0,0 +1,95 @@
+package ru.vadimkhalikov.oop.lab5.client.sdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.JavaSerializationProtocol;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+public class BlockingChatConnectionTest {
+
+    private ServerSocket server;
+    private ChatClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        client = new ChatClient();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void writesMessagesInOrder() throws Exception {
+        ChatConnection connection = connect();
+        List<CompletableFuture<Void>> written = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            written.add(connection.sendChat(null, "m" + i));
+        }
+
+        try (Socket accepted = server.accept()) {
+            InputStream in = accepted.getInputStream();
+            JavaSerializationProtocol protocol = new JavaSerializationProtocol();
+            for (int i = 0; i < 3; i++) {
+                assertEquals("m" + i, protocol.receiveMessage(in).getContent());
+            }
+        }
+        CompletableFuture.allOf(written.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void sendDoesNotWaitForServerThatStoppedReading() throws Exception {
+        ChatConnection connection = connect();
+        char[] chars = new char[64 * 1024];
+        Arrays.fill(chars, 'x');
+        String payload = new String(chars);
+
+        try (Socket accepted = server.accept()) {
+            // Сервер не читает: буферы сокета заполнятся задолго до конца отправки
+            List<CompletableFuture<Void>> written = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < 200; i++) {
+                written.add(connection.sendChat(null, payload));
+            }
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("send blocked for " + elapsedMs + " ms", elapsedMs < 5_000);
+            CompletableFuture<Void> last = written.get(written.size() - 1);
+            assertFalse(last.isDone());
+
+            connection.close();
+            try {
+                last.join();
+            } catch (CompletionException e) {
+                // Незаписанный кадр завершается ошибкой при закрытии
+                return;
+            }
+            throw new AssertionError("Unwritten frame completed normally");
+        }
+    }
+
+    private ChatConnection connect() throws Exception {
+        return client.connect(server.getInetAddress().getHostAddress(), server.getLocalPort(), ProtocolType.JAVA,
+                (connection, message) -> { }).get(5, TimeUnit.SECONDS);
+    }
+}
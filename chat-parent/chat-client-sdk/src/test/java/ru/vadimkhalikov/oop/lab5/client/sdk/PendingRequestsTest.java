@@ -0,0 +1,140 @@
+package ru.vadimkhalikov.oop.lab5.client.sdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+
+public class PendingRequestsTest {
+
+    @Test
+    public void answersOldestRequestOfItsKind() {
+        PendingRequests pending = new PendingRequests();
+        CompletableFuture<Message> firstHistory = new CompletableFuture<>();
+        CompletableFuture<Message> users = new CompletableFuture<>();
+        CompletableFuture<Message> secondHistory = new CompletableFuture<>();
+        pending.add(new Message(Message.MessageType.HISTORY_REQUEST), firstHistory);
+        pending.add(new Message(Message.MessageType.USER_LIST_REQUEST), users);
+        pending.add(new Message(Message.MessageType.HISTORY_REQUEST), secondHistory);
+
+        assertSame(firstHistory, pending.take(new Message(Message.MessageType.HISTORY_PAGE)));
+        assertSame(users, pending.take(new Message(Message.MessageType.USER_LIST_RESPONSE)));
+        assertSame(secondHistory, pending.take(new Message(Message.MessageType.HISTORY_PAGE)));
+        assertNull(pending.take(new Message(Message.MessageType.HISTORY_PAGE)));
+    }
+
+    @Test
+    public void answersRequestWithEchoedId() {
+        PendingRequests pending = new PendingRequests();
+        CompletableFuture<Message> first = new CompletableFuture<>();
+        CompletableFuture<Message> second = new CompletableFuture<>();
+        pending.add(withId(new Message(Message.MessageType.USER_LIST_REQUEST), 1), first);
+        pending.add(withId(new Message(Message.MessageType.USER_LIST_REQUEST), 2), second);
+
+        assertSame(second, pending.take(withId(new Message(Message.MessageType.USER_LIST_RESPONSE), 2)));
+        assertSame(first, pending.take(withId(new Message(Message.MessageType.USER_LIST_RESPONSE), 1)));
+    }
+
+    @Test
+    public void responseWithoutIdIsUnsolicitedOnceServerEchoesIds() {
+        PendingRequests pending = new PendingRequests();
+        CompletableFuture<Message> login = new CompletableFuture<>();
+        CompletableFuture<Message> users = new CompletableFuture<>();
+        CompletableFuture<Message> general = new CompletableFuture<>();
+        pending.add(withId(new Message(Message.MessageType.LOGIN_REQUEST, "alice", null), 1), login);
+        assertSame(login, pending.take(withId(new Message(Message.MessageType.LOGIN_SUCCESS), 1)));
+        pending.add(withId(new Message(Message.MessageType.USER_LIST_REQUEST), 2), users);
+        pending.add(withId(join(null), 3), general);
+
+        // Полный список, присланный сервером после входа, - не ответ на запрос списка
+        assertNull(pending.take(new Message(Message.MessageType.USER_LIST_RESPONSE)));
+        assertSame(general, pending.take(withId(joinResult(Message.MessageType.ROOM_JOIN_SUCCESS, null), 3)));
+        assertSame(users, pending.take(withId(new Message(Message.MessageType.USER_LIST_RESPONSE), 2)));
+        assertTrue(pending.drain().isEmpty());
+    }
+
+    @Test
+    public void loginFailureAnswersLoginRequest() {
+        PendingRequests pending = new PendingRequests();
+        CompletableFuture<Message> login = new CompletableFuture<>();
+        pending.add(new Message(Message.MessageType.LOGIN_REQUEST, "alice", null), login);
+
+        assertSame(login, pending.take(new Message(Message.MessageType.LOGIN_FAILURE, "taken")));
+    }
+
+    @Test
+    public void roomJoinIsMatchedByRoomName() {
+        PendingRequests pending = new PendingRequests();
+        CompletableFuture<Message> dev = new CompletableFuture<>();
+        CompletableFuture<Message> ops = new CompletableFuture<>();
+        pending.add(join("dev"), dev);
+        pending.add(join("ops"), ops);
+
+        // Ответы на входы в разные комнаты могут прийти не в порядке запросов
+        assertSame(ops, pending.take(joinResult(Message.MessageType.ROOM_JOIN_FAILURE, "OPS")));
+        assertSame(dev, pending.take(joinResult(Message.MessageType.ROOM_JOIN_SUCCESS, "dev")));
+    }
+
+    @Test
+    public void roomJoinWithoutRoomAnswersOldestJoin() {
+        PendingRequests pending = new PendingRequests();
+        CompletableFuture<Message> dev = new CompletableFuture<>();
+        CompletableFuture<Message> ops = new CompletableFuture<>();
+        pending.add(join("dev"), dev);
+        pending.add(join("ops"), ops);
+
+        assertSame(dev, pending.take(joinResult(Message.MessageType.ROOM_JOIN_FAILURE, null)));
+    }
+
+    @Test
+    public void unsolicitedMessagesAreNotResponses() {
+        PendingRequests pending = new PendingRequests();
+        CompletableFuture<Message> users = new CompletableFuture<>();
+        pending.add(new Message(Message.MessageType.USER_LIST_REQUEST), users);
+
+        assertNull(pending.take(new Message(Message.MessageType.USER_MESSAGE, "alice", "hi")));
+        assertNull(pending.take(new Message(Message.MessageType.HISTORY_PAGE)));
+        assertSame(users, pending.take(new Message(Message.MessageType.USER_LIST_RESPONSE)));
+    }
+
+    @Test
+    public void drainReturnsEveryWaitingRequest() {
+        PendingRequests pending = new PendingRequests();
+        pending.add(new Message(Message.MessageType.HISTORY_REQUEST), new CompletableFuture<>());
+        pending.add(join("dev"), new CompletableFuture<>());
+
+        assertEquals(2, pending.drain().size());
+        assertTrue(pending.drain().isEmpty());
+    }
+
+    @Test
+    public void onlyRequestsWithResponsesAreAwaited() {
+        assertTrue(PendingRequests.expectsResponse(Message.MessageType.ROOM_JOIN_REQUEST));
+        assertFalse(PendingRequests.expectsResponse(Message.MessageType.ROOM_LEAVE_REQUEST));
+        assertFalse(PendingRequests.expectsResponse(Message.MessageType.USER_MESSAGE));
+    }
+
+    private static Message withId(Message message, long requestId) {
+        message.setRequestId(requestId);
+        return message;
+    }
+
+    private static Message join(String room) {
+        Message request = new Message(Message.MessageType.ROOM_JOIN_REQUEST);
+        request.setRoom(room);
+        return request;
+    }
+
+    private static Message joinResult(Message.MessageType type, String room) {
+        Message result = new Message(type);
+        result.setRoom(room);
+        return result;
+    }
+}
@@ -8,6 +8,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.Consumer;
 
@@ -42,6 +43,7 @@ public class ChatWindow extends JFrame {
     private JButton refreshUserListButton;
     private JButton logoutButton;
     private JButton reconnectButton;
+    private JButton loadEarlierButton;
     private JLabel statusLabel;
     private JLabel connectionStatusIcon;
 
@@ -54,6 +56,16 @@ public class ChatWindow extends JFrame {
 
     private DefaultListModel<Message> chatModel;
     
+    private static final int HISTORY_PAGE_SIZE = 50;
+    // Курсор для подгрузки истории: номер, до которого запрашивать более ранние сообщения
+    private Long historyCursor;
+    private boolean historyExhausted;
+    // Версия показанного списка пользователей; -1 - полный список еще не получен
+    private long userListVersion = -1;
+    private boolean userListRequested;
+    // Комната, в которую уходят сообщения; null - общая комната
+    private String currentRoom;
+    
     // Базовые иконки
     private final ImageIcon onlineIcon = createCircleIcon(12, new Color(80, 200, 120));
     private final ImageIcon offlineIcon = createCircleIcon(12, new Color(220, 80, 80));
@@ -107,6 +119,8 @@ public class ChatWindow extends JFrame {
         reconnectButton.setIcon(createIconFromEmoji("⟲"));
         reconnectButton.setEnabled(false);
         
+        loadEarlierButton = new JButton("Загрузить ранние сообщения");
+        
         connectionStatusIcon = new JLabel(offlineIcon);
         statusLabel = new JLabel("Инициализация...", JLabel.LEFT);
         statusLabel.setForeground(Color.GRAY);
@@ -160,7 +174,10 @@ public class ChatWindow extends JFrame {
         // Основная панель чата
         JPanel chatPanel = new JPanel(new BorderLayout(0, 0));
         chatPanel.setBackground(new Color(50, 50, 55));
-        chatPanel.add(statusPanel, BorderLayout.NORTH);
+        JPanel topPanel = new JPanel(new BorderLayout(0, 0));
+        topPanel.add(statusPanel, BorderLayout.NORTH);
+        topPanel.add(loadEarlierButton, BorderLayout.SOUTH);
+        chatPanel.add(topPanel, BorderLayout.NORTH);
         
         JScrollPane chatScroll = new JScrollPane(chatArea);
         chatScroll.setBackground(new Color(45, 45, 50));
@@ -213,6 +230,8 @@ public class ChatWindow extends JFrame {
 
         refreshUserListButton.addActionListener(e -> userListRequester.run());
 
+        loadEarlierButton.addActionListener(e -> requestEarlierHistory());
+
         logoutButton.addActionListener(e -> handleLogout());
 
         reconnectButton.addActionListener(e -> {
@@ -231,9 +250,14 @@ public class ChatWindow extends JFrame {
 
     private void sendMessage() {
         String text = messageInput.getText().trim();
-        if (!text.isEmpty()) {
+        if (text.startsWith("/join ") || text.equals("/leave")) {
+            sendRoomCommand(text);
+            messageInput.setText("");
+        } else if (!text.isEmpty()) {
             Message serverMsg = new Message(Message.MessageType.USER_MESSAGE, text);
+            serverMsg.setRoom(currentRoom);
             Message displayMsg = new Message(serverMsg.getType(), "You", serverMsg.getContent()); 
+            displayMsg.setRoom(currentRoom);
             displayMessage(displayMsg);
             
             messageSender.accept(serverMsg);
@@ -242,6 +266,60 @@ public class ChatWindow extends JFrame {
         messageInput.requestFocusInWindow(); 
     }
 
+    /**
+     * Команды комнат: {@code /join имя} входит в комнату и переключает на нее ввод,
+     * {@code /leave} выходит из текущей комнаты и возвращает ввод в общую.
+     */
+    private void sendRoomCommand(String command) {
+        if (command.equals("/leave")) {
+            if (currentRoom == null) {
+                displayMessage(new Message(Message.MessageType.SERVER_MESSAGE, "Из общей комнаты выйти нельзя"));
+                return;
+            }
+            Message request = new Message(Message.MessageType.ROOM_LEAVE_REQUEST);
+            request.setRoom(currentRoom);
+            messageSender.accept(request);
+            displayMessage(new Message(Message.MessageType.SERVER_MESSAGE, "Вы покинули комнату #" + currentRoom));
+            currentRoom = null;
+            updateRoomTitle();
+            return;
+        }
+        Message request = new Message(Message.MessageType.ROOM_JOIN_REQUEST);
+        request.setRoom(command.substring("/join ".length()).trim());
+        messageSender.accept(request);
+    }
+
+    /**
+     * Переключает ввод на комнату, в которую выполнен вход (ROOM_JOIN_SUCCESS).
+     */
+    public void roomJoined(Message success) {
+        currentRoom = success.getRoom();
+        updateRoomTitle();
+        List<String> members = success.getUserList() != null ? success.getUserList() : Collections.emptyList();
+        displayMessage(new Message(Message.MessageType.SERVER_MESSAGE,
+            "Вы в комнате " + (currentRoom != null ? "#" + currentRoom : "общей") + ". Участники: " + String.join(", ", members)));
+    }
+
+    public void roomJoinFailed(Message failure) {
+        displayMessage(new Message(Message.MessageType.SERVER_MESSAGE,
+            "Не удалось войти в комнату #" + failure.getRoom() + ": " + failure.getContent()));
+    }
+
+    private void updateRoomTitle() {
+        setTitle(currentRoom != null ? "Чат - #" + currentRoom : "Чат");
+    }
+
+    private void requestEarlierHistory() {
+        if (historyExhausted) {
+            return;
+        }
+        Message request = new Message(Message.MessageType.HISTORY_REQUEST);
+        request.setSequence(historyCursor);
+        request.setLimit(HISTORY_PAGE_SIZE);
+        loadEarlierButton.setEnabled(false);
+        messageSender.accept(request);
+    }
+
     private void handleLogout() {
         int choice = JOptionPane.showConfirmDialog(this,
                 "Вы уверены, что хотите выйти из приложения?",
@@ -258,6 +336,11 @@ public class ChatWindow extends JFrame {
         }
     
         SwingUtilities.invokeLater(() -> {
+            Long sequence = message.getSequence();
+            // Курсор подгрузки относится к общей комнате, у других комнат своя нумерация
+            if (sequence != null && message.getRoom() == null && (historyCursor == null || sequence < historyCursor)) {
+                historyCursor = sequence;
+            }
             chatModel.addElement(message);
             int lastIndex = chatModel.getSize() - 1;
             if (lastIndex >= 0) {
@@ -266,6 +349,36 @@ public class ChatWindow extends JFrame {
         });
     }
 
+    /**
+     * Добавляет страницу истории в начало чата. Сообщения, которые уже показаны,
+     * пропускаются.
+     */
+    public void displayHistoryPage(Message page) {
+        if (page.getRoom() != null) {
+            return;
+        }
+        SwingUtilities.invokeLater(() -> {
+            int index = 0;
+            if (page.getMessages() != null) {
+                for (Message message : page.getMessages()) {
+                    Long sequence = message.getSequence();
+                    if (sequence == null || historyCursor == null || sequence < historyCursor) {
+                        chatModel.add(index++, message);
+                    }
+                }
+            }
+            historyCursor = page.getSequence();
+            historyExhausted = historyCursor == null;
+            loadEarlierButton.setEnabled(!historyExhausted);
+            if (historyExhausted) {
+                loadEarlierButton.setText("Более ранних сообщений нет");
+            }
+            if (index > 0) {
+                chatArea.ensureIndexIsVisible(0);
+            }
+        });
+    }
+
     public void updateUserList(List<String> users) {
         userListModel.clear();
         for (String user : users) {
@@ -273,6 +386,57 @@ public class ChatWindow extends JFrame {
         }
     }
 
+    /**
+     * Применяет к списку пользователей полный список (USER_LIST_RESPONSE)
+     * или дельту (USER_LIST_DELTA). Если дельта относится не к показанной версии,
+     * запрашивает полный список.
+     */
+    public void updateUserList(Message message) {
+        if (message.getType() == Message.MessageType.USER_LIST_RESPONSE) {
+            updateUserList(message.getUserList() != null ? message.getUserList() : Collections.emptyList());
+            userListVersion = message.getListVersion() != null ? message.getListVersion() : -1;
+            userListRequested = false;
+            return;
+        }
+        if (userListVersion < 0 || message.getListVersion() <= userListVersion) {
+            // Полный список еще в пути или дельта уже учтена в нем
+            return;
+        }
+        if (message.getBaseVersion() != userListVersion) {
+            if (!userListRequested) {
+                userListRequested = true;
+                userListRequester.run();
+            }
+            return;
+        }
+        if (message.getRemovedUsers() != null) {
+            for (String user : message.getRemovedUsers()) {
+                userListModel.removeElement(user);
+            }
+        }
+        if (message.getUserList() != null) {
+            for (String user : message.getUserList()) {
+                insertUser(user);
+            }
+        }
+        userListVersion = message.getListVersion();
+    }
+
+    private void insertUser(String user) {
+        int index = 0;
+        while (index < userListModel.getSize()) {
+            int order = String.CASE_INSENSITIVE_ORDER.compare(userListModel.get(index), user);
+            if (order == 0) {
+                return;
+            }
+            if (order > 0) {
+                break;
+            }
+            index++;
+        }
+        userListModel.add(index, user);
+    }
+
     public void updateConnectionStatus(String status, boolean isConnected) {
         statusLabel.setText(status);
         
@@ -292,6 +456,7 @@ public class ChatWindow extends JFrame {
         messageInput.setEnabled(isConnected);
         sendButton.setEnabled(isConnected);
         reconnectButton.setEnabled(!isConnected);
+        loadEarlierButton.setEnabled(isConnected && !historyExhausted);
     }
     
     // Создает иконку из эмодзи
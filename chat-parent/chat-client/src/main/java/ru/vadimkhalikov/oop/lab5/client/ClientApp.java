@@ -1,39 +1,36 @@
 package ru.vadimkhalikov.oop.lab5.client;
 
 import java.awt.Component;
-import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
-import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
-import javax.swing.SwingWorker;
 import javax.swing.UIManager;
 
 import com.formdev.flatlaf.FlatDarkLaf;
 
+import ru.vadimkhalikov.oop.lab5.client.sdk.ChatClient;
+import ru.vadimkhalikov.oop.lab5.client.sdk.ChatConnection;
+import ru.vadimkhalikov.oop.lab5.client.sdk.ChatListener;
+import ru.vadimkhalikov.oop.lab5.client.sdk.RequestFailedException;
 import ru.vadimkhalikov.oop.lab5.common.Message;
-import ru.vadimkhalikov.oop.lab5.common.protocol.MessageProtocol;
-import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolFactory;
 import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
 
 public class ClientApp {
 
     private String serverAddress;
     private int serverPort;
-    private Socket socket;
-    private OutputStream outputStream;
-    private InputStream inputStream;
-    private MessageProtocol protocol;
+    private ChatClient chatClient;
+    private volatile ChatConnection connection;
     private String username;
 
     private ChatWindow chatWindow;
@@ -126,62 +123,77 @@ public class ClientApp {
         }
 
         try {
-            connectToServer();
+            // Вызывается не из потока Swing (LoginDialog ждет в SwingWorker), поэтому можно ждать подключения
+            connectToServer().get();
             sendLoginRequest();
-            startServerListener(); 
             return true;
-        } catch (UnknownHostException e) {
-            showLoginError("Unknown server host: " + serverAddress);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UnknownHostException) {
+                showLoginError("Unknown server host: " + serverAddress);
+            } else {
+                showLoginError("Connection error: " + e.getCause().getMessage());
+            }
             updateStatus("Disconnected", false);
+            disconnect();
             return false;
         } catch (IOException e) {
             showLoginError("Connection error: " + e.getMessage());
             updateStatus("Disconnected", false);
-            disconnect(); 
+            disconnect();
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return false;
         }
     }
 
-    private void connectToServer() throws IOException {
-        socket = new Socket(serverAddress, serverPort);
-        outputStream = socket.getOutputStream();
-        inputStream = socket.getInputStream();
-        protocol = ProtocolFactory.createProtocol(protocolType);
-        connected.set(true);
-        System.out.println("Connected to server: " + serverAddress + ":" + serverPort);
+    /**
+     * Подключается к серверу. Сообщения сервера и результаты запросов приходят в потоке Swing.
+     */
+    private CompletableFuture<ChatConnection> connectToServer() throws IOException {
+        if (chatClient == null) {
+            chatClient = new ChatClient();
+        }
+        return chatClient.connect(serverAddress, serverPort, protocolType, new ServerListener(), SwingUtilities::invokeLater)
+            .thenApply(newConnection -> {
+                connection = newConnection;
+                connected.set(true);
+                System.out.println("Connected to server: " + serverAddress + ":" + serverPort);
+                return newConnection;
+            });
     }
 
-    private void sendLoginRequest() throws IOException {
-        Message loginMsg = new Message(Message.MessageType.LOGIN_REQUEST, username);
-        sendMessageInternal(loginMsg);
+    private void sendLoginRequest() {
+        connection.login(username).whenComplete((success, error) -> {
+            if (error == null) {
+                onLoginSuccess();
+            } else if (unwrap(error) instanceof RequestFailedException) {
+                onLoginFailure(unwrap(error).getMessage());
+            }
+            // Остальные ошибки - разрыв соединения, о нем сообщает ServerListener
+        });
     }
 
-    private void startServerListener() {
-        new Thread(() -> {
-            try {
-                while (connected.get() && socket != null && !socket.isClosed() && socket.isConnected()) {
-                    Message serverMessage = protocol.receiveMessage(inputStream);
-                    handleServerMessage(serverMessage);
-                }
-            } catch (SocketException | EOFException e) {
-                 if (!explicitLogout) {
-                    System.err.println("Connection lost: " + e.getMessage());
-                    handleConnectionLoss();
-                 }
-            } catch (IOException | ClassNotFoundException e) {
-                 if (!explicitLogout) { 
-                     System.err.println("Error reading from server: " + e.getMessage());
-                     handleConnectionLoss();
-                 }
-            } finally {
-                if (!explicitLogout && !connected.get()) { 
-                     updateStatus("Disconnected", false);
-                }
-                System.out.println("ServerListenerThread finished.");
-            }
-        }, "ServerListenerThread").start();
+    private void onLoginSuccess() {
+        System.out.println("Login successful!");
+        connected.set(true);
+        if (loginDialog != null) {
+            loginDialog.dispose();
+        }
+        if (chatWindow == null) {
+            openChatWindow();
+        } else {
+            updateStatus("Connected", true);
+        }
+        // Полный список пользователей сервер присылает сам сразу после входа
     }
-    
+
+    private void onLoginFailure(String reason) {
+        showLoginError("Login failed: " + reason);
+        updateStatus("Login failed", false);
+        disconnect();
+    }
+
     private void handleConnectionLoss() {
         if (connected.compareAndSet(true, false)) {
             System.out.println("Handling connection loss...");
@@ -190,45 +202,67 @@ public class ClientApp {
         }
     }
 
-    private void handleServerMessage(Message message) {
-        SwingUtilities.invokeLater(() -> { 
-            switch (message.getType()) {
-                case LOGIN_SUCCESS:
-                    System.out.println("Login successful!");
-                    connected.set(true);
-                    if (loginDialog != null) {
-                        loginDialog.dispose(); 
-                    }
-                    if (chatWindow == null) {
-                       openChatWindow();
-                    } else {
-                        updateStatus("Connected", true);
-                    }
-                    requestUserList();
-                    break;
-                case LOGIN_FAILURE:
-                    showLoginError("Login failed: " + message.getContent());
-                    updateStatus("Login failed", false);
-                    disconnect();
-                    break;
-                case USER_MESSAGE:
-                case SERVER_MESSAGE:
-                case USER_JOINED:
-                case USER_LEFT:
-                    if (chatWindow != null) {
-                        chatWindow.displayMessage(message);
-                    }
-                    break;
-                case USER_LIST_RESPONSE:
-                    if (chatWindow != null) {
-                        chatWindow.updateUserList(message.getUserList());
-                    }
-                    break;
-                default:
-                    System.out.println("Received unknown message type: " + message.getType());
-                    break;
+    /**
+     * Сообщения сервера, не ставшие ответами на запросы; вызывается в потоке Swing.
+     */
+    private final class ServerListener implements ChatListener {
+
+        @Override
+        public void onMessage(ChatConnection source, Message message) {
+            if (source == connection) {
+                handleServerMessage(message);
             }
-        });
+        }
+
+        @Override
+        public void onDisconnected(ChatConnection source, Throwable cause) {
+            if (source != connection || explicitLogout) {
+                return;
+            }
+            System.err.println("Connection lost: " + (cause != null ? cause.getMessage() : "closed by server"));
+            handleConnectionLoss();
+        }
+    }
+
+    private void handleServerMessage(Message message) {
+        switch (message.getType()) {
+            case LOGIN_FAILURE:
+                // Сервер отклонил соединение еще до ответа на вход (например, превышен предел соединений)
+                onLoginFailure(message.getContent());
+                break;
+            case USER_MESSAGE:
+            case SERVER_MESSAGE:
+            case USER_JOINED:
+            case USER_LEFT:
+                if (chatWindow != null) {
+                    chatWindow.displayMessage(message);
+                }
+                break;
+            case USER_LIST_RESPONSE:
+            case USER_LIST_DELTA:
+                if (chatWindow != null) {
+                    chatWindow.updateUserList(message);
+                }
+                break;
+            case HISTORY_PAGE:
+                if (chatWindow != null) {
+                    chatWindow.displayHistoryPage(message);
+                }
+                break;
+            case ROOM_JOIN_SUCCESS:
+                if (chatWindow != null) {
+                    chatWindow.roomJoined(message);
+                }
+                break;
+            case ROOM_JOIN_FAILURE:
+                if (chatWindow != null) {
+                    chatWindow.roomJoinFailed(message);
+                }
+                break;
+            default:
+                System.out.println("Received unknown message type: " + message.getType());
+                break;
+        }
     }
 
     private void openChatWindow() {
@@ -238,27 +272,14 @@ public class ClientApp {
     }
 
     public void sendMessage(Message message) {
-        if (!connected.get()) {
+        ChatConnection current = connection;
+        if (!connected.get() || current == null) {
              showError("Not connected to server.");
              return;
         }
-        try {
-            sendMessageInternal(message);
-        } catch (IOException e) {
-            System.err.println("Error sending message: " + e.getMessage());
-            handleConnectionLoss();
-        }
-    }
-
-    private void sendMessageInternal(Message message) throws IOException {
-        if (outputStream != null && socket != null && !socket.isClosed()) { 
-            message.setSender(this.username);
-            synchronized (outputStream) { 
-                protocol.sendMessage(message, outputStream);
-            }
-        } else {
-            throw new IOException("Output stream/socket is not available.");
-        }
+        message.setSender(this.username);
+        // Ошибка записи разрывает соединение, о разрыве сообщает ServerListener
+        current.send(message);
     }
 
     private void requestUserList() {
@@ -269,14 +290,24 @@ public class ClientApp {
 
     private void sendLogoutRequest() {
         explicitLogout = true;
-        if (connected.get()) {
-             try {
-                 sendMessageInternal(new Message(Message.MessageType.LOGOUT_REQUEST));
-             } catch (IOException e) {
-                 System.err.println("Could not send logout message: " + e.getMessage());
-             }
+        ChatConnection current = connection;
+        if (connected.get() && current != null) {
+             current.logout().whenComplete((ignored, error) -> {
+                 if (error != null) {
+                     System.err.println("Could not send logout message: " + error.getMessage());
+                 }
+                 exit();
+             });
+             return;
         }
+        exit();
+    }
+
+    private void exit() {
         disconnect();
+        if (chatClient != null) {
+            chatClient.close();
+        }
         // Полностью завершаем работу приложения
         System.exit(0);
     }
@@ -292,70 +323,36 @@ public class ClientApp {
         
         closeStreamsAndSocket(); 
 
-        new SwingWorker<Boolean, Void>() {
-            @Override
-            protected Boolean doInBackground() throws Exception {
-                 try {
-                     connectToServer();
-                     sendLoginRequest(); 
-                     startServerListener();
-                     return true;
-                 } catch (Exception e) {
-                     System.err.println("Reconnect failed: " + e.getMessage());
-                     closeStreamsAndSocket(); 
-                     return false;
-                 }
+        // Подключение и вход идут без блокировки потока Swing, результат приходит в нем же
+        CompletableFuture<ChatConnection> reconnecting;
+        try {
+            reconnecting = connectToServer();
+        } catch (IOException e) {
+            reconnecting = CompletableFuture.failedFuture(e);
+        }
+        reconnecting.whenComplete((newConnection, error) -> {
+            if (error == null) {
+                sendLoginRequest();
+                System.out.println("Reconnect attempt finished (waiting for LOGIN_SUCCESS).");
+                return;
             }
+            System.err.println("Reconnect failed: " + unwrap(error).getMessage());
+            closeStreamsAndSocket();
+            updateStatus("Reconnect failed. Click Reconnect.", false);
+        });
+    }
 
-            @Override
-            protected void done() {
-                 try {
-                     boolean success = get();
-                     if (!success) {
-                         updateStatus("Reconnect failed. Click Reconnect.", false);
-                     } else {
-                         System.out.println("Reconnect attempt finished (waiting for LOGIN_SUCCESS).");
-                     }
-                 } catch (Exception e) {
-                      System.err.println("Error during reconnect finalization: " + e.getMessage());
-                      closeStreamsAndSocket();
-                      updateStatus("Reconnect error. Click Reconnect.", false);
-                 }
-            }
-        }.execute();
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
     }
 
     private void closeStreamsAndSocket() {
          connected.set(false);
-         try {
-             if (protocol != null) {
-                 protocol.close();
-                 protocol = null;
-             }
-         } catch (IOException e) {
-             /* ignore */
+         ChatConnection current = connection;
+         connection = null;
+         if (current != null) {
+             current.close();
          }
-         
-         try {
-            if (inputStream != null) {
-                inputStream.close();
-                inputStream = null;
-            }
-         } catch (IOException e) { /* ignore */ }
-         
-         try {
-            if (outputStream != null) {
-                outputStream.close();
-                outputStream = null;
-            }
-         } catch (IOException e) { /* ignore */ }
-         
-         try {
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
-                socket = null;
-            }
-         } catch (IOException e) { /* ignore */ }
     }
 
     public void disconnect() {
@@ -175,7 +175,7 @@ public class MessageCellRenderer extends JPanel implements ListCellRenderer<Mess
                 return this;
                 
             case USER_MESSAGE:
-                senderLabel.setText(sender);
+                senderLabel.setText(message.getRoom() != null ? sender + " · #" + message.getRoom() : sender);
                 senderLabel.setForeground(isMyMessage ? MY_SENDER_COLOR : OTHER_SENDER_COLOR);
                 senderLabel.setVisible(!isMyMessage && !isGroupedMessage);
                 
@@ -223,9 +223,11 @@ public class MessageCellRenderer extends JPanel implements ListCellRenderer<Mess
     }
 
     private String getEventText(Message message, String time) {
+         String place = message.getRoom() != null ? "комнате #" + message.getRoom() : "чату";
          switch (message.getType()) {
-            case USER_JOINED: return String.format("→ %s присоединился к чату (%s)", message.getSender(), time);
-            case USER_LEFT: return String.format("← %s покинул чат (%s)", message.getSender(), time);
+            case USER_JOINED: return String.format("→ %s присоединился к %s (%s)", message.getSender(), place, time);
+            case USER_LEFT: return String.format("← %s покинул %s (%s)", message.getSender(),
+                message.getRoom() != null ? "комнату #" + message.getRoom() : "чат", time);
             case SERVER_MESSAGE: return String.format("⚙ %s (%s)", message.getContent(), time);
             default: return "";
          }
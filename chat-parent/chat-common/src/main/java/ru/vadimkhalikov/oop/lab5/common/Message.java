@@ -9,6 +9,22 @@ public class Message implements Serializable {
     private String sender;
     private String content;
     private java.util.List<String> userList;
+    // Порядковый номер сообщения в истории; в HISTORY_REQUEST и HISTORY_PAGE - курсор страницы
+    private Long sequence;
+    // Размер запрашиваемой страницы истории
+    private Integer limit;
+    // Сообщения страницы истории
+    private java.util.List<Message> messages;
+    // Версия списка пользователей в USER_LIST_RESPONSE и USER_LIST_DELTA
+    private Long listVersion;
+    // Версия списка, к которой применяется USER_LIST_DELTA
+    private Long baseVersion;
+    // Вышедшие пользователи в USER_LIST_DELTA; вошедшие передаются в userList
+    private java.util.List<String> removedUsers;
+    // Комната сообщения; null - общая комната, в которой состоят все пользователи
+    private String room;
+    // Номер запроса клиента; сервер повторяет его в ответе на запрос, у остальных сообщений null
+    private Long requestId;
 
     public enum MessageType {
         LOGIN_REQUEST,
@@ -20,7 +36,21 @@ public class Message implements Serializable {
         USER_LIST_RESPONSE,
         USER_JOINED,
         USER_LEFT,
-        LOGOUT_REQUEST
+        LOGOUT_REQUEST,
+        HISTORY_REQUEST,
+        HISTORY_PAGE,
+        USER_LIST_DELTA,
+        ROOM_JOIN_REQUEST,
+        ROOM_JOIN_SUCCESS,
+        ROOM_JOIN_FAILURE,
+        ROOM_LEAVE_REQUEST,
+        // Связь между узлами кластера: приветствие со списком пользователей узла (userList)
+        // и пачка пересылаемых сообщений (messages); отправитель - идентификатор узла
+        CLUSTER_HELLO,
+        CLUSTER_BATCH,
+        // Проверка простаивающего соединения: сервер присылает PING, клиент отвечает PONG
+        PING,
+        PONG
     }
 
     public Message() {
@@ -42,6 +72,24 @@ public class Message implements Serializable {
         this.content = content;
     }
 
+    /**
+     * Копия сообщения; списки не копируются и остаются общими с исходным сообщением.
+     */
+    public Message(Message other) {
+        this.type = other.type;
+        this.sender = other.sender;
+        this.content = other.content;
+        this.userList = other.userList;
+        this.sequence = other.sequence;
+        this.limit = other.limit;
+        this.messages = other.messages;
+        this.listVersion = other.listVersion;
+        this.baseVersion = other.baseVersion;
+        this.removedUsers = other.removedUsers;
+        this.room = other.room;
+        this.requestId = other.requestId;
+    }
+
     public MessageType getType() {
         return type;
     }
@@ -74,6 +122,70 @@ public class Message implements Serializable {
         this.userList = userList;
     }
 
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+
+    public java.util.List<Message> getMessages() {
+        return messages;
+    }
+
+    public void setMessages(java.util.List<Message> messages) {
+        this.messages = messages;
+    }
+
+    public Long getListVersion() {
+        return listVersion;
+    }
+
+    public void setListVersion(Long listVersion) {
+        this.listVersion = listVersion;
+    }
+
+    public Long getBaseVersion() {
+        return baseVersion;
+    }
+
+    public void setBaseVersion(Long baseVersion) {
+        this.baseVersion = baseVersion;
+    }
+
+    public java.util.List<String> getRemovedUsers() {
+        return removedUsers;
+    }
+
+    public void setRemovedUsers(java.util.List<String> removedUsers) {
+        this.removedUsers = removedUsers;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public void setRoom(String room) {
+        this.room = room;
+    }
+
+    public Long getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(Long requestId) {
+        this.requestId = requestId;
+    }
+
     @Override
     public String toString() {
         return "Message{" +
@@ -81,6 +193,8 @@ public class Message implements Serializable {
                ", sender='" + sender + '\'' +
                ", content='" + content + '\'' +
                ", userList=" + userList +
+               ", sequence=" + sequence +
+               ", room='" + room + '\'' +
                '}';
     }
 } 
\ No newline at end of file
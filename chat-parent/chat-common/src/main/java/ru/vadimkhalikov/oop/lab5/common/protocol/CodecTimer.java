@@ -0,0 +1,15 @@
+package ru.vadimkhalikov.oop.lab5.common.protocol;
+
+/**
+ * Получатель длительности кодирования или разбора кадров, например счетчики метрик сервера.
+ * Вызывается в потоке, который кодировал кадр, поэтому должен работать быстро и без блокировок.
+ */
+@FunctionalInterface
+public interface CodecTimer {
+
+    /**
+     * @param type протокол кадра
+     * @param nanos длительность операции в наносекундах
+     */
+    void record(ProtocolType type, long nanos);
+}
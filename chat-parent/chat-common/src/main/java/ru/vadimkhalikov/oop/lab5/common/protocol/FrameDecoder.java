@@ -0,0 +1,94 @@
+package ru.vadimkhalikov.oop.lab5.common.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+
+/**
+ * Неблокирующий разборщик сообщений для протоколов с 4-байтовым заголовком длины.
+ * Принимает данные произвольными порциями (как они приходят из {@code SocketChannel})
+ * и передает обработчику каждое сообщение, как только оно собрано полностью,
+ * вместе с размером его кадра и длительностью разбора.
+ * Неполное сообщение хранится внутри до прихода оставшихся байтов.
+ * Экземпляр не потокобезопасен и должен принадлежать одному соединению.
+ */
+public class FrameDecoder {
+
+    private static final int HEADER_LENGTH = 4;
+    private static final int MAX_FRAME_LENGTH = 1_000_000;
+
+    /**
+     * Получатель разобранных сообщений.
+     */
+    @FunctionalInterface
+    public interface Handler {
+
+        /**
+         * @param message разобранное сообщение
+         * @param length размер кадра сообщения в байтах, включая заголовок длины
+         * @param decodeNanos длительность разбора кадра
+         */
+        void onMessage(Message message, int length, long decodeNanos) throws IOException;
+    }
+
+    private final MessageProtocol protocol;
+    private final byte[] header = new byte[HEADER_LENGTH];
+    private int headerFill;
+    private byte[] frame;
+    private int frameFill;
+
+    /**
+     * @param protocol протокол, которым декодируется содержимое каждого сообщения
+     * @param protocolType тип протокола; должен использовать заголовок с длиной
+     */
+    public FrameDecoder(MessageProtocol protocol, ProtocolType protocolType) {
+        if (!protocolType.isLengthPrefixed()) {
+            throw new IllegalArgumentException("Protocol " + protocolType + " has no length-prefixed framing");
+        }
+        this.protocol = protocol;
+    }
+
+    /**
+     * Поглощает все доступные байты буфера.
+     *
+     * @param data очередная порция данных из соединения
+     * @param handler получатель сообщений, полностью собранных с учетом этой порции
+     * @throws IOException если длина сообщения некорректна, его не удалось разобрать
+     *                     или обработчик завершился ошибкой
+     * @throws ClassNotFoundException если класс сообщения не найден
+     */
+    public void decode(ByteBuffer data, Handler handler) throws IOException, ClassNotFoundException {
+        while (data.hasRemaining()) {
+            if (frame == null) {
+                int count = Math.min(HEADER_LENGTH - headerFill, data.remaining());
+                data.get(header, headerFill, count);
+                headerFill += count;
+                if (headerFill < HEADER_LENGTH) {
+                    break;
+                }
+                int length = ByteBuffer.wrap(header).getInt();
+                if (length <= 0 || length > MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid message length: " + length);
+                }
+                frame = new byte[HEADER_LENGTH + length];
+                System.arraycopy(header, 0, frame, 0, HEADER_LENGTH);
+                frameFill = HEADER_LENGTH;
+                headerFill = 0;
+            }
+
+            int count = Math.min(frame.length - frameFill, data.remaining());
+            data.get(frame, frameFill, count);
+            frameFill += count;
+            if (frameFill == frame.length) {
+                long start = System.nanoTime();
+                Message message = protocol.receiveMessage(new ByteArrayInputStream(frame));
+                long decodeNanos = System.nanoTime() - start;
+                int length = frame.length;
+                frame = null;
+                handler.onMessage(message, length, decodeNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package ru.vadimkhalikov.oop.lab5.common.protocol;
+
+import java.io.IOException;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+
+/**
+ * Кодировщики кадров для всех протоколов: по одному экземпляру {@link MessageProtocol} на протокол.
+ * Кодирование не зависит от состояния соединения, поэтому экземпляры общие для всех потоков.
+ */
+public final class FrameEncoders {
+
+    private final MessageProtocol[] encoders = new MessageProtocol[ProtocolType.values().length];
+    // null - длительность кодирования не измеряется
+    private final CodecTimer timer;
+
+    public FrameEncoders() {
+        this(null);
+    }
+
+    /**
+     * @param timer получатель длительности кодирования каждого кадра или null
+     */
+    public FrameEncoders(CodecTimer timer) {
+        this.timer = timer;
+        for (ProtocolType type : ProtocolType.values()) {
+            encoders[type.ordinal()] = ProtocolFactory.createProtocol(type);
+        }
+    }
+
+    /**
+     * Кодирует сообщение в кадр указанного протокола.
+     *
+     * @throws IOException при ошибке кодирования
+     */
+    public MessageFrame encode(Message message, ProtocolType type) throws IOException {
+        if (timer == null) {
+            return encoders[type.ordinal()].encode(message);
+        }
+        long start = System.nanoTime();
+        MessageFrame frame = encoders[type.ordinal()].encode(message);
+        timer.record(type, System.nanoTime() - start);
+        return frame;
+    }
+
+    /**
+     * @return набор кадров сообщения, кодируемых по мере надобности
+     */
+    public MessageFrames frames(Message message) {
+        return new MessageFrames(message, this);
+    }
+}
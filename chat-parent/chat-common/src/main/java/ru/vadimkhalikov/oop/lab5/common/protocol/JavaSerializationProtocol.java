@@ -1,57 +1,94 @@
 package ru.vadimkhalikov.oop.lab5.common.protocol;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
 import java.io.OutputStream;
 
 import ru.vadimkhalikov.oop.lab5.common.Message;
 
 /**
  * Реализация протокола, использующая стандартную сериализацию Java-объектов.
+ * <p>
+ * Каждый кадр начинается с маркера {@code TC_RESET}, поэтому не ссылается на объекты
+ * и описания классов из предыдущих кадров. Это позволяет закодировать сообщение один раз
+ * и дописать одни и те же байты в поток любого соединения. Заголовок потока
+ * ({@code STREAM_MAGIC}, {@code STREAM_VERSION}) пишется один раз на соединение.
  */
 public class JavaSerializationProtocol implements MessageProtocol {
-    
-    private ObjectOutputStream objectOut;
+
+    private static final byte[] STREAM_HEADER = {
+        (byte) (ObjectStreamConstants.STREAM_MAGIC >>> 8), (byte) ObjectStreamConstants.STREAM_MAGIC,
+        (byte) (ObjectStreamConstants.STREAM_VERSION >>> 8), (byte) ObjectStreamConstants.STREAM_VERSION
+    };
+
     private ObjectInputStream objectIn;
-    
+    private boolean headerWritten;
+
     @Override
     public void sendMessage(Message message, OutputStream out) throws IOException {
-        if (objectOut == null) {
-            objectOut = new ObjectOutputStream(out);
-        }
-        
-        synchronized (objectOut) {
+        writeFrame(encode(message), out);
+        out.flush();
+    }
+
+    @Override
+    public MessageFrame encode(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream objectOut = new FrameObjectOutputStream(bytes)) {
+            objectOut.reset();
             objectOut.writeObject(message);
-            objectOut.flush();
         }
+        return new MessageFrame(message.getType(), bytes.toByteArray());
+    }
+
+    @Override
+    public void writeFrame(MessageFrame frame, OutputStream out) throws IOException {
+        if (!headerWritten) {
+            out.write(STREAM_HEADER);
+            headerWritten = true;
+        }
+        frame.writeTo(out);
     }
-    
+
     @Override
     public Message receiveMessage(InputStream in) throws IOException, ClassNotFoundException {
         if (objectIn == null) {
             objectIn = new ObjectInputStream(in);
         }
-        
+
         return (Message) objectIn.readObject();
     }
-    
+
     @Override
     public String getProtocolName() {
         return "java-serialization";
     }
-    
+
     @Override
     public void close() throws IOException {
+        // Следующее соединение через этот же экземпляр начнется с нового заголовка потока
+        headerWritten = false;
         if (objectIn != null) {
             objectIn.close();
             objectIn = null;
         }
-        
-        if (objectOut != null) {
-            objectOut.close();
-            objectOut = null;
+    }
+
+    /**
+     * Поток сериализации без заголовка: заголовок пишется в соединение отдельно, один раз.
+     */
+    private static class FrameObjectOutputStream extends ObjectOutputStream {
+
+        FrameObjectOutputStream(OutputStream out) throws IOException {
+            super(out);
+        }
+
+        @Override
+        protected void writeStreamHeader() {
+            // Заголовок потока пишет writeFrame
         }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,53 @@
+package ru.vadimkhalikov.oop.lab5.common.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+
+/**
+ * Неизменяемое закодированное сообщение в формате конкретного протокола.
+ * Один и тот же кадр можно записывать в любое число соединений этого протокола,
+ * не кодируя сообщение заново для каждого получателя.
+ */
+public final class MessageFrame {
+
+    private final Message.MessageType type;
+    private final byte[] bytes;
+
+    /**
+     * @param type тип закодированного сообщения
+     * @param bytes байты кадра; массив передается во владение кадру и больше не должен изменяться
+     */
+    MessageFrame(Message.MessageType type, byte[] bytes) {
+        this.type = type;
+        this.bytes = bytes;
+    }
+
+    public Message.MessageType getType() {
+        return type;
+    }
+
+    /**
+     * @return размер кадра в байтах
+     */
+    public int length() {
+        return bytes.length;
+    }
+
+    /**
+     * Записывает кадр в поток целиком одним вызовом {@code write}.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes);
+    }
+
+    /**
+     * Возвращает отдельное представление кадра только для чтения со своей позицией,
+     * пригодное для неблокирующей записи в канал.
+     */
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,72 @@
+package ru.vadimkhalikov.oop.lab5.common.protocol;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+
+/**
+ * Кадры одного сообщения во всех протоколах, которыми говорят получатели.
+ * Кадр протокола кодируется при первом запросе и дальше отдается готовым,
+ * поэтому при рассылке сообщение кодируется не больше одного раза на протокол,
+ * а протоколы, которых нет среди получателей, не кодируются вовсе.
+ * Экземпляр потокобезопасен.
+ */
+public final class MessageFrames {
+
+    private final Message message;
+    private final FrameEncoders encoders;
+    private final AtomicReferenceArray<MessageFrame> frames = new AtomicReferenceArray<>(ProtocolType.values().length);
+    // Ошибки кодирования запоминаются, чтобы не кодировать заново для каждого получателя
+    private final IOException[] failures = new IOException[ProtocolType.values().length];
+    // Размер первого закодированного кадра; доступ под this
+    private int size;
+
+    MessageFrames(Message message, FrameEncoders encoders) {
+        this.message = message;
+        this.encoders = encoders;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Возвращает кадр сообщения в указанном протоколе, кодируя его при первом обращении.
+     *
+     * @throws IOException если сообщение не удалось закодировать этим протоколом
+     */
+    public MessageFrame get(ProtocolType type) throws IOException {
+        MessageFrame frame = frames.get(type.ordinal());
+        return frame != null ? frame : encode(type);
+    }
+
+    private synchronized MessageFrame encode(ProtocolType type) throws IOException {
+        int index = type.ordinal();
+        MessageFrame frame = frames.get(index);
+        if (frame != null) {
+            return frame;
+        }
+        if (failures[index] != null) {
+            throw failures[index];
+        }
+        try {
+            frame = encoders.encode(message, type);
+        } catch (IOException e) {
+            failures[index] = e;
+            throw e;
+        }
+        if (size == 0) {
+            size = frame.length();
+        }
+        frames.set(index, frame);
+        return frame;
+    }
+
+    /**
+     * @return размер первого закодированного кадра в байтах или 0, если кадров еще нет
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -13,7 +13,7 @@ import ru.vadimkhalikov.oop.lab5.common.Message;
 public interface MessageProtocol {
     
     /**
-     * Отправляет сообщение в выходной поток
+     * Отправляет сообщение в выходной поток и сбрасывает его.
      * 
      * @param message сообщение для отправки
      * @param out выходной поток
@@ -21,6 +21,27 @@ public interface MessageProtocol {
      */
     void sendMessage(Message message, OutputStream out) throws IOException;
     
+    /**
+     * Кодирует сообщение в кадр, который можно записать в любое соединение этого протокола.
+     * Результат не зависит от состояния конкретного соединения, метод потокобезопасен.
+     * 
+     * @param message сообщение для кодирования
+     * @return неизменяемый кадр
+     * @throws IOException при ошибке кодирования
+     */
+    MessageFrame encode(Message message) throws IOException;
+    
+    /**
+     * Записывает в выходной поток кадр, полученный из {@link #encode(Message)}.
+     * Вызывается одним писателем на соединение. Поток не сбрасывается: писатель
+     * может записать несколько кадров в буферизованный поток и сбросить их одним вызовом.
+     * 
+     * @param frame кадр для записи
+     * @param out выходной поток
+     * @throws IOException при ошибке записи в поток
+     */
+    void writeFrame(MessageFrame frame, OutputStream out) throws IOException;
+    
     /**
      * Читает сообщение из входного потока
      * 
@@ -0,0 +1,68 @@
+package ru.vadimkhalikov.oop.lab5.common.protocol;
+
+import java.io.IOException;
+
+/**
+ * Определяет протокол соединения по первым байтам, которые присылает клиент.
+ * <ul>
+ *   <li>{@code AC ED} - заголовок потока Java-сериализации ({@link ProtocolType#JAVA});</li>
+ *   <li>4 байта длины, за которыми следует {@code <} - XML ({@link ProtocolType#XML});</li>
+ *   <li>4 байта длины, за которыми следует {@code {} - JSON ({@link ProtocolType#REST_JSON}).</li>
+ * </ul>
+ * Старший байт длины кадра всегда нулевой (кадр не больше мегабайта),
+ * поэтому с заголовком Java-сериализации он не совпадает.
+ */
+public final class ProtocolDetector {
+
+    /**
+     * Сколько байтов нужно, чтобы различить любые протоколы.
+     */
+    public static final int MAX_PREFIX_LENGTH = 5;
+
+    private static final byte STREAM_MAGIC_HIGH = (byte) 0xAC;
+    private static final byte STREAM_MAGIC_LOW = (byte) 0xED;
+    private static final int LENGTH_PREFIX = 4;
+
+    private ProtocolDetector() {
+    }
+
+    /**
+     * @param prefix первые байты соединения
+     * @param length сколько байтов уже получено
+     * @return протокол соединения или null, если байтов пока недостаточно
+     * @throws IOException если байты не похожи ни на один из протоколов
+     */
+    public static ProtocolType detect(byte[] prefix, int length) throws IOException {
+        if (length == 0) {
+            return null;
+        }
+        if (prefix[0] == STREAM_MAGIC_HIGH) {
+            if (length < 2) {
+                return null;
+            }
+            if (prefix[1] == STREAM_MAGIC_LOW) {
+                return ProtocolType.JAVA;
+            }
+            throw unknown(prefix, 2);
+        }
+        if (length <= LENGTH_PREFIX) {
+            return null;
+        }
+        switch (prefix[LENGTH_PREFIX]) {
+            case '<':
+                return ProtocolType.XML;
+            case '{':
+                return ProtocolType.REST_JSON;
+            default:
+                throw unknown(prefix, MAX_PREFIX_LENGTH);
+        }
+    }
+
+    private static IOException unknown(byte[] prefix, int length) {
+        StringBuilder hex = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            hex.append(String.format("%02X ", prefix[i]));
+        }
+        return new IOException("Unknown protocol, connection starts with " + hex.toString().trim());
+    }
+}
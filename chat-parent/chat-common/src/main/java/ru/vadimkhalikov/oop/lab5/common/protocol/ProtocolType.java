@@ -4,20 +4,32 @@ package ru.vadimkhalikov.oop.lab5.common.protocol;
  * Перечисление поддерживаемых протоколов обмена сообщениями.
  */
 public enum ProtocolType {
-    JAVA("java"),
-    XML("xml"),
-    REST_JSON("rest");
+    JAVA("java", false),
+    XML("xml", true),
+    REST_JSON("rest", true);
     
     private final String code;
+    private final boolean lengthPrefixed;
     
-    ProtocolType(String code) {
+    ProtocolType(String code, boolean lengthPrefixed) {
         this.code = code;
+        this.lengthPrefixed = lengthPrefixed;
     }
     
     public String getCode() {
         return code;
     }
     
+    /**
+     * Показывает, предваряется ли каждое сообщение протокола 4-байтовым заголовком с длиной.
+     * Такие сообщения можно выделять из потока без блокирующего чтения (см. {@link FrameDecoder}).
+     * 
+     * @return true, если протокол использует заголовок с длиной сообщения
+     */
+    public boolean isLengthPrefixed() {
+        return lengthPrefixed;
+    }
+    
     /**
      * Возвращает тип протокола по его строковому коду.
      * 
@@ -21,22 +21,38 @@ public class RestJsonProtocol implements MessageProtocol {
     
     @Override
     public void sendMessage(Message message, OutputStream out) throws IOException {
+        writeFrame(encode(message), out);
+        out.flush();
+    }
+    
+    @Override
+    public MessageFrame encode(Message message) throws IOException {
         byte[] jsonBytes = objectMapper.writeValueAsBytes(message);
         
-        // Отправляем 4 байта с длиной сообщения, за которыми следует JSON
-        ByteBuffer buffer = ByteBuffer.allocate(4);
+        // 4 байта с длиной сообщения, за которыми следует JSON
+        ByteBuffer buffer = ByteBuffer.allocate(4 + jsonBytes.length);
         buffer.putInt(jsonBytes.length);
-        out.write(buffer.array());
-        out.write(jsonBytes);
-        out.flush();
+        buffer.put(jsonBytes);
+        return new MessageFrame(message.getType(), buffer.array());
+    }
+    
+    @Override
+    public void writeFrame(MessageFrame frame, OutputStream out) throws IOException {
+        frame.writeTo(out);
     }
     
     @Override
     public Message receiveMessage(InputStream in) throws IOException {
         // Считываем 4 байта, чтобы определить длину сообщения
         byte[] lengthBytes = new byte[4];
-        if (in.read(lengthBytes) != 4) {
-            throw new IOException("Failed to read message length");
+        // На медленном канале заголовок может прийти по частям
+        int headerRead = 0;
+        while (headerRead < lengthBytes.length) {
+            int count = in.read(lengthBytes, headerRead, lengthBytes.length - headerRead);
+            if (count < 0) {
+                throw new IOException("Failed to read message length");
+            }
+            headerRead += count;
         }
         
         int messageLength = ByteBuffer.wrap(lengthBytes).getInt();
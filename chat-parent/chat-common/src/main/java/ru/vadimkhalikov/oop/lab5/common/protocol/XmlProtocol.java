@@ -41,31 +41,43 @@ public class XmlProtocol implements MessageProtocol {
 
     @Override
     public void sendMessage(Message message, OutputStream out) throws IOException {
+        writeFrame(encode(message), out);
+        out.flush();
+    }
+
+    @Override
+    public MessageFrame encode(Message message) throws IOException {
         try {
             String xmlString = messageToXml(message);
             
             byte[] xmlBytes = xmlString.getBytes(StandardCharsets.UTF_8);
             
-            ByteBuffer lengthHeader = ByteBuffer.allocate(4);
-            lengthHeader.putInt(xmlBytes.length);
-            
-            synchronized (out) {
-                out.write(lengthHeader.array());
-                out.write(xmlBytes);
-                out.flush();
-            }
+            ByteBuffer frame = ByteBuffer.allocate(4 + xmlBytes.length);
+            frame.putInt(xmlBytes.length);
+            frame.put(xmlBytes);
+            return new MessageFrame(message.getType(), frame.array());
         } catch (ParserConfigurationException | TransformerException e) {
             throw new IOException("Error creating XML message", e);
         }
     }
 
+    @Override
+    public void writeFrame(MessageFrame frame, OutputStream out) throws IOException {
+        frame.writeTo(out);
+    }
+
     @Override
     public Message receiveMessage(InputStream in) throws IOException, ClassNotFoundException {
         try {
             byte[] lengthHeader = new byte[4];
-            int bytesRead = in.read(lengthHeader);
-            if (bytesRead != 4) {
-                throw new IOException("Failed to read message length header");
+            // На медленном канале заголовок может прийти по частям
+            int headerRead = 0;
+            while (headerRead < lengthHeader.length) {
+                int bytesRead = in.read(lengthHeader, headerRead, lengthHeader.length - headerRead);
+                if (bytesRead == -1) {
+                    throw new IOException("Failed to read message length header");
+                }
+                headerRead += bytesRead;
             }
             
             int messageLength = ByteBuffer.wrap(lengthHeader).getInt();
@@ -121,6 +133,21 @@ public class XmlProtocol implements MessageProtocol {
     private String messageToXml(Message message) throws ParserConfigurationException, TransformerException {
         DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
         Document doc = docBuilder.newDocument();
+        doc.appendChild(messageToElement(doc, message));
+        
+        // Преобразование XML-документа в строку
+        StringWriter writer = new StringWriter();
+        Transformer transformer = transformerFactory.newTransformer();
+        transformer.transform(new DOMSource(doc), new StreamResult(writer));
+        
+        return writer.toString();
+    }
+
+    /**
+     * Строит корневой элемент сообщения. Сообщения страницы истории вкладываются
+     * в {@code <history>} теми же элементами, что и при отдельной отправке.
+     */
+    private Element messageToElement(Document doc, Message message) {
         Element rootElement;
         
         // Получаем sessionId из ThreadLocal
@@ -179,26 +206,29 @@ public class XmlProtocol implements MessageProtocol {
                 rootElement = doc.createElement("success");
                 
                 Element listUsersElement = doc.createElement("listusers");
-                
-                if (message.getUserList() != null) {
-                    for (String user : message.getUserList()) {
-                        Element userElement = doc.createElement("user");
-                        
-                        Element userNameElement = doc.createElement("name");
-                        userNameElement.setTextContent(user);
-                        userElement.appendChild(userNameElement);
-                        
-                        Element userTypeElement = doc.createElement("type");
-                        userTypeElement.setTextContent("JavaChatClient");
-                        userElement.appendChild(userTypeElement);
-                        
-                        listUsersElement.appendChild(userElement);
-                    }
+                if (message.getListVersion() != null) {
+                    listUsersElement.setAttribute("version", String.valueOf(message.getListVersion()));
                 }
-                
+                appendUsers(doc, listUsersElement, message.getUserList());
                 rootElement.appendChild(listUsersElement);
                 break;
                 
+            case USER_LIST_DELTA:
+                // <event name="userlist" version="V" base="B"><added>...</added><removed>...</removed></event>
+                rootElement = doc.createElement("event");
+                rootElement.setAttribute("name", "userlist");
+                rootElement.setAttribute("version", String.valueOf(message.getListVersion()));
+                rootElement.setAttribute("base", String.valueOf(message.getBaseVersion()));
+                
+                Element addedElement = doc.createElement("added");
+                appendUsers(doc, addedElement, message.getUserList());
+                rootElement.appendChild(addedElement);
+                
+                Element removedElement = doc.createElement("removed");
+                appendUsers(doc, removedElement, message.getRemovedUsers());
+                rootElement.appendChild(removedElement);
+                break;
+                
             case USER_MESSAGE:
                 // <command name="message"><message>MESSAGE</message><session>UNIQUE_SESSION_ID</session></command>
                 rootElement = doc.createElement("command");
@@ -257,18 +287,125 @@ public class XmlProtocol implements MessageProtocol {
                 rootElement.appendChild(logoutSessionElement);
                 break;
                 
+            case HISTORY_REQUEST:
+                // <command name="history"><session>UNIQUE_SESSION_ID</session><before>SEQ</before><limit>N</limit></command>
+                rootElement = doc.createElement("command");
+                rootElement.setAttribute("name", "history");
+                
+                Element historySessionElement = doc.createElement("session");
+                historySessionElement.setTextContent(sessionId);
+                rootElement.appendChild(historySessionElement);
+                
+                if (message.getSequence() != null) {
+                    Element beforeElement = doc.createElement("before");
+                    beforeElement.setTextContent(String.valueOf(message.getSequence()));
+                    rootElement.appendChild(beforeElement);
+                }
+                if (message.getLimit() != null) {
+                    Element limitElement = doc.createElement("limit");
+                    limitElement.setTextContent(String.valueOf(message.getLimit()));
+                    rootElement.appendChild(limitElement);
+                }
+                break;
+                
+            case HISTORY_PAGE:
+                // <success><history next="SEQ">...сообщения...</history></success>
+                rootElement = doc.createElement("success");
+                
+                Element historyElement = doc.createElement("history");
+                if (message.getSequence() != null) {
+                    historyElement.setAttribute("next", String.valueOf(message.getSequence()));
+                }
+                if (message.getMessages() != null) {
+                    for (Message historyMessage : message.getMessages()) {
+                        historyElement.appendChild(messageToElement(doc, historyMessage));
+                    }
+                }
+                rootElement.appendChild(historyElement);
+                setRoomAttribute(rootElement, message);
+                return rootElement;
+                
+            case ROOM_JOIN_REQUEST:
+                // <command name="join" room="ROOM"><session>UNIQUE_SESSION_ID</session></command>
+                rootElement = doc.createElement("command");
+                rootElement.setAttribute("name", "join");
+                
+                Element joinSessionElement = doc.createElement("session");
+                joinSessionElement.setTextContent(sessionId);
+                rootElement.appendChild(joinSessionElement);
+                break;
+                
+            case ROOM_LEAVE_REQUEST:
+                // <command name="leave" room="ROOM"><session>UNIQUE_SESSION_ID</session></command>
+                rootElement = doc.createElement("command");
+                rootElement.setAttribute("name", "leave");
+                
+                Element leaveSessionElement = doc.createElement("session");
+                leaveSessionElement.setTextContent(sessionId);
+                rootElement.appendChild(leaveSessionElement);
+                break;
+                
+            case PING:
+                // <event name="ping"/>
+                rootElement = doc.createElement("event");
+                rootElement.setAttribute("name", "ping");
+                break;
+                
+            case PONG:
+                // <command name="pong"><session>UNIQUE_SESSION_ID</session></command>
+                rootElement = doc.createElement("command");
+                rootElement.setAttribute("name", "pong");
+                
+                Element pongSessionElement = doc.createElement("session");
+                pongSessionElement.setTextContent(sessionId);
+                rootElement.appendChild(pongSessionElement);
+                break;
+                
+            case ROOM_JOIN_SUCCESS:
+                // <success room="ROOM"><members>...</members></success>
+                rootElement = doc.createElement("success");
+                
+                Element membersElement = doc.createElement("members");
+                appendUsers(doc, membersElement, message.getUserList());
+                rootElement.appendChild(membersElement);
+                break;
+                
+            case ROOM_JOIN_FAILURE:
+                // <error room="ROOM"><message>REASON</message></error>
+                rootElement = doc.createElement("error");
+                // Атрибут отличает ошибку входа в комнату от LOGIN_FAILURE, поэтому пишется всегда,
+                // даже без имени комнаты
+                rootElement.setAttribute("room", "");
+                
+                Element roomErrorElement = doc.createElement("message");
+                roomErrorElement.setTextContent(message.getContent());
+                rootElement.appendChild(roomErrorElement);
+                break;
+                
             default:
                 throw new IllegalArgumentException("Unsupported message type for XML protocol: " + message.getType());
         }
         
-        doc.appendChild(rootElement);
-        
-        // Преобразование XML-документа в строку
-        StringWriter writer = new StringWriter();
-        Transformer transformer = transformerFactory.newTransformer();
-        transformer.transform(new DOMSource(doc), new StreamResult(writer));
-        
-        return writer.toString();
+        // Номер сообщения в истории: <event name="message" seq="SEQ">...</event>
+        if (message.getSequence() != null && message.getType() != Message.MessageType.HISTORY_REQUEST) {
+            rootElement.setAttribute("seq", String.valueOf(message.getSequence()));
+        }
+        setRoomAttribute(rootElement, message);
+        // Номер запроса и ответа на него: <command name="list" request="ID">...</command>
+        if (message.getRequestId() != null) {
+            rootElement.setAttribute("request", String.valueOf(message.getRequestId()));
+        }
+        return rootElement;
+    }
+
+    /**
+     * Комната сообщения передается атрибутом корневого элемента: {@code <event name="message" room="ROOM">}.
+     * У сообщений общей комнаты атрибута нет.
+     */
+    private void setRoomAttribute(Element rootElement, Message message) {
+        if (message.getRoom() != null) {
+            rootElement.setAttribute("room", message.getRoom());
+        }
     }
 
     /**
@@ -279,7 +416,39 @@ public class XmlProtocol implements MessageProtocol {
         Document doc = docBuilder.parse(new InputSource(new StringReader(xmlString)));
         doc.getDocumentElement().normalize();
         
-        Element rootElement = doc.getDocumentElement();
+        Message message;
+        try {
+            message = elementToMessage(doc.getDocumentElement());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number in XML message: " + xmlString, e);
+        }
+        if (message == null) {
+            throw new IOException("Unknown XML message format: " + xmlString);
+        }
+        return message;
+    }
+
+    /**
+     * Разбирает корневой элемент сообщения.
+     *
+     * @return сообщение или null, если формат элемента неизвестен
+     */
+    private Message elementToMessage(Element rootElement) {
+        Message message = parseElement(rootElement);
+        if (message != null && rootElement.hasAttribute("seq")) {
+            message.setSequence(Long.valueOf(rootElement.getAttribute("seq")));
+        }
+        // Пустой атрибут означает общую комнату
+        if (message != null && !rootElement.getAttribute("room").isEmpty()) {
+            message.setRoom(rootElement.getAttribute("room"));
+        }
+        if (message != null && rootElement.hasAttribute("request")) {
+            message.setRequestId(Long.valueOf(rootElement.getAttribute("request")));
+        }
+        return message;
+    }
+
+    private Message parseElement(Element rootElement) {
         String rootName = rootElement.getNodeName();
         
         if ("command".equals(rootName)) {
@@ -295,8 +464,53 @@ public class XmlProtocol implements MessageProtocol {
                 return new Message(Message.MessageType.USER_MESSAGE, content);
             } else if ("logout".equals(commandName)) {
                 return new Message(Message.MessageType.LOGOUT_REQUEST);
+            } else if ("history".equals(commandName)) {
+                Message historyRequest = new Message(Message.MessageType.HISTORY_REQUEST);
+                String before = getElementContent(rootElement, "before");
+                if (!before.isEmpty()) {
+                    historyRequest.setSequence(Long.valueOf(before));
+                }
+                String limit = getElementContent(rootElement, "limit");
+                if (!limit.isEmpty()) {
+                    historyRequest.setLimit(Integer.valueOf(limit));
+                }
+                return historyRequest;
+            } else if ("join".equals(commandName)) {
+                return new Message(Message.MessageType.ROOM_JOIN_REQUEST);
+            } else if ("leave".equals(commandName)) {
+                return new Message(Message.MessageType.ROOM_LEAVE_REQUEST);
+            } else if ("pong".equals(commandName)) {
+                return new Message(Message.MessageType.PONG);
             }
         } else if ("success".equals(rootName)) {
+            // Вложенные сообщения страницы истории тоже содержат <session>, поэтому <history> проверяется первым
+            Element historyElement = getChildElement(rootElement, "history");
+            if (historyElement != null) {
+                List<Message> historyMessages = new ArrayList<>();
+                NodeList children = historyElement.getChildNodes();
+                for (int i = 0; i < children.getLength(); i++) {
+                    if (children.item(i) instanceof Element) {
+                        Message historyMessage = elementToMessage((Element) children.item(i));
+                        if (historyMessage != null) {
+                            historyMessages.add(historyMessage);
+                        }
+                    }
+                }
+                Message historyPage = new Message(Message.MessageType.HISTORY_PAGE);
+                historyPage.setMessages(historyMessages);
+                if (historyElement.hasAttribute("next")) {
+                    historyPage.setSequence(Long.valueOf(historyElement.getAttribute("next")));
+                }
+                return historyPage;
+            }
+            
+            Element membersElement = getChildElement(rootElement, "members");
+            if (membersElement != null) {
+                Message joined = new Message(Message.MessageType.ROOM_JOIN_SUCCESS);
+                joined.setUserList(readUsers(membersElement));
+                return joined;
+            }
+            
             NodeList sessionNodes = rootElement.getElementsByTagName("session");
             if (sessionNodes.getLength() > 0) {
                 String sessionId = sessionNodes.item(0).getTextContent();
@@ -306,25 +520,21 @@ public class XmlProtocol implements MessageProtocol {
             
             NodeList listUsersNodes = rootElement.getElementsByTagName("listusers");
             if (listUsersNodes.getLength() > 0) {
-                List<String> userList = new ArrayList<>();
-                NodeList userNodes = ((Element)listUsersNodes.item(0)).getElementsByTagName("user");
-                
-                for (int i = 0; i < userNodes.getLength(); i++) {
-                    Element userElement = (Element) userNodes.item(i);
-                    NodeList nameNodes = userElement.getElementsByTagName("name");
-                    if (nameNodes.getLength() > 0) {
-                        userList.add(nameNodes.item(0).getTextContent());
-                    }
-                }
-                
+                Element listUsersElement = (Element) listUsersNodes.item(0);
                 Message userListMsg = new Message(Message.MessageType.USER_LIST_RESPONSE);
-                userListMsg.setUserList(userList);
+                userListMsg.setUserList(readUsers(listUsersElement));
+                if (listUsersElement.hasAttribute("version")) {
+                    userListMsg.setListVersion(Long.valueOf(listUsersElement.getAttribute("version")));
+                }
                 return userListMsg;
             }
             
             return new Message(Message.MessageType.LOGIN_SUCCESS);
         } else if ("error".equals(rootName)) {
             String errorMsg = getElementContent(rootElement, "message");
+            if (rootElement.hasAttribute("room")) {
+                return new Message(Message.MessageType.ROOM_JOIN_FAILURE, errorMsg);
+            }
             return new Message(Message.MessageType.LOGIN_FAILURE, errorMsg);
         } else if ("event".equals(rootName)) {
             String eventName = rootElement.getAttribute("name");
@@ -339,10 +549,72 @@ public class XmlProtocol implements MessageProtocol {
             } else if ("userlogout".equals(eventName)) {
                 String username = getElementContent(rootElement, "name");
                 return new Message(Message.MessageType.USER_LEFT, username, null);
+            } else if ("ping".equals(eventName)) {
+                return new Message(Message.MessageType.PING);
+            } else if ("userlist".equals(eventName)) {
+                Message delta = new Message(Message.MessageType.USER_LIST_DELTA);
+                delta.setListVersion(Long.valueOf(rootElement.getAttribute("version")));
+                delta.setBaseVersion(Long.valueOf(rootElement.getAttribute("base")));
+                Element addedElement = getChildElement(rootElement, "added");
+                delta.setUserList(addedElement != null ? readUsers(addedElement) : new ArrayList<>());
+                Element removedElement = getChildElement(rootElement, "removed");
+                delta.setRemovedUsers(removedElement != null ? readUsers(removedElement) : new ArrayList<>());
+                return delta;
             }
         }
         
-        throw new IOException("Unknown XML message format: " + xmlString);
+        return null;
+    }
+
+    /**
+     * Добавляет в элемент список пользователей: {@code <user><name>NAME</name><type>TYPE</type></user>}
+     */
+    private void appendUsers(Document doc, Element parentElement, List<String> users) {
+        if (users == null) {
+            return;
+        }
+        for (String user : users) {
+            Element userElement = doc.createElement("user");
+            
+            Element userNameElement = doc.createElement("name");
+            userNameElement.setTextContent(user);
+            userElement.appendChild(userNameElement);
+            
+            Element userTypeElement = doc.createElement("type");
+            userTypeElement.setTextContent("JavaChatClient");
+            userElement.appendChild(userTypeElement);
+            
+            parentElement.appendChild(userElement);
+        }
+    }
+
+    /**
+     * Читает имена пользователей из элементов {@code <user>}
+     */
+    private List<String> readUsers(Element parentElement) {
+        List<String> userList = new ArrayList<>();
+        NodeList userNodes = parentElement.getElementsByTagName("user");
+        for (int i = 0; i < userNodes.getLength(); i++) {
+            Element userElement = (Element) userNodes.item(i);
+            NodeList nameNodes = userElement.getElementsByTagName("name");
+            if (nameNodes.getLength() > 0) {
+                userList.add(nameNodes.item(0).getTextContent());
+            }
+        }
+        return userList;
+    }
+
+    /**
+     * Возвращает непосредственный дочерний элемент с заданным именем или null
+     */
+    private Element getChildElement(Element parentElement, String childName) {
+        NodeList children = parentElement.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i) instanceof Element && childName.equals(children.item(i).getNodeName())) {
+                return (Element) children.item(i);
+            }
+        }
+        return null;
     }
 
     /**
@@ -0,0 +1,103 @@
+package ru.vadimkhalikov.oop.lab5.common.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+
+public class FrameDecoderTest {
+
+    @Test
+    public void assemblesFrameDeliveredByteByByte() throws Exception {
+        for (ProtocolType type : new ProtocolType[] {ProtocolType.XML, ProtocolType.REST_JSON}) {
+            MessageProtocol protocol = ProtocolFactory.createProtocol(type);
+            ByteBuffer bytes = protocol.encode(chat("hello")).asByteBuffer();
+            int frameLength = bytes.remaining();
+            FrameDecoder decoder = new FrameDecoder(protocol, type);
+            List<Message> decoded = new ArrayList<>();
+            List<Integer> lengths = new ArrayList<>();
+
+            while (bytes.hasRemaining()) {
+                ByteBuffer single = ByteBuffer.wrap(new byte[] {bytes.get()});
+                decoder.decode(single, (message, length, decodeNanos) -> {
+                    decoded.add(message);
+                    lengths.add(length);
+                });
+                assertEquals(bytes.hasRemaining() ? 0 : 1, decoded.size());
+            }
+
+            assertEquals("hello", decoded.get(0).getContent());
+            assertEquals(List.of(frameLength), lengths);
+        }
+    }
+
+    @Test
+    public void splitsSeveralFramesFromOneChunk() throws Exception {
+        MessageProtocol protocol = ProtocolFactory.createProtocol(ProtocolType.REST_JSON);
+        byte[] first = bytes(protocol.encode(chat("first")));
+        byte[] second = bytes(protocol.encode(chat("second")));
+        byte[] third = bytes(protocol.encode(chat("third")));
+        // Первая порция кончается посреди заголовка третьего кадра
+        int cut = first.length + second.length + 2;
+        ByteBuffer all = ByteBuffer.allocate(first.length + second.length + third.length);
+        all.put(first).put(second).put(third).flip();
+        FrameDecoder decoder = new FrameDecoder(protocol, ProtocolType.REST_JSON);
+        List<String> contents = new ArrayList<>();
+
+        ByteBuffer head = all.duplicate();
+        head.limit(cut);
+        decoder.decode(head, (message, length, decodeNanos) -> contents.add(message.getContent()));
+        assertEquals(List.of("first", "second"), contents);
+
+        all.position(cut);
+        decoder.decode(all, (message, length, decodeNanos) -> contents.add(message.getContent()));
+        assertEquals(List.of("first", "second", "third"), contents);
+    }
+
+    @Test
+    public void rejectsOversizedFrame() throws Exception {
+        assertRejected(1_000_001);
+    }
+
+    @Test
+    public void rejectsEmptyAndNegativeLengths() throws Exception {
+        assertRejected(0);
+        assertRejected(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requiresLengthPrefixedProtocol() {
+        new FrameDecoder(ProtocolFactory.createProtocol(ProtocolType.JAVA), ProtocolType.JAVA);
+    }
+
+    private static void assertRejected(int length) throws Exception {
+        FrameDecoder decoder = new FrameDecoder(ProtocolFactory.createProtocol(ProtocolType.REST_JSON), ProtocolType.REST_JSON);
+        ByteBuffer header = ByteBuffer.allocate(4).putInt(length);
+        header.flip();
+        try {
+            decoder.decode(header, (message, frameLength, decodeNanos) -> fail("Frame of length " + length + " decoded"));
+            fail("Length " + length + " accepted");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(String.valueOf(length)));
+        }
+    }
+
+    private static Message chat(String content) {
+        return new Message(Message.MessageType.USER_MESSAGE, "alice", content);
+    }
+
+    private static byte[] bytes(MessageFrame frame) {
+        ByteBuffer buffer = frame.asByteBuffer();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,47 @@
+package ru.vadimkhalikov.oop.lab5.common.protocol;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+
+public class JavaSerializationProtocolTest {
+
+    @Test
+    public void sharedFrameIsReadableFromEveryConnection() throws Exception {
+        JavaSerializationProtocol encoder = new JavaSerializationProtocol();
+        MessageFrame frame = encoder.encode(new Message(Message.MessageType.USER_MESSAGE, "alice", "hello"));
+
+        for (int connection = 0; connection < 2; connection++) {
+            JavaSerializationProtocol writer = new JavaSerializationProtocol();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writer.writeFrame(frame, out);
+            writer.writeFrame(frame, out);
+
+            JavaSerializationProtocol reader = new JavaSerializationProtocol();
+            ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+            assertEquals("hello", reader.receiveMessage(in).getContent());
+            assertEquals("hello", reader.receiveMessage(in).getContent());
+        }
+    }
+
+    @Test
+    public void reusedInstanceStartsNewStreamAfterClose() throws Exception {
+        JavaSerializationProtocol protocol = new JavaSerializationProtocol();
+        assertEquals("first", roundTrip(protocol, "first"));
+        protocol.close();
+        assertEquals("second", roundTrip(protocol, "second"));
+    }
+
+    private static String roundTrip(JavaSerializationProtocol writer, String content)
+            throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.sendMessage(new Message(Message.MessageType.USER_MESSAGE, "alice", content), out);
+        return new JavaSerializationProtocol().receiveMessage(new ByteArrayInputStream(out.toByteArray())).getContent();
+    }
+}
@@ -0,0 +1,72 @@
+package ru.vadimkhalikov.oop.lab5.common.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+
+public class ProtocolDetectorTest {
+
+    @Test
+    public void detectsEveryProtocolFromItsFirstMessage() throws Exception {
+        for (ProtocolType type : ProtocolType.values()) {
+            byte[] bytes = firstBytes(type);
+            assertEquals(type, detectIncrementally(bytes));
+        }
+    }
+
+    @Test
+    public void waitsForEnoughBytes() throws IOException {
+        byte[] json = firstBytes(ProtocolType.REST_JSON);
+        for (int length = 0; length < ProtocolDetector.MAX_PREFIX_LENGTH; length++) {
+            assertNull(ProtocolDetector.detect(json, length));
+        }
+        assertNull(ProtocolDetector.detect(new byte[] {(byte) 0xAC}, 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownPayload() throws IOException {
+        ProtocolDetector.detect(new byte[] {0, 0, 0, 5, 'H'}, 5);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsBrokenSerializationHeader() throws IOException {
+        ProtocolDetector.detect(new byte[] {(byte) 0xAC, 0x00}, 2);
+    }
+
+    @Test
+    public void reportsLeadingBytesOfUnknownConnection() {
+        try {
+            ProtocolDetector.detect("GET /".getBytes(), 5);
+        } catch (IOException e) {
+            assertEquals("Unknown protocol, connection starts with 47 45 54 20 2F", e.getMessage());
+            return;
+        }
+        throw new AssertionError("HTTP request detected as a chat protocol");
+    }
+
+    /**
+     * Передает байты по одному, как их читает сервер, пока протокол не определится.
+     */
+    private static ProtocolType detectIncrementally(byte[] bytes) throws IOException {
+        for (int length = 1; length <= bytes.length; length++) {
+            ProtocolType detected = ProtocolDetector.detect(bytes, length);
+            if (detected != null) {
+                return detected;
+            }
+        }
+        return null;
+    }
+
+    private static byte[] firstBytes(ProtocolType type) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessageProtocol protocol = ProtocolFactory.createProtocol(type);
+        protocol.sendMessage(new Message(Message.MessageType.LOGIN_REQUEST, "alice", null), out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,63 @@
+package ru.vadimkhalikov.oop.lab5.common.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import org.junit.Test;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+
+public class XmlProtocolTest {
+
+    @Test
+    public void roomJoinFailureWithoutRoomIsNotLoginFailure() throws Exception {
+        Message decoded = roundTrip(new Message(Message.MessageType.ROOM_JOIN_FAILURE, "Room name is required"));
+
+        assertEquals(Message.MessageType.ROOM_JOIN_FAILURE, decoded.getType());
+        assertEquals("Room name is required", decoded.getContent());
+        assertNull(decoded.getRoom());
+    }
+
+    @Test
+    public void roomJoinFailureKeepsRoom() throws Exception {
+        Message failure = new Message(Message.MessageType.ROOM_JOIN_FAILURE, "Room is full");
+        failure.setRoom("lobby");
+
+        Message decoded = roundTrip(failure);
+
+        assertEquals(Message.MessageType.ROOM_JOIN_FAILURE, decoded.getType());
+        assertEquals("lobby", decoded.getRoom());
+    }
+
+    @Test
+    public void loginFailureStaysLoginFailure() throws Exception {
+        Message decoded = roundTrip(new Message(Message.MessageType.LOGIN_FAILURE, "Username is taken"));
+
+        assertEquals(Message.MessageType.LOGIN_FAILURE, decoded.getType());
+        assertEquals("Username is taken", decoded.getContent());
+        assertNull(decoded.getRoom());
+    }
+
+    @Test
+    public void requestIdSurvivesRoundTrip() throws Exception {
+        Message request = new Message(Message.MessageType.USER_LIST_REQUEST);
+        request.setRequestId(7L);
+        Message response = new Message(Message.MessageType.ROOM_JOIN_SUCCESS);
+        response.setUserList(List.of("alice"));
+        response.setRequestId(8L);
+
+        assertEquals(Long.valueOf(7), roundTrip(request).getRequestId());
+        assertEquals(Long.valueOf(8), roundTrip(response).getRequestId());
+        assertNull(roundTrip(new Message(Message.MessageType.USER_LIST_REQUEST)).getRequestId());
+    }
+
+    private static Message roundTrip(Message message) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new XmlProtocol().sendMessage(message, out);
+        return new XmlProtocol().receiveMessage(new ByteArrayInputStream(out.toByteArray()));
+    }
+}
@@ -0,0 +1,276 @@
+package ru.vadimkhalikov.oop.lab5.loadgen;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageProtocol;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolFactory;
+
+/**
+ * Одно соединение генератора нагрузки: входит в чат, при необходимости вступает в комнату,
+ * отправляет сообщения с временем отправки в тексте и замеряет задержку доставки чужих сообщений.
+ * <p>
+ * Как и {@code ClientApp}, читает сервер в отдельном потоке, но с маленьким стеком,
+ * чтобы тысячи соединений умещались в одной JVM. Отправка синхронизирована:
+ * кроме потока рассылки нагрузки пишет и поток чтения (ответ PONG на PING).
+ */
+final class LoadClient {
+
+    private static final int CONNECT_TIMEOUT_MS = 5_000;
+    private static final long READER_STACK_SIZE = 256 * 1024;
+    private static final char PADDING = 'x';
+
+    private final String username;
+    private final String room;
+    private final ProtocolStats stats;
+    private final MeasureWindow window;
+    private final String marker;
+    private final MessageProtocol protocol;
+    private final CountDownLatch ready = new CountDownLatch(1);
+
+    private Socket socket;
+    private OutputStream out;
+    private volatile boolean active;
+    private volatile boolean closing;
+    private volatile String failure;
+
+    /**
+     * @param room комната сообщений клиента; null - общая комната
+     * @param marker начало текста сообщений этого запуска: сообщения прошлых запусков из истории не считаются
+     */
+    LoadClient(String username, String room, ProtocolStats stats, MeasureWindow window, String marker) {
+        this.username = username;
+        this.room = room;
+        this.stats = stats;
+        this.window = window;
+        this.marker = marker;
+        this.protocol = ProtocolFactory.createProtocol(stats.getProtocol());
+    }
+
+    /**
+     * Подключается и отправляет запрос входа; ответ сервера ждет {@link #awaitReady(long)}.
+     */
+    void connect(String host, int port) throws IOException {
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+        out = new BufferedOutputStream(socket.getOutputStream());
+        InputStream in = new CountingInputStream(new BufferedInputStream(socket.getInputStream()));
+        Thread reader = new Thread(null, () -> readLoop(in), "loadgen-" + username, READER_STACK_SIZE);
+        reader.setDaemon(true);
+        reader.start();
+        send(new Message(Message.MessageType.LOGIN_REQUEST, username, null));
+    }
+
+    /**
+     * @return true, если клиент вошел в чат (и в свою комнату); иначе причина в {@link #getFailure()}
+     */
+    boolean awaitReady(long timeoutMs) throws InterruptedException {
+        if (!ready.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+            failure = "No response from server in " + timeoutMs + " ms";
+            return false;
+        }
+        return active;
+    }
+
+    String getFailure() {
+        return failure;
+    }
+
+    String getRoom() {
+        return room;
+    }
+
+    ProtocolStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Отправляет сообщение чата длиной {@code size} символов.
+     *
+     * @param scheduledNanos запланированное время отправки: задержка считается от него, а не от фактической записи,
+     *                       чтобы отставание самого генератора не пряталось из замера
+     * @return false, если клиент уже отключен
+     */
+    boolean sendChat(long scheduledNanos, int size) {
+        if (!active) {
+            return false;
+        }
+        StringBuilder content = new StringBuilder(Math.max(size, marker.length() + 21));
+        content.append(marker).append(scheduledNanos).append(' ');
+        char[] padding = new char[Math.max(0, size - content.length())];
+        Arrays.fill(padding, PADDING);
+        content.append(padding);
+        Message message = new Message(Message.MessageType.USER_MESSAGE, username, content.toString());
+        message.setRoom(room);
+        try {
+            send(message);
+            return true;
+        } catch (IOException e) {
+            disconnected(e);
+            return false;
+        }
+    }
+
+    void close() {
+        closing = true;
+        if (socket == null) {
+            return;
+        }
+        if (active) {
+            try {
+                send(new Message(Message.MessageType.LOGOUT_REQUEST));
+            } catch (IOException ignored) {
+                // Соединение уже закрыто сервером
+            }
+        }
+        active = false;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Закрываем на выходе, ошибка ничего не меняет
+        }
+    }
+
+    private void send(Message message) throws IOException {
+        synchronized (this) {
+            protocol.sendMessage(message, out);
+        }
+    }
+
+    private void readLoop(InputStream in) {
+        try {
+            while (!closing) {
+                handle(protocol.receiveMessage(in));
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            disconnected(e);
+        } catch (RuntimeException e) {
+            // Разбор испорченного кадра: соединение дальше не читается
+            disconnected(e);
+        }
+    }
+
+    private void handle(Message message) throws IOException {
+        switch (message.getType()) {
+            case USER_MESSAGE:
+                long received = System.nanoTime();
+                long sent = sentAt(message.getContent());
+                if (sent != -1 && window.contains(sent)) {
+                    stats.delivered.increment();
+                    stats.latency.recordNanos(received - sent);
+                }
+                break;
+            case LOGIN_SUCCESS:
+                if (room == null) {
+                    ready(true);
+                } else {
+                    Message join = new Message(Message.MessageType.ROOM_JOIN_REQUEST);
+                    join.setRoom(room);
+                    send(join);
+                }
+                break;
+            case ROOM_JOIN_SUCCESS:
+                ready(true);
+                break;
+            case LOGIN_FAILURE:
+            case ROOM_JOIN_FAILURE:
+                failure = message.getContent();
+                ready(false);
+                break;
+            case PING:
+                send(new Message(Message.MessageType.PONG));
+                break;
+            case SERVER_MESSAGE:
+                // Сервер отвечает текстом, например когда превышен message.rate
+                stats.serverMessages.increment();
+                break;
+            default:
+                // Списки пользователей, входы и выходы нагрузку не интересуют
+                break;
+        }
+    }
+
+    /**
+     * @return время отправки из текста сообщения этого запуска или -1 для чужих сообщений
+     */
+    private long sentAt(String content) {
+        if (content == null || !content.startsWith(marker)) {
+            return -1;
+        }
+        int end = content.indexOf(' ', marker.length());
+        try {
+            return Long.parseLong(content.substring(marker.length(), end < 0 ? content.length() : end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void ready(boolean success) {
+        active = success;
+        ready.countDown();
+    }
+
+    private void disconnected(Exception cause) {
+        boolean wasActive = active;
+        active = false;
+        if (!closing) {
+            if (failure == null) {
+                failure = "Connection lost: " + cause.getMessage();
+            }
+            if (wasActive) {
+                stats.errors.increment();
+            }
+        }
+        ready.countDown();
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Соединение уже разорвано
+        }
+    }
+
+    /**
+     * Считает принятые байты в окне замера для пропускной способности протокола.
+     */
+    private final class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                count(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                count(count);
+            }
+            return count;
+        }
+
+        private void count(int bytes) {
+            if (window.contains(System.nanoTime())) {
+                stats.bytesReceived.add(bytes);
+            }
+        }
+    }
+}
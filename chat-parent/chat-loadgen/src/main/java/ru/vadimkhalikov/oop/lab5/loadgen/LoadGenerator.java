@@ -0,0 +1,269 @@
+package ru.vadimkhalikov.oop.lab5.loadgen;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+/**
+ * Генератор нагрузки на сервер чата без интерфейса. Открывает тысячи соединений протоколами
+ * {@code chat-common}, вводит клиентов в чат, рассылает сообщения с заданной частотой и распределением
+ * длины и печатает пропускную способность и задержку доставки (p50, p99, p999) по протоколам.
+ * <p>
+ * Нагрузка открытая: каждый клиент отправляет сообщения по своему расписанию, не дожидаясь доставки
+ * предыдущих, а задержка считается от запланированного момента отправки. Поэтому отставание
+ * генератора или сервера попадает в задержку, а не уменьшает число замеров.
+ * <p>
+ * Запуск: {@code java -jar chat-loadgen/target/chat-loadgen-1.0-SNAPSHOT-jar-with-dependencies.jar --help}
+ */
+public final class LoadGenerator {
+
+    // Сколько ждать ответа на вход после подключения последнего клиента
+    private static final long READY_TIMEOUT_MS = 10_000;
+    private static final long START_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int MAX_REPORTED_FAILURES = 5;
+
+    private final LoadOptions options;
+    private final Map<ProtocolType, ProtocolStats> stats = new EnumMap<>(ProtocolType.class);
+    private final MeasureWindow window = new MeasureWindow();
+    private final LongAdder expectedDeliveries = new LongAdder();
+    private final String runId = Long.toString(new Random().nextLong() & Long.MAX_VALUE, 36);
+
+    private LoadGenerator(LoadOptions options) {
+        this.options = options;
+        for (ProtocolType protocol : options.protocols) {
+            stats.put(protocol, new ProtocolStats(protocol));
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (Arrays.asList(args).contains("--help")) {
+            System.out.println(LoadOptions.USAGE);
+            return;
+        }
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(LoadOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        if (!new LoadGenerator(options).run()) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return false, если в чат вошли меньше двух клиентов и нагрузку давать некому
+     */
+    private boolean run() throws InterruptedException {
+        System.out.printf("Connecting %d clients (%s) to %s:%d at %d connections/s...%n",
+            options.clients, codes(options.protocols), options.host, options.port, options.connectRate);
+        List<LoadClient> clients = connectAll();
+        try {
+            if (clients.size() < 2) {
+                System.err.println("Less than two clients logged in, nothing to measure.");
+                return false;
+            }
+            System.out.printf("Sending %d messages/s (size %s) from %d clients for %d s of warmup and %d s of measurement...%n",
+                options.rate, options.sizes, clients.size(), options.warmupSeconds, options.durationSeconds);
+            sendLoad(clients);
+            report();
+            return true;
+        } finally {
+            for (LoadClient client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * Подключает клиентов с частотой {@code connect-rate}, назначая протоколы и комнаты по кругу.
+     *
+     * @return вошедшие в чат клиенты
+     */
+    private List<LoadClient> connectAll() throws InterruptedException {
+        List<LoadClient> connecting = new ArrayList<>(options.clients);
+        Set<String> failures = new LinkedHashSet<>();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / options.connectRate;
+        long start = System.nanoTime();
+        for (int i = 0; i < options.clients; i++) {
+            ProtocolStats protocolStats = stats.get(options.protocols.get(i % options.protocols.size()));
+            String room = options.rooms == 1 ? null : "load-" + (i % options.rooms);
+            LoadClient client = new LoadClient("load-" + runId + "-" + i, room, protocolStats, window, marker());
+            try {
+                client.connect(options.host, options.port);
+                connecting.add(client);
+            } catch (IOException e) {
+                protocolStats.failed.incrementAndGet();
+                failures.add("Connection failed: " + e.getMessage());
+                client.close();
+            }
+            sleepUntil(start + (i + 1) * intervalNanos);
+        }
+
+        List<LoadClient> ready = new ArrayList<>(connecting.size());
+        long deadline = System.currentTimeMillis() + READY_TIMEOUT_MS;
+        for (LoadClient client : connecting) {
+            if (client.awaitReady(Math.max(1, deadline - System.currentTimeMillis()))) {
+                client.getStats().connected.incrementAndGet();
+                ready.add(client);
+            } else {
+                client.getStats().failed.incrementAndGet();
+                failures.add(client.getFailure());
+                client.close();
+            }
+        }
+        System.out.printf("Logged in %d of %d clients.%n", ready.size(), options.clients);
+        failures.stream().limit(MAX_REPORTED_FAILURES).forEach(reason -> System.err.println("  " + reason));
+        return ready;
+    }
+
+    /**
+     * Раскладывает отправки клиентов равномерно по периоду и ждет конца окна замера и доставки остатка.
+     */
+    private void sendLoad(List<LoadClient> clients) throws InterruptedException {
+        Map<String, Integer> roomSizes = new HashMap<>();
+        for (LoadClient client : clients) {
+            roomSizes.merge(String.valueOf(client.getRoom()), 1, Integer::sum);
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        ScheduledExecutorService senders = Executors.newScheduledThreadPool(options.senders, task -> {
+            Thread thread = new Thread(task, "loadgen-sender-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) * clients.size() / options.rate;
+        long start = System.nanoTime() + START_DELAY_NANOS;
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+        long measureUntil = measureFrom + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        window.set(measureFrom, measureUntil);
+        for (int i = 0; i < clients.size(); i++) {
+            LoadClient client = clients.get(i);
+            long first = start + periodNanos * i / clients.size();
+            int recipients = roomSizes.get(String.valueOf(client.getRoom())) - 1;
+            senders.scheduleAtFixedRate(new SendTask(client, first, periodNanos, recipients),
+                first - System.nanoTime(), periodNanos, TimeUnit.NANOSECONDS);
+        }
+
+        sleepUntil(measureUntil);
+        senders.shutdownNow();
+        senders.awaitTermination(1, TimeUnit.SECONDS);
+        // Сообщения окна еще в пути; байты после окна уже не считаются, задержки доставленных - считаются
+        TimeUnit.SECONDS.sleep(options.drainSeconds);
+    }
+
+    private void report() {
+        double seconds = options.durationSeconds;
+        System.out.println();
+        System.out.printf("Measured %d s. Sent counts the sender's protocol; delivered, MB/s and latency count the receiver's.%n",
+            options.durationSeconds);
+        System.out.printf("%-8s %7s %10s %9s %11s %11s %8s %9s %9s %9s %9s %7s %7s%n",
+            "protocol", "clients", "sent", "sent/s", "delivered", "deliv/s", "MB/s", "p50 ms", "p99 ms", "p999 ms",
+            "max ms", "server", "errors");
+        ProtocolStats total = new ProtocolStats(null);
+        for (ProtocolStats protocolStats : stats.values()) {
+            printRow(protocolStats.getProtocol().getCode(), protocolStats, seconds);
+            total.connected.addAndGet(protocolStats.connected.get());
+            total.failed.addAndGet(protocolStats.failed.get());
+            total.sent.add(protocolStats.sent.sum());
+            total.delivered.add(protocolStats.delivered.sum());
+            total.bytesReceived.add(protocolStats.bytesReceived.sum());
+            total.serverMessages.add(protocolStats.serverMessages.sum());
+            total.errors.add(protocolStats.errors.sum());
+            total.latency.add(protocolStats.latency);
+        }
+        if (stats.size() > 1) {
+            printRow("all", total, seconds);
+        }
+        long expected = expectedDeliveries.sum();
+        System.out.printf("%nDelivered %d of %d expected deliveries (%.2f%%); %d connections failed.%n",
+            total.delivered.sum(), expected, expected == 0 ? 0.0 : 100.0 * total.delivered.sum() / expected,
+            total.failed.get());
+    }
+
+    private static void printRow(String name, ProtocolStats row, double seconds) {
+        System.out.printf("%-8s %7d %10d %9.0f %11d %11.0f %8.2f %9.3f %9.3f %9.3f %9.3f %7d %7d%n",
+            name, row.connected.get(), row.sent.sum(), row.sent.sum() / seconds,
+            row.delivered.sum(), row.delivered.sum() / seconds, row.bytesReceived.sum() / seconds / (1024 * 1024),
+            millis(row.latency.percentileMicros(0.5)), millis(row.latency.percentileMicros(0.99)),
+            millis(row.latency.percentileMicros(0.999)), millis(row.latency.getMaxMicros()),
+            row.serverMessages.sum(), row.errors.sum());
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private String marker() {
+        return "lg" + runId + " ";
+    }
+
+    private static String codes(List<ProtocolType> protocols) {
+        StringBuilder codes = new StringBuilder();
+        for (ProtocolType protocol : protocols) {
+            if (codes.length() > 0) {
+                codes.append(',');
+            }
+            codes.append(protocol.getCode());
+        }
+        return codes.toString();
+    }
+
+    private static void sleepUntil(long nanos) throws InterruptedException {
+        long remaining = nanos - System.nanoTime();
+        if (remaining > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+
+    /**
+     * Очередная отправка одного клиента. Если поток отправки отстал, пропущенные запуски
+     * выполняются подряд, но каждый - со своим запланированным временем.
+     */
+    private final class SendTask implements Runnable {
+
+        private final LoadClient client;
+        private final long first;
+        private final long periodNanos;
+        private final int recipients;
+        private long runs;
+
+        SendTask(LoadClient client, long first, long periodNanos, int recipients) {
+            this.client = client;
+            this.first = first;
+            this.periodNanos = periodNanos;
+            this.recipients = recipients;
+        }
+
+        @Override
+        public void run() {
+            long scheduled = first + runs++ * periodNanos;
+            if (scheduled >= window.getUntil()) {
+                return;
+            }
+            int size = options.sizes.next(ThreadLocalRandom.current());
+            if (client.sendChat(scheduled, size) && window.contains(scheduled)) {
+                client.getStats().sent.increment();
+                expectedDeliveries.add(recipients);
+            }
+        }
+    }
+}
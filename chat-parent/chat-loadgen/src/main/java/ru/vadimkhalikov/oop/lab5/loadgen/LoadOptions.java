@@ -0,0 +1,134 @@
+package ru.vadimkhalikov.oop.lab5.loadgen;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+/**
+ * Параметры генератора нагрузки из командной строки вида {@code --clients=2000 --rate=5000}.
+ */
+final class LoadOptions {
+
+    private static final String DEFAULT_HOST = "127.0.0.1";
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_CLIENTS = 1000;
+    private static final String DEFAULT_PROTOCOLS = "java,xml,rest";
+    private static final int DEFAULT_RATE = 1000;
+    private static final String DEFAULT_SIZE = "64:80,1024:15,8192:5";
+    private static final int DEFAULT_ROOMS = 1;
+    private static final int DEFAULT_CONNECT_RATE = 200;
+    private static final int DEFAULT_WARMUP = 5;
+    private static final int DEFAULT_DURATION = 30;
+    private static final int DEFAULT_DRAIN = 3;
+    private static final int DEFAULT_SENDERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    static final String USAGE = String.join(System.lineSeparator(),
+        "Usage: java -jar chat-loadgen.jar [--option=value ...]",
+        "  --host=" + DEFAULT_HOST + "          server address, loopback only",
+        "  --port=" + DEFAULT_PORT,
+        "  --clients=" + DEFAULT_CLIENTS + "           number of connections",
+        "  --protocols=" + DEFAULT_PROTOCOLS + "  protocols assigned to clients in turn (server.protocol=auto for a mix)",
+        "  --rate=" + DEFAULT_RATE + "              chat messages per second from all clients",
+        "  --size=" + DEFAULT_SIZE + "  message length: N, MIN-MAX or SIZE:WEIGHT,...",
+        "  --rooms=" + DEFAULT_ROOMS + "                clients are spread over this many rooms (1 - general room only)",
+        "  --connect-rate=" + DEFAULT_CONNECT_RATE + "       new connections per second",
+        "  --warmup=" + DEFAULT_WARMUP + "               seconds of load before measuring",
+        "  --duration=" + DEFAULT_DURATION + "            measured seconds",
+        "  --drain=" + DEFAULT_DRAIN + "                seconds to wait for messages still in flight",
+        "  --senders=" + DEFAULT_SENDERS + "              threads sending messages");
+
+    final String host;
+    final int port;
+    final int clients;
+    final List<ProtocolType> protocols;
+    final int rate;
+    final MessageSizes sizes;
+    final int rooms;
+    final int connectRate;
+    final int warmupSeconds;
+    final int durationSeconds;
+    final int drainSeconds;
+    final int senders;
+
+    private LoadOptions(Properties props) {
+        host = props.getProperty("host", DEFAULT_HOST);
+        port = Integer.parseInt(props.getProperty("port", String.valueOf(DEFAULT_PORT)));
+        clients = Integer.parseInt(props.getProperty("clients", String.valueOf(DEFAULT_CLIENTS)));
+        protocols = parseProtocols(props.getProperty("protocols", DEFAULT_PROTOCOLS));
+        rate = Integer.parseInt(props.getProperty("rate", String.valueOf(DEFAULT_RATE)));
+        sizes = MessageSizes.parse(props.getProperty("size", DEFAULT_SIZE));
+        rooms = Integer.parseInt(props.getProperty("rooms", String.valueOf(DEFAULT_ROOMS)));
+        connectRate = Integer.parseInt(props.getProperty("connect-rate", String.valueOf(DEFAULT_CONNECT_RATE)));
+        warmupSeconds = Integer.parseInt(props.getProperty("warmup", String.valueOf(DEFAULT_WARMUP)));
+        durationSeconds = Integer.parseInt(props.getProperty("duration", String.valueOf(DEFAULT_DURATION)));
+        drainSeconds = Integer.parseInt(props.getProperty("drain", String.valueOf(DEFAULT_DRAIN)));
+        senders = Integer.parseInt(props.getProperty("senders", String.valueOf(DEFAULT_SENDERS)));
+        if (clients < 2 || rate <= 0 || rooms < 1 || connectRate <= 0 || durationSeconds <= 0
+                || warmupSeconds < 0 || drainSeconds < 0 || senders < 1) {
+            throw new IllegalArgumentException("clients must be at least 2; rate, rooms, connect-rate, duration "
+                + "and senders must be positive; warmup and drain must not be negative");
+        }
+        if (rooms > clients / 2) {
+            throw new IllegalArgumentException("Every room needs at least two clients: rooms=" + rooms + ", clients=" + clients);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException при неизвестном или неверном параметре и адресе сервера не на этой машине
+     */
+    static LoadOptions parse(String[] args) {
+        Properties props = new Properties();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --option=value, got: " + arg);
+            }
+            props.setProperty(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        for (String key : props.stringPropertyNames()) {
+            if (!USAGE.contains("--" + key + "=")) {
+                throw new IllegalArgumentException("Unknown option: --" + key);
+            }
+        }
+        LoadOptions options;
+        try {
+            options = new LoadOptions(props);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number: " + e.getMessage(), e);
+        }
+        requireLoopback(options.host);
+        return options;
+    }
+
+    /**
+     * Генератор открывает тысячи соединений и не должен нагружать чужие серверы:
+     * разрешены только адреса этой машины.
+     */
+    private static void requireLoopback(String host) {
+        InetAddress address;
+        try {
+            address = InetAddress.getByName(host);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Unknown host: " + host, e);
+        }
+        if (!address.isLoopbackAddress()) {
+            throw new IllegalArgumentException("Load generator runs only against a localhost server, got: " + host);
+        }
+    }
+
+    private static List<ProtocolType> parseProtocols(String value) {
+        List<ProtocolType> protocols = new ArrayList<>();
+        for (String code : value.split(",")) {
+            ProtocolType protocol = ProtocolType.fromString(code.trim());
+            if (!protocols.contains(protocol)) {
+                protocols.add(protocol);
+            }
+        }
+        return Collections.unmodifiableList(protocols);
+    }
+}
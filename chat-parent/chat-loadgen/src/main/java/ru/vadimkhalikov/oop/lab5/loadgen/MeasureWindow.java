@@ -0,0 +1,29 @@
+package ru.vadimkhalikov.oop.lab5.loadgen;
+
+/**
+ * Окно замера по {@link System#nanoTime()}: до его начала нагрузка прогревает сервер,
+ * после конца сообщения больше не отправляются. Все клиенты работают в одной JVM,
+ * поэтому время отправки, записанное в текст сообщения, сравнимо со временем получения.
+ */
+final class MeasureWindow {
+
+    private volatile long from = Long.MAX_VALUE;
+    private volatile long until = Long.MAX_VALUE;
+
+    void set(long from, long until) {
+        this.until = until;
+        this.from = from;
+    }
+
+    boolean contains(long nanos) {
+        return nanos >= from && nanos < until;
+    }
+
+    long getFrom() {
+        return from;
+    }
+
+    long getUntil() {
+        return until;
+    }
+}
@@ -0,0 +1,91 @@
+package ru.vadimkhalikov.oop.lab5.loadgen;
+
+import java.util.Random;
+
+/**
+ * Распределение длины текста сообщений нагрузки (в символах). Задается строкой одного из видов:
+ * <ul>
+ *   <li>{@code 256} - все сообщения одной длины;</li>
+ *   <li>{@code 32-1024} - равномерно от 32 до 1024 включительно;</li>
+ *   <li>{@code 64:80,1024:15,8192:5} - длины с весами: 80% по 64 символа, 15% по 1024, 5% по 8192.</li>
+ * </ul>
+ */
+final class MessageSizes {
+
+    private final String spec;
+    private final int[] sizes;
+    // Накопленные веса для выбора длины; null - равномерное распределение от sizes[0] до sizes[1]
+    private final long[] cumulativeWeights;
+
+    private MessageSizes(String spec, int[] sizes, long[] cumulativeWeights) {
+        this.spec = spec;
+        this.sizes = sizes;
+        this.cumulativeWeights = cumulativeWeights;
+    }
+
+    /**
+     * @throws IllegalArgumentException если строка не описывает распределение
+     */
+    static MessageSizes parse(String spec) {
+        String value = spec.trim();
+        try {
+            if (value.contains(":")) {
+                String[] parts = value.split(",");
+                int[] sizes = new int[parts.length];
+                long[] cumulative = new long[parts.length];
+                long total = 0;
+                for (int i = 0; i < parts.length; i++) {
+                    String[] sizeAndWeight = parts[i].trim().split(":");
+                    if (sizeAndWeight.length != 2) {
+                        throw new IllegalArgumentException("Invalid message size distribution: " + spec);
+                    }
+                    sizes[i] = positive(Integer.parseInt(sizeAndWeight[0].trim()), spec);
+                    total += positive(Integer.parseInt(sizeAndWeight[1].trim()), spec);
+                    cumulative[i] = total;
+                }
+                return new MessageSizes(value, sizes, cumulative);
+            }
+            int dash = value.indexOf('-');
+            if (dash > 0) {
+                int min = positive(Integer.parseInt(value.substring(0, dash).trim()), spec);
+                int max = positive(Integer.parseInt(value.substring(dash + 1).trim()), spec);
+                if (max < min) {
+                    throw new IllegalArgumentException("Invalid message size range: " + spec);
+                }
+                return new MessageSizes(value, new int[] {min, max}, null);
+            }
+            int size = positive(Integer.parseInt(value), spec);
+            return new MessageSizes(value, new int[] {size, size}, null);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid message size distribution: " + spec, e);
+        }
+    }
+
+    /**
+     * @return длина текста очередного сообщения
+     */
+    int next(Random random) {
+        if (cumulativeWeights == null) {
+            return sizes[0] + random.nextInt(sizes[1] - sizes[0] + 1);
+        }
+        long point = (long) (random.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (point < cumulativeWeights[i]) {
+                return sizes[i];
+            }
+        }
+        return sizes[sizes.length - 1];
+    }
+
+    private static int positive(int value, String spec) {
+        if (value <= 0) {
+            throw new IllegalArgumentException("Message sizes and weights must be positive: " + spec);
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -0,0 +1,31 @@
+package ru.vadimkhalikov.oop.lab5.loadgen;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+/**
+ * Счетчики нагрузки по клиентам одного протокола. Отправленные и доставленные сообщения и байты
+ * считаются только за окно замера; задержка доставки приписывается протоколу получателя.
+ */
+final class ProtocolStats {
+
+    private final ProtocolType protocol;
+    final AtomicInteger connected = new AtomicInteger();
+    final AtomicInteger failed = new AtomicInteger();
+    final LongAdder sent = new LongAdder();
+    final LongAdder delivered = new LongAdder();
+    final LongAdder bytesReceived = new LongAdder();
+    final LongAdder serverMessages = new LongAdder();
+    final LongAdder errors = new LongAdder();
+    final LatencyRecorder latency = new LatencyRecorder();
+
+    ProtocolStats(ProtocolType protocol) {
+        this.protocol = protocol;
+    }
+
+    ProtocolType getProtocol() {
+        return protocol;
+    }
+}
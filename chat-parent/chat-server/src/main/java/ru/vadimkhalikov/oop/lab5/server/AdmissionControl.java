@@ -0,0 +1,108 @@
+package ru.vadimkhalikov.oop.lab5.server;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Допуск новых соединений. Соединение отклоняется, если с его адреса или со всех адресов вместе
+ * подключаются чаще, чем позволяют корзины токенов, или если достигнут предел соединений.
+ * Решение принимается в потоке приема до выделения ресурсов на соединение,
+ * поэтому волна переподключений не раздувает очереди пула и память сервера.
+ * <p>
+ * Корзины адресов создаются при первом подключении; полные корзины, то есть адреса,
+ * давно не подключавшиеся, периодически удаляются.
+ */
+class AdmissionControl {
+
+    /**
+     * Причина отказа в подключении; текст уходит клиенту в LOGIN_FAILURE.
+     */
+    enum Rejection {
+        SERVER_FULL("Server is full. Try again later."),
+        RATE_LIMITED("Too many connection attempts. Try again later.");
+
+        private final String reason;
+
+        Rejection(String reason) {
+            this.reason = reason;
+        }
+
+        String getReason() {
+            return reason;
+        }
+    }
+
+    private static final long IP_BUCKET_CLEANUP_MS = 60_000;
+
+    private final int maxConnections;
+    // null - скорость не ограничена
+    private final TokenBucket globalBucket;
+    private final int ipRate;
+    private final int ipBurst;
+    private final ConcurrentMap<InetAddress, TokenBucket> ipBuckets = new ConcurrentHashMap<>();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejectedFull = new AtomicLong();
+    private final AtomicLong rejectedRate = new AtomicLong();
+
+    /**
+     * @param maxConnections предел одновременных соединений
+     * @param globalRate допустимая скорость подключений со всех адресов в секунду; 0 - без ограничения
+     * @param globalBurst допустимый всплеск подключений со всех адресов
+     * @param ipRate допустимая скорость подключений с одного адреса в секунду; 0 - без ограничения
+     * @param ipBurst допустимый всплеск подключений с одного адреса
+     */
+    AdmissionControl(int maxConnections, int globalRate, int globalBurst, int ipRate, int ipBurst) {
+        this.maxConnections = maxConnections;
+        this.globalBucket = globalRate > 0 ? new TokenBucket(globalRate, globalBurst) : null;
+        this.ipRate = ipRate;
+        this.ipBurst = ipBurst;
+    }
+
+    /**
+     * Запускает периодическую очистку корзин адресов.
+     */
+    void start(ScheduledExecutorService timer) {
+        if (ipRate > 0) {
+            timer.scheduleWithFixedDelay(() -> ipBuckets.values().removeIf(TokenBucket::isFull),
+                IP_BUCKET_CLEANUP_MS, IP_BUCKET_CLEANUP_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Решает, принять ли новое соединение.
+     *
+     * @param address адрес клиента
+     * @param connections число соединений, уже открытых на сервере
+     * @return причина отказа или null, если соединение принято
+     */
+    Rejection admit(InetAddress address, int connections) {
+        if (ipRate > 0 && !ipBuckets.computeIfAbsent(address, key -> new TokenBucket(ipRate, ipBurst)).tryAcquire()) {
+            rejectedRate.incrementAndGet();
+            return Rejection.RATE_LIMITED;
+        }
+        if (globalBucket != null && !globalBucket.tryAcquire()) {
+            rejectedRate.incrementAndGet();
+            return Rejection.RATE_LIMITED;
+        }
+        if (connections >= maxConnections) {
+            rejectedFull.incrementAndGet();
+            return Rejection.SERVER_FULL;
+        }
+        accepted.incrementAndGet();
+        return null;
+    }
+
+    int getMaxConnections() {
+        return maxConnections;
+    }
+
+    @Override
+    public String toString() {
+        return "max=" + maxConnections + ", accepted=" + accepted.get() + ", rejected full=" + rejectedFull.get()
+            + ", rejected rate=" + rejectedRate.get() + ", tracked addresses=" + ipBuckets.size();
+    }
+}
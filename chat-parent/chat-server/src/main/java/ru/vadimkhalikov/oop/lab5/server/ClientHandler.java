@@ -1,137 +1,273 @@
 package ru.vadimkhalikov.oop.lab5.server;
 
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.net.Socket;
+import java.net.SocketAddress;
 import java.net.SocketException;
-import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ru.vadimkhalikov.oop.lab5.common.Message;
-import ru.vadimkhalikov.oop.lab5.common.protocol.MessageProtocol;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrame;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolDetector;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+import ru.vadimkhalikov.oop.lab5.server.metrics.ServerMetrics;
 
-public class ClientHandler implements Runnable {
+/**
+ * Блокирующее соединение: отдельный поток читает сообщения клиента из сокета.
+ * Исходящие сообщения складываются в ограниченную очередь {@link OutboundQueue} и записываются
+ * в сокет задачей-писателем, поэтому отправка не ждет медленного получателя дольше,
+ * чем позволяет политика очереди.
+ * <p>
+ * Писатель пишет кадры в буфер и сбрасывает его в сокет, когда очередь опустела,
+ * буфер заполнился или с первого несброшенного кадра прошло {@code server.write.flush.ms}.
+ * Поэтому пачка сообщений уходит одним системным вызовом, а не вызовом на сообщение.
+ * <p>
+ * Если протокол не задан заранее, он определяется по первым байтам клиента
+ * ({@link ProtocolDetector}); прочитанные байты возвращаются в поток и разбираются протоколом.
+ */
+public class ClientHandler extends ClientSession implements Runnable {
 
     private static final Logger log = LoggerFactory.getLogger(ClientHandler.class);
-    private static final int SO_TIMEOUT_MS = 30000;
+    // Соединение, сообщения которого читает текущий поток; только такой поток может ждать места в очередях
+    private static final ThreadLocal<ClientHandler> READER = new ThreadLocal<>();
 
     private final Socket clientSocket;
-    private final Server server;
-    private final MessageProtocol protocol;
+    private final Executor writerPool;
+    private final OutboundQueue outbound;
+    private final AtomicBoolean writerScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean closing = new AtomicBoolean(false);
+    private final AtomicBoolean resourcesClosed = new AtomicBoolean(false);
+    private final WriteStats writeStats;
+    private final ServerMetrics metrics;
+    private final long flushIntervalNanos;
+    private final long blockNanos;
+    // Получатели, чьи очереди этот поток чтения переполнил при рассылке; доступ только из потока чтения
+    private final Set<ClientHandler> overfull = new LinkedHashSet<>();
     private OutputStream outputStream;
+    // Буфер писателя; не закрывается, чтобы закрытие не ждало сброса данных медленному клиенту
+    private OutputStream bufferedOut;
     private InputStream inputStream;
-    private String username;
+    // Поток сокета, считающий прочитанные байты и отмечающий начало очередного сообщения
+    private MeteredInputStream meteredIn;
 
-    public ClientHandler(Socket socket, Server server, MessageProtocol protocol) {
+    /**
+     * @param protocolType протокол соединения или null, если его нужно определить по первым байтам
+     */
+    public ClientHandler(Socket socket, Server server, ProtocolType protocolType) {
+        super(server, protocolType);
         this.clientSocket = socket;
-        this.server = server;
-        this.protocol = protocol;
+        this.writerPool = server.getWriterPool();
+        this.writeStats = server.getWriteStats();
+        this.metrics = server.getMetrics();
+        this.outbound = new OutboundQueue(server.getOutboundLimits(), metrics.getWriteDelay());
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(server.getWriteFlushMs());
+        this.blockNanos = TimeUnit.MILLISECONDS.toNanos(server.getOutboundLimits().getBlockMs());
         try {
             this.outputStream = clientSocket.getOutputStream();
-            this.inputStream = clientSocket.getInputStream();
+            this.bufferedOut = new BufferedOutputStream(new CountingOutputStream(outputStream, writeStats), server.getWriteBufferBytes());
+            this.meteredIn = new MeteredInputStream(clientSocket.getInputStream(), metrics);
+            this.inputStream = meteredIn;
         } catch (IOException e) {
             log.error("Error creating streams for client {}: {}", socket.getRemoteSocketAddress(), e.getMessage());
-            close();
+            closeResources();
         }
     }
 
     @Override
     public void run() {
+        READER.set(this);
         try {
-            Message loginMessage = protocol.receiveMessage(inputStream);
-            if (loginMessage.getType() == Message.MessageType.LOGIN_REQUEST) {
-                handleLogin(loginMessage);
-            } else {
-                log.warn("Client {} sent invalid first message type: {}. Disconnecting.", clientSocket.getRemoteSocketAddress(), loginMessage.getType());
-                sendMessage(new Message(Message.MessageType.LOGIN_FAILURE, "Invalid login request"));
-                server.removeClient(this);
-                return;
+            if (getProtocolType() == null) {
+                detectProtocol();
             }
-
-            while (clientSocket.isConnected() && !Thread.currentThread().isInterrupted()) {
+            while (!closing.get() && !clientSocket.isClosed() && !Thread.currentThread().isInterrupted()) {
                 Message clientMessage = protocol.receiveMessage(inputStream);
-                handleMessage(clientMessage);
+                // Разбор считается с первого байта сообщения: ожидание самого сообщения в него не входит
+                long decodeNanos = System.nanoTime() - meteredIn.messageStart();
+                int bytes = meteredIn.messageBytes();
+                meteredIn.nextMessage();
+                onMessage(clientMessage, bytes, decodeNanos);
+                awaitRecipients();
             }
-
-        } catch (SocketTimeoutException e) {
-            log.warn("Client {} timed out. Disconnecting.", username != null ? username : clientSocket.getRemoteSocketAddress());
         } catch (SocketException e) {
-            log.warn("Socket error for client {}: {}. Disconnecting.", username != null ? username : clientSocket.getRemoteSocketAddress(), e.getMessage());
+            if (!clientSocket.isClosed()) {
+                metrics.recordReadError(getProtocolType());
+                log.warn("Socket error for client {}: {}. Disconnecting.", describe(), e.getMessage());
+            }
         } catch (IOException | ClassNotFoundException e) {
             if (!clientSocket.isClosed()) {
-                log.error("Error handling client {}: {}", username != null ? username : clientSocket.getRemoteSocketAddress(), e.getMessage());
+                metrics.recordReadError(getProtocolType());
+                log.error("Error handling client {}: {}", describe(), e.getMessage());
             }
         } finally {
+            READER.remove();
             server.removeClient(this);
         }
     }
 
-    private void handleLogin(Message loginMessage) throws IOException {
-        String requestedUsername = loginMessage.getSender();
-        if (requestedUsername == null || requestedUsername.trim().isEmpty()) {
-            sendMessage(new Message(Message.MessageType.LOGIN_FAILURE, "Username cannot be empty."));
-            server.removeClient(this);
-            log.warn("Login failed for {}: Empty username.", clientSocket.getRemoteSocketAddress());
-            return;
-        }
-        if (server.isUsernameTaken(requestedUsername)) {
-            sendMessage(new Message(Message.MessageType.LOGIN_FAILURE, "Username \"" + requestedUsername + "\" is already taken."));
-            server.removeClient(this);
-            log.warn("Login failed for {}: Username \"{}\" taken.", clientSocket.getRemoteSocketAddress(), requestedUsername);
-            return;
+    /**
+     * Читает первые байты соединения, пока по ним нельзя определить протокол,
+     * и возвращает их в поток, чтобы протокол прочитал первое сообщение целиком.
+     */
+    private void detectProtocol() throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(inputStream, ProtocolDetector.MAX_PREFIX_LENGTH);
+        byte[] prefix = new byte[ProtocolDetector.MAX_PREFIX_LENGTH];
+        int length = 0;
+        ProtocolType detected = null;
+        while (detected == null) {
+            int next = pushback.read();
+            if (next < 0) {
+                throw new EOFException("Connection closed before protocol was detected");
+            }
+            prefix[length++] = (byte) next;
+            detected = ProtocolDetector.detect(prefix, length);
         }
+        pushback.unread(prefix, 0, length);
+        inputStream = pushback;
+        attachProtocol(detected);
+        log.debug("Detected protocol {} for client {}", detected, describe());
+    }
 
-        this.username = requestedUsername;
-        Message successMsg = new Message(Message.MessageType.LOGIN_SUCCESS);
-        sendMessage(successMsg);
-        log.info("Client {} logged in as {}.", clientSocket.getRemoteSocketAddress(), username);
-
-        server.sendHistory(this);
-
-        Message joinMsg = new Message(Message.MessageType.USER_JOINED, username, null);
-        server.broadcastMessage(joinMsg, this);
+    private Object describe() {
+        return getUsername() != null ? getUsername() : clientSocket.getRemoteSocketAddress();
+    }
 
-        server.broadcastUserList();
+    /**
+     * Ставит кадр в очередь на отправку и не ждет. При политике {@link OutboundPolicy#BLOCK}
+     * в потоке, читающем сообщения клиента-отправителя, кадр ставится и в переполненную очередь,
+     * а получатель запоминается: отправитель дождется места у него после рассылки
+     * ({@link #awaitRecipients()}). Так медленный получатель тормозит того, кто производит сообщения,
+     * но не рассылку остальным, таймер сервера, писателей и потоки других задач.
+     *
+     * @throws IOException если очередь исчерпала бюджет и клиента нужно отключить
+     */
+    @Override
+    public void sendFrame(MessageFrame frame) throws IOException {
+        if (outputStream == null || closing.get() || clientSocket.isClosed()) {
+            return;
+        }
+        ClientHandler reader = READER.get();
+        enqueue(outbound, frame, reader != null);
+        if (reader != null && outbound.isOverBudget()) {
+            reader.overfull.add(this);
+        }
+        if (writerScheduled.compareAndSet(false, true)) {
+            writerPool.execute(this::drainOutbound);
+        }
     }
 
-    private void handleMessage(Message message) throws IOException {
-         log.debug("Received message from {}: {}", username, message.getType());
-        switch (message.getType()) {
-            case USER_MESSAGE:
-                if (message.getContent() != null && !message.getContent().trim().isEmpty()) {
-                    message.setSender(this.username);
-                    server.broadcastMessage(message, this);
-                    log.info("User [{}] sent message: {}", username, message.getContent());
+    /**
+     * Перед чтением следующего сообщения ждет, пока получатели, чьи очереди переполнило
+     * обработанное сообщение, не вернутся в пределы бюджета. Все получатели ждутся в пределах
+     * одного {@code server.outbound.block.ms}, то есть фактически ожидание определяет самая медленная
+     * очередь; кто не успел, отключается. Отключение рассылает USER_LEFT и может переполнить
+     * новые очереди, их отправитель ждет в пределах того же срока.
+     */
+    private void awaitRecipients() {
+        if (overfull.isEmpty()) {
+            return;
+        }
+        long deadline = System.nanoTime() + blockNanos;
+        while (!overfull.isEmpty()) {
+            List<ClientHandler> recipients = new ArrayList<>(overfull);
+            overfull.clear();
+            for (ClientHandler recipient : recipients) {
+                if (!recipient.outbound.awaitSpace(deadline)) {
+                    IOException reason = recipient.overflow(recipient.outbound);
+                    log.warn("Error sending message to client {}: {}", recipient.describe(), reason.getMessage());
+                    server.removeClient(recipient);
                 }
-                break;
-            case USER_LIST_REQUEST:
-                 Message userListResponse = new Message(Message.MessageType.USER_LIST_RESPONSE);
-                 userListResponse.setUserList(server.getUsernames());
-                 sendMessage(userListResponse);
-                 log.info("User [{}] requested user list.", username);
-                break;
-            case LOGOUT_REQUEST:
-                log.info("User [{}] requested logout.", username);
-                close();
-                break;
-            default:
-                log.warn("Received unknown message type from {}: {}", username, message.getType());
-                break;
+            }
         }
     }
 
-    public void sendMessage(Message message) throws IOException {
-        if (outputStream != null && !clientSocket.isClosed()) {
-            synchronized (outputStream) {
-                protocol.sendMessage(message, outputStream);
+    /**
+     * Задача-писатель: отправляет все накопленные сообщения.
+     * В каждый момент для соединения работает не более одного писателя.
+     */
+    private void drainOutbound() {
+        try {
+            do {
+                MessageFrame frame;
+                int unflushed = 0;
+                long firstUnflushed = 0;
+                while ((frame = outbound.poll()) != null) {
+                    protocol.writeFrame(frame, bufferedOut);
+                    long now = System.nanoTime();
+                    if (unflushed++ == 0) {
+                        firstUnflushed = now;
+                    } else if (now - firstUnflushed >= flushIntervalNanos) {
+                        flush(unflushed);
+                        unflushed = 0;
+                    }
+                }
+                flush(unflushed);
+                if (closing.get()) {
+                    closeResources();
+                    return;
+                }
+                writerScheduled.set(false);
+            } while ((!outbound.isEmpty() || closing.get()) && writerScheduled.compareAndSet(false, true));
+        } catch (IOException e) {
+            if (!clientSocket.isClosed()) {
+                metrics.recordWriteError(getProtocolType());
+                log.warn("Error writing to client {}: {}. Disconnecting.", describe(), e.getMessage());
             }
+            closeResources();
+            server.removeClient(this);
         }
     }
 
+    private void flush(int frames) throws IOException {
+        if (frames > 0) {
+            bufferedOut.flush();
+            writeStats.recordFrames(frames);
+        }
+    }
+
+    /**
+     * Закрывает соединение. Сообщения, уже стоящие в очереди (например, LOGIN_FAILURE
+     * или причина отключения), дописываются перед закрытием сокета; если клиент
+     * не дочитывает их вовремя, сокет закрывается принудительно.
+     */
+    @Override
     public void close() {
+        if (!closing.compareAndSet(false, true)) {
+            return;
+        }
+        if (writerScheduled.compareAndSet(false, true)) {
+            if (outbound.isEmpty()) {
+                closeResources();
+                return;
+            }
+            writerPool.execute(this::drainOutbound);
+        }
+        closeLater(this::closeResources);
+    }
+
+    private void closeResources() {
+        if (!resourcesClosed.compareAndSet(false, true)) {
+            return;
+        }
+        closing.set(true);
+        outbound.close(null);
+        String username = getUsername();
         try {
             if (protocol != null) {
                 protocol.close();
@@ -139,29 +275,116 @@ public class ClientHandler implements Runnable {
         } catch (IOException e) {
             log.error("Error closing protocol for {}: {}", username, e.getMessage());
         }
-        
+
         try {
             if (inputStream != null) inputStream.close();
         } catch (IOException e) {
             log.error("Error closing input stream for {}: {}", username, e.getMessage());
         }
-        
+
         try {
             if (outputStream != null) outputStream.close();
         } catch (IOException e) {
              log.error("Error closing output stream for {}: {}", username, e.getMessage());
         }
-        
+
         try {
             if (clientSocket != null && !clientSocket.isClosed()) clientSocket.close();
         } catch (IOException e) {
              log.error("Error closing client socket for {}: {}", username, e.getMessage());
         }
-        
+
         log.debug("Closed resources for client handler {}", username);
     }
 
-    public String getUsername() {
-        return username;
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return clientSocket.getRemoteSocketAddress();
+    }
+
+    /**
+     * Поток сокета, считающий прочитанные байты. Запоминает время первого чтения,
+     * вернувшего данные после {@link #nextMessage()}, то есть момент,
+     * когда начало следующего сообщения уже пришло и протокол начал его разбирать,
+     * и сколько байт прочитано с этого момента.
+     */
+    private static final class MeteredInputStream extends FilterInputStream {
+
+        private final ServerMetrics metrics;
+        // 0 - с прошлого сообщения данных еще не было; доступ только из потока чтения
+        private long messageStart;
+        private int messageBytes;
+
+        MeteredInputStream(InputStream in, ServerMetrics metrics) {
+            super(in);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                received(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                received(read);
+            }
+            return read;
+        }
+
+        private void received(int bytes) {
+            if (messageStart == 0) {
+                messageStart = System.nanoTime();
+            }
+            messageBytes += bytes;
+            metrics.recordBytesIn(bytes);
+        }
+
+        /**
+         * @return время начала только что прочитанного сообщения
+         */
+        long messageStart() {
+            return messageStart != 0 ? messageStart : System.nanoTime();
+        }
+
+        /**
+         * @return сколько байт прочитано с начала сообщения
+         */
+        int messageBytes() {
+            return messageBytes;
+        }
+
+        /**
+         * Следующее сообщение начнется со следующего чтения.
+         */
+        void nextMessage() {
+            messageStart = 0;
+            messageBytes = 0;
+        }
+    }
+
+    /**
+     * Поток сокета, считающий вызовы записи.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private final WriteStats stats;
+
+        CountingOutputStream(OutputStream out, WriteStats stats) {
+            super(out);
+            this.stats = stats;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            stats.recordWrite(len);
+        }
     }
-} 
\ No newline at end of file
+}
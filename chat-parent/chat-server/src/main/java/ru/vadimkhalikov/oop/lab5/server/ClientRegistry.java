@@ -0,0 +1,135 @@
+package ru.vadimkhalikov.oop.lab5.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Реестр подключенных клиентов без глобальной блокировки.
+ * <p>
+ * Все соединения хранятся в конкурентном множестве, вошедшие в чат клиенты
+ * дополнительно индексируются по имени без учета регистра. Проверка и захват имени,
+ * удаление и перебор для рассылки не блокируют друг друга. Список имен кэшируется
+ * и пересобирается не чаще одного раза на изменение состава участников.
+ */
+public class ClientRegistry {
+
+    private final Set<ClientSession> sessions = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, ClientSession> byUsername = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+    private volatile UsernameSnapshot snapshot = new UsernameSnapshot(0, Collections.emptyList());
+
+    /**
+     * Регистрирует новое соединение (еще не вошедшее в чат).
+     */
+    public void add(ClientSession session) {
+        sessions.add(session);
+    }
+
+    /**
+     * Атомарно закрепляет имя пользователя за соединением.
+     *
+     * @return false, если имя уже занято или соединение успели удалить
+     */
+    public boolean claimUsername(String username, ClientSession session) {
+        String key = key(username);
+        if (byUsername.putIfAbsent(key, session) != null) {
+            return false;
+        }
+        if (!sessions.contains(session)) {
+            byUsername.remove(key, session);
+            return false;
+        }
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Удаляет соединение и освобождает его имя.
+     *
+     * @return true, если соединение было зарегистрировано
+     */
+    public boolean remove(ClientSession session) {
+        if (!sessions.remove(session)) {
+            return false;
+        }
+        String username = session.getUsername();
+        if (username != null && byUsername.remove(key(username), session)) {
+            version.incrementAndGet();
+        }
+        return true;
+    }
+
+    public boolean isUsernameTaken(String username) {
+        return byUsername.containsKey(key(username));
+    }
+
+    /**
+     * @return соединение пользователя с данным именем или null
+     */
+    public ClientSession findByUsername(String username) {
+        return byUsername.get(key(username));
+    }
+
+    /**
+     * Возвращает неизменяемый отсортированный список имен вошедших пользователей.
+     * Пока состав не меняется, возвращается один и тот же список.
+     */
+    public List<String> getUsernames() {
+        UsernameSnapshot current = snapshot;
+        long currentVersion = version.get();
+        if (current.version == currentVersion) {
+            return current.usernames;
+        }
+        List<String> usernames = new ArrayList<>(byUsername.size());
+        for (ClientSession session : byUsername.values()) {
+            usernames.add(session.getUsername());
+        }
+        usernames.sort(String.CASE_INSENSITIVE_ORDER);
+        List<String> result = Collections.unmodifiableList(usernames);
+        // Если состав изменился во время сборки, снимок устарел и не кэшируется
+        if (version.get() == currentVersion) {
+            snapshot = new UsernameSnapshot(currentVersion, result);
+        }
+        return result;
+    }
+
+    /**
+     * Слабо согласованное представление вошедших в чат соединений для рассылки.
+     * Перебор не блокирует вход и выход других клиентов.
+     */
+    public Collection<ClientSession> loggedIn() {
+        return byUsername.values();
+    }
+
+    /**
+     * Все соединения, включая еще не вошедшие в чат.
+     */
+    public Collection<ClientSession> all() {
+        return sessions;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    private static final class UsernameSnapshot {
+        private final long version;
+        private final List<String> usernames;
+
+        UsernameSnapshot(long version, List<String> usernames) {
+            this.version = version;
+            this.usernames = usernames;
+        }
+    }
+}
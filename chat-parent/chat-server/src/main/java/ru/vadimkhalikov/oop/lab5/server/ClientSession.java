@@ -0,0 +1,346 @@
+package ru.vadimkhalikov.oop.lab5.server;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrame;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrames;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageProtocol;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolFactory;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+import ru.vadimkhalikov.oop.lab5.server.jfr.LoginEvent;
+import ru.vadimkhalikov.oop.lab5.server.jfr.MessageReceiveEvent;
+import ru.vadimkhalikov.oop.lab5.server.jfr.MessageSendEvent;
+
+/**
+ * Общая часть клиентского соединения: вход в чат и обработка входящих сообщений.
+ * Способ ввода-вывода (поток на соединение или NIO) определяется наследником.
+ */
+public abstract class ClientSession {
+
+    private static final Logger log = LoggerFactory.getLogger(ClientSession.class);
+    // Сколько ждать, пока клиент дочитает последние сообщения перед закрытием соединения
+    private static final long CLOSE_GRACE_MS = 1000;
+    // Как часто клиент, превышающий лимит сообщений, получает предупреждение
+    private static final long THROTTLE_NOTICE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    protected final Server server;
+    // null, пока протокол соединения не определен по первым байтам
+    protected volatile MessageProtocol protocol;
+    private volatile ProtocolType protocolType;
+    private volatile String username;
+    // Такт колеса простоя, на котором от клиента пришло последнее сообщение (см. IdleMonitor)
+    volatile long lastActiveTick;
+    // Ограничение скорости сообщений чата; null, если скорость не ограничена
+    private final TokenBucket messageBucket;
+    private final AtomicLong throttledMessages = new AtomicLong();
+    // Когда клиент последний раз предупрежден об отклоненных сообщениях; доступ из потока чтения соединения
+    private long lastThrottleNotice;
+    private boolean throttleNoticeSent;
+
+    /**
+     * @param protocolType протокол соединения или null, если он определяется
+     *                     по первым байтам клиента (см. {@link #attachProtocol(ProtocolType)})
+     */
+    protected ClientSession(Server server, ProtocolType protocolType) {
+        this.server = server;
+        this.messageBucket = server.getMessageRateLimits().newBucket();
+        if (protocolType != null) {
+            attachProtocol(protocolType);
+        }
+    }
+
+    /**
+     * Назначает соединению протокол. Вызывается до чтения первого сообщения клиента,
+     * поэтому ни одно сообщение еще не отправлено.
+     */
+    protected void attachProtocol(ProtocolType type) {
+        this.protocol = ProtocolFactory.createProtocol(type);
+        this.protocolType = type;
+    }
+
+    /**
+     * @return протокол соединения или null, если он еще не определен
+     */
+    public ProtocolType getProtocolType() {
+        return protocolType;
+    }
+
+    /**
+     * Обрабатывает очередное сообщение, полученное от клиента.
+     * Первым сообщением соединения обязан быть LOGIN_REQUEST.
+     *
+     * @param bytes размер сообщения в байтах, как оно пришло от клиента
+     * @param decodeNanos длительность разбора сообщения
+     */
+    protected void onMessage(Message message, int bytes, long decodeNanos) throws IOException {
+        server.recordActivity(this);
+        server.getMetrics().recordDecode(protocolType, decodeNanos);
+        MessageReceiveEvent.emit(protocolType, message.getType(), bytes, decodeNanos, username);
+        if (username != null) {
+            handleMessage(message);
+        } else if (message.getType() == Message.MessageType.LOGIN_REQUEST) {
+            handleLogin(message, bytes);
+        } else {
+            log.warn("Client {} sent invalid first message type: {}. Disconnecting.", getRemoteAddress(), message.getType());
+            sendMessage(new Message(Message.MessageType.LOGIN_FAILURE, "Invalid login request"));
+            server.removeClient(this);
+        }
+    }
+
+    private void handleLogin(Message loginMessage, int bytes) throws IOException {
+        LoginEvent event = new LoginEvent();
+        event.begin();
+        Message.MessageType outcome = login(loginMessage);
+        event.end();
+        if (event.shouldCommit()) {
+            event.set(protocolType, outcome, bytes, loginMessage.getSender());
+            event.commit();
+        }
+    }
+
+    /**
+     * @return LOGIN_SUCCESS или LOGIN_FAILURE
+     */
+    private Message.MessageType login(Message loginMessage) throws IOException {
+        String requestedUsername = loginMessage.getSender();
+        if (requestedUsername == null || requestedUsername.trim().isEmpty()) {
+            sendMessage(reply(loginMessage, new Message(Message.MessageType.LOGIN_FAILURE, "Username cannot be empty.")));
+            server.removeClient(this);
+            log.warn("Login failed for {}: Empty username.", getRemoteAddress());
+            return Message.MessageType.LOGIN_FAILURE;
+        }
+        // Имя выставляется до захвата, чтобы удаление соединения сразу после захвата освободило и имя
+        this.username = requestedUsername;
+        if (!server.claimUsername(requestedUsername, this)) {
+            this.username = null;
+            sendMessage(reply(loginMessage,
+                new Message(Message.MessageType.LOGIN_FAILURE, "Username \"" + requestedUsername + "\" is already taken.")));
+            server.removeClient(this);
+            log.warn("Login failed for {}: Username \"{}\" taken.", getRemoteAddress(), requestedUsername);
+            return Message.MessageType.LOGIN_FAILURE;
+        }
+
+        Message successMsg = new Message(Message.MessageType.LOGIN_SUCCESS);
+        sendMessage(reply(loginMessage, successMsg));
+        log.info("Client {} logged in as {}.", getRemoteAddress(), username);
+
+        server.sendHistory(this);
+
+        Message joinMsg = new Message(Message.MessageType.USER_JOINED, username, null);
+        server.broadcastMessage(joinMsg, this);
+
+        server.announceLogin(this);
+        return Message.MessageType.LOGIN_SUCCESS;
+    }
+
+    private void handleMessage(Message message) throws IOException {
+        log.debug("Received message from {}: {}", username, message.getType());
+        switch (message.getType()) {
+            case USER_MESSAGE:
+                if (message.getContent() != null && !message.getContent().trim().isEmpty()) {
+                    if (!server.isRoomMember(this, message.getRoom())) {
+                        sendMessage(new Message(Message.MessageType.SERVER_MESSAGE,
+                            "You are not in room " + message.getRoom() + ". Join it first."));
+                        break;
+                    }
+                    if (!acquireMessageToken()) {
+                        break;
+                    }
+                    message.setSender(this.username);
+                    server.broadcastMessage(message, this);
+                    log.info("User [{}] sent message: {}", username, message.getContent());
+                }
+                break;
+            case ROOM_JOIN_REQUEST:
+                server.joinRoom(this, message);
+                log.info("User [{}] requested to join room {}.", username, message.getRoom());
+                break;
+            case ROOM_LEAVE_REQUEST:
+                server.leaveRoom(this, message.getRoom());
+                log.info("User [{}] requested to leave room {}.", username, message.getRoom());
+                break;
+            case USER_LIST_REQUEST:
+                sendMessage(reply(message, server.getUserListSnapshot()));
+                log.info("User [{}] requested user list.", username);
+                break;
+            case HISTORY_REQUEST:
+                server.sendHistoryPage(this, message);
+                log.debug("User [{}] requested history before {}.", username, message.getSequence());
+                break;
+            case PONG:
+                // Ответ на PING нужен только как признак жизни, активность уже учтена
+                break;
+            case LOGOUT_REQUEST:
+                log.info("User [{}] requested logout.", username);
+                server.removeClient(this);
+                break;
+            default:
+                log.warn("Received unknown message type from {}: {}", username, message.getType());
+                break;
+        }
+    }
+
+    /**
+     * Повторяет в ответе номер запроса, чтобы клиент отличил ответ от сообщения, присланного без запроса.
+     *
+     * @return ответ
+     */
+    static Message reply(Message request, Message response) {
+        response.setRequestId(request.getRequestId());
+        return response;
+    }
+
+    /**
+     * Берет токен на рассылку сообщения чата. Сообщение сверх лимита не рассылается;
+     * предупреждение об этом клиент получает не чаще раза в секунду,
+     * чтобы ответы на поток сообщений сами не превратились в такой же поток.
+     *
+     * @return true, если сообщение можно рассылать
+     */
+    private boolean acquireMessageToken() throws IOException {
+        if (messageBucket == null || messageBucket.tryAcquire()) {
+            return true;
+        }
+        throttledMessages.incrementAndGet();
+        MessageRateLimits limits = server.getMessageRateLimits();
+        limits.recordThrottled();
+        long now = System.nanoTime();
+        if (!throttleNoticeSent || now - lastThrottleNotice >= THROTTLE_NOTICE_INTERVAL_NANOS) {
+            throttleNoticeSent = true;
+            lastThrottleNotice = now;
+            sendMessage(new Message(Message.MessageType.SERVER_MESSAGE,
+                "You are sending messages too fast (limit " + limits.getRatePerSecond() + " per second). "
+                    + "Messages over the limit are not delivered."));
+            log.warn("User [{}] exceeded the message rate limit.", username);
+        }
+        return false;
+    }
+
+    /**
+     * @return сколько сообщений чата этого клиента отклонено ограничением скорости
+     */
+    public long getThrottledMessages() {
+        return throttledMessages.get();
+    }
+
+    /**
+     * Отправляет сообщение клиенту, кодируя его протоколом соединения.
+     *
+     * @param message сообщение для отправки
+     * @return размер отправленного кадра в байтах
+     * @throws IOException при ошибке кодирования или записи в соединение
+     */
+    public int sendMessage(Message message) throws IOException {
+        return send(server.encode(message, protocolType));
+    }
+
+    /**
+     * Отправляет клиенту уже закодированный кадр. Один кадр может
+     * отправляться многим клиентам с тем же протоколом.
+     *
+     * @param frame кадр, закодированный протоколом этого соединения
+     * @throws IOException при ошибке записи в соединение
+     */
+    public abstract void sendFrame(MessageFrame frame) throws IOException;
+
+    /**
+     * Отправляет клиенту кадр сообщения в протоколе этого соединения. Кадр кодируется
+     * один раз для всех получателей с тем же протоколом. Сообщение, которое не удалось
+     * закодировать, пропускается.
+     *
+     * @param frames кадры рассылаемого сообщения
+     * @return размер отправленного кадра в байтах или 0, если сообщение пропущено
+     * @throws IOException при ошибке записи в соединение
+     */
+    public int sendFrames(MessageFrames frames) throws IOException {
+        MessageFrame frame;
+        try {
+            frame = frames.get(protocolType);
+        } catch (IOException e) {
+            log.error("Error encoding {} message for {}: {}", frames.getMessage().getType(), username, e.getMessage());
+            return 0;
+        }
+        return send(frame);
+    }
+
+    /**
+     * Передает кадр соединению; долгая передача (ожидание места в очереди, медленная запись)
+     * попадает в JFR как {@link MessageSendEvent}.
+     */
+    private int send(MessageFrame frame) throws IOException {
+        MessageSendEvent event = new MessageSendEvent();
+        event.begin();
+        sendFrame(frame);
+        event.end();
+        if (event.shouldCommit()) {
+            event.set(protocolType, frame, username);
+            event.commit();
+        }
+        return frame.length();
+    }
+
+    /**
+     * Ставит кадр в исходящую очередь соединения. Если очередь исчерпала бюджет
+     * и политика требует отключения, в очереди остается только сообщение о причине.
+     *
+     * @param awaitLater дождется ли текущий поток места в очереди после рассылки
+     * @throws IOException если клиента нужно отключить
+     */
+    protected void enqueue(OutboundQueue outbound, MessageFrame frame, boolean awaitLater) throws IOException {
+        if (!outbound.offer(frame, awaitLater)) {
+            throw overflow(outbound);
+        }
+    }
+
+    /**
+     * Оставляет в переполненной очереди только сообщение о причине отключения.
+     *
+     * @return исключение с причиной отключения
+     */
+    protected IOException overflow(OutboundQueue outbound) {
+        String reason = "Disconnected: client is not reading messages fast enough (" + outbound.describe() + " pending)";
+        MessageFrame reasonFrame = null;
+        try {
+            reasonFrame = protocol.encode(new Message(Message.MessageType.SERVER_MESSAGE, reason));
+        } catch (IOException e) {
+            log.error("Error encoding disconnect reason for {}: {}", username, e.getMessage());
+        }
+        outbound.close(reasonFrame);
+        return new IOException(reason);
+    }
+
+    /**
+     * Закрывает соединение принудительно, если клиент не дочитал оставшиеся сообщения за отведенное время.
+     */
+    protected void closeLater(Runnable forceClose) {
+        try {
+            server.getTimer().schedule(forceClose, CLOSE_GRACE_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Сервер останавливается
+            forceClose.run();
+        }
+    }
+
+    /**
+     * Закрывает соединение и освобождает связанные с ним ресурсы.
+     * Повторный вызов допустим и ничего не делает.
+     */
+    public abstract void close();
+
+    /**
+     * @return адрес удаленной стороны соединения
+     */
+    public abstract SocketAddress getRemoteAddress();
+
+    public String getUsername() {
+        return username;
+    }
+}
@@ -0,0 +1,86 @@
+package ru.vadimkhalikov.oop.lab5.server;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.server.cluster.ClusterListener;
+
+/**
+ * События кластера: пересланные соседями сообщения рассылаются локальным клиентам
+ * без повторной пересылки, изменения каталога попадают в список пользователей.
+ */
+class ClusterEvents implements ClusterListener {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterEvents.class);
+
+    private final Server server;
+    private final ClientRegistry clients;
+    private final PresencePublisher presence;
+    private final String nodeId;
+
+    /**
+     * @param nodeId идентификатор этого узла
+     */
+    ClusterEvents(Server server, ClientRegistry clients, PresencePublisher presence, String nodeId) {
+        this.server = server;
+        this.clients = clients;
+        this.presence = presence;
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Вход и выход с именем, которое занято локальным пользователем, не рассылается:
+     * это пользователь другого узла, проигравший спор за имя, а локальный пользователь остается в чате.
+     */
+    @Override
+    public void onRemoteMessage(String nodeId, Message message) {
+        boolean presenceEvent = message.getType() == Message.MessageType.USER_JOINED
+            || message.getType() == Message.MessageType.USER_LEFT;
+        if (presenceEvent && message.getSender() != null && clients.findByUsername(message.getSender()) != null) {
+            return;
+        }
+        server.deliver(message, null, true);
+    }
+
+    @Override
+    public void onRemoteUsersJoined(String nodeId, Collection<String> usernames) {
+        for (String username : usernames) {
+            presence.remoteJoined(username);
+            resolveUsernameConflict(nodeId, username);
+        }
+    }
+
+    @Override
+    public void onRemoteUsersLeft(String nodeId, Collection<String> usernames) {
+        for (String username : usernames) {
+            // Имя могло остаться за локальным пользователем, выиграв спор за него
+            if (clients.findByUsername(username) == null) {
+                presence.remoteLeft(username);
+            }
+        }
+    }
+
+    @Override
+    public List<String> localUsernames() {
+        return clients.getUsernames();
+    }
+
+    /**
+     * Два узла могут почти одновременно впустить пользователей с одним именем: каталог кластера
+     * узнает о входе с задержкой пересылки. Имя остается за узлом с меньшим идентификатором,
+     * остальные узлы отключают своего пользователя.
+     */
+    private void resolveUsernameConflict(String remoteNodeId, String username) {
+        ClientSession local = clients.findByUsername(username);
+        if (local != null && nodeId.compareTo(remoteNodeId) > 0) {
+            log.warn("User {} is also logged in on cluster node {}. Disconnecting the local session.", username, remoteNodeId);
+            server.sendMessageToClient(new Message(Message.MessageType.SERVER_MESSAGE,
+                "Username \"" + username + "\" is already used on another server."), local);
+            server.removeClient(local);
+        }
+    }
+}
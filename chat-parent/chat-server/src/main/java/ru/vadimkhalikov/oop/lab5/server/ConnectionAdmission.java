@@ -0,0 +1,141 @@
+package ru.vadimkhalikov.oop.lab5.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrames;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolDetector;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolFactory;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+/**
+ * Прием соединений в потоке приема: решение {@link AdmissionControl} и ответ отклоненным.
+ * Отклоненное соединение получает LOGIN_FAILURE с причиной и закрывается,
+ * не получив ни потоков, ни очередей.
+ */
+class ConnectionAdmission {
+
+    // Сколько отклоненное соединение остается открытым, чтобы дочитать запрос клиента
+    private static final long REJECT_GRACE_MS = 250;
+
+    private final AdmissionControl control;
+    // null - все протоколы на одном порту, протокол отклоненного соединения определяется по первым байтам
+    private final ProtocolType protocolType;
+    private final ScheduledExecutorService timer;
+    // Ответы отклоненным соединениям, кодируются по разу на протокол
+    private final Map<AdmissionControl.Rejection, MessageFrames> rejectionFrames = new EnumMap<>(AdmissionControl.Rejection.class);
+
+    /**
+     * @param protocolType протокол сервера или null, если протокол определяется по первым байтам
+     * @param timer планировщик отложенного закрытия отклоненных соединений
+     * @param encoder кодировщик ответов для всех протоколов
+     */
+    ConnectionAdmission(AdmissionControl control, ProtocolType protocolType, ScheduledExecutorService timer,
+            Function<Message, MessageFrames> encoder) {
+        this.control = control;
+        this.protocolType = protocolType;
+        this.timer = timer;
+        for (AdmissionControl.Rejection rejection : AdmissionControl.Rejection.values()) {
+            rejectionFrames.put(rejection, encoder.apply(new Message(Message.MessageType.LOGIN_FAILURE, rejection.getReason())));
+        }
+    }
+
+    void start() {
+        control.start(timer);
+    }
+
+    /**
+     * Проверяет, можно ли принять соединение, и отвечает отклоненному.
+     *
+     * @param connections число соединений, уже открытых на сервере
+     * @return true, если соединение принято
+     */
+    boolean admit(Socket socket, int connections) {
+        AdmissionControl.Rejection rejection = control.admit(socket.getInetAddress(), connections);
+        if (rejection == null) {
+            return true;
+        }
+        if (protocolType != null) {
+            // Протокол известен: ответ и FIN уходят сразу
+            replyRejection(socket, rejection, protocolType);
+        }
+        // Сокет закрывается чуть позже: запрос входа, пришедший после закрытия, вызвал бы RST,
+        // а RST может уничтожить у клиента еще не прочитанный ответ
+        try {
+            timer.schedule(() -> closeRejected(socket, rejection), REJECT_GRACE_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            closeRejected(socket, rejection);
+        }
+        return false;
+    }
+
+    private void replyRejection(Socket socket, AdmissionControl.Rejection rejection, ProtocolType type) {
+        try {
+            OutputStream out = socket.getOutputStream();
+            ProtocolFactory.createProtocol(type).writeFrame(rejectionFrames.get(rejection).get(type), out);
+            out.flush();
+            socket.shutdownOutput();
+        } catch (IOException e) {
+            // Клиенту не удалось ответить, соединение все равно закрывается
+        }
+    }
+
+    /**
+     * Закрывает отклоненное соединение. На общем порту ответ отправляется только сейчас,
+     * когда по пришедшим байтам можно определить протокол клиента.
+     */
+    private void closeRejected(Socket socket, AdmissionControl.Rejection rejection) {
+        try {
+            InputStream in = socket.getInputStream();
+            if (protocolType == null) {
+                ProtocolType type = detectAvailableProtocol(in);
+                if (type != null) {
+                    replyRejection(socket, rejection, type);
+                }
+            }
+            in.skip(in.available());
+        } catch (IOException e) {
+            // Соединение закрывается в любом случае
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Закрытие отклоненного соединения
+            }
+        }
+    }
+
+    /**
+     * Определяет протокол отклоняемого соединения по уже пришедшим байтам, не дожидаясь остальных.
+     *
+     * @return протокол или null, если байтов пока недостаточно
+     */
+    private static ProtocolType detectAvailableProtocol(InputStream in) throws IOException {
+        byte[] prefix = new byte[ProtocolDetector.MAX_PREFIX_LENGTH];
+        int length = 0;
+        ProtocolType detected = null;
+        while (detected == null && length < prefix.length && in.available() > 0) {
+            int next = in.read();
+            if (next < 0) {
+                break;
+            }
+            prefix[length++] = (byte) next;
+            detected = ProtocolDetector.detect(prefix, length);
+        }
+        return detected;
+    }
+
+    @Override
+    public String toString() {
+        return control.toString();
+    }
+}
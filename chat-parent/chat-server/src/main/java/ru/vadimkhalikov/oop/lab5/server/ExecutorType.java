@@ -0,0 +1,41 @@
+package ru.vadimkhalikov.oop.lab5.server;
+
+/**
+ * Вид потоков, на которых выполняются блокирующие обработчики клиентов.
+ */
+public enum ExecutorType {
+    /** Пул платформенных потоков фиксированного размера {@code server.maxclients}. */
+    PLATFORM("platform"),
+    /** Новый виртуальный поток на каждое соединение (требуется Java 21). */
+    VIRTUAL("virtual");
+
+    private final String code;
+
+    ExecutorType(String code) {
+        this.code = code;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    /**
+     * Возвращает вид потоков по его строковому коду.
+     *
+     * @param code строковой код
+     * @return соответствующий вид потоков
+     * @throws IllegalArgumentException если код неизвестен
+     */
+    public static ExecutorType fromString(String code) {
+        if (code == null) {
+            return PLATFORM;
+        }
+
+        for (ExecutorType type : values()) {
+            if (type.code.equalsIgnoreCase(code)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown executor type: " + code);
+    }
+}
@@ -0,0 +1,108 @@
+package ru.vadimkhalikov.oop.lab5.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.server.history.HistoryEntry;
+import ru.vadimkhalikov.oop.lab5.server.history.HistoryLog;
+import ru.vadimkhalikov.oop.lab5.server.history.MessageHistory;
+import ru.vadimkhalikov.oop.lab5.server.jfr.HistoryReplayEvent;
+import ru.vadimkhalikov.oop.lab5.server.room.Room;
+import ru.vadimkhalikov.oop.lab5.server.room.RoomRegistry;
+
+/**
+ * Ответы на HISTORY_REQUEST. Старые страницы читаются из журнала на диске, поэтому запросы
+ * выполняет отдельный поток {@code history-reader}: поток чтения клиента и цикл событий
+ * {@code nio}, обслуживающий сотни соединений, не ждут диска. Запросы выполняются по одному,
+ * в порядке поступления: ответы клиенту приходят в порядке его запросов.
+ */
+class HistoryPager {
+
+    private final Server server;
+    private final RoomRegistry rooms;
+    private final int pageMax;
+    private final ExecutorService reader = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "history-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param pageMax предельный размер страницы
+     */
+    HistoryPager(Server server, RoomRegistry rooms, int pageMax) {
+        this.server = server;
+        this.rooms = rooms;
+        this.pageMax = pageMax;
+    }
+
+    /**
+     * Ставит запрос страницы в очередь потока чтения истории.
+     */
+    void request(ClientSession client, Message request) {
+        try {
+            reader.execute(() -> sendPage(client, request));
+        } catch (RejectedExecutionException e) {
+            // Сервер останавливается, отвечать уже некому
+        }
+    }
+
+    void shutdown() {
+        reader.shutdown();
+    }
+
+    /**
+     * Отвечает страницей истории комнаты запроса, предшествующей курсору.
+     * Недавние сообщения берутся из кольцевого буфера, более старые - из журнала на диске.
+     * Курсор ответа - номер, который нужно передать в следующем запросе,
+     * или null, если более старых сообщений нет. Историю комнаты видят только ее участники.
+     */
+    private void sendPage(ClientSession client, Message request) {
+        HistoryReplayEvent event = new HistoryReplayEvent();
+        event.begin();
+        Message response = ClientSession.reply(request, new Message(Message.MessageType.HISTORY_PAGE));
+        Room room = rooms.find(request.getRoom());
+        if (room == null || !room.isMember(client)) {
+            response.setRoom(request.getRoom());
+            response.setMessages(new ArrayList<>());
+            server.sendMessageToClient(response, client);
+            return;
+        }
+        response.setRoom(server.roomName(room));
+        MessageHistory messageHistory = room.getHistory();
+        HistoryLog historyLog = room.getLog();
+        long before = request.getSequence() != null ? request.getSequence() : messageHistory.nextSequence();
+        int limit = request.getLimit() != null ? Math.max(1, Math.min(request.getLimit(), pageMax)) : pageMax;
+        long from = Math.max(0, before - limit);
+
+        List<Message> page = new ArrayList<>(limit);
+        long ringStart = Math.max(from, messageHistory.earliestSequence());
+        long earliest = messageHistory.earliestSequence();
+        if (historyLog != null) {
+            if (from < ringStart) {
+                page.addAll(historyLog.read(from, Math.min(before, ringStart)));
+            }
+            earliest = Math.min(earliest, historyLog.getFirstSequence());
+        }
+        for (HistoryEntry entry : messageHistory.range(ringStart, before)) {
+            page.add(entry.getMessage());
+        }
+        page.removeIf(msg -> !Server.isHistoryMessage(msg));
+
+        response.setMessages(page);
+        if (from > earliest) {
+            response.setSequence(from);
+        }
+        int bytes = server.sendMessageToClient(response, client);
+        event.end();
+        if (event.shouldCommit()) {
+            event.set(client.getProtocolType(), Message.MessageType.HISTORY_REQUEST, bytes, page.size(),
+                room.getName(), client.getUsername());
+            event.commit();
+        }
+    }
+}
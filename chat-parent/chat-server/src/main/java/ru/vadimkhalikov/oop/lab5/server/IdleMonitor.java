@@ -0,0 +1,181 @@
+package ru.vadimkhalikov.oop.lab5.server;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrames;
+
+/**
+ * Поиск простаивающих соединений на хешированном колесе таймеров.
+ * <p>
+ * Колесо - кольцо корзин, по корзине на такт {@code tickMs}; общий таймер сервера раз в такт
+ * разбирает одну корзину. Каждое соединение лежит ровно в одной корзине - такта, когда его нужно
+ * проверить. Входящее сообщение только запоминает номер текущего такта в соединении
+ * и корзин не трогает, поэтому учет активности стоит O(1) без блокировок.
+ * При проверке соединение, которое успело проявить активность, перекладывается в корзину
+ * своего нового срока. Молчащему дольше {@code pingMs} вошедшему клиенту отправляется PING,
+ * молчащее дольше {@code timeoutMs} соединение отключается. Отдельных потоков и таймеров
+ * на соединение нет, чтение из сокета не ограничивается таймаутом.
+ * <p>
+ * Колесо вращает общий поток {@code server-timer}, поэтому PING и сообщение об отключении
+ * только ставятся в исходящую очередь и не ждут в ней места даже при политике
+ * {@link OutboundPolicy#BLOCK}: клиент с заполненной очередью теряет старые сообщения чата
+ * или отключается, но не задерживает такт колеса и остальные задачи таймера.
+ */
+class IdleMonitor {
+
+    private static final Logger log = LoggerFactory.getLogger(IdleMonitor.class);
+
+    private final Server server;
+    private final ClientRegistry clients;
+    private final ScheduledExecutorService timer;
+    private final long tickMs;
+    private final long pingTicks;
+    private final long timeoutTicks;
+    private final Queue<ClientSession>[] wheel;
+    private final int mask;
+    // PING один на все соединения, кодируется по разу на протокол
+    private final MessageFrames ping;
+    private final AtomicLong pings = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    // Номер текущего такта; пишет только поток таймера
+    private volatile long tick;
+
+    /**
+     * @param timer планировщик, на котором вращается колесо
+     * @param tickMs длительность такта - точность, с которой отслеживается простой
+     * @param pingMs простой, после которого вошедшему клиенту отправляется PING
+     * @param timeoutMs простой, после которого соединение отключается
+     */
+    @SuppressWarnings("unchecked")
+    IdleMonitor(Server server, ClientRegistry clients, ScheduledExecutorService timer,
+                long tickMs, long pingMs, long timeoutMs) {
+        this.server = server;
+        this.clients = clients;
+        this.timer = timer;
+        this.tickMs = Math.max(1, tickMs);
+        this.timeoutTicks = toTicks(timeoutMs);
+        this.pingTicks = Math.min(toTicks(pingMs), timeoutTicks);
+        // Любой срок укладывается в один оборот колеса, поэтому счетчик оборотов не нужен
+        int size = Integer.highestOneBit((int) Math.min(timeoutTicks, 1 << 20)) << 1;
+        this.wheel = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.mask = size - 1;
+        this.ping = server.encodeFrames(new Message(Message.MessageType.PING));
+    }
+
+    private long toTicks(long ms) {
+        return Math.max(1, (ms + tickMs - 1) / tickMs);
+    }
+
+    void start() {
+        timer.scheduleAtFixedRate(this::advance, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Начинает отслеживать новое соединение; оно считается активным с текущего такта.
+     */
+    void register(ClientSession session) {
+        long now = tick;
+        session.lastActiveTick = now;
+        schedule(session, now + pingTicks);
+    }
+
+    /**
+     * Отмечает активность соединения. Вызывается на каждое входящее сообщение.
+     */
+    void touch(ClientSession session) {
+        session.lastActiveTick = tick;
+    }
+
+    private void schedule(ClientSession session, long deadline) {
+        wheel[(int) (Math.max(deadline, tick + 1) & mask)].add(session);
+    }
+
+    private void advance() {
+        try {
+            long now = tick + 1;
+            tick = now;
+            Queue<ClientSession> bucket = wheel[(int) (now & mask)];
+            ClientSession session;
+            while ((session = bucket.poll()) != null) {
+                check(session, now);
+            }
+        } catch (RuntimeException e) {
+            // Исключение остановило бы периодическую задачу навсегда
+            log.error("Error checking idle connections", e);
+        }
+    }
+
+    private void check(ClientSession session, long now) {
+        if (!clients.all().contains(session)) {
+            // Соединение уже удалено, из колеса оно просто выпадает
+            return;
+        }
+        long lastActive = session.lastActiveTick;
+        long idle = now - lastActive;
+        if (idle >= timeoutTicks) {
+            evict(session, idle);
+        } else if (idle >= pingTicks) {
+            // Еще не вошедший клиент PING не получает: он должен успеть войти до таймаута
+            if (session.getUsername() == null || sendPing(session)) {
+                schedule(session, lastActive + timeoutTicks);
+            }
+        } else {
+            schedule(session, lastActive + pingTicks);
+        }
+    }
+
+    /**
+     * Ставит PING в очередь соединения, не дожидаясь в ней места.
+     *
+     * @return false, если PING отправить не удалось и соединение удалено
+     */
+    private boolean sendPing(ClientSession session) {
+        try {
+            session.sendFrames(ping);
+            pings.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            log.warn("Error sending ping to client {}: {}", session.getUsername(), e.getMessage());
+            server.removeClient(session);
+            return false;
+        }
+    }
+
+    /**
+     * Отключает молчащее соединение. Причина ставится в очередь без ожидания,
+     * закрытие сокета после дочитывания очереди выполняет писатель соединения или его цикл событий.
+     */
+    private void evict(ClientSession session, long idleTicks) {
+        evictions.incrementAndGet();
+        long idleMs = idleTicks * tickMs;
+        log.info("Client {} has been idle for {} ms. Disconnecting.",
+            session.getUsername() != null ? session.getUsername() : session.getRemoteAddress(), idleMs);
+        if (session.getUsername() != null) {
+            try {
+                session.sendMessage(new Message(Message.MessageType.SERVER_MESSAGE,
+                    "Disconnected: no activity for " + idleMs + " ms"));
+            } catch (IOException e) {
+                // Клиент все равно отключается
+            }
+        }
+        server.removeClient(session);
+    }
+
+    @Override
+    public String toString() {
+        return "tick=" + tickMs + "ms, ping after " + pingTicks * tickMs + "ms, timeout " + timeoutTicks * tickMs
+            + "ms, pings=" + pings.get() + ", evicted=" + evictions.get();
+    }
+}
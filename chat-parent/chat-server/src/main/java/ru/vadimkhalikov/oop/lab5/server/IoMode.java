@@ -0,0 +1,41 @@
+package ru.vadimkhalikov.oop.lab5.server;
+
+/**
+ * Модель ввода-вывода сервера.
+ */
+public enum IoMode {
+    /** Отдельный поток на каждое соединение, блокирующее чтение из сокета. */
+    BLOCKING("blocking"),
+    /** Небольшое число потоков-циклов событий на {@code Selector}. */
+    NIO("nio");
+
+    private final String code;
+
+    IoMode(String code) {
+        this.code = code;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    /**
+     * Возвращает режим по его строковому коду.
+     *
+     * @param code строковой код режима
+     * @return соответствующий режим
+     * @throws IllegalArgumentException если код режима неизвестен
+     */
+    public static IoMode fromString(String code) {
+        if (code == null) {
+            return BLOCKING;
+        }
+
+        for (IoMode mode : values()) {
+            if (mode.code.equalsIgnoreCase(code)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown io mode: " + code);
+    }
+}
@@ -0,0 +1,53 @@
+package ru.vadimkhalikov.oop.lab5.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ограничение скорости сообщений чата от одного пользователя и счетчик отклоненных сообщений,
+ * общий для всех соединений сервера. Каждое соединение получает свою корзину токенов.
+ */
+public class MessageRateLimits {
+
+    private final int ratePerSecond;
+    private final int burst;
+
+    private final LongAdder throttled = new LongAdder();
+
+    /**
+     * @param ratePerSecond допустимая средняя скорость сообщений в секунду; 0 - без ограничения
+     * @param burst допустимый всплеск сообщений подряд
+     */
+    public MessageRateLimits(int ratePerSecond, int burst) {
+        this.ratePerSecond = Math.max(0, ratePerSecond);
+        this.burst = Math.max(1, burst);
+    }
+
+    public int getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * @return корзина для нового соединения или null, если скорость не ограничена
+     */
+    TokenBucket newBucket() {
+        return ratePerSecond > 0 ? new TokenBucket(ratePerSecond, burst) : null;
+    }
+
+    void recordThrottled() {
+        throttled.increment();
+    }
+
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "rate=" + (ratePerSecond > 0 ? ratePerSecond + "/s" : "unlimited") + ", burst=" + burst
+            + ", throttled=" + throttled.sum();
+    }
+}
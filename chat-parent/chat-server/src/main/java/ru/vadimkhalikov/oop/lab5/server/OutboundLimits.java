@@ -0,0 +1,113 @@
+package ru.vadimkhalikov.oop.lab5.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Бюджет исходящей очереди одного соединения и счетчики срабатывания политики,
+ * общие для всех соединений сервера.
+ */
+public class OutboundLimits {
+
+    private final OutboundPolicy policy;
+    private final int maxMessages;
+    private final long maxBytes;
+    private final long blockMs;
+
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder blockTimeouts = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder droppedBytes = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+
+    /**
+     * @param policy политика при исчерпании бюджета
+     * @param maxMessages предельное число сообщений в очереди
+     * @param maxBytes предельный суммарный размер кадров в очереди
+     * @param blockMs сколько ждать места в очереди при политике {@link OutboundPolicy#BLOCK}
+     */
+    public OutboundLimits(OutboundPolicy policy, int maxMessages, long maxBytes, long blockMs) {
+        this.policy = policy;
+        this.maxMessages = Math.max(1, maxMessages);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.blockMs = Math.max(0, blockMs);
+    }
+
+    public OutboundPolicy getPolicy() {
+        return policy;
+    }
+
+    public int getMaxMessages() {
+        return maxMessages;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getBlockMs() {
+        return blockMs;
+    }
+
+    void recordBlocked() {
+        blocked.increment();
+    }
+
+    void recordBlockTimeout() {
+        blockTimeouts.increment();
+    }
+
+    void recordDropped(int bytes) {
+        dropped.increment();
+        droppedBytes.add(bytes);
+    }
+
+    void recordDisconnected() {
+        disconnected.increment();
+    }
+
+    /**
+     * @return сколько раз отправитель ждал места в очереди
+     */
+    public long getBlocked() {
+        return blocked.sum();
+    }
+
+    /**
+     * @return сколько раз место в очереди так и не освободилось за отведенное время
+     */
+    public long getBlockTimeouts() {
+        return blockTimeouts.sum();
+    }
+
+    /**
+     * @return сколько сообщений чата отброшено
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getDroppedBytes() {
+        return droppedBytes.sum();
+    }
+
+    /**
+     * @return сколько клиентов отключено из-за переполнения очереди
+     */
+    public long getDisconnected() {
+        return disconnected.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "OutboundLimits{" +
+                "policy=" + policy.getCode() +
+                ", maxMessages=" + maxMessages +
+                ", maxBytes=" + maxBytes +
+                ", blocked=" + getBlocked() +
+                ", blockTimeouts=" + getBlockTimeouts() +
+                ", dropped=" + getDropped() +
+                ", droppedBytes=" + getDroppedBytes() +
+                ", disconnected=" + getDisconnected() +
+                '}';
+    }
+}
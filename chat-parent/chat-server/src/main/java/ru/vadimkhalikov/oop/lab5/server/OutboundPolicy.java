@@ -0,0 +1,48 @@
+package ru.vadimkhalikov.oop.lab5.server;
+
+/**
+ * Что делать, когда исходящая очередь клиента исчерпала бюджет сообщений или байт.
+ */
+public enum OutboundPolicy {
+    /**
+     * Ждать освобождения места не дольше {@code server.outbound.block.ms}, затем отключить клиента.
+     * Ждет только поток, читающий сообщения отправителя, и только после рассылки сообщения всем получателям,
+     * то есть тормозится лишь сам отправитель; общие потоки сервера вместо ожидания отбрасывают
+     * старые сообщения чата, как {@link #DROP_OLDEST}.
+     */
+    BLOCK("block"),
+    /** Отбрасывать самые старые сообщения чата; служебные сообщения не отбрасываются. */
+    DROP_OLDEST("drop-oldest"),
+    /** Сразу отключить клиента, сообщив ему причину. */
+    DISCONNECT("disconnect");
+
+    private final String code;
+
+    OutboundPolicy(String code) {
+        this.code = code;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    /**
+     * Возвращает политику по ее строковому коду.
+     *
+     * @param code строковой код политики
+     * @return соответствующая политика
+     * @throws IllegalArgumentException если код политики неизвестен
+     */
+    public static OutboundPolicy fromString(String code) {
+        if (code == null) {
+            return DISCONNECT;
+        }
+
+        for (OutboundPolicy policy : values()) {
+            if (policy.code.equalsIgnoreCase(code)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown outbound policy: " + code);
+    }
+}
@@ -0,0 +1,247 @@
+package ru.vadimkhalikov.oop.lab5.server;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrame;
+import ru.vadimkhalikov.oop.lab5.server.metrics.LatencyHistogram;
+
+/**
+ * Исходящая очередь одного соединения с бюджетом по числу сообщений и по байтам.
+ * <p>
+ * Когда бюджет исчерпан, поведение определяет {@link OutboundPolicy}: отправитель ждет места,
+ * из очереди отбрасываются самые старые сообщения чата или клиента нужно отключить.
+ * При {@link OutboundPolicy#BLOCK} кадр от потока, читающего сообщения клиента-отправителя,
+ * ставится сверх бюджета без ожидания, а ждет этот поток уже после рассылки
+ * ({@link #awaitSpace(long)}), перед чтением следующего сообщения. Поэтому медленный получатель
+ * не задерживает рассылку остальным, а тормозится лишь клиент, который производит сообщения;
+ * бюджет превышается не больше чем на кадры одного сообщения от каждого отправителя.
+ * Общие потоки сервера (таймер, циклы событий, писатели) не ждут никогда.
+ * Служебные сообщения (вход, список пользователей, страницы истории) не отбрасываются никогда:
+ * без них клиент теряет согласованное состояние. Пропущенные сообщения чата клиент
+ * может дозапросить страницами истории.
+ * <p>
+ * Первый кадр принимается в пустую очередь всегда, даже если он сам больше бюджета байт.
+ * <p>
+ * Очередь помнит, когда поставлен каждый кадр, и учитывает в гистограмме,
+ * сколько кадр ждал, пока его не взяли на запись в сокет.
+ */
+public class OutboundQueue {
+
+    private final OutboundLimits limits;
+    private final LatencyHistogram writeDelay;
+    private final ArrayDeque<Entry> frames = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private long bytes;
+    private boolean closed;
+
+    /**
+     * @param writeDelay гистограмма ожидания кадров в очереди до записи
+     */
+    public OutboundQueue(OutboundLimits limits, LatencyHistogram writeDelay) {
+        this.limits = limits;
+        this.writeDelay = writeDelay;
+    }
+
+    /**
+     * Ставит кадр в очередь согласно политике.
+     *
+     * @param frame кадр для отправки
+     * @param awaitLater дождется ли текущий поток места в очереди после рассылки ({@link #awaitSpace(long)});
+     *                   если да, политика {@link OutboundPolicy#BLOCK} ставит кадр сверх бюджета,
+     *                   если нет - отбрасывает старые сообщения чата, как {@link OutboundPolicy#DROP_OLDEST}
+     * @return false, если кадр не помещается и клиента нужно отключить;
+     *         true, если кадр поставлен в очередь или отброшен политикой
+     */
+    public boolean offer(MessageFrame frame, boolean awaitLater) {
+        lock.lock();
+        try {
+            if (closed) {
+                return true;
+            }
+            if (!fits(frame)) {
+                switch (limits.getPolicy()) {
+                    case BLOCK:
+                        if (awaitLater) {
+                            break;
+                        }
+                        // Потоку, который не может ждать (таймер, цикл событий, писатель),
+                        // очередь отвечает так же, как при DROP_OLDEST
+                    case DROP_OLDEST:
+                        dropChatFor(frame);
+                        if (fits(frame)) {
+                            break;
+                        }
+                        if (isDroppable(frame)) {
+                            limits.recordDropped(frame.length());
+                            return true;
+                        }
+                        limits.recordDisconnected();
+                        return false;
+                    default:
+                        limits.recordDisconnected();
+                        return false;
+                }
+            }
+            frames.add(new Entry(frame));
+            bytes += frame.length();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return превышен ли бюджет очереди кадрами, поставленными без ожидания
+     */
+    public boolean isOverBudget() {
+        lock.lock();
+        try {
+            return overBudget();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ждет, пока писатель не вернет очередь в пределы бюджета.
+     *
+     * @param deadlineNanos момент {@link System#nanoTime()}, после которого ждать нельзя
+     * @return false, если время вышло и клиента нужно отключить
+     */
+    public boolean awaitSpace(long deadlineNanos) {
+        lock.lock();
+        try {
+            if (closed || !overBudget()) {
+                return true;
+            }
+            limits.recordBlocked();
+            long remaining = deadlineNanos - System.nanoTime();
+            while (!closed && overBudget()) {
+                if (remaining <= 0) {
+                    return timedOut();
+                }
+                remaining = notFull.awaitNanos(remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return timedOut();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean timedOut() {
+        limits.recordBlockTimeout();
+        limits.recordDisconnected();
+        return false;
+    }
+
+    private boolean fits(MessageFrame frame) {
+        return frames.isEmpty()
+                || (frames.size() < limits.getMaxMessages() && bytes + frame.length() <= limits.getMaxBytes());
+    }
+
+    private boolean overBudget() {
+        return frames.size() > 1
+                && (frames.size() > limits.getMaxMessages() || bytes > limits.getMaxBytes());
+    }
+
+    private void dropChatFor(MessageFrame frame) {
+        Iterator<Entry> iterator = frames.iterator();
+        while (iterator.hasNext() && !fits(frame)) {
+            MessageFrame queued = iterator.next().frame;
+            if (isDroppable(queued)) {
+                iterator.remove();
+                bytes -= queued.length();
+                limits.recordDropped(queued.length());
+            }
+        }
+    }
+
+    /**
+     * Сообщения чата можно отбросить: клиент восстановит их по истории.
+     */
+    private static boolean isDroppable(MessageFrame frame) {
+        Message.MessageType type = frame.getType();
+        return type == Message.MessageType.USER_MESSAGE
+                || type == Message.MessageType.SERVER_MESSAGE
+                || type == Message.MessageType.USER_JOINED
+                || type == Message.MessageType.USER_LEFT;
+    }
+
+    /**
+     * @return следующий кадр для записи или null, если очередь пуста
+     */
+    public MessageFrame poll() {
+        lock.lock();
+        try {
+            Entry entry = frames.poll();
+            if (entry == null) {
+                return null;
+            }
+            bytes -= entry.frame.length();
+            notFull.signalAll();
+            writeDelay.record(System.nanoTime() - entry.enqueuedNanos);
+            return entry.frame;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return frames.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Перестает принимать кадры и отбрасывает накопленные. Если задан {@code last},
+     * он остается единственным кадром очереди, например сообщение о причине отключения.
+     */
+    public void close(MessageFrame last) {
+        lock.lock();
+        try {
+            closed = true;
+            frames.clear();
+            bytes = 0;
+            if (last != null) {
+                frames.add(new Entry(last));
+                bytes = last.length();
+            }
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return описание заполненности очереди для сообщений об отключении
+     */
+    public String describe() {
+        lock.lock();
+        try {
+            return frames.size() + " messages, " + bytes + " bytes";
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Entry {
+        final MessageFrame frame;
+        final long enqueuedNanos = System.nanoTime();
+
+        Entry(MessageFrame frame) {
+            this.frame = frame;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package ru.vadimkhalikov.oop.lab5.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrames;
+
+/**
+ * Версионированный список пользователей в чате.
+ * <p>
+ * Изменения состава не рассылаются по одному: входы и выходы накапливаются в течение
+ * окна {@code windowMs} и публикуются одной USER_LIST_DELTA с итоговыми вошедшими
+ * и вышедшими пользователями. Поэтому волна из сотен входов за секунду стоит
+ * нескольких рассылок, а не сотен; вход и выход в пределах одного окна не рассылается вовсе.
+ * Полный список (USER_LIST_RESPONSE с версией) вошедший клиент получает при публикации окна,
+ * остальные - по запросу, когда обнаруживают пропуск версии.
+ * <p>
+ * Рассылки окон идут по одной, поэтому каждый клиент получает дельты в порядке версий.
+ * Список при этом под блокировкой только на время подсчета изменений: полный список
+ * для нового клиента не ждет, пока дельта разойдется по всем остальным.
+ * События USER_JOINED и USER_LEFT рассылаются сразу и по порядку, окно их не задерживает.
+ * <p>
+ * В кластере список включает пользователей всех узлов: входы и выходы на других узлах
+ * приходят из каталога кластера и публикуются в том же окне.
+ */
+class PresencePublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(PresencePublisher.class);
+
+    private final Server server;
+    private final ClientRegistry clients;
+    private final ScheduledExecutorService timer;
+    private final long windowMs;
+    private Set<String> usernames = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    private long version;
+    // Изменения, накопленные в текущем окне
+    private final Map<String, ClientSession> pendingJoins = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Set<String> pendingLeaves = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    // Пользователи других узлов кластера, вошедшие в текущем окне
+    private final Set<String> pendingRemoteJoins = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    private boolean flushScheduled;
+    // Держится на время рассылки окна, чтобы дельты уходили в порядке версий; берется до блокировки списка.
+    // Не монитор: при окне 0 рассылает поток клиента, и виртуальный поток, ждущий места в очереди, не занимает носитель
+    private final ReentrantLock publishLock = new ReentrantLock();
+
+    /**
+     * @param timer планировщик, на котором публикуются накопленные изменения
+     * @param windowMs окно накопления изменений; 0 - публиковать каждое изменение сразу
+     */
+    PresencePublisher(Server server, ClientRegistry clients, ScheduledExecutorService timer, long windowMs) {
+        this.server = server;
+        this.clients = clients;
+        this.timer = timer;
+        this.windowMs = windowMs;
+    }
+
+    /**
+     * Регистрирует вход пользователя. Полный список он получит при публикации окна.
+     */
+    void userJoined(ClientSession session) {
+        boolean flushNow;
+        synchronized (this) {
+            pendingJoins.put(session.getUsername(), session);
+            flushNow = scheduleFlush();
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * Регистрирует выход пользователя.
+     */
+    void userLeft(ClientSession session) {
+        String username = session.getUsername();
+        boolean flushNow;
+        synchronized (this) {
+            // То же имя мог уже занять новый вход, его не трогаем
+            if (pendingJoins.get(username) == session) {
+                pendingJoins.remove(username);
+            }
+            if (usernames.contains(username)) {
+                pendingLeaves.add(username);
+            }
+            flushNow = scheduleFlush();
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * Регистрирует вход пользователя на другом узле кластера.
+     */
+    void remoteJoined(String username) {
+        boolean flushNow;
+        synchronized (this) {
+            pendingRemoteJoins.add(username);
+            flushNow = scheduleFlush();
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * Регистрирует выход пользователя другого узла кластера.
+     */
+    void remoteLeft(String username) {
+        boolean flushNow;
+        synchronized (this) {
+            pendingRemoteJoins.remove(username);
+            if (usernames.contains(username)) {
+                pendingLeaves.add(username);
+            }
+            flushNow = scheduleFlush();
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * @return true, если публиковать нужно сразу в текущем потоке
+     */
+    private boolean scheduleFlush() {
+        if (windowMs <= 0) {
+            return true;
+        }
+        if (!flushScheduled) {
+            flushScheduled = true;
+            timer.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+        }
+        return false;
+    }
+
+    /**
+     * @return полный список пользователей с текущей версией
+     */
+    synchronized Message snapshot() {
+        Message message = new Message(Message.MessageType.USER_LIST_RESPONSE);
+        message.setUserList(new ArrayList<>(usernames));
+        message.setListVersion(version);
+        return message;
+    }
+
+    /**
+     * Публикует изменения, накопленные за окно: одну дельту всем клиентам
+     * и полный список каждому вошедшему.
+     * <p>
+     * Новое состояние считается под блокировкой списка, рассылка идет уже без нее,
+     * под отдельной блокировкой публикации. Поэтому {@link #snapshot()} и регистрация входов
+     * не ждут рассылки, а дельты все равно уходят в порядке версий. Из потока {@code server-timer}
+     * отправка места в очередях не ждет (см. {@link OutboundPolicy#BLOCK}), так что медленный
+     * получатель не задерживает таймер.
+     */
+    private void flush() {
+        List<ClientSession> failed = new ArrayList<>();
+        publishLock.lock();
+        try {
+            Message delta = null;
+            Set<ClientSession> joined = new HashSet<>();
+            Message snapshot;
+            synchronized (this) {
+                flushScheduled = false;
+                Set<String> next = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+                next.addAll(usernames);
+                for (String username : pendingLeaves) {
+                    // Имя могло остаться занятым на другом узле кластера
+                    if (!server.isUsernameTaken(username)) {
+                        next.remove(username);
+                    }
+                }
+                for (Map.Entry<String, ClientSession> join : pendingJoins.entrySet()) {
+                    // Соединение могли удалить, пока шел вход
+                    if (clients.findByUsername(join.getKey()) == join.getValue()) {
+                        next.add(join.getKey());
+                        joined.add(join.getValue());
+                    }
+                }
+                for (String username : pendingRemoteJoins) {
+                    if (server.isRemoteUser(username)) {
+                        next.add(username);
+                    }
+                }
+                pendingJoins.clear();
+                pendingLeaves.clear();
+                pendingRemoteJoins.clear();
+
+                List<String> added = difference(next, usernames);
+                List<String> removed = difference(usernames, next);
+                usernames = next;
+                if (!added.isEmpty() || !removed.isEmpty()) {
+                    version++;
+                    delta = delta(added, removed);
+                }
+                snapshot = snapshot();
+            }
+            if (delta != null) {
+                publish(delta, joined, failed);
+            }
+            for (ClientSession session : joined) {
+                try {
+                    session.sendMessage(snapshot);
+                } catch (IOException e) {
+                    log.warn("Error sending user list to client {}: {}", session.getUsername(), e.getMessage());
+                    failed.add(session);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Error publishing user list changes", e);
+        } finally {
+            publishLock.unlock();
+        }
+        for (ClientSession client : failed) {
+            server.removeClient(client);
+        }
+    }
+
+    private static List<String> difference(Set<String> from, Set<String> subtract) {
+        List<String> result = new ArrayList<>();
+        for (String username : from) {
+            if (!subtract.contains(username)) {
+                result.add(username);
+            }
+        }
+        return result.isEmpty() ? Collections.emptyList() : result;
+    }
+
+    private Message delta(List<String> added, List<String> removed) {
+        Message delta = new Message(Message.MessageType.USER_LIST_DELTA);
+        delta.setBaseVersion(version - 1);
+        delta.setListVersion(version);
+        delta.setUserList(added);
+        delta.setRemovedUsers(removed);
+        return delta;
+    }
+
+    private void publish(Message delta, Set<ClientSession> except, List<ClientSession> failed) {
+        MessageFrames frames = server.encodeFrames(delta);
+        for (ClientSession client : clients.loggedIn()) {
+            // Вошедшие в этом окне получат полный список
+            if (except.contains(client)) {
+                continue;
+            }
+            try {
+                client.sendFrames(frames);
+            } catch (IOException e) {
+                log.warn("Error sending user list delta to client {}: {}", client.getUsername(), e.getMessage());
+                failed.add(client);
+            }
+        }
+    }
+}
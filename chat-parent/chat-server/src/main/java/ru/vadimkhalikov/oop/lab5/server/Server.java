@@ -1,73 +1,316 @@
 package ru.vadimkhalikov.oop.lab5.server;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Properties;
+import java.util.Locale;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ru.vadimkhalikov.oop.lab5.common.Message;
-import ru.vadimkhalikov.oop.lab5.common.protocol.MessageProtocol;
-import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolFactory;
+import ru.vadimkhalikov.oop.lab5.common.protocol.FrameEncoders;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrame;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrames;
 import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+import ru.vadimkhalikov.oop.lab5.server.cluster.ClusterNode;
+import ru.vadimkhalikov.oop.lab5.server.history.FsyncPolicy;
+import ru.vadimkhalikov.oop.lab5.server.history.HistoryEntry;
+import ru.vadimkhalikov.oop.lab5.server.history.HistoryLog;
+import ru.vadimkhalikov.oop.lab5.server.history.MessageHistory;
+import ru.vadimkhalikov.oop.lab5.server.jfr.BroadcastEvent;
+import ru.vadimkhalikov.oop.lab5.server.jfr.HistoryReplayEvent;
+import ru.vadimkhalikov.oop.lab5.server.metrics.MetricsHttpServer;
+import ru.vadimkhalikov.oop.lab5.server.metrics.ServerGauges;
+import ru.vadimkhalikov.oop.lab5.server.metrics.ServerMetrics;
+import ru.vadimkhalikov.oop.lab5.server.nio.NioClientSession;
+import ru.vadimkhalikov.oop.lab5.server.nio.NioEventLoop;
+import ru.vadimkhalikov.oop.lab5.server.room.Room;
+import ru.vadimkhalikov.oop.lab5.server.room.RoomRegistry;
 
 public class Server {
 
     private static final Logger log = LoggerFactory.getLogger(Server.class);
-    private static final String DEFAULT_CONFIG_FILE = "config/server.properties";
-    private static final int DEFAULT_PORT = 8080;
-    private static final int DEFAULT_MAX_CLIENTS = 10;
-    private static final String DEFAULT_LOGGING_ENABLED = "true";
-    private static final int HISTORY_SIZE = 10;
-    private static final ProtocolType DEFAULT_PROTOCOL = ProtocolType.JAVA;
+    // Значение server.protocol, при котором протокол определяется по первым байтам соединения
+    private static final String AUTO_PROTOCOL = "auto";
+    private static final String DEFAULT_ROOM = "general";
 
     private final int port;
+    private final int backlog;
     private final boolean loggingEnabled;
+    // null - все протоколы на одном порту, протокол соединения определяется по первым байтам
     private final ProtocolType protocolType;
+    private final IoMode ioMode;
+    private final int nioThreads;
+    private final ExecutorType executorType;
     private final ExecutorService clientPool;
-    private final List<ClientHandler> clients = Collections.synchronizedList(new ArrayList<>());
-    private final List<Message> messageHistory = Collections.synchronizedList(new ArrayList<>());
+    private final ExecutorService writerPool;
+    private final OutboundLimits outboundLimits;
+    private final MessageRateLimits messageRateLimits;
+    private final WriteStats writeStats = new WriteStats();
+    private final ServerMetrics metrics = new ServerMetrics(new MetricsGauges(), writeStats);
+    private final boolean metricsJmxEnabled;
+    // null - HTTP-точка метрик выключена
+    private final String metricsHttpHost;
+    private final int metricsHttpPort;
+    private final int writeBufferBytes;
+    private final long writeFlushMs;
+    // Кодирует рассылаемые сообщения один раз на протокол для всех получателей
+    private final FrameEncoders frameEncoders = new FrameEncoders(metrics::recordEncode);
+    // Протокол, кадр которого кодируется для каждой записи истории сразу; по нему считается бюджет истории
+    private final ProtocolType historyProtocol;
+    private final ClientRegistry clients = new ClientRegistry();
+    // Один поток для всех отложенных задач сервера
+    private final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, task -> {
+        Thread thread = new Thread(task, "server-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final PresencePublisher presence;
+    private final int historyCapacity;
+    private final long historyMaxBytes;
+    private final int historyReplay;
+    private final HistoryPager historyPager;
+    // Настройки журналов истории на диске; null, если сохранение истории выключено
+    private final ServerConfig historyLogConfig;
+    // Комнаты со своими участниками и историей; общую комнату проходит каждый вошедший
+    private final RoomRegistry rooms;
+    // Узел кластера; null, если сервер работает один
+    private final ClusterNode cluster;
+    // Отключение простаивающих соединений; null, если выключено
+    private final IdleMonitor idleMonitor;
+    private final ConnectionAdmission admission;
 
     public Server() {
-        Properties props = loadConfig();
-        port = Integer.parseInt(props.getProperty("server.port", String.valueOf(DEFAULT_PORT)));
-        loggingEnabled = Boolean.parseBoolean(props.getProperty("logging.enabled", DEFAULT_LOGGING_ENABLED));
+        ServerConfig config = ServerConfig.load();
+        port = config.getInt("server.port");
+        backlog = config.getInt("server.backlog");
+        loggingEnabled = config.getBoolean("logging.enabled");
         
-        String protocolName = props.getProperty("server.protocol", DEFAULT_PROTOCOL.getCode());
-        protocolType = ProtocolType.fromString(protocolName);
+        String protocolName = config.getString("server.protocol");
+        protocolType = AUTO_PROTOCOL.equalsIgnoreCase(protocolName) ? null : ProtocolType.fromString(protocolName);
+        // Записи журнала истории хранятся в JSON, его кадр ближе всего к их размеру
+        historyProtocol = protocolType != null ? protocolType : ProtocolType.REST_JSON;
         
-        int maxClients = Integer.parseInt(props.getProperty("server.maxclients", String.valueOf(DEFAULT_MAX_CLIENTS)));
-        clientPool = Executors.newFixedThreadPool(maxClients);
+        ioMode = IoMode.fromString(config.getString("server.io"));
+        // Java-сериализация не имеет заголовка длины, ее нельзя разбирать без блокирующего чтения;
+        // на общем порту она тоже может встретиться. Молча работать в другом режиме хуже, чем не запуститься
+        if (ioMode == IoMode.NIO && (protocolType == null || !protocolType.isLengthPrefixed())) {
+            throw new IllegalArgumentException("server.io=" + ioMode.getCode() + " requires server.protocol "
+                + ProtocolType.XML.getCode() + " or " + ProtocolType.REST_JSON.getCode() + ", got " + protocolCode());
+        }
+        nioThreads = config.getInt("server.nio.threads", Runtime.getRuntime().availableProcessors());
         
         configureLogging();
         
+        ExecutorType requestedExecutor = ExecutorType.fromString(config.getString("server.executor"));
+        if (requestedExecutor == ExecutorType.VIRTUAL && findVirtualExecutorFactory() == null) {
+            logWarn("Virtual threads are not available on Java {}. Falling back to {} executor.",
+                System.getProperty("java.version"), ExecutorType.PLATFORM);
+            executorType = ExecutorType.PLATFORM;
+        } else {
+            executorType = requestedExecutor;
+        }
+        
+        int maxClients = config.getInt("server.maxclients");
+        clientPool = ioMode == IoMode.BLOCKING ? createClientPool(maxClients) : null;
+        writerPool = ioMode == IoMode.BLOCKING ? createWriterPool() : null;
+        int maxConnections = config.getInt("server.connections.max");
+        if (ioMode == IoMode.BLOCKING && executorType == ExecutorType.PLATFORM && maxConnections > maxClients) {
+            // Соединения сверх размера пула ждали бы свободного потока в очереди пула без ответа
+            maxConnections = maxClients;
+        }
+        AdmissionControl admissionControl = new AdmissionControl(maxConnections,
+            config.getInt("server.accept.rate"),
+            config.getInt("server.accept.burst"),
+            config.getInt("server.accept.ip.rate"),
+            config.getInt("server.accept.ip.burst"));
+        admission = new ConnectionAdmission(admissionControl, protocolType, timer, this::encodeFrames);
+        outboundLimits = new OutboundLimits(
+                OutboundPolicy.fromString(config.getString("server.outbound.policy")),
+                config.getInt("server.outbound.capacity"),
+                config.getLong("server.outbound.bytes"),
+                config.getLong("server.outbound.block.ms"));
+        messageRateLimits = new MessageRateLimits(
+                config.getInt("message.rate"),
+                config.getInt("message.burst"));
+        writeBufferBytes = config.getInt("server.write.buffer");
+        writeFlushMs = config.getLong("server.write.flush.ms");
+        metricsJmxEnabled = config.getBoolean("metrics.jmx.enabled");
+        metricsHttpHost = config.getBoolean("metrics.http.enabled")
+            ? config.getString("metrics.http.host") : null;
+        metricsHttpPort = config.getInt("metrics.http.port");
+        
+        historyCapacity = config.getInt("history.capacity");
+        historyMaxBytes = config.getLong("history.maxbytes");
+        historyReplay = config.getInt("history.replay");
+        long presenceWindowMs = config.getLong("presence.window.ms");
+        presence = new PresencePublisher(this, clients, timer, presenceWindowMs);
+        historyLogConfig = config.getBoolean("history.log.enabled")
+            ? config : null;
+        rooms = new RoomRegistry(
+            config.getInt("rooms.shards"),
+            config.getInt("rooms.max"),
+            DEFAULT_ROOM, this::createRoom);
+        historyPager = new HistoryPager(this, rooms, config.getInt("history.page.max"));
+        Runtime.getRuntime().addShutdownHook(new Thread(rooms::closeAll, "history-log-shutdown"));
+        cluster = config.getBoolean("cluster.enabled")
+            ? createClusterNode(config) : null;
+        long heartbeatTimeoutMs = config.getLong("heartbeat.timeout.ms");
+        idleMonitor = heartbeatTimeoutMs > 0
+            ? new IdleMonitor(this, clients, timer,
+                config.getLong("heartbeat.tick.ms"),
+                config.getLong("heartbeat.ping.ms"),
+                heartbeatTimeoutMs)
+            : null;
+        
         if (loggingEnabled) {
-            log.info("Server configuration loaded: port={}, maxClients={}, protocol={}, loggingEnabled={}", 
-                port, maxClients, protocolType, loggingEnabled);
+            log.info("Server configuration loaded: port={}, maxClients={}, maxConnections={}, protocol={}, io={}, executor={}, loggingEnabled={}", 
+                port, maxClients, maxConnections, protocolCode(), ioMode, executorType, loggingEnabled);
         } else {
             ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(ch.qos.logback.classic.Level.OFF);
-            System.out.println("Server configuration loaded: port=" + port + ", maxClients=" + maxClients + 
-                ", protocol=" + protocolType + ", loggingEnabled=" + loggingEnabled);
+            System.out.println("Server configuration loaded: port=" + port + ", maxClients=" + maxClients + ", maxConnections=" + maxConnections + 
+                ", protocol=" + protocolCode() + ", io=" + ioMode + ", executor=" + executorType + ", loggingEnabled=" + loggingEnabled);
+        }
+    }
+    
+    /**
+     * @return код протокола сервера для журналов: код протокола или {@code auto}
+     */
+    private String protocolCode() {
+        return protocolType != null ? protocolType.getCode() : AUTO_PROTOCOL;
+    }
+    
+    private ClusterNode createClusterNode(ServerConfig config) {
+        int clusterPort = config.getInt("cluster.port");
+        String nodeId = config.getString("cluster.node.id");
+        if (nodeId.isEmpty()) {
+            nodeId = localHostName() + ":" + clusterPort;
+        }
+        return new ClusterNode(nodeId, config.getString("cluster.bind"), clusterPort,
+            ClusterNode.parsePeers(config.getString("cluster.peers")), config.getString("cluster.secret"),
+            config.getLong("cluster.batch.ms"),
+            config.getInt("cluster.batch.max"),
+            config.getInt("cluster.queue"),
+            config.getLong("cluster.reconnect.ms"),
+            timer, new ClusterEvents(this, clients, presence, nodeId));
+    }
+
+    private static String localHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "localhost";
+        }
+    }
+    
+    /**
+     * Создает комнату с историей в памяти и, если сохранение включено, с журналом на диске.
+     * Журнал общей комнаты лежит прямо в {@code history.log.dir}, как до появления комнат,
+     * журналы остальных - в {@code history.log.dir/rooms/<имя>}.
+     */
+    private Room createRoom(String name) {
+        MessageHistory history = new MessageHistory(historyCapacity, historyMaxBytes);
+        HistoryLog roomLog = null;
+        if (historyLogConfig != null) {
+            Path dir = Paths.get(historyLogConfig.getString("history.log.dir"));
+            if (!name.equalsIgnoreCase(DEFAULT_ROOM)) {
+                dir = dir.resolve("rooms").resolve(name.toLowerCase(Locale.ROOT));
+            }
+            roomLog = openHistoryLog(historyLogConfig, dir, history);
+        }
+        return new Room(name, history, roomLog);
+    }
+    
+    /**
+     * Открывает журнал истории и загружает из него последние сообщения в кольцевой буфер.
+     * Если журнал открыть не удалось, комната работает с историей только в памяти.
+     */
+    private HistoryLog openHistoryLog(ServerConfig config, Path dir, MessageHistory history) {
+        HistoryLog openedLog;
+        try {
+            openedLog = new HistoryLog(dir,
+                config.getInt("history.log.segment.bytes"),
+                config.getLong("history.log.retention.bytes"),
+                config.getLong("history.log.retention.ms"),
+                FsyncPolicy.fromString(config.getString("history.log.fsync")),
+                config.getLong("history.log.fsync.interval.ms"),
+                config.getInt("history.log.queue"));
+        } catch (IOException e) {
+            logError("Could not open history log in '{}'. History will be kept in memory only.", dir, e);
+            return null;
+        }
+        
+        List<HistoryEntry> replayed = openedLog.readLatest(historyCapacity, frameEncoders, historyProtocol);
+        for (HistoryEntry entry : replayed) {
+            history.restore(entry);
+        }
+        history.skipTo(openedLog.getNextSequence());
+        logInfo("Restored {} history messages from '{}'", replayed.size(), dir);
+        
+        openedLog.start();
+        return openedLog;
+    }
+    
+    private ExecutorService createClientPool(int maxClients) {
+        ExecutorService virtualPool = createVirtualPool();
+        return virtualPool != null ? virtualPool : Executors.newFixedThreadPool(maxClients);
+    }
+    
+    /**
+     * Пул для задач-писателей, разгружающих исходящие очереди клиентов.
+     * Писатель занят, только пока у клиента есть неотправленные сообщения,
+     * поэтому пул платформенных потоков не фиксирован: медленный получатель
+     * занимает один поток и не задерживает запись остальным.
+     */
+    private ExecutorService createWriterPool() {
+        ExecutorService virtualPool = createVirtualPool();
+        return virtualPool != null ? virtualPool : Executors.newCachedThreadPool();
+    }
+    
+    private ExecutorService createVirtualPool() {
+        if (executorType == ExecutorType.VIRTUAL) {
+            try {
+                return (ExecutorService) findVirtualExecutorFactory().invoke(null);
+            } catch (ReflectiveOperationException e) {
+                logError("Could not create virtual thread executor", e);
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Ищет {@code Executors.newVirtualThreadPerTaskExecutor()}, появившийся в Java 21.
+     * Вызов через рефлексию позволяет собирать сервер под Java 11 и включать
+     * виртуальные потоки только при запуске на Java 21+.
+     */
+    private static Method findVirtualExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
         }
     }
     
     private void configureLogging() {
-        String logDir = "logs/server/" + protocolType.getCode();
+        String logDir = "logs/server/" + protocolCode();
         Path logPath = Paths.get(logDir);
         try {
             Files.createDirectories(logPath);
@@ -78,65 +321,65 @@ public class Server {
         System.setProperty("log.dir", logDir);
     }
 
-    private Properties loadConfig() {
-        Properties props = new Properties();
-        
-        String configPath = System.getProperty("server.config", DEFAULT_CONFIG_FILE);
-        
-        try (InputStream input = new FileInputStream(configPath)) {
-            props.load(input);
-            logInfo("Configuration loaded from '{}'", configPath);
-        } catch (FileNotFoundException e) {
-            logWarn("Configuration file '{}' not found. Using default settings.", configPath);
-            createDefaultConfig(configPath);
-        } catch (IOException e) {
-            logError("Error reading configuration file '{}'. Using default settings.", configPath, e);
+    public void start() {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::logStats, "server-stats-shutdown"));
+        if (cluster != null) {
+            try {
+                cluster.start();
+            } catch (IOException e) {
+                logError("Could not start cluster node {}. Running standalone.", cluster.getNodeId(), e);
+            }
         }
-        props.putIfAbsent("server.port", String.valueOf(DEFAULT_PORT));
-        props.putIfAbsent("server.maxclients", String.valueOf(DEFAULT_MAX_CLIENTS));
-        props.putIfAbsent("logging.enabled", DEFAULT_LOGGING_ENABLED);
-        props.putIfAbsent("server.protocol", DEFAULT_PROTOCOL.getCode());
-        return props;
-    }
-
-    private void createDefaultConfig(String configPath) {
-        Properties props = new Properties();
-        props.setProperty("server.port", String.valueOf(DEFAULT_PORT));
-        props.setProperty("server.maxclients", String.valueOf(DEFAULT_MAX_CLIENTS));
-        props.setProperty("logging.enabled", DEFAULT_LOGGING_ENABLED);
-        props.setProperty("server.protocol", DEFAULT_PROTOCOL.getCode());
-        
-        // Создаем директорию для конфига, если она не существует
-        Path configDir = Paths.get(configPath).getParent();
-        if (configDir != null) {
+        if (idleMonitor != null) {
+            idleMonitor.start();
+        }
+        admission.start();
+        metrics.start(timer);
+        if (metricsJmxEnabled) {
+            metrics.registerMBeans(port);
+        }
+        if (metricsHttpHost != null) {
             try {
-                Files.createDirectories(configDir);
+                new MetricsHttpServer(metrics).start(metricsHttpHost, metricsHttpPort);
             } catch (IOException e) {
-                logError("Could not create config directory: {}", configDir, e);
+                logError("Could not start metrics endpoint on port {}. Metrics are available via JMX only.", metricsHttpPort, e);
             }
         }
-        
-        try (OutputStream output = new FileOutputStream(configPath)) {
-            props.store(output, "Server Configuration");
-            logInfo("Created default configuration file: '{}'", configPath);
-        } catch (IOException e) {
-            logError("Error creating default configuration file '{}'", configPath, e);
+        if (ioMode == IoMode.NIO) {
+            startNio();
+        } else {
+            startBlocking();
         }
     }
 
-    public void start() {
-        logInfo("Server starting on port {} with protocol {}...", port, protocolType);
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
+    private void logStats() {
+        logInfo("Admission: {}", admission);
+        logInfo("Outbound queues: {}", outboundLimits);
+        logInfo("Message rate limit: {}", messageRateLimits);
+        logInfo("Socket writes: {}", writeStats);
+        logInfo("Metrics: {}", metrics);
+        if (cluster != null) {
+            logInfo("Cluster: {}", cluster);
+        }
+        if (idleMonitor != null) {
+            logInfo("Idle connections: {}", idleMonitor);
+        }
+    }
+
+    private void startBlocking() {
+        logInfo("Server starting on port {} with protocol {} on {} threads...", port, protocolCode(), executorType.getCode());
+        try (ServerSocket serverSocket = new ServerSocket(port, backlog)) {
             while (!serverSocket.isClosed()) {
                 try {
                     Socket clientSocket = serverSocket.accept();
+                    if (!admission.admit(clientSocket, clients.size())) {
+                        continue;
+                    }
                     logInfo("New client connected: {}", clientSocket.getRemoteSocketAddress());
                     
-                    // Создаем протокол для нового клиента с использованием enum
-                    MessageProtocol protocol = ProtocolFactory.createProtocol(protocolType);
-                    
-                    ClientHandler clientHandler = new ClientHandler(clientSocket, this, protocol);
-                    clients.add(clientHandler);
+                    // Без заданного протокола соединение определит его по первым байтам клиента
+                    ClientHandler clientHandler = new ClientHandler(clientSocket, this, protocolType);
+                    registerClient(clientHandler);
                     clientPool.execute(clientHandler);
                 } catch (IOException e) {
                     logError("Error accepting client connection", e);
@@ -146,116 +389,408 @@ public class Server {
             logError("Server error: Could not listen on port " + port, e);
         } finally {
             clientPool.shutdown();
+            writerPool.shutdown();
+            historyPager.shutdown();
             logInfo("Server stopped.");
         }
     }
 
-    public void broadcastMessage(Message message, ClientHandler senderHandler) {
-        addMessageToHistory(message);
-        synchronized (clients) {
-            for (ClientHandler client : clients) {
-                boolean isOwnUserMessage = message.getType() == Message.MessageType.USER_MESSAGE && client == senderHandler;
-                boolean isOwnEvent = (message.getType() == Message.MessageType.USER_JOINED || message.getType() == Message.MessageType.USER_LEFT)
-                                      && message.getSender() != null && message.getSender().equals(client.getUsername());
+    private void startNio() {
+        logInfo("Server starting on port {} with protocol {} and {} event loops...", port, protocolCode(), nioThreads);
+        NioEventLoop[] loops = new NioEventLoop[nioThreads];
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new NioEventLoop("nio-loop-" + i);
+                loops[i].start();
+            }
+            serverChannel.bind(new InetSocketAddress(port), backlog);
+            int next = 0;
+            while (serverChannel.isOpen()) {
+                try {
+                    // Прием остается блокирующим: он идет в отдельном потоке и не мешает циклам событий
+                    SocketChannel clientChannel = serverChannel.accept();
+                    // Принятый канал пока блокирующий, отказ пишется в него как в обычный сокет
+                    if (!admission.admit(clientChannel.socket(), clients.size())) {
+                        continue;
+                    }
+                    logInfo("New client connected: {}", clientChannel.getRemoteAddress());
+
+                    NioEventLoop loop = loops[next];
+                    next = (next + 1) % loops.length;
 
-                if (!isOwnUserMessage && !isOwnEvent) {
-                   try {
-                       client.sendMessage(message);
-                   } catch (IOException e) {
-                       logError("Error sending message to client {}: {}", client.getUsername(), e.getMessage());
-                       removeClient(client);
-                   }
+                    NioClientSession session = new NioClientSession(clientChannel, this, protocolType, loop);
+                    registerClient(session);
+                    session.start();
+                } catch (IOException e) {
+                    logError("Error accepting client connection", e);
                 }
             }
+        } catch (IOException e) {
+            logError("Server error: Could not listen on port " + port, e);
+        } finally {
+            for (NioEventLoop loop : loops) {
+                if (loop != null) {
+                    loop.shutdown();
+                }
+            }
+            historyPager.shutdown();
+            logInfo("Server stopped.");
+        }
+    }
+
+    /**
+     * Регистрирует принятое соединение; с этого момента отслеживается его простой.
+     */
+    private void registerClient(ClientSession session) {
+        clients.add(session);
+        if (idleMonitor != null) {
+            idleMonitor.register(session);
+        }
+    }
+
+    /**
+     * Отмечает входящее сообщение от клиента в метриках и для поиска простаивающих соединений.
+     */
+    void recordActivity(ClientSession session) {
+        metrics.recordMessageIn();
+        if (idleMonitor != null) {
+            idleMonitor.touch(session);
+        }
+    }
+
+    /**
+     * Рассылает сообщение участникам его комнаты ({@link Message#getRoom()}, null - общая комната).
+     * Отправка только ставит сообщение в очереди получателей, поэтому медленный клиент
+     * не задерживает рассылку остальным. Участники перебираются без блокировок,
+     * поэтому рассылки в разных комнатах идут параллельно.
+     */
+    public void broadcastMessage(Message message, ClientSession senderHandler) {
+        deliver(message, senderHandler, false);
+        if (cluster != null && isRelayed(message)) {
+            cluster.relay(message);
+        }
+    }
+
+    /**
+     * Соседним узлам кластера пересылаются сообщения чата и входы и выходы пользователей.
+     */
+    private static boolean isRelayed(Message message) {
+        return message.getType() == Message.MessageType.USER_MESSAGE
+            || message.getType() == Message.MessageType.USER_JOINED
+            || message.getType() == Message.MessageType.USER_LEFT;
+    }
+
+    /**
+     * Рассылает сообщение локальным участникам комнаты и добавляет его в историю узла.
+     * Комната и номер истории записываются в копию: исходное сообщение после рассылки
+     * еще пересылается соседям и остается у вызывающего кода.
+     *
+     * @param remote сообщение переслано соседним узлом кластера
+     */
+    void deliver(Message original, ClientSession senderHandler, boolean remote) {
+        BroadcastEvent event = new BroadcastEvent();
+        event.begin();
+        long start = System.nanoTime();
+        Room room = rooms.find(original.getRoom());
+        long roomLookup = System.nanoTime() - start;
+        if (room == null) {
+            // Из комнаты уже вышел последний участник, рассылать некому
+            return;
+        }
+        Message message = new Message(original);
+        message.setRoom(roomName(room));
+        // Номер истории выделяется до кодирования, чтобы клиент получил его вместе с сообщением
+        long sequence = room.getHistory().reserve();
+        message.setSequence(sequence);
+        // Кадр протокола истории кодируется сразу, кадры остальных протоколов - при первом получателе
+        MessageFrames frames = encodeFrames(message);
+        try {
+            frames.get(historyProtocol);
+        } catch (IOException e) {
+            logError("Error encoding {} message: {}", message.getType(), e.getMessage());
+            if (room.getLog() != null) {
+                room.getLog().skip(sequence);
+            }
+            return;
         }
+        addMessageToHistory(room, new HistoryEntry(sequence, frames));
+        List<ClientSession> failed = new ArrayList<>();
+        int recipients = 0;
+        for (ClientSession client : room.getMembers()) {
+            boolean isOwnUserMessage = message.getType() == Message.MessageType.USER_MESSAGE && client == senderHandler;
+            boolean isOwnEvent = (message.getType() == Message.MessageType.USER_JOINED || message.getType() == Message.MessageType.USER_LEFT)
+                                  && message.getSender() != null && message.getSender().equals(client.getUsername());
+
+            if (!isOwnUserMessage && !isOwnEvent) {
+               recipients++;
+               try {
+                   client.sendFrames(frames);
+               } catch (IOException e) {
+                   logError("Error sending message to client {}: {}", client.getUsername(), e.getMessage());
+                   failed.add(client);
+               }
+            }
+        }
+        metrics.recordBroadcast(System.nanoTime() - start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.set(senderHandler != null ? senderHandler.getProtocolType() : null, remote, message.getType(),
+                frames.size(), room.getName(), recipients, roomLookup);
+            event.commit();
+        }
+        removeClients(failed);
     }
 
-    public void sendMessageToClient(Message message, ClientHandler recipient) {
+    /**
+     * @return размер отправленного кадра в байтах или 0, если отправить не удалось и клиент удален
+     */
+    public int sendMessageToClient(Message message, ClientSession recipient) {
          try {
-            recipient.sendMessage(message);
+            return recipient.sendMessage(message);
          } catch (IOException e) { 
             logError("Error sending private message to client {}: {}", recipient.getUsername(), e.getMessage());
             removeClient(recipient);
+            return 0;
          }
     }
 
-    private void addMessageToHistory(Message message) {
-        synchronized (messageHistory) {
-            messageHistory.add(message);
+    private static void addMessageToHistory(Room room, HistoryEntry entry) {
+        room.getHistory().publish(entry);
+        if (room.getLog() != null) {
+            room.getLog().append(entry);
         }
     }
 
-    public void sendHistory(ClientHandler clientHandler) {
-        synchronized (messageHistory) {
-            int start = Math.max(0, messageHistory.size() - HISTORY_SIZE);
-            for (int i = start; i < messageHistory.size(); i++) {
+    /**
+     * Отправляет клиенту последние сообщения общей комнаты.
+     */
+    public void sendHistory(ClientSession clientHandler) {
+        sendHistory(clientHandler, rooms.getDefaultRoom(), Message.MessageType.LOGIN_REQUEST);
+    }
+
+    /**
+     * Отправляет клиенту последние сообщения истории комнаты. Кадры берутся из истории
+     * готовыми; кадр протокола клиента кодируется, только если его еще никто не запрашивал.
+     */
+    private void sendHistory(ClientSession clientHandler, Room room, Message.MessageType trigger) {
+        HistoryReplayEvent event = new HistoryReplayEvent();
+        event.begin();
+        long bytes = 0;
+        int sent = 0;
+        for (HistoryEntry entry : room.getHistory().latest(historyReplay)) {
+            if (isHistoryMessage(entry.getMessage())) {
                 try {
-                    Message msg = messageHistory.get(i);
-                     if (msg.getType() == Message.MessageType.USER_MESSAGE ||
-                         msg.getType() == Message.MessageType.SERVER_MESSAGE ||
-                         msg.getType() == Message.MessageType.USER_JOINED ||
-                         msg.getType() == Message.MessageType.USER_LEFT) {
-                        clientHandler.sendMessage(msg);
-                     }
+                    bytes += clientHandler.sendFrames(entry.getFrames());
+                    sent++;
                 } catch (IOException e) {
                     logError("Error sending history message to client {}: {}", clientHandler.getUsername(), e.getMessage());
                     removeClient(clientHandler);
-                    break;
+                    return;
                 }
             }
         }
+        event.end();
+        if (event.shouldCommit()) {
+            event.set(clientHandler.getProtocolType(), trigger, bytes, sent, room.getName(), clientHandler.getUsername());
+            event.commit();
+        }
+    }
+
+    /**
+     * Отвечает на HISTORY_REQUEST страницей истории комнаты запроса. Страница читается
+     * в потоке чтения истории, вызывающий поток не ждет журнала на диске.
+     */
+    public void sendHistoryPage(ClientSession client, Message request) {
+        historyPager.request(client, request);
+    }
+
+    static boolean isHistoryMessage(Message msg) {
+        return msg.getType() == Message.MessageType.USER_MESSAGE ||
+               msg.getType() == Message.MessageType.SERVER_MESSAGE ||
+               msg.getType() == Message.MessageType.USER_JOINED ||
+               msg.getType() == Message.MessageType.USER_LEFT;
+    }
+
+    /**
+     * @return кадры сообщения для рассылки; каждый протокол кодируется при первом получателе с ним
+     */
+    MessageFrames encodeFrames(Message message) {
+        return frameEncoders.frames(message);
+    }
+
+    /**
+     * Кодирует сообщение одному получателю общим кодировщиком протокола,
+     * чтобы длительность кодирования попала в метрики.
+     *
+     * @throws IOException при ошибке кодирования
+     */
+    MessageFrame encode(Message message, ProtocolType type) throws IOException {
+        return frameEncoders.encode(message, type);
+    }
+
+    private void removeClients(List<ClientSession> failed) {
+        for (ClientSession client : failed) {
+            removeClient(client);
+        }
     }
 
-    public void removeClient(ClientHandler clientHandler) {
+    public void removeClient(ClientSession clientHandler) {
         boolean removed = clients.remove(clientHandler);
         if (removed && clientHandler.getUsername() != null) {
             logInfo("Client {} disconnected.", clientHandler.getUsername());
-            Message logoutMessage = new Message(Message.MessageType.USER_LEFT, clientHandler.getUsername(), null);
-            broadcastMessage(logoutMessage, null);
-            broadcastUserList();
+            if (clientHandler.getThrottledMessages() > 0) {
+                logInfo("Client {} had {} messages throttled.", clientHandler.getUsername(), clientHandler.getThrottledMessages());
+            }
+            for (Room room : rooms.leaveAll(clientHandler)) {
+                Message logoutMessage = new Message(Message.MessageType.USER_LEFT, clientHandler.getUsername(), null);
+                logoutMessage.setRoom(roomName(room));
+                broadcastMessage(logoutMessage, null);
+            }
+            presence.userLeft(clientHandler);
         }
         clientHandler.close();
     }
 
+    /**
+     * @return неизменяемый список имен вошедших пользователей
+     */
     public List<String> getUsernames() {
-        List<String> usernames = new ArrayList<>();
-        synchronized (clients) {
-            for (ClientHandler client : clients) {
-                if (client.getUsername() != null) {
-                    usernames.add(client.getUsername());
-                }
-            }
+        if (cluster == null) {
+            return clients.getUsernames();
         }
-        return usernames;
+        List<String> usernames = new ArrayList<>(clients.getUsernames());
+        usernames.addAll(cluster.getRemoteUsernames());
+        usernames.sort(String.CASE_INSENSITIVE_ORDER);
+        return Collections.unmodifiableList(usernames);
     }
 
-    public void broadcastUserList() {
-        List<String> usernames = getUsernames();
-        Message userListMessage = new Message(Message.MessageType.USER_LIST_RESPONSE);
-        userListMessage.setUserList(usernames);
-        synchronized (clients) {
-             for (ClientHandler client : clients) {
-                 try {
-                     client.sendMessage(userListMessage);
-                 } catch (IOException e) {
-                      logError("Error sending user list to client {}: {}", client.getUsername(), e.getMessage());
-                      removeClient(client);
-                 }
-             }
-        }
+    /**
+     * Публикует вход пользователя: ему отправляется полный список пользователей,
+     * остальным клиентам - дельта списка. Входы и выходы в пределах
+     * {@code presence.window.ms} публикуются вместе.
+     */
+    public void announceLogin(ClientSession clientHandler) {
+        presence.userJoined(clientHandler);
+    }
+
+    /**
+     * @return полный список пользователей с версией для ответа на USER_LIST_REQUEST
+     */
+    public Message getUserListSnapshot() {
+        return presence.snapshot();
     }
 
     public boolean isUsernameTaken(String username) {
-        synchronized (clients) {
-            for (ClientHandler client : clients) {
-                if (client.getUsername() != null && client.getUsername().equalsIgnoreCase(username)) {
-                    return true;
-                }
-            }
+        return clients.isUsernameTaken(username) || isRemoteUser(username);
+    }
+
+    /**
+     * @return true, если пользователь с таким именем вошел на другом узле кластера
+     */
+    boolean isRemoteUser(String username) {
+        return cluster != null && cluster.isRemoteUser(username);
+    }
+
+    /**
+     * Атомарно закрепляет имя за соединением при входе в чат и добавляет его в общую комнату.
+     *
+     * @return false, если имя уже занято (без учета регистра)
+     */
+    public boolean claimUsername(String username, ClientSession clientHandler) {
+        if (isRemoteUser(username) || !clients.claimUsername(username, clientHandler)) {
+            return false;
+        }
+        rooms.join(DEFAULT_ROOM, clientHandler);
+        return ensureConnected(rooms.getDefaultRoom(), clientHandler);
+    }
+
+    /**
+     * Соединение могли удалить, пока оно входило в комнату; тогда его нужно убрать и из комнаты.
+     *
+     * @return true, если соединение по-прежнему в чате
+     */
+    private boolean ensureConnected(Room room, ClientSession session) {
+        if (clients.findByUsername(session.getUsername()) == session) {
+            return true;
         }
+        rooms.leave(room, session);
         return false;
     }
 
+    /**
+     * Обрабатывает ROOM_JOIN_REQUEST: добавляет пользователя в комнату, создавая ее при первом входе,
+     * отвечает ROOM_JOIN_SUCCESS со списком участников, отправляет последние сообщения комнаты
+     * и сообщает остальным участникам о входе.
+     */
+    public void joinRoom(ClientSession session, Message request) {
+        String name = request.getRoom();
+        if (!RoomRegistry.isValidName(name)) {
+            sendRoomFailure(session, request, "Room name must be 1-32 latin letters, digits, '_' or '-'.");
+            return;
+        }
+        Room existing = rooms.find(name);
+        boolean alreadyMember = existing != null && existing.isMember(session);
+        Room room = rooms.join(name, session);
+        if (room == null) {
+            sendRoomFailure(session, request, "Too many rooms. Join one of the existing rooms.");
+            return;
+        }
+        if (!ensureConnected(room, session)) {
+            return;
+        }
+        Message success = new Message(Message.MessageType.ROOM_JOIN_SUCCESS);
+        success.setRoom(roomName(room));
+        success.setUserList(room.getMemberNames());
+        sendMessageToClient(ClientSession.reply(request, success), session);
+        if (!alreadyMember) {
+            sendHistory(session, room, Message.MessageType.ROOM_JOIN_REQUEST);
+            Message joinMsg = new Message(Message.MessageType.USER_JOINED, session.getUsername(), null);
+            joinMsg.setRoom(roomName(room));
+            broadcastMessage(joinMsg, session);
+        }
+    }
+
+    private void sendRoomFailure(ClientSession session, Message request, String reason) {
+        Message failure = new Message(Message.MessageType.ROOM_JOIN_FAILURE, reason);
+        failure.setRoom(request.getRoom());
+        sendMessageToClient(ClientSession.reply(request, failure), session);
+    }
+
+    /**
+     * Обрабатывает ROOM_LEAVE_REQUEST. Из общей комнаты выйти нельзя.
+     */
+    public void leaveRoom(ClientSession session, String name) {
+        Room room = rooms.find(name);
+        if (room != null && rooms.isDefault(room)) {
+            sendMessageToClient(new Message(Message.MessageType.SERVER_MESSAGE, "You cannot leave the general room."), session);
+            return;
+        }
+        if (room == null || !rooms.leave(room, session)) {
+            sendMessageToClient(new Message(Message.MessageType.SERVER_MESSAGE, "You are not in room " + name + "."), session);
+            return;
+        }
+        Message leftMsg = new Message(Message.MessageType.USER_LEFT, session.getUsername(), null);
+        leftMsg.setRoom(room.getName());
+        broadcastMessage(leftMsg, session);
+    }
+
+    /**
+     * @param name имя комнаты или null для общей комнаты
+     * @return true, если соединение - участник комнаты
+     */
+    public boolean isRoomMember(ClientSession session, String name) {
+        Room room = rooms.find(name);
+        return room != null && room.isMember(session);
+    }
+
+    /**
+     * Имя комнаты в сообщениях: у общей комнаты его нет, чтобы клиенты без поддержки комнат
+     * видели ее сообщения как раньше.
+     */
+    String roomName(Room room) {
+        return rooms.isDefault(room) ? null : room.getName();
+    }
+
     private void logInfo(String message, Object... args) {
         if (loggingEnabled) {
             log.info(message, args);
@@ -309,6 +844,108 @@ public class Server {
         }
     }
 
+    /**
+     * Планировщик отложенных задач сервера. Все задачи выполняет один поток,
+     * поэтому задачи должны быть короткими и не блокироваться.
+     */
+    ScheduledExecutorService getTimer() {
+        return timer;
+    }
+
+    Executor getWriterPool() {
+        return writerPool;
+    }
+
+    /**
+     * @return бюджет исходящих очередей соединений и счетчики срабатывания политики
+     */
+    public OutboundLimits getOutboundLimits() {
+        return outboundLimits;
+    }
+
+    public MessageRateLimits getMessageRateLimits() {
+        return messageRateLimits;
+    }
+
+    /**
+     * @return счетчики кадров и системных вызовов записи во все соединения
+     */
+    public WriteStats getWriteStats() {
+        return writeStats;
+    }
+
+    /**
+     * @return метрики сервера: входящие сообщения и байты, гистограммы рассылки и кодирования
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return размер буфера записи соединения в режиме {@code blocking}, байт
+     */
+    public int getWriteBufferBytes() {
+        return writeBufferBytes;
+    }
+
+    /**
+     * @return сколько кадр может ждать в буфере записи, пока за ним идут следующие, мс
+     */
+    public long getWriteFlushMs() {
+        return writeFlushMs;
+    }
+
+    /**
+     * Состояние сервера для метрик; читается по запросу из потоков JMX.
+     */
+    private final class MetricsGauges implements ServerGauges {
+
+        @Override
+        public int connectedClients() {
+            return clients.size();
+        }
+
+        @Override
+        public int loggedInClients() {
+            return clients.loggedIn().size();
+        }
+
+        @Override
+        public long historySize() {
+            long size = 0;
+            for (Room room : rooms.all()) {
+                size += room.getHistory().size();
+            }
+            return size;
+        }
+
+        @Override
+        public long historyBytes() {
+            long bytes = 0;
+            for (Room room : rooms.all()) {
+                bytes += room.getHistory().retainedBytes();
+            }
+            return bytes;
+        }
+
+        @Override
+        public int executorQueueDepth() {
+            return queueDepth(clientPool) + queueDepth(writerPool);
+        }
+
+        @Override
+        public int timerQueueDepth() {
+            return timer.getQueue().size();
+        }
+
+        /**
+         * Пул виртуальных потоков и режим {@code nio} очереди не имеют.
+         */
+        private int queueDepth(ExecutorService pool) {
+            return pool instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) pool).getQueue().size() : 0;
+        }
+    }
+
     public static void main(String[] args) {
         Server server = new Server();
         server.start();
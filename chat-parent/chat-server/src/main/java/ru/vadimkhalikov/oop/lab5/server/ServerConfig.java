@@ -0,0 +1,174 @@
+package ru.vadimkhalikov.oop.lab5.server;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+import ru.vadimkhalikov.oop.lab5.server.history.FsyncPolicy;
+
+/**
+ * Настройки сервера из файла {@code config/server.properties} (другой путь задает системное
+ * свойство {@code server.config}). Значения по умолчанию заданы один раз, в {@link #DEFAULTS}:
+ * ими дополняются отсутствующие в файле ключи, и они же записываются в файл,
+ * который создается, если его нет.
+ * <p>
+ * Журналы сервера настраиваются по уже прочитанным настройкам, поэтому о чтении файла
+ * сообщается в консоль.
+ */
+final class ServerConfig {
+
+    static final String DEFAULT_FILE = "config/server.properties";
+
+    // Настройки и их значения по умолчанию в порядке файла настроек
+    private static final Map<String, String> DEFAULTS = defaults();
+
+    private final Properties props;
+
+    private ServerConfig(Properties props) {
+        this.props = props;
+    }
+
+    private static Map<String, String> defaults() {
+        Map<String, String> defaults = new LinkedHashMap<>();
+        defaults.put("server.maxclients", "10");
+        defaults.put("logging.enabled", "true");
+        defaults.put("server.port", "8080");
+        defaults.put("server.protocol", ProtocolType.JAVA.getCode());
+        defaults.put("server.connections.max", "1000");
+        defaults.put("server.backlog", "50");
+        defaults.put("server.accept.rate", "500");
+        defaults.put("server.accept.burst", "1000");
+        defaults.put("server.accept.ip.rate", "20");
+        defaults.put("server.accept.ip.burst", "50");
+        defaults.put("server.io", IoMode.BLOCKING.getCode());
+        defaults.put("server.executor", ExecutorType.PLATFORM.getCode());
+        defaults.put("server.outbound.capacity", "1024");
+        defaults.put("server.outbound.bytes", String.valueOf(4 * 1024 * 1024));
+        defaults.put("server.outbound.policy", OutboundPolicy.DISCONNECT.getCode());
+        defaults.put("server.outbound.block.ms", "1000");
+        defaults.put("server.write.buffer", "8192");
+        defaults.put("server.write.flush.ms", "5");
+        defaults.put("message.rate", "10");
+        defaults.put("message.burst", "20");
+        defaults.put("history.capacity", "1000");
+        defaults.put("history.maxbytes", String.valueOf(1024 * 1024));
+        defaults.put("history.replay", "10");
+        defaults.put("history.page.max", "100");
+        defaults.put("history.log.enabled", "true");
+        defaults.put("history.log.dir", "data/history");
+        defaults.put("history.log.segment.bytes", String.valueOf(16 * 1024 * 1024));
+        defaults.put("history.log.retention.bytes", String.valueOf(256L * 1024 * 1024));
+        defaults.put("history.log.retention.ms", "0");
+        defaults.put("history.log.fsync", FsyncPolicy.BATCH.getCode());
+        defaults.put("history.log.fsync.interval.ms", "1000");
+        defaults.put("history.log.queue", "65536");
+        defaults.put("presence.window.ms", "100");
+        defaults.put("rooms.max", "64");
+        defaults.put("rooms.shards", "16");
+        defaults.put("cluster.enabled", "false");
+        // Пустой идентификатор - имя хоста и порт кластера
+        defaults.put("cluster.node.id", "");
+        defaults.put("cluster.bind", "0.0.0.0");
+        defaults.put("cluster.port", "9090");
+        defaults.put("cluster.peers", "");
+        // Пустой секрет - соседи проверяются только по адресу
+        defaults.put("cluster.secret", "");
+        defaults.put("cluster.batch.ms", "5");
+        defaults.put("cluster.batch.max", "256");
+        defaults.put("cluster.queue", "1024");
+        defaults.put("cluster.reconnect.ms", "1000");
+        defaults.put("heartbeat.tick.ms", "1000");
+        defaults.put("heartbeat.ping.ms", "15000");
+        defaults.put("heartbeat.timeout.ms", "45000");
+        defaults.put("metrics.jmx.enabled", "true");
+        defaults.put("metrics.http.enabled", "false");
+        defaults.put("metrics.http.host", "127.0.0.1");
+        defaults.put("metrics.http.port", "9100");
+        return Collections.unmodifiableMap(defaults);
+    }
+
+    /**
+     * Читает файл настроек и дополняет его значениями по умолчанию.
+     * Если файла нет, создает его со значениями по умолчанию.
+     */
+    static ServerConfig load() {
+        Properties props = new Properties();
+        String configPath = System.getProperty("server.config", DEFAULT_FILE);
+        try (InputStream input = new FileInputStream(configPath)) {
+            props.load(input);
+            System.out.println("[INFO] Configuration loaded from '" + configPath + "'");
+        } catch (FileNotFoundException e) {
+            System.out.println("[WARN] Configuration file '" + configPath + "' not found. Using default settings.");
+            createDefaultFile(configPath);
+        } catch (IOException e) {
+            System.err.println("[ERROR] Error reading configuration file '" + configPath + "'. Using default settings.");
+            e.printStackTrace(System.err);
+        }
+        DEFAULTS.forEach(props::putIfAbsent);
+        return new ServerConfig(props);
+    }
+
+    private static void createDefaultFile(String configPath) {
+        Properties props = new Properties();
+        props.putAll(DEFAULTS);
+
+        // Создаем директорию для конфига, если она не существует
+        Path configDir = Paths.get(configPath).getParent();
+        if (configDir != null) {
+            try {
+                Files.createDirectories(configDir);
+            } catch (IOException e) {
+                System.err.println("[ERROR] Could not create config directory: " + configDir);
+                e.printStackTrace(System.err);
+            }
+        }
+
+        try (OutputStream output = new FileOutputStream(configPath)) {
+            props.store(output, "Server Configuration");
+            System.out.println("[INFO] Created default configuration file: '" + configPath + "'");
+        } catch (IOException e) {
+            System.err.println("[ERROR] Error creating default configuration file '" + configPath + "'");
+            e.printStackTrace(System.err);
+        }
+    }
+
+    /**
+     * @return значение настройки без пробелов по краям
+     */
+    String getString(String key) {
+        return props.getProperty(key).trim();
+    }
+
+    int getInt(String key) {
+        return Integer.parseInt(getString(key));
+    }
+
+    /**
+     * Для настроек, значение по умолчанию которых зависит от машины и не пишется в файл.
+     *
+     * @param fallback значение, если настройки нет в файле
+     */
+    int getInt(String key, int fallback) {
+        String value = props.getProperty(key);
+        return value != null ? Integer.parseInt(value.trim()) : fallback;
+    }
+
+    long getLong(String key) {
+        return Long.parseLong(getString(key));
+    }
+
+    boolean getBoolean(String key) {
+        return Boolean.parseBoolean(getString(key));
+    }
+}
@@ -0,0 +1,54 @@
+package ru.vadimkhalikov.oop.lab5.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Корзина токенов: пропускает в среднем {@code ratePerSecond} событий в секунду
+ * и всплеск до {@code burst} событий подряд.
+ * <p>
+ * Вместо числа токенов хранится одно значение - расчетное время следующего события
+ * (алгоритм GCRA): событие пропускается, если это время опережает текущее не больше,
+ * чем на {@code burst - 1} интервалов, и сдвигает его на интервал вперед.
+ * Время меняется одним CAS, поэтому проверка не берет блокировок, а корзина
+ * пополняется лениво и простаивающая корзина не требует ни потока, ни таймера.
+ */
+final class TokenBucket {
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong nextArrival;
+
+    /**
+     * @param ratePerSecond средняя скорость пополнения, событий в секунду
+     * @param burst емкость корзины; изначально корзина полна
+     */
+    TokenBucket(int ratePerSecond, int burst) {
+        this.intervalNanos = Math.max(1, 1_000_000_000L / Math.max(1, ratePerSecond));
+        this.toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        this.nextArrival = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * @return true, если токен взят; false, если корзина пуста
+     */
+    boolean tryAcquire() {
+        long now = System.nanoTime();
+        while (true) {
+            long arrival = nextArrival.get();
+            long base = arrival - now > 0 ? arrival : now;
+            if (base - now > toleranceNanos) {
+                return false;
+            }
+            if (nextArrival.compareAndSet(arrival, base + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return true, если корзина полна, то есть событий давно не было
+     */
+    boolean isFull() {
+        return nextArrival.get() - System.nanoTime() <= 0;
+    }
+}
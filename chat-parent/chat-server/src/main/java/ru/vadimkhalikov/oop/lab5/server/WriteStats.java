@@ -0,0 +1,51 @@
+package ru.vadimkhalikov.oop.lab5.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Счетчики записи в сокеты, общие для всех соединений сервера:
+ * сколько кадров отправлено и за сколько системных вызовов записи.
+ */
+public class WriteStats {
+
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    public void recordFrames(int count) {
+        frames.add(count);
+    }
+
+    /**
+     * Учитывает один вызов записи в сокет.
+     *
+     * @param written сколько байт передано в вызов
+     */
+    public void recordWrite(long written) {
+        writes.increment();
+        bytes.add(written);
+    }
+
+    public long getFrames() {
+        return frames.sum();
+    }
+
+    /**
+     * @return число вызовов записи в сокеты
+     */
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public String toString() {
+        long frameCount = getFrames();
+        long writeCount = getWrites();
+        return String.format("WriteStats{frames=%d, writes=%d, bytes=%d, framesPerWrite=%.2f}",
+                frameCount, writeCount, getBytes(), writeCount == 0 ? 0.0 : (double) frameCount / writeCount);
+    }
+}
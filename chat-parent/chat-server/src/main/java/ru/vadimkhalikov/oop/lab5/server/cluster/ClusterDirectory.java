@@ -0,0 +1,111 @@
+package ru.vadimkhalikov.oop.lab5.server.cluster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Каталог пользователей других узлов кластера: имя пользователя и узлы, на которых он вошел.
+ * Проверка имени не берет блокировок; изменения приходят из потоков чтения межузловых соединений.
+ * <p>
+ * Два узла могут почти одновременно впустить пользователей с одним именем, поэтому за именем
+ * числятся все такие узлы, а не последний приславший: выход пользователя одного узла
+ * не стирает запись другого. Имя пропадает из каталога, когда его освободили все узлы.
+ */
+class ClusterDirectory {
+
+    // Имя без учета регистра -> неизменяемое отображение узла в имя, как его прислал узел
+    private final ConcurrentMap<String, Map<String, String>> byUsername = new ConcurrentHashMap<>();
+
+    /**
+     * @return true, если пользователь узла добавлен впервые
+     */
+    boolean add(String nodeId, String username) {
+        boolean[] added = new boolean[1];
+        byUsername.compute(key(username), (key, nodes) -> {
+            if (nodes != null && nodes.containsKey(nodeId)) {
+                return nodes;
+            }
+            added[0] = true;
+            Map<String, String> updated = nodes != null ? new HashMap<>(nodes) : new HashMap<>();
+            updated.put(nodeId, username);
+            return Collections.unmodifiableMap(updated);
+        });
+        return added[0];
+    }
+
+    /**
+     * Удаляет пользователя узла.
+     *
+     * @return true, если пользователь числился за этим узлом и имя больше не занято ни одним узлом
+     */
+    boolean remove(String nodeId, String username) {
+        boolean[] released = new boolean[1];
+        byUsername.computeIfPresent(key(username), (key, nodes) -> {
+            if (!nodes.containsKey(nodeId)) {
+                return nodes;
+            }
+            if (nodes.size() == 1) {
+                released[0] = true;
+                return null;
+            }
+            Map<String, String> updated = new HashMap<>(nodes);
+            updated.remove(nodeId);
+            return Collections.unmodifiableMap(updated);
+        });
+        return released[0];
+    }
+
+    /**
+     * Удаляет всех пользователей узла.
+     *
+     * @return имена, которые больше не заняты ни одним узлом
+     */
+    List<String> removeNode(String nodeId) {
+        List<String> removed = new ArrayList<>();
+        for (String username : usernamesOf(nodeId)) {
+            if (remove(nodeId, username)) {
+                removed.add(username);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return имена пользователей узла
+     */
+    List<String> usernamesOf(String nodeId) {
+        List<String> result = new ArrayList<>();
+        for (Map<String, String> nodes : byUsername.values()) {
+            String username = nodes.get(nodeId);
+            if (username != null) {
+                result.add(username);
+            }
+        }
+        return result;
+    }
+
+    boolean contains(String username) {
+        return byUsername.containsKey(key(username));
+    }
+
+    /**
+     * @return имена всех пользователей других узлов, каждое по разу
+     */
+    List<String> usernames() {
+        List<String> result = new ArrayList<>(byUsername.size());
+        for (Map<String, String> nodes : byUsername.values()) {
+            result.add(nodes.values().iterator().next());
+        }
+        return result;
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
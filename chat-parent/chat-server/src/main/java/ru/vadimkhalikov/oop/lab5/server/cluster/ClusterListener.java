@@ -0,0 +1,34 @@
+package ru.vadimkhalikov.oop.lab5.server.cluster;
+
+import java.util.Collection;
+import java.util.List;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+
+/**
+ * События кластера, которые обрабатывает сервер узла.
+ * Методы вызываются из потоков чтения межузловых соединений.
+ */
+public interface ClusterListener {
+
+    /**
+     * Сообщение, пересланное другим узлом. Его нужно разослать локальным клиентам,
+     * но не пересылать дальше.
+     */
+    void onRemoteMessage(String nodeId, Message message);
+
+    /**
+     * Пользователи другого узла появились в каталоге кластера.
+     */
+    void onRemoteUsersJoined(String nodeId, Collection<String> usernames);
+
+    /**
+     * Пользователи другого узла пропали из каталога: вышли или узел недоступен.
+     */
+    void onRemoteUsersLeft(String nodeId, Collection<String> usernames);
+
+    /**
+     * @return имена пользователей, вошедших на этом узле
+     */
+    List<String> localUsernames();
+}
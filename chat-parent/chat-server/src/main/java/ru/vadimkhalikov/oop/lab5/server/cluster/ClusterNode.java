@@ -0,0 +1,433 @@
+package ru.vadimkhalikov.oop.lab5.server.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrame;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageProtocol;
+import ru.vadimkhalikov.oop.lab5.common.protocol.RestJsonProtocol;
+
+/**
+ * Узел кластера серверов чата.
+ * <p>
+ * Узлы образуют полную сетку: каждый открывает исходящее соединение {@link PeerLink} к каждому
+ * соседу из списка и принимает встречные соединения на своем порту кластера. Межузловой канал
+ * использует кадры {@link RestJsonProtocol} независимо от протокола клиентов.
+ * <p>
+ * Сообщения локальных клиентов не пересылаются по одному: они копятся в течение {@code batchMs}
+ * (или до {@code batchMax} сообщений) и уходят соседям одной пачкой CLUSTER_BATCH, закодированной
+ * один раз для всех соседей. Полученные от соседа сообщения рассылаются только локальным клиентам,
+ * поэтому циклов пересылки нет.
+ * <p>
+ * Узел ведет каталог пользователей соседей: полный список приходит в приветствии CLUSTER_HELLO
+ * при подключении, дальше каталог обновляют пересланные USER_JOINED и USER_LEFT общей комнаты.
+ * Когда соединение с соседом рвется, его пользователи удаляются из каталога.
+ * <p>
+ * Порт кластера слушает только адрес {@code bindHost}. Входящее соединение принимается,
+ * только если оно пришло с адреса одного из соседей списка и, если задан общий секрет,
+ * приветствие несет этот секрет. Канал не шифруется: сосед, прошедший проверку, может прислать
+ * в пачке любые сообщения и имена, поэтому порт кластера должен быть доступен только узлам.
+ */
+public class ClusterNode implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterNode.class);
+
+    private final String nodeId;
+    private final String bindHost;
+    private final int port;
+    private final List<InetSocketAddress> peers;
+    // null - секрет не задан, соседи проверяются только по адресу
+    private final byte[] secret;
+    private final long batchMs;
+    private final int batchMax;
+    private final ScheduledExecutorService timer;
+    private final ClusterListener listener;
+    private final MessageProtocol encoder = new RestJsonProtocol();
+    private final ClusterDirectory directory = new ClusterDirectory();
+    private final List<PeerLink> links = new ArrayList<>();
+    // Текущее входящее соединение каждого соседа
+    private final ConcurrentMap<String, Socket> inbound = new ConcurrentHashMap<>();
+    private final LongAdder relayedMessages = new LongAdder();
+    private final LongAdder sentBatches = new LongAdder();
+    private final LongAdder droppedBatches = new LongAdder();
+    private final LongAdder receivedMessages = new LongAdder();
+    private List<Message> pending = new ArrayList<>();
+    private boolean flushScheduled;
+    private volatile ServerSocket serverSocket;
+
+    /**
+     * @param nodeId уникальный идентификатор узла в кластере
+     * @param bindHost адрес, на котором узел принимает соединения соседей
+     * @param port порт, на котором узел принимает соединения соседей
+     * @param peers адреса соседей (без самого узла); соединения с других адресов отклоняются
+     * @param secret общий секрет узлов для приветствия; пустая строка - не проверять
+     * @param batchMs сколько копить сообщения перед отправкой пачки; 0 - отправлять сразу
+     * @param batchMax предельное число сообщений в пачке
+     * @param queueCapacity предельное число пачек в очереди одного соседа
+     * @param reconnectMs пауза перед повторным подключением к соседу
+     * @param timer планировщик, на котором отправляются накопленные пачки
+     */
+    public ClusterNode(String nodeId, String bindHost, int port, List<InetSocketAddress> peers, String secret,
+                       long batchMs, int batchMax, int queueCapacity, long reconnectMs,
+                       ScheduledExecutorService timer, ClusterListener listener) {
+        this.nodeId = nodeId;
+        this.bindHost = bindHost;
+        this.port = port;
+        this.peers = peers;
+        this.secret = secret.isEmpty() ? null : secret.getBytes(StandardCharsets.UTF_8);
+        this.batchMs = batchMs;
+        this.batchMax = Math.max(1, batchMax);
+        this.timer = timer;
+        this.listener = listener;
+        for (InetSocketAddress peer : peers) {
+            links.add(new PeerLink(this, peer, queueCapacity, reconnectMs));
+        }
+    }
+
+    /**
+     * Разбирает список соседей вида {@code host:port,host:port}.
+     *
+     * @throws IllegalArgumentException если адрес записан неверно
+     */
+    public static List<InetSocketAddress> parsePeers(String peers) {
+        List<InetSocketAddress> result = new ArrayList<>();
+        if (peers == null) {
+            return result;
+        }
+        for (String peer : peers.split(",")) {
+            String address = peer.trim();
+            if (address.isEmpty()) {
+                continue;
+            }
+            int colon = address.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Cluster peer must be host:port: " + address);
+            }
+            result.add(InetSocketAddress.createUnresolved(address.substring(0, colon),
+                Integer.parseInt(address.substring(colon + 1))));
+        }
+        return result;
+    }
+
+    /**
+     * Начинает принимать соединения соседей и подключается к ним.
+     *
+     * @throws IOException если порт кластера занят
+     */
+    public void start() throws IOException {
+        ServerSocket socket = new ServerSocket();
+        socket.bind(new InetSocketAddress(bindHost, port));
+        serverSocket = socket;
+        Thread acceptor = new Thread(this::acceptLoop, "cluster-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        for (PeerLink link : links) {
+            link.start();
+        }
+        log.info("Cluster node {} listening on {}:{} with {} peers", nodeId, bindHost, port, links.size());
+    }
+
+    private void acceptLoop() {
+        ServerSocket current = serverSocket;
+        while (!current.isClosed()) {
+            try {
+                Socket socket = current.accept();
+                if (!isPeerAddress(socket.getInetAddress())) {
+                    log.warn("Cluster connection from {} is not from a configured peer. Closing.", socket.getRemoteSocketAddress());
+                    socket.close();
+                    continue;
+                }
+                socket.setTcpNoDelay(true);
+                socket.setKeepAlive(true);
+                Thread reader = new Thread(() -> readLoop(socket), "cluster-in-" + socket.getRemoteSocketAddress());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (!current.isClosed()) {
+                    log.error("Error accepting cluster connection: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Читает сообщения соседа. Первым сообщением соединения должно быть приветствие.
+     */
+    private void readLoop(Socket socket) {
+        MessageProtocol protocol = new RestJsonProtocol();
+        String peerId = null;
+        try (Socket ignored = socket) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            Message hello = protocol.receiveMessage(in);
+            if (hello.getType() != Message.MessageType.CLUSTER_HELLO || hello.getSender() == null) {
+                log.warn("Cluster peer {} sent {} instead of hello. Closing.", socket.getRemoteSocketAddress(), hello.getType());
+                return;
+            }
+            if (!hasSecret(hello)) {
+                log.warn("Cluster peer {} sent a wrong secret. Closing.", socket.getRemoteSocketAddress());
+                return;
+            }
+            peerId = hello.getSender();
+            if (peerId.equals(nodeId)) {
+                log.warn("Cluster peer {} has the same node id {}. Closing.", socket.getRemoteSocketAddress(), nodeId);
+                return;
+            }
+            Socket previous = inbound.put(peerId, socket);
+            if (previous != null) {
+                previous.close();
+            }
+            log.info("Cluster peer {} connected from {}", peerId, socket.getRemoteSocketAddress());
+            onHello(hello);
+            while (true) {
+                Message message = protocol.receiveMessage(in);
+                if (message.getType() == Message.MessageType.CLUSTER_HELLO) {
+                    // Повторное приветствие не может сменить узел соединения
+                    if (peerId.equals(message.getSender())) {
+                        onHello(message);
+                    }
+                } else if (message.getType() == Message.MessageType.CLUSTER_BATCH && message.getMessages() != null) {
+                    for (Message relayed : message.getMessages()) {
+                        onRelayed(peerId, relayed);
+                    }
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            if (peerId != null) {
+                log.info("Cluster peer {} disconnected: {}", peerId, e.getMessage());
+            }
+        } catch (RuntimeException e) {
+            log.error("Error handling cluster peer {}", peerId, e);
+        } finally {
+            // Соединение могли заменить новым, тогда каталог соседа остается
+            if (peerId != null && inbound.remove(peerId, socket)) {
+                List<String> removed = directory.removeNode(peerId);
+                if (!removed.isEmpty()) {
+                    listener.onRemoteUsersLeft(peerId, removed);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true, если адрес совпадает с адресом одного из соседей списка
+     */
+    private boolean isPeerAddress(InetAddress address) {
+        for (InetSocketAddress peer : peers) {
+            try {
+                for (InetAddress peerAddress : InetAddress.getAllByName(peer.getHostString())) {
+                    if (peerAddress.equals(address)) {
+                        return true;
+                    }
+                }
+            } catch (IOException e) {
+                log.debug("Could not resolve cluster peer {}: {}", peer.getHostString(), e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Секрет передается в содержимом приветствия и сравнивается за постоянное время.
+     */
+    private boolean hasSecret(Message hello) {
+        if (secret == null) {
+            return true;
+        }
+        return hello.getContent() != null
+            && MessageDigest.isEqual(secret, hello.getContent().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Заменяет каталог пользователей соседа списком из приветствия.
+     */
+    private void onHello(Message hello) {
+        String peerId = hello.getSender();
+        Set<String> current = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        if (hello.getUserList() != null) {
+            current.addAll(hello.getUserList());
+        }
+        List<String> left = new ArrayList<>();
+        for (String username : directory.usernamesOf(peerId)) {
+            if (!current.contains(username) && directory.remove(peerId, username)) {
+                left.add(username);
+            }
+        }
+        List<String> joined = new ArrayList<>();
+        for (String username : current) {
+            if (directory.add(peerId, username)) {
+                joined.add(username);
+            }
+        }
+        if (!left.isEmpty()) {
+            listener.onRemoteUsersLeft(peerId, left);
+        }
+        if (!joined.isEmpty()) {
+            listener.onRemoteUsersJoined(peerId, joined);
+        }
+    }
+
+    private void onRelayed(String peerId, Message message) {
+        receivedMessages.increment();
+        // Вход и выход в общей комнате - это вход и выход из чата
+        if (message.getRoom() == null && message.getSender() != null) {
+            if (message.getType() == Message.MessageType.USER_JOINED && directory.add(peerId, message.getSender())) {
+                listener.onRemoteUsersJoined(peerId, Collections.singletonList(message.getSender()));
+            } else if (message.getType() == Message.MessageType.USER_LEFT) {
+                if (directory.remove(peerId, message.getSender())) {
+                    listener.onRemoteUsersLeft(peerId, Collections.singletonList(message.getSender()));
+                } else if (directory.contains(message.getSender())) {
+                    // Имя осталось за другим узлом: вышел проигравший в споре за имя, а не пользователь чата
+                    return;
+                }
+            }
+        }
+        listener.onRemoteMessage(peerId, message);
+    }
+
+    /**
+     * Ставит сообщение локального клиента в пачку для соседей. Сообщение копируется:
+     * порядковый номер истории у каждого узла свой.
+     */
+    public void relay(Message message) {
+        if (links.isEmpty()) {
+            return;
+        }
+        Message copy = new Message(message.getType(), message.getSender(), message.getContent());
+        copy.setRoom(message.getRoom());
+        boolean flushNow;
+        synchronized (this) {
+            pending.add(copy);
+            flushNow = pending.size() >= batchMax || batchMs <= 0;
+            if (!flushNow && !flushScheduled) {
+                flushScheduled = true;
+                timer.schedule(this::flush, batchMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * Кодирует накопленные сообщения одной пачкой и ставит ее в очереди всех соседей.
+     * Выполняется под блокировкой, поэтому пачки уходят соседям в порядке накопления.
+     */
+    private synchronized void flush() {
+        flushScheduled = false;
+        if (pending.isEmpty()) {
+            return;
+        }
+        Message batch = new Message(Message.MessageType.CLUSTER_BATCH);
+        batch.setSender(nodeId);
+        batch.setMessages(pending);
+        int count = pending.size();
+        pending = new ArrayList<>();
+        MessageFrame frame;
+        try {
+            frame = encoder.encode(batch);
+        } catch (IOException e) {
+            log.error("Error encoding cluster batch: {}", e.getMessage());
+            return;
+        }
+        relayedMessages.add(count);
+        sentBatches.increment();
+        for (PeerLink link : links) {
+            link.offer(frame);
+        }
+    }
+
+    /**
+     * @return приветствие с текущим списком пользователей узла
+     */
+    MessageFrame helloFrame() throws IOException {
+        Message hello = new Message(Message.MessageType.CLUSTER_HELLO);
+        hello.setSender(nodeId);
+        if (secret != null) {
+            hello.setContent(new String(secret, StandardCharsets.UTF_8));
+        }
+        hello.setUserList(new ArrayList<>(listener.localUsernames()));
+        return encoder.encode(hello);
+    }
+
+    void recordDroppedBatch() {
+        droppedBatches.increment();
+    }
+
+    /**
+     * @return true, если пользователь с таким именем (без учета регистра) вошел на другом узле
+     */
+    public boolean isRemoteUser(String username) {
+        return directory.contains(username);
+    }
+
+    /**
+     * @return имена пользователей других узлов
+     */
+    public List<String> getRemoteUsernames() {
+        return directory.usernames();
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Останавливает прием соединений соседей и исходящие соединения.
+     */
+    @Override
+    public void close() {
+        ServerSocket current = serverSocket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                log.debug("Error closing cluster server socket: {}", e.getMessage());
+            }
+        }
+        for (PeerLink link : links) {
+            link.close();
+        }
+        for (Socket socket : inbound.values()) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.debug("Error closing cluster connection: {}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        long batches = sentBatches.sum();
+        long relayed = relayedMessages.sum();
+        return "node=" + nodeId
+            + ", relayed=" + relayed
+            + ", batches=" + batches
+            + ", messagesPerBatch=" + (batches == 0 ? "0" : String.format("%.1f", (double) relayed / batches))
+            + ", droppedBatches=" + droppedBatches.sum()
+            + ", received=" + receivedMessages.sum()
+            + ", remoteUsers=" + directory.usernames().size();
+    }
+}
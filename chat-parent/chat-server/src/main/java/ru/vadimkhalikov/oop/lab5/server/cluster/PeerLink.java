@@ -0,0 +1,157 @@
+package ru.vadimkhalikov.oop.lab5.server.cluster;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrame;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageProtocol;
+import ru.vadimkhalikov.oop.lab5.common.protocol.RestJsonProtocol;
+
+/**
+ * Исходящее соединение с другим узлом кластера. По нему идут только сообщения этого узла;
+ * сообщения соседа приходят встречным соединением, которое открывает он сам.
+ * <p>
+ * Отдельный поток подключается к соседу, отправляет приветствие со списком пользователей узла
+ * и записывает пачки из очереди, сбрасывая поток, когда очередь опустела. После обрыва
+ * соединение восстанавливается через {@code reconnectMs}. Если сосед не успевает читать
+ * и очередь переполнилась, очередь очищается и сосед заново получает приветствие,
+ * чтобы его каталог пользователей снова сошелся с нашим.
+ */
+class PeerLink implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(PeerLink.class);
+    private static final int CONNECT_TIMEOUT_MS = 3000;
+    private static final long POLL_MS = 500;
+
+    private final ClusterNode node;
+    private final InetSocketAddress address;
+    private final String name;
+    private final long reconnectMs;
+    private final BlockingQueue<MessageFrame> queue;
+    private final MessageProtocol protocol = new RestJsonProtocol();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean connected;
+    private volatile boolean resync;
+    private volatile Socket socket;
+    // Пока сосед недоступен, о неудачных подключениях сообщается один раз
+    private boolean reportedDown;
+
+    PeerLink(ClusterNode node, InetSocketAddress address, int queueCapacity, long reconnectMs) {
+        this.node = node;
+        this.address = address;
+        this.name = address.getHostString() + ":" + address.getPort();
+        this.reconnectMs = reconnectMs;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.thread = new Thread(this, "cluster-link-" + name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Ставит пачку в очередь соединения. Не блокирует; пока соседа нет, пачки не копятся.
+     */
+    void offer(MessageFrame frame) {
+        if (!connected) {
+            return;
+        }
+        if (!queue.offer(frame)) {
+            node.recordDroppedBatch();
+            if (!resync) {
+                resync = true;
+                log.warn("Cluster link to {} is not keeping up. Resynchronizing.", name);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                session();
+            } catch (IOException e) {
+                if (running && !reportedDown) {
+                    reportedDown = true;
+                    log.warn("Cluster link to {} is down: {}. Retrying every {} ms.", name, e.getMessage(), reconnectMs);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                connected = false;
+                closeSocket();
+            }
+            try {
+                Thread.sleep(reconnectMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void session() throws IOException, InterruptedException {
+        Socket connection = new Socket();
+        socket = connection;
+        connection.setTcpNoDelay(true);
+        connection.setKeepAlive(true);
+        // Имя соседа разрешается при каждом подключении: адрес мог смениться
+        connection.connect(new InetSocketAddress(address.getHostString(), address.getPort()), CONNECT_TIMEOUT_MS);
+        OutputStream out = new BufferedOutputStream(connection.getOutputStream());
+        // Пачки, накопленные до приветствия, старше его списка пользователей
+        queue.clear();
+        connected = true;
+        sendHello(out);
+        reportedDown = false;
+        log.info("Cluster link to {} is up", name);
+        while (running) {
+            if (resync) {
+                resync = false;
+                queue.clear();
+                sendHello(out);
+            }
+            MessageFrame frame = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+            if (frame == null) {
+                continue;
+            }
+            do {
+                protocol.writeFrame(frame, out);
+            } while ((frame = queue.poll()) != null);
+            out.flush();
+        }
+    }
+
+    private void sendHello(OutputStream out) throws IOException {
+        protocol.writeFrame(node.helloFrame(), out);
+        out.flush();
+    }
+
+    private void closeSocket() {
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                log.debug("Error closing cluster link to {}: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    void close() {
+        running = false;
+        closeSocket();
+        thread.interrupt();
+    }
+}
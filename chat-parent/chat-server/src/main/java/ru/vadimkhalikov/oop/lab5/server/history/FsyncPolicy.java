@@ -0,0 +1,43 @@
+package ru.vadimkhalikov.oop.lab5.server.history;
+
+/**
+ * Когда журнал истории сбрасывает записанные данные на диск.
+ */
+public enum FsyncPolicy {
+    /** Не сбрасывать явно, запись на диск остается на усмотрение ОС. */
+    NONE("none"),
+    /** Сбрасывать после каждой группы записей, записанной писателем журнала. */
+    BATCH("batch"),
+    /** Сбрасывать не чаще одного раза за {@code history.log.fsync.interval.ms}. */
+    PERIODIC("periodic");
+
+    private final String code;
+
+    FsyncPolicy(String code) {
+        this.code = code;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    /**
+     * Возвращает политику по ее строковому коду.
+     *
+     * @param code строковой код политики
+     * @return соответствующая политика
+     * @throws IllegalArgumentException если код политики неизвестен
+     */
+    public static FsyncPolicy fromString(String code) {
+        if (code == null) {
+            return BATCH;
+        }
+
+        for (FsyncPolicy policy : values()) {
+            if (policy.code.equalsIgnoreCase(code)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown fsync policy: " + code);
+    }
+}
@@ -0,0 +1,42 @@
+package ru.vadimkhalikov.oop.lab5.server.history;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrames;
+
+/**
+ * Запись истории: сообщение, его порядковый номер и уже закодированные кадры,
+ * которые отправляются при повторе истории без повторного кодирования.
+ * Кадр протокола, которым еще никто не запрашивал историю, кодируется при первом повторе.
+ */
+public final class HistoryEntry {
+
+    private final long sequence;
+    private final MessageFrames frames;
+
+    /**
+     * @param frames кадры сообщения; хотя бы один из них уже должен быть закодирован
+     */
+    public HistoryEntry(long sequence, MessageFrames frames) {
+        this.sequence = sequence;
+        this.frames = frames;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Message getMessage() {
+        return frames.getMessage();
+    }
+
+    public MessageFrames getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return размер записи в байтах, учитываемый бюджетом истории: размер первого закодированного кадра
+     */
+    public int size() {
+        return frames.size();
+    }
+}
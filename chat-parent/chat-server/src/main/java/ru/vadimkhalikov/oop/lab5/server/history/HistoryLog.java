@@ -0,0 +1,420 @@
+package ru.vadimkhalikov.oop.lab5.server.history;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.FrameEncoders;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrames;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+import ru.vadimkhalikov.oop.lab5.common.protocol.RestJsonProtocol;
+
+/**
+ * Журнал истории на диске: последовательность сегментов {@link LogSegment} с записями в JSON.
+ * <p>
+ * Рассылка только ставит запись в очередь. Отдельный поток-писатель забирает из очереди
+ * сразу все накопившиеся записи, дописывает их в отображенный в память активный сегмент
+ * и сбрасывает группу на диск одним вызовом согласно {@link FsyncPolicy}.
+ * Когда сегмент заполняется, открывается следующий. Самые старые сегменты удаляются,
+ * когда журнал превышает {@code retentionBytes} или сегмент старше {@code retentionMs}.
+ * <p>
+ * Сообщения, не попавшие в журнал (очередь переполнена, запись не удалась), оставляют
+ * пропуск в нумерации и не прерывают сегмент.
+ * <p>
+ * При запуске сегменты проверяются и восстанавливаются после аварийной остановки,
+ * а запись всегда продолжается в новом сегменте.
+ */
+public class HistoryLog implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(HistoryLog.class);
+    private static final int MAX_BATCH = 1024;
+    // Средний размер записи, по которому выделяется индекс сегмента
+    private static final int EXPECTED_RECORD_SIZE = 64;
+    private static final long CLOSE_TIMEOUT_MS = 5000;
+    private static final long RETENTION_CHECK_MS = 60_000;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long retentionBytes;
+    private final long retentionMs;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalMs;
+    private final RestJsonProtocol json = new RestJsonProtocol();
+    private final List<LogSegment> segments = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<HistoryEntry> pending;
+    // Номера записей, не попавших в очередь; писатель не ждет их
+    private final Set<Long> lost = ConcurrentHashMap.newKeySet();
+    private final AtomicLong dropped = new AtomicLong();
+    private final int maxReorder;
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile long nextSequence;
+
+    // Состояние ниже использует только поток-писатель
+    private final PriorityQueue<HistoryEntry> reorder = new PriorityQueue<>(Comparator.comparingLong(HistoryEntry::getSequence));
+    private LogSegment active;
+    private boolean dirty;
+    private long lastForce;
+    private long lastRetentionCheck;
+
+    /**
+     * Открывает журнал в каталоге, восстанавливая найденные в нем сегменты.
+     *
+     * @param directory каталог сегментов
+     * @param segmentBytes размер файла записей одного сегмента
+     * @param retentionBytes предельный суммарный размер записей и индексов журнала; 0 - без ограничения
+     * @param retentionMs сколько хранить сегмент после его последней записи; 0 - без ограничения
+     * @param fsyncPolicy когда сбрасывать записи на диск
+     * @param fsyncIntervalMs период сброса для {@link FsyncPolicy#PERIODIC}
+     * @param queueCapacity предельная длина очереди записей, ожидающих писателя
+     * @throws IOException если каталог или сегменты нельзя открыть
+     */
+    public HistoryLog(Path directory, int segmentBytes, long retentionBytes, long retentionMs, FsyncPolicy fsyncPolicy,
+                      long fsyncIntervalMs, int queueCapacity) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.retentionBytes = retentionBytes;
+        this.retentionMs = retentionMs;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalMs = Math.max(1, fsyncIntervalMs);
+        this.pending = new ArrayBlockingQueue<>(queueCapacity);
+        // Записи обгоняют друг друга не больше, чем на число потоков рассылки; очередь длиннее этого
+        // значит, что пропущенный номер уже не придет
+        this.maxReorder = queueCapacity;
+
+        Files.createDirectories(directory);
+        List<Long> bases = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.mapToLong(LogSegment::parseBaseSequence).filter(base -> base >= 0).forEach(bases::add);
+        }
+        bases.sort(null);
+        for (long base : bases) {
+            LogSegment segment = LogSegment.open(directory, base);
+            if (segment.getCount() == 0) {
+                segment.delete();
+            } else {
+                segments.add(segment);
+            }
+        }
+        nextSequence = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).getNextSequence();
+        enforceRetention();
+        log.info("History log opened in {}: {} segments, next sequence {}", directory, segments.size(), nextSequence);
+
+        writer = new Thread(this::writeLoop, "history-writer");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Запускает поток-писатель.
+     */
+    public void start() {
+        writer.start();
+    }
+
+    /**
+     * Ставит запись в очередь на запись в журнал. Не блокирует: если писатель
+     * не успевает и очередь переполнена, запись пропускается.
+     */
+    public void append(HistoryEntry entry) {
+        if (!running) {
+            return;
+        }
+        if (!pending.offer(entry)) {
+            lost.add(entry.getSequence());
+            dropped.incrementAndGet();
+            log.warn("History log queue is full. Message {} will not be persisted.", entry.getSequence());
+        }
+    }
+
+    /**
+     * Сообщает писателю, что запись с этим номером не будет добавлена
+     * (например, сообщение не удалось закодировать), и ждать ее не нужно.
+     */
+    public void skip(long sequence) {
+        lost.add(sequence);
+    }
+
+    /**
+     * Читает сообщения с номерами из полуинтервала [{@code from}, {@code to}), которые
+     * еще хранятся в журнале. Нужные сегменты и записи находятся по индексу.
+     *
+     * @return сообщения в порядке номеров, у каждого выставлен номер
+     */
+    public List<Message> read(long from, long to) {
+        List<Message> result = new ArrayList<>();
+        for (LogSegment segment : segments) {
+            if (segment.getCount() == 0 || segment.getBaseSequence() >= to) {
+                continue;
+            }
+            int first;
+            int last;
+            try {
+                first = segment.find(from);
+                last = segment.find(to);
+            } catch (IOException e) {
+                log.warn("Skipping unreadable history segment {}: {}", segment.getBaseSequence(), e.getMessage());
+                continue;
+            }
+            for (int i = first; i < last; i++) {
+                Message message = readMessage(segment, i);
+                if (message != null) {
+                    result.add(message);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return номер самой старой записи журнала или {@link #getNextSequence()}, если журнал пуст
+     */
+    public long getFirstSequence() {
+        for (LogSegment segment : segments) {
+            if (segment.getCount() > 0) {
+                return segment.getBaseSequence();
+            }
+        }
+        return nextSequence;
+    }
+
+    /**
+     * Читает до {@code count} последних записей журнала.
+     *
+     * @param count сколько записей прочитать
+     * @param encoders кодировщики кадров прочитанных сообщений
+     * @param primary протокол, кадр которого кодируется сразу; по нему считается размер записи
+     * @return записи в порядке номеров
+     */
+    public List<HistoryEntry> readLatest(int count, FrameEncoders encoders, ProtocolType primary) {
+        List<LogSegment> snapshot = new ArrayList<>(segments);
+        int first = snapshot.size();
+        int remaining = count;
+        while (first > 0 && remaining > 0) {
+            first--;
+            remaining -= snapshot.get(first).getCount();
+        }
+        List<HistoryEntry> result = new ArrayList<>(Math.max(0, count));
+        for (int s = first; s < snapshot.size(); s++) {
+            LogSegment segment = snapshot.get(s);
+            int from = s == first ? Math.max(0, -remaining) : 0;
+            readRecords(segment, from, segment.getCount(), encoders, primary, result);
+        }
+        return result;
+    }
+
+    private void readRecords(LogSegment segment, int from, int to, FrameEncoders encoders, ProtocolType primary,
+                             List<HistoryEntry> result) {
+        for (int i = from; i < to; i++) {
+            Message message = readMessage(segment, i);
+            if (message == null) {
+                continue;
+            }
+            try {
+                MessageFrames frames = encoders.frames(message);
+                frames.get(primary);
+                result.add(new HistoryEntry(message.getSequence(), frames));
+            } catch (IOException e) {
+                log.warn("Could not encode history record {}: {}", message.getSequence(), e.getMessage());
+            }
+        }
+    }
+
+    private Message readMessage(LogSegment segment, int i) {
+        try {
+            Message message = json.jsonToMessage(new String(segment.read(i), StandardCharsets.UTF_8));
+            message.setSequence(segment.sequence(i));
+            return message;
+        } catch (IOException e) {
+            log.warn("Skipping unreadable history record {} of segment {}: {}", i, segment.getBaseSequence(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return номер, который получит следующая запись журнала
+     */
+    public long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * @return сколько сообщений не попало в журнал: очередь была переполнена или запись не удалась
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void writeLoop() {
+        List<HistoryEntry> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !pending.isEmpty()) {
+            try {
+                HistoryEntry first = pending.poll(fsyncIntervalMs, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    pending.drainTo(batch, MAX_BATCH - 1);
+                    reorder.addAll(batch);
+                    batch.clear();
+                    writeReady();
+                }
+                commit();
+                long now = System.currentTimeMillis();
+                if (now - lastRetentionCheck >= RETENTION_CHECK_MS) {
+                    lastRetentionCheck = now;
+                    enforceRetention();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        writeReady();
+        try {
+            if (active != null) {
+                active.seal();
+            }
+        } catch (IOException e) {
+            log.error("Error closing history log: {}", e.getMessage());
+        }
+        for (LogSegment segment : segments) {
+            segment.close();
+        }
+    }
+
+    /**
+     * Дописывает записи в порядке номеров. Потоки рассылки ставят записи в очередь
+     * не строго по порядку, поэтому запись, пришедшая раньше предыдущей, ждет ее.
+     * Запись, которую не удалось записать, пропускается: следующие записи не ждут ее номер.
+     */
+    private void writeReady() {
+        while (!reorder.isEmpty()) {
+            long sequence = reorder.peek().getSequence();
+            if (sequence < nextSequence) {
+                // Опоздавшая запись: ее номер уже пропущен
+                reorder.poll();
+                dropped.incrementAndGet();
+            } else if (sequence == nextSequence) {
+                HistoryEntry entry = reorder.poll();
+                try {
+                    write(entry);
+                } catch (IOException e) {
+                    dropped.incrementAndGet();
+                    log.error("Could not write history record {}: {}", sequence, e.getMessage());
+                }
+                nextSequence = sequence + 1;
+            } else if (lost.remove(nextSequence)) {
+                nextSequence++;
+            } else if (reorder.size() > maxReorder) {
+                log.warn("History records {}..{} never arrived and will not be persisted", nextSequence, sequence - 1);
+                nextSequence = sequence;
+                lost.removeIf(skipped -> skipped < sequence);
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void write(HistoryEntry entry) throws IOException {
+        long sequence = entry.getSequence();
+        byte[] payload = json.messageToJson(entry.getMessage()).getBytes(StandardCharsets.UTF_8);
+        if (active == null || !active.append(sequence, payload)) {
+            roll(sequence, payload.length);
+            if (!active.append(sequence, payload)) {
+                throw new IOException("History record " + sequence + " does not fit into a segment");
+            }
+        }
+        dirty = true;
+    }
+
+    private void roll(long baseSequence, int payloadLength) throws IOException {
+        LogSegment previous = active;
+        // Даже если сегмент не удастся закрыть, следующая запись откроет новый, а не допишет в этот
+        active = null;
+        if (previous != null) {
+            previous.seal();
+        }
+        int logBytes = Math.max(segmentBytes, LogSegment.RECORD_HEADER_SIZE + payloadLength);
+        active = LogSegment.create(directory, baseSequence, logBytes, Math.max(1, logBytes / EXPECTED_RECORD_SIZE));
+        segments.add(active);
+        enforceRetention();
+    }
+
+    /**
+     * Удаляет самые старые сегменты, пока журнал больше {@code retentionBytes}
+     * или самый старый сегмент старше {@code retentionMs}. Последний сегмент не удаляется.
+     */
+    private void enforceRetention() {
+        long total = 0;
+        for (LogSegment segment : segments) {
+            total += segment.sizeBytes();
+        }
+        long now = System.currentTimeMillis();
+        while (segments.size() > 1) {
+            LogSegment oldest = segments.get(0);
+            try {
+                boolean oversized = retentionBytes > 0 && total > retentionBytes;
+                boolean expired = retentionMs > 0 && now - oldest.lastModified() > retentionMs;
+                if (!oversized && !expired) {
+                    return;
+                }
+                segments.remove(0);
+                total -= oldest.sizeBytes();
+                oldest.delete();
+                log.debug("Deleted history segment {}", oldest.getBaseSequence());
+            } catch (IOException e) {
+                log.warn("Could not delete history segment {}: {}", oldest.getBaseSequence(), e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private void commit() {
+        if (!dirty) {
+            return;
+        }
+        if (active == null) {
+            // Последняя запись не удалась, сбрасывать нечего
+            dirty = false;
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (fsyncPolicy == FsyncPolicy.BATCH
+                || (fsyncPolicy == FsyncPolicy.PERIODIC && now - lastForce >= fsyncIntervalMs)) {
+            active.force();
+            lastForce = now;
+            dirty = false;
+        } else if (fsyncPolicy == FsyncPolicy.NONE) {
+            dirty = false;
+        }
+    }
+
+    /**
+     * Дописывает записи, оставшиеся в очереди, сбрасывает журнал на диск и останавливает писателя.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join(CLOSE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
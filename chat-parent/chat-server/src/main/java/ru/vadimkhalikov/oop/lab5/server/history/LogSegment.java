@@ -0,0 +1,370 @@
+package ru.vadimkhalikov.oop.lab5.server.history;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Сегмент журнала истории: файл записей {@code <номер>.log} и файл индекса {@code <номер>.idx}.
+ * <p>
+ * Запись: длина данных (4 байта), порядковый номер (8 байт), данные. Номера записей в сегменте
+ * возрастают, начиная с номера сегмента, но могут идти с пропусками: сообщения, не попавшие в журнал,
+ * не прерывают сегмент. Индекс хранит для каждой записи ее номер (8 байт) и смещение ее конца (4 байта),
+ * поэтому запись с любым номером находится двоичным поиском по индексу без просмотра файла.
+ * <p>
+ * Активный сегмент отображается в память целиком заранее выделенного размера, новые записи
+ * копируются в отображение. Закрытый сегмент усечен до фактического размера и читается через канал.
+ */
+final class LogSegment {
+
+    static final int RECORD_HEADER_SIZE = 12;
+    static final int INDEX_ENTRY_SIZE = 12;
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private final long baseSequence;
+    private final Path logPath;
+    private final Path indexPath;
+    private final FileChannel logChannel;
+    private final FileChannel indexChannel;
+    // Отображения есть только у активного сегмента
+    private MappedByteBuffer logMap;
+    private MappedByteBuffer indexMap;
+    private int writePosition;
+    private long lastSequence;
+    // Публикуется после записи данных и индекса, поэтому читатели видят только готовые записи
+    private volatile int count;
+
+    private LogSegment(Path directory, long baseSequence) throws IOException {
+        this.baseSequence = baseSequence;
+        this.lastSequence = baseSequence - 1;
+        this.logPath = directory.resolve(fileName(baseSequence, LOG_SUFFIX));
+        this.indexPath = directory.resolve(fileName(baseSequence, INDEX_SUFFIX));
+        this.logChannel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.indexChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Создает новый активный сегмент.
+     *
+     * @param logBytes размер файла записей
+     * @param indexEntries максимальное число записей
+     */
+    static LogSegment create(Path directory, long baseSequence, int logBytes, int indexEntries) throws IOException {
+        LogSegment segment = new LogSegment(directory, baseSequence);
+        try {
+            segment.logMap = segment.logChannel.map(FileChannel.MapMode.READ_WRITE, 0, logBytes);
+            segment.indexMap = segment.indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, (long) indexEntries * INDEX_ENTRY_SIZE);
+        } catch (IOException e) {
+            segment.close();
+            throw e;
+        }
+        return segment;
+    }
+
+    /**
+     * Открывает существующий сегмент как закрытый. Если сервер остановился аварийно,
+     * хвост сегмента проверяется: недописанные записи отбрасываются, записи без индекса
+     * добавляются в индекс, и оба файла усекаются до фактического размера.
+     */
+    static LogSegment open(Path directory, long baseSequence) throws IOException {
+        LogSegment segment = new LogSegment(directory, baseSequence);
+        try {
+            segment.recover();
+        } catch (IOException e) {
+            segment.close();
+            throw e;
+        }
+        return segment;
+    }
+
+    private void recover() throws IOException {
+        long logSize = logChannel.size();
+        int entries = (int) (indexChannel.size() / INDEX_ENTRY_SIZE);
+        ByteBuffer index = ByteBuffer.allocate(entries * INDEX_ENTRY_SIZE);
+        readFully(indexChannel, index, 0);
+        index.flip();
+
+        // Индекс заранее выделенного сегмента заполнен нулями после последней записи
+        int indexed = 0;
+        int previousEnd = 0;
+        long previousSequence = baseSequence - 1;
+        while (indexed < entries) {
+            long sequence = sequenceAt(index, indexed);
+            int end = endAt(index, indexed);
+            if (sequence <= previousSequence || end <= previousEnd || end > logSize) {
+                break;
+            }
+            previousSequence = sequence;
+            previousEnd = end;
+            indexed++;
+        }
+        while (indexed > 0 && !isValidRecord(sequenceAt(index, indexed - 1), endAt(index, indexed - 2),
+                endAt(index, indexed - 1), logSize)) {
+            indexed--;
+        }
+
+        // Записи, попавшие в файл, но не успевшие попасть в индекс
+        int position = endAt(index, indexed - 1);
+        long last = indexed == 0 ? baseSequence - 1 : sequenceAt(index, indexed - 1);
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        ByteBuffer recovered = ByteBuffer.allocate(Math.max(entries, 1) * INDEX_ENTRY_SIZE);
+        recovered.put(index.array(), 0, indexed * INDEX_ENTRY_SIZE);
+        while (position + RECORD_HEADER_SIZE <= logSize) {
+            header.clear();
+            readFully(logChannel, header, position);
+            int length = header.getInt(0);
+            long sequence = header.getLong(4);
+            long end = (long) position + RECORD_HEADER_SIZE + length;
+            if (length <= 0 || end > logSize || sequence <= last) {
+                break;
+            }
+            if (!recovered.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(recovered.capacity() * 2);
+                recovered.flip();
+                larger.put(recovered);
+                recovered = larger;
+            }
+            recovered.putLong(sequence);
+            recovered.putInt((int) end);
+            position = (int) end;
+            last = sequence;
+            indexed++;
+        }
+
+        recovered.flip();
+        indexChannel.truncate(0);
+        writeFully(indexChannel, recovered, 0);
+        logChannel.truncate(position);
+        writePosition = position;
+        lastSequence = last;
+        count = indexed;
+    }
+
+    private boolean isValidRecord(long sequence, int start, int end, long logSize) throws IOException {
+        if (end - start < RECORD_HEADER_SIZE || end > logSize) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        readFully(logChannel, header, start);
+        return header.getInt(0) == end - start - RECORD_HEADER_SIZE && header.getLong(4) == sequence;
+    }
+
+    private static long sequenceAt(ByteBuffer index, int i) {
+        return index.getLong(i * INDEX_ENTRY_SIZE);
+    }
+
+    private static int endAt(ByteBuffer index, int i) {
+        return i < 0 ? 0 : index.getInt(i * INDEX_ENTRY_SIZE + 8);
+    }
+
+    /**
+     * Дописывает запись в активный сегмент.
+     *
+     * @param sequence номер записи; больше номера последней записи сегмента
+     * @return false, если в сегменте не осталось места
+     */
+    boolean append(long sequence, byte[] payload) {
+        if (sequence <= lastSequence) {
+            throw new IllegalArgumentException("History record " + sequence + " is not after " + lastSequence);
+        }
+        int size = RECORD_HEADER_SIZE + payload.length;
+        int current = count;
+        if ((current + 1) * INDEX_ENTRY_SIZE > indexMap.capacity() || writePosition + size > logMap.capacity()) {
+            return false;
+        }
+        logMap.putInt(writePosition, payload.length);
+        logMap.putLong(writePosition + 4, sequence);
+        ByteBuffer target = logMap.duplicate();
+        target.position(writePosition + RECORD_HEADER_SIZE);
+        target.put(payload);
+        writePosition += size;
+        indexMap.putLong(current * INDEX_ENTRY_SIZE, sequence);
+        indexMap.putInt(current * INDEX_ENTRY_SIZE + 8, writePosition);
+        lastSequence = sequence;
+        count = current + 1;
+        return true;
+    }
+
+    /**
+     * Сбрасывает записанные данные активного сегмента на диск.
+     */
+    void force() {
+        if (logMap != null) {
+            logMap.force();
+            indexMap.force();
+        }
+    }
+
+    /**
+     * Закрывает активный сегмент для записи: сбрасывает его на диск
+     * и усекает файлы до фактического размера.
+     */
+    void seal() throws IOException {
+        if (logMap == null) {
+            return;
+        }
+        force();
+        logMap = null;
+        indexMap = null;
+        logChannel.truncate(writePosition);
+        indexChannel.truncate((long) count * INDEX_ENTRY_SIZE);
+        logChannel.force(true);
+        indexChannel.force(true);
+    }
+
+    /**
+     * Читает данные записи с позицией {@code i} внутри сегмента.
+     *
+     * @throws IOException если запись повреждена или сегмент уже удален
+     */
+    byte[] read(int i) throws IOException {
+        ByteBuffer entry = indexEntry(i);
+        long sequence = entry.getLong(0);
+        int start = i == 0 ? 0 : indexEntry(i - 1).getInt(8);
+        int end = entry.getInt(8);
+        ByteBuffer record = ByteBuffer.allocate(end - start);
+        MappedByteBuffer map = logMap;
+        if (map != null) {
+            ByteBuffer source = map.duplicate();
+            source.position(start).limit(end);
+            record.put(source);
+        } else {
+            readFully(logChannel, record, start);
+        }
+        int length = record.getInt(0);
+        if (length != end - start - RECORD_HEADER_SIZE || record.getLong(4) != sequence) {
+            throw new IOException("Corrupted history record " + sequence + " in " + logPath);
+        }
+        byte[] payload = new byte[length];
+        record.position(RECORD_HEADER_SIZE);
+        record.get(payload);
+        return payload;
+    }
+
+    /**
+     * @return номер записи с позицией {@code i} внутри сегмента
+     */
+    long sequence(int i) throws IOException {
+        return indexEntry(i).getLong(0);
+    }
+
+    /**
+     * Находит позицию первой записи с номером не меньше {@code sequence}.
+     *
+     * @return позиция записи или {@link #getCount()}, если таких записей нет
+     */
+    int find(long sequence) throws IOException {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sequence(middle) < sequence) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private ByteBuffer indexEntry(int i) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        MappedByteBuffer map = indexMap;
+        if (map != null) {
+            ByteBuffer source = map.duplicate();
+            source.position(i * INDEX_ENTRY_SIZE).limit((i + 1) * INDEX_ENTRY_SIZE);
+            entry.put(source);
+        } else {
+            readFully(indexChannel, entry, (long) i * INDEX_ENTRY_SIZE);
+        }
+        return entry;
+    }
+
+    long getBaseSequence() {
+        return baseSequence;
+    }
+
+    /**
+     * @return номер, который может получить следующая запись после последней записи сегмента
+     */
+    long getNextSequence() {
+        return lastSequence + 1;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * @return сколько байт занимают записи и индекс сегмента
+     */
+    long sizeBytes() {
+        return writePosition + (long) count * INDEX_ENTRY_SIZE;
+    }
+
+    /**
+     * @return время последнего изменения файла записей в миллисекундах
+     */
+    long lastModified() throws IOException {
+        return Files.getLastModifiedTime(logPath).toMillis();
+    }
+
+    void close() {
+        logMap = null;
+        indexMap = null;
+        try {
+            logChannel.close();
+            indexChannel.close();
+        } catch (IOException ignored) {
+            // Данные уже сброшены на диск, ошибка закрытия канала ничего не теряет
+        }
+    }
+
+    /**
+     * Закрывает и удаляет файлы сегмента.
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(logPath);
+        Files.deleteIfExists(indexPath);
+    }
+
+    static String fileName(long baseSequence, String suffix) {
+        return String.format("%020d%s", baseSequence, suffix);
+    }
+
+    /**
+     * @return номер сегмента по имени файла записей или -1, если это не файл сегмента
+     */
+    static long parseBaseSequence(Path path) {
+        String name = path.getFileName().toString();
+        if (!name.endsWith(LOG_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - LOG_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of history file");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package ru.vadimkhalikov.oop.lab5.server.history;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * История сообщений фиксированного размера: кольцевой буфер на {@code capacity} записей
+ * с дополнительным ограничением на суммарный размер закодированных кадров.
+ * <p>
+ * Каждой записи присваивается возрастающий порядковый номер. Добавление не берет блокировок:
+ * номер выдается атомарным счетчиком, запись публикуется CAS в свою ячейку.
+ * Чтение возвращает снимок записей, уже опубликованных к моменту вызова.
+ */
+public class MessageHistory {
+
+    private final int capacity;
+    private final long maxBytes;
+    private final AtomicReferenceArray<HistoryEntry> slots;
+    // Номер, который получит следующая запись
+    private final AtomicLong head = new AtomicLong();
+    // Номер самой старой записи, которая еще может храниться в буфере
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    /**
+     * @param capacity максимальное число хранимых записей
+     * @param maxBytes максимальный суммарный размер хранимых кадров; последняя запись хранится всегда
+     */
+    public MessageHistory(int capacity, long maxBytes) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("History capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Выделяет порядковый номер для следующей записи. Номер выделяется до кодирования,
+     * чтобы он попал в кадр сообщения; запись затем добавляется методом {@link #publish}.
+     * Номер, для которого запись так и не добавлена, просто пропускается.
+     */
+    public long reserve() {
+        return head.getAndIncrement();
+    }
+
+    /**
+     * Восстанавливает запись с уже присвоенным номером, например прочитанную из журнала.
+     * Вызывается при запуске, до начала конкурентной работы с историей.
+     * Записи должны восстанавливаться в порядке возрастания номеров.
+     */
+    public void restore(HistoryEntry entry) {
+        skipTo(entry.getSequence());
+        head.set(entry.getSequence() + 1);
+        publish(entry);
+    }
+
+    /**
+     * Продолжает нумерацию не раньше, чем с {@code sequence}. Вызывается при запуске,
+     * чтобы номера новых записей продолжали номера журнала.
+     */
+    public void skipTo(long sequence) {
+        if (head.get() >= sequence) {
+            return;
+        }
+        if (head.get() == tail.get()) {
+            tail.set(sequence);
+        }
+        head.set(sequence);
+        advanceTail(sequence - capacity);
+    }
+
+    /**
+     * Добавляет запись с номером, выделенным {@link #reserve()},
+     * вытесняя самые старые записи при нехватке места.
+     */
+    public void publish(HistoryEntry entry) {
+        long sequence = entry.getSequence();
+        int index = index(sequence);
+        while (true) {
+            HistoryEntry old = slots.get(index);
+            if (old != null && old.getSequence() > sequence) {
+                // Пока запись готовилась, другие потоки успели пройти по буферу целый круг
+                return;
+            }
+            if (slots.compareAndSet(index, old, entry)) {
+                if (old != null) {
+                    retainedBytes.addAndGet(-old.size());
+                }
+                break;
+            }
+        }
+        retainedBytes.addAndGet(entry.size());
+        advanceTail(sequence + 1 - capacity);
+        if (sequence < tail.get()) {
+            // Пока запись готовилась, хвост ушел дальше нее: ее уже не прочитают и не вытеснят по бюджету,
+            // поэтому освобождаем ячейку сами. Если ячейку успел очистить вытесняющий поток, он же вернул и байты
+            if (slots.compareAndSet(index, entry, null)) {
+                retainedBytes.addAndGet(-entry.size());
+            }
+            return;
+        }
+        evictOverBudget();
+    }
+
+    /**
+     * Возвращает до {@code count} последних записей в порядке их добавления.
+     */
+    public List<HistoryEntry> latest(int count) {
+        long end = head.get();
+        long start = Math.max(tail.get(), end - count);
+        return collect(start, end);
+    }
+
+    /**
+     * Возвращает записи с номерами из полуинтервала [{@code from}, {@code to}),
+     * которые еще хранятся в буфере, в порядке их добавления.
+     */
+    public List<HistoryEntry> range(long from, long to) {
+        return collect(Math.max(from, tail.get()), Math.min(to, head.get()));
+    }
+
+    private List<HistoryEntry> collect(long start, long end) {
+        List<HistoryEntry> result = new ArrayList<>((int) Math.max(0, end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            HistoryEntry entry = slots.get(index(sequence));
+            // Ячейка может быть еще не опубликована или уже вытеснена
+            if (entry != null && entry.getSequence() == sequence) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    private void advanceTail(long minimum) {
+        long current;
+        while ((current = tail.get()) < minimum) {
+            if (tail.compareAndSet(current, minimum)) {
+                return;
+            }
+        }
+    }
+
+    private void evictOverBudget() {
+        while (retainedBytes.get() > maxBytes) {
+            long oldest = tail.get();
+            if (oldest >= head.get() - 1) {
+                return;
+            }
+            if (!tail.compareAndSet(oldest, oldest + 1)) {
+                continue;
+            }
+            int index = index(oldest);
+            HistoryEntry entry = slots.get(index);
+            if (entry != null && entry.getSequence() == oldest && slots.compareAndSet(index, entry, null)) {
+                retainedBytes.addAndGet(-entry.size());
+            }
+        }
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    /**
+     * @return номер, который получит следующая запись
+     */
+    public long nextSequence() {
+        return head.get();
+    }
+
+    /**
+     * @return номер самой старой записи, которая еще может храниться в буфере
+     */
+    public long earliestSequence() {
+        return tail.get();
+    }
+
+    /**
+     * @return приблизительное число хранимых записей
+     */
+    public int size() {
+        return (int) Math.min(capacity, Math.max(0, head.get() - tail.get()));
+    }
+
+    /**
+     * @return суммарный размер хранимых кадров в байтах
+     */
+    public long retainedBytes() {
+        return retainedBytes.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
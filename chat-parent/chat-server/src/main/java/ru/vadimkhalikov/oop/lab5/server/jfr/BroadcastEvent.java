@@ -0,0 +1,62 @@
+package ru.vadimkhalikov.oop.lab5.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+/**
+ * Рассылка сообщения участникам комнаты: поиск комнаты, кодирование, запись в историю
+ * и постановка кадров в очереди получателей.
+ */
+@Name("ru.vadimkhalikov.oop.lab5.Broadcast")
+@Label("Broadcast")
+@Category({"Chat Server", "Messages"})
+@Description("Message fan-out to the members of a room")
+@StackTrace(false)
+public final class BroadcastEvent extends Event {
+
+    @Label("Protocol")
+    @Description("Protocol of the sender; cluster or server for messages without a local sender")
+    String protocol;
+
+    @Label("Message Type")
+    String messageType;
+
+    @Label("Size")
+    @Description("Size of the first encoded frame")
+    @DataAmount
+    long bytes;
+
+    @Label("Room")
+    String room;
+
+    @Label("Recipients")
+    int recipients;
+
+    @Label("Room Lookup")
+    @Description("Time spent finding the room in the registry; the general room is found without a lock")
+    @Timespan
+    long roomLookup;
+
+    /**
+     * @param protocol протокол отправителя или null, если у сообщения нет локального отправителя
+     * @param cluster сообщение пришло от соседнего узла кластера
+     */
+    public void set(ProtocolType protocol, boolean cluster, Message.MessageType type, int bytes, String room,
+                    int recipients, long roomLookupNanos) {
+        this.protocol = protocol != null ? protocol.getCode() : cluster ? "cluster" : "server";
+        this.messageType = ChatEvents.type(type);
+        this.bytes = bytes;
+        this.room = room;
+        this.recipients = recipients;
+        this.roomLookup = roomLookupNanos;
+    }
+}
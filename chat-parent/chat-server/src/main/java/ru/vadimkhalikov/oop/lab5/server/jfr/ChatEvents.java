@@ -0,0 +1,24 @@
+package ru.vadimkhalikov.oop.lab5.server.jfr;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+/**
+ * Общие преобразования значений полей событий JFR.
+ */
+final class ChatEvents {
+
+    private ChatEvents() {
+    }
+
+    /**
+     * @return код протокола или {@code unknown}, если протокол соединения еще не определен
+     */
+    static String protocol(ProtocolType type) {
+        return type != null ? type.getCode() : "unknown";
+    }
+
+    static String type(Message.MessageType type) {
+        return type != null ? type.name() : null;
+    }
+}
@@ -0,0 +1,55 @@
+package ru.vadimkhalikov.oop.lab5.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+/**
+ * Повтор истории комнаты клиенту: последние сообщения при входе в чат или в комнату
+ * либо страница истории по запросу.
+ */
+@Name("ru.vadimkhalikov.oop.lab5.HistoryReplay")
+@Label("History Replay")
+@Category({"Chat Server", "History"})
+@Description("History messages sent to a client")
+@StackTrace(false)
+public final class HistoryReplayEvent extends Event {
+
+    @Label("Protocol")
+    String protocol;
+
+    @Label("Message Type")
+    @Description("Request that caused the replay: LOGIN_REQUEST, ROOM_JOIN_REQUEST or HISTORY_REQUEST")
+    String messageType;
+
+    @Label("Size")
+    @Description("Total size of the frames sent")
+    @DataAmount
+    long bytes;
+
+    @Label("Messages")
+    int messages;
+
+    @Label("Room")
+    String room;
+
+    @Label("Recipient")
+    String recipient;
+
+    public void set(ProtocolType protocol, Message.MessageType trigger, long bytes, int messages, String room,
+                    String recipient) {
+        this.protocol = ChatEvents.protocol(protocol);
+        this.messageType = ChatEvents.type(trigger);
+        this.bytes = bytes;
+        this.messages = messages;
+        this.room = room;
+        this.recipient = recipient;
+    }
+}
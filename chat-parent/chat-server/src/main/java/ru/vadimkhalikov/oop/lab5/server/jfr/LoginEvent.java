@@ -0,0 +1,45 @@
+package ru.vadimkhalikov.oop.lab5.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+/**
+ * Обработка входа в чат: захват имени, ответ, повтор истории и объявление о входе.
+ */
+@Name("ru.vadimkhalikov.oop.lab5.Login")
+@Label("Login")
+@Category({"Chat Server", "Connections"})
+@Description("Handling of a login request")
+@StackTrace(false)
+public final class LoginEvent extends Event {
+
+    @Label("Protocol")
+    String protocol;
+
+    @Label("Message Type")
+    @Description("Outcome: LOGIN_SUCCESS or LOGIN_FAILURE")
+    String messageType;
+
+    @Label("Size")
+    @Description("Size of the login request")
+    @DataAmount
+    long bytes;
+
+    @Label("Username")
+    String username;
+
+    public void set(ProtocolType protocol, Message.MessageType outcome, int bytes, String username) {
+        this.protocol = ChatEvents.protocol(protocol);
+        this.messageType = ChatEvents.type(outcome);
+        this.bytes = bytes;
+        this.username = username;
+    }
+}
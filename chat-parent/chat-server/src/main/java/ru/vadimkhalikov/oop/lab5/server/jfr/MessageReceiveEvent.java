@@ -0,0 +1,58 @@
+package ru.vadimkhalikov.oop.lab5.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+/**
+ * Сообщение получено от клиента и разобрано. Событие мгновенное: ожидание данных
+ * в блокирующем режиме не относится к разбору, поэтому длительность разбора - отдельное поле.
+ */
+@Name("ru.vadimkhalikov.oop.lab5.MessageReceive")
+@Label("Message Receive")
+@Category({"Chat Server", "Messages"})
+@Description("Message received from a client and decoded")
+@StackTrace(false)
+public final class MessageReceiveEvent extends Event {
+
+    @Label("Protocol")
+    String protocol;
+
+    @Label("Message Type")
+    String messageType;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Decode Time")
+    @Timespan
+    long decodeTime;
+
+    @Label("Client")
+    String client;
+
+    /**
+     * Записывает событие, если запись событий этого типа включена.
+     */
+    public static void emit(ProtocolType protocol, Message.MessageType type, int bytes, long decodeNanos,
+                            String client) {
+        MessageReceiveEvent event = new MessageReceiveEvent();
+        if (event.shouldCommit()) {
+            event.protocol = ChatEvents.protocol(protocol);
+            event.messageType = ChatEvents.type(type);
+            event.bytes = bytes;
+            event.decodeTime = decodeNanos;
+            event.client = client;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package ru.vadimkhalikov.oop.lab5.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrame;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+/**
+ * Отправка кадра одному получателю: постановка в исходящую очередь или запись в сокет.
+ * Отправок столько же, сколько получателей у всех рассылок, поэтому по умолчанию
+ * записываются только отправки дольше порога, например ожидание места в очереди.
+ */
+@Name("ru.vadimkhalikov.oop.lab5.MessageSend")
+@Label("Message Send")
+@Category({"Chat Server", "Messages"})
+@Description("Frame handed to one recipient's connection")
+@Threshold("1 ms")
+@StackTrace(false)
+public final class MessageSendEvent extends Event {
+
+    @Label("Protocol")
+    String protocol;
+
+    @Label("Message Type")
+    String messageType;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Recipient")
+    String recipient;
+
+    public void set(ProtocolType protocol, MessageFrame frame, String recipient) {
+        this.protocol = ChatEvents.protocol(protocol);
+        this.messageType = ChatEvents.type(frame.getType());
+        this.bytes = frame.length();
+        this.recipient = recipient;
+    }
+}
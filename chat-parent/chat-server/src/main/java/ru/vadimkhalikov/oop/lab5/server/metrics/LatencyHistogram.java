@@ -0,0 +1,134 @@
+package ru.vadimkhalikov.oop.lab5.server.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма длительностей с корзинами по степеням двойки микросекунд:
+ * корзина {@code i} считает значения до {@code 2^i} мкс, последняя - все, что больше.
+ * <p>
+ * Каждая корзина - {@link LongAdder}, поэтому запись из многих потоков сразу не борется
+ * за одну ячейку памяти и не берет блокировок: запись стоит пары инкрементов.
+ * Число значений и перцентили собираются из корзин только при чтении.
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+    // Последняя конечная граница - 2^26 мкс, около минуты
+    static final int BUCKETS = 28;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder sumNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param nanos длительность в наносекундах
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        long micros = nanos / 1000;
+        // Номер наименьшей степени двойки, не меньшей micros
+        int index = micros <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(micros - 1);
+        buckets[Math.min(index, BUCKETS - 1)].increment();
+        sumNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * @return верхняя граница корзины в микросекундах или {@link Long#MAX_VALUE} для последней корзины
+     */
+    static long upperBoundMicros(int bucket) {
+        return bucket < BUCKETS - 1 ? 1L << bucket : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return число значений в каждой корзине; корзины читаются не атомарно вместе
+     */
+    long[] bucketCounts() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    @Override
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    @Override
+    public double getMeanMicros() {
+        long count = getCount();
+        return count == 0 ? 0.0 : sumNanos.sum() / 1000.0 / count;
+    }
+
+    @Override
+    public long getMaxMicros() {
+        return maxNanos.get() / 1000;
+    }
+
+    @Override
+    public long getP50Micros() {
+        return percentileMicros(0.5);
+    }
+
+    @Override
+    public long getP90Micros() {
+        return percentileMicros(0.9);
+    }
+
+    @Override
+    public long getP99Micros() {
+        return percentileMicros(0.99);
+    }
+
+    @Override
+    public long getP999Micros() {
+        return percentileMicros(0.999);
+    }
+
+    /**
+     * @return верхняя граница корзины, в которую попадает перцентиль, но не больше максимума
+     */
+    long percentileMicros(double quantile) {
+        long[] counts = bucketCounts();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundMicros(i), getMaxMicros());
+            }
+        }
+        return getMaxMicros();
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + String.format(", mean=%.1fus", getMeanMicros())
+            + ", p50=" + getP50Micros() + "us, p99=" + getP99Micros() + "us, max=" + getMaxMicros() + "us";
+    }
+}
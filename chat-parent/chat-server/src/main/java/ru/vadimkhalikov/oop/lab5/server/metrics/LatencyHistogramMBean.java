@@ -0,0 +1,22 @@
+package ru.vadimkhalikov.oop.lab5.server.metrics;
+
+/**
+ * Атрибуты гистограммы длительностей, видимые через JMX. Перцентили приблизительные:
+ * это верхняя граница корзины, в которую попал перцентиль (см. {@link LatencyHistogram}).
+ */
+public interface LatencyHistogramMBean {
+
+    long getCount();
+
+    double getMeanMicros();
+
+    long getMaxMicros();
+
+    long getP50Micros();
+
+    long getP90Micros();
+
+    long getP99Micros();
+
+    long getP999Micros();
+}
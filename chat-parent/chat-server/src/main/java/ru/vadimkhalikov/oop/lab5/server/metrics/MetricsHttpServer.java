@@ -0,0 +1,146 @@
+package ru.vadimkhalikov.oop.lab5.server.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+/**
+ * HTTP-точка {@code /metrics} с метриками сервера в текстовом формате Prometheus.
+ * Построена на встроенном в JDK {@code com.sun.net.httpserver}, внешних зависимостей нет.
+ * Запросы обслуживает один поток: метрики собираются из счетчиков за микросекунды,
+ * а опрашивает точку обычно один сборщик.
+ */
+public class MetricsHttpServer {
+
+    private static final Logger log = LoggerFactory.getLogger(MetricsHttpServer.class);
+    private static final String PATH = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final ServerMetrics metrics;
+    private HttpServer httpServer;
+    private ExecutorService executor;
+
+    public MetricsHttpServer(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param host адрес, на котором принимаются запросы; {@code 127.0.0.1} - только локальный сборщик
+     * @throws IOException если порт занят
+     */
+    public void start(String host, int port) throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(host, port), 0);
+        httpServer.createContext(PATH, this::handle);
+        executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        httpServer.setExecutor(executor);
+        httpServer.start();
+        log.info("Metrics endpoint listening on http://{}:{}{}", host, httpServer.getAddress().getPort(), PATH);
+    }
+
+    public void stop() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            executor.shutdown();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!PATH.equals(exchange.getRequestURI().getPath())) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (RuntimeException e) {
+            log.error("Error rendering metrics", e);
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return все метрики сервера в текстовом формате Prometheus
+     */
+    String render() {
+        ServerGauges gauges = metrics.getGauges();
+        PrometheusWriter out = new PrometheusWriter();
+        out.family("chat_connections", "gauge", "Open client connections, including not logged in")
+            .sample("chat_connections", "", gauges.connectedClients());
+        out.family("chat_logged_in_clients", "gauge", "Clients logged in to the chat")
+            .sample("chat_logged_in_clients", "", gauges.loggedInClients());
+        out.family("chat_messages_received_total", "counter", "Messages received from clients")
+            .sample("chat_messages_received_total", "", metrics.getMessagesIn());
+        out.family("chat_messages_sent_total", "counter", "Frames written to client sockets")
+            .sample("chat_messages_sent_total", "", metrics.getMessagesOut());
+        out.family("chat_bytes_received_total", "counter", "Bytes read from client sockets")
+            .sample("chat_bytes_received_total", "", metrics.getBytesIn());
+        out.family("chat_bytes_sent_total", "counter", "Bytes written to client sockets")
+            .sample("chat_bytes_sent_total", "", metrics.getBytesOut());
+        out.family("chat_history_messages", "gauge", "Messages kept in history of all rooms")
+            .sample("chat_history_messages", "", gauges.historySize());
+        out.family("chat_history_bytes", "gauge", "Encoded size of history of all rooms")
+            .sample("chat_history_bytes", "", gauges.historyBytes());
+        out.family("chat_executor_queue_depth", "gauge", "Tasks waiting for a handler or writer thread")
+            .sample("chat_executor_queue_depth", "", gauges.executorQueueDepth());
+        out.family("chat_timer_queue_depth", "gauge", "Tasks waiting in the server timer")
+            .sample("chat_timer_queue_depth", "", gauges.timerQueueDepth());
+
+        out.family("chat_connection_errors_total", "counter", "Connections closed by a read or write error");
+        for (ProtocolType type : ProtocolType.values()) {
+            errors(out, type.getCode(), type);
+        }
+        // Соединения, закрытые до определения протокола на общем порту
+        errors(out, "unknown", null);
+
+        // Путь сообщения: разбор -> рассылка (с кодированием) -> ожидание в очереди до записи
+        out.family("chat_codec_duration_seconds", "histogram", "Time to decode or encode one message");
+        for (ProtocolType type : ProtocolType.values()) {
+            out.histogram("chat_codec_duration_seconds", "protocol=\"" + type.getCode() + "\",operation=\"decode\"",
+                    metrics.getDecode(type))
+                .histogram("chat_codec_duration_seconds", "protocol=\"" + type.getCode() + "\",operation=\"encode\"",
+                    metrics.getEncode(type));
+        }
+        out.family("chat_broadcast_duration_seconds", "histogram", "Time to fan out one message to room members")
+            .histogram("chat_broadcast_duration_seconds", "", metrics.getBroadcast());
+        out.family("chat_write_delay_seconds", "histogram", "Time a frame waits in an outbound queue before the socket write")
+            .histogram("chat_write_delay_seconds", "", metrics.getWriteDelay());
+        return out.toString();
+    }
+
+    private void errors(PrometheusWriter out, String protocol, ProtocolType type) {
+        out.sample("chat_connection_errors_total", "protocol=\"" + protocol + "\",operation=\"read\"",
+                metrics.getReadErrors(type))
+            .sample("chat_connection_errors_total", "protocol=\"" + protocol + "\",operation=\"write\"",
+                metrics.getWriteErrors(type));
+    }
+}
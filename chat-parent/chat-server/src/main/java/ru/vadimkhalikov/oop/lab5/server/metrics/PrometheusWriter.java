@@ -0,0 +1,69 @@
+package ru.vadimkhalikov.oop.lab5.server.metrics;
+
+import java.math.BigDecimal;
+
+/**
+ * Собирает метрики в текстовом формате Prometheus (exposition format 0.0.4).
+ * Длительности выводятся в секундах, как принято в Prometheus.
+ */
+final class PrometheusWriter {
+
+    private final StringBuilder out = new StringBuilder(8192);
+
+    /**
+     * Заголовок семейства метрик; вызывается один раз перед его значениями.
+     *
+     * @param type {@code counter}, {@code gauge} или {@code histogram}
+     */
+    PrometheusWriter family(String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    /**
+     * @param labels пары имя-значение меток или пустая строка
+     */
+    PrometheusWriter sample(String name, String labels, long value) {
+        appendName(name, labels).append(' ').append(value).append('\n');
+        return this;
+    }
+
+    PrometheusWriter sample(String name, String labels, double value) {
+        appendName(name, labels).append(' ').append(value).append('\n');
+        return this;
+    }
+
+    /**
+     * Выводит корзины гистограммы нарастающим итогом, сумму и число значений.
+     * Корзины читаются по одной, поэтому при записи в это время итог может разойтись с суммой корзин
+     * на несколько значений; число значений берется как итог корзин, чтобы оно совпадало с {@code +Inf}.
+     */
+    PrometheusWriter histogram(String name, String labels, LatencyHistogram histogram) {
+        long[] counts = histogram.bucketCounts();
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            long bound = LatencyHistogram.upperBoundMicros(i);
+            String le = bound == Long.MAX_VALUE ? "+Inf" : BigDecimal.valueOf(bound, 6).stripTrailingZeros().toPlainString();
+            sample(name + "_bucket", prefix + "le=\"" + le + "\"", cumulative);
+        }
+        sample(name + "_sum", labels, histogram.getSumNanos() / 1e9);
+        sample(name + "_count", labels, cumulative);
+        return this;
+    }
+
+    private StringBuilder appendName(String name, String labels) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+}
@@ -0,0 +1,35 @@
+package ru.vadimkhalikov.oop.lab5.server.metrics;
+
+/**
+ * Текущие значения состояния сервера, которые метрики читают по запросу, а не считают сами.
+ * Реализуется сервером; методы вызываются из потоков JMX и должны быть дешевыми.
+ */
+public interface ServerGauges {
+
+    /**
+     * @return число открытых соединений, включая еще не вошедшие в чат
+     */
+    int connectedClients();
+
+    int loggedInClients();
+
+    /**
+     * @return число сообщений в истории всех комнат
+     */
+    long historySize();
+
+    /**
+     * @return суммарный размер истории всех комнат в байтах
+     */
+    long historyBytes();
+
+    /**
+     * @return число задач, ожидающих свободного потока в пулах обработчиков и писателей
+     */
+    int executorQueueDepth();
+
+    /**
+     * @return число задач, ожидающих в таймере сервера
+     */
+    int timerQueueDepth();
+}
@@ -0,0 +1,310 @@
+package ru.vadimkhalikov.oop.lab5.server.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+import ru.vadimkhalikov.oop.lab5.server.WriteStats;
+
+/**
+ * Метрики сервера: счетчики входящих сообщений и байт, ошибок соединений по протоколам,
+ * гистограммы разбора, рассылки, кодирования и ожидания записи - всех шагов пути сообщения
+ * от получения до записи получателям. Исходящие сообщения и байты берутся
+ * из {@link WriteStats}, состояние сервера - из {@link ServerGauges} в момент чтения.
+ * <p>
+ * Счетчики и корзины гистограмм - {@link LongAdder}: потоки соединений и рассылки
+ * увеличивают их без блокировок и почти без борьбы за кэш-линии,
+ * а суммирование происходит только при чтении метрик.
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ServerMetrics.class);
+    private static final String DOMAIN = "ru.vadimkhalikov.oop.lab5";
+    private static final long SAMPLE_INTERVAL_MS = 1000;
+
+    private final ServerGauges gauges;
+    private final WriteStats writeStats;
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LatencyHistogram broadcast = new LatencyHistogram();
+    private final LatencyHistogram writeDelay = new LatencyHistogram();
+    private final LatencyHistogram[] encode = new LatencyHistogram[ProtocolType.values().length];
+    private final LatencyHistogram[] decode = new LatencyHistogram[ProtocolType.values().length];
+    // Ошибки по протоколам; последний элемент - соединения, протокол которых еще не определен
+    private final LongAdder[] readErrors = new LongAdder[ProtocolType.values().length + 1];
+    private final LongAdder[] writeErrors = new LongAdder[ProtocolType.values().length + 1];
+    // Значения счетчиков на прошлом замере и скорости между замерами; пишет только поток таймера
+    private long lastMessagesIn;
+    private long lastMessagesOut;
+    private long lastBytesIn;
+    private long lastBytesOut;
+    private long lastSampleNanos = System.nanoTime();
+    private volatile double messagesInRate;
+    private volatile double messagesOutRate;
+    private volatile double bytesInRate;
+    private volatile double bytesOutRate;
+
+    public ServerMetrics(ServerGauges gauges, WriteStats writeStats) {
+        this.gauges = gauges;
+        this.writeStats = writeStats;
+        for (int i = 0; i < encode.length; i++) {
+            encode[i] = new LatencyHistogram();
+            decode[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < readErrors.length; i++) {
+            readErrors[i] = new LongAdder();
+            writeErrors[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Запускает пересчет скоростей раз в секунду.
+     */
+    public void start(ScheduledExecutorService timer) {
+        timer.scheduleAtFixedRate(this::sample, SAMPLE_INTERVAL_MS, SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        double seconds = (now - lastSampleNanos) / 1e9;
+        lastSampleNanos = now;
+        if (seconds <= 0) {
+            return;
+        }
+        long in = messagesIn.sum();
+        long out = writeStats.getFrames();
+        long inBytes = bytesIn.sum();
+        long outBytes = writeStats.getBytes();
+        messagesInRate = (in - lastMessagesIn) / seconds;
+        messagesOutRate = (out - lastMessagesOut) / seconds;
+        bytesInRate = (inBytes - lastBytesIn) / seconds;
+        bytesOutRate = (outBytes - lastBytesOut) / seconds;
+        lastMessagesIn = in;
+        lastMessagesOut = out;
+        lastBytesIn = inBytes;
+        lastBytesOut = outBytes;
+    }
+
+    /**
+     * Регистрирует метрики в платформенном MBeanServer. Порт входит в имена объектов,
+     * чтобы серверы в одном процессе не пересекались.
+     */
+    public void registerMBeans(int port) {
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            mbeanServer.registerMBean(this, new ObjectName(DOMAIN + ":type=Server,port=" + port));
+            mbeanServer.registerMBean(broadcast,
+                new ObjectName(DOMAIN + ":type=Server,port=" + port + ",name=BroadcastDuration"));
+            mbeanServer.registerMBean(writeDelay,
+                new ObjectName(DOMAIN + ":type=Server,port=" + port + ",name=WriteDelay"));
+            for (ProtocolType type : ProtocolType.values()) {
+                mbeanServer.registerMBean(encode[type.ordinal()], codecName(port, type, "encode"));
+                mbeanServer.registerMBean(decode[type.ordinal()], codecName(port, type, "decode"));
+            }
+            log.info("Server metrics registered in JMX under {}:type=Server,port={}", DOMAIN, port);
+        } catch (JMException e) {
+            log.warn("Could not register server metrics in JMX: {}", e.getMessage());
+        }
+    }
+
+    private static ObjectName codecName(int port, ProtocolType type, String operation) throws JMException {
+        return new ObjectName(DOMAIN + ":type=Codec,port=" + port + ",protocol=" + type.getCode()
+            + ",operation=" + operation);
+    }
+
+    /**
+     * Учитывает одно входящее сообщение клиента.
+     */
+    public void recordMessageIn() {
+        messagesIn.increment();
+    }
+
+    public void recordBytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    /**
+     * @param nanos длительность рассылки одного сообщения участникам комнаты
+     */
+    public void recordBroadcast(long nanos) {
+        broadcast.record(nanos);
+    }
+
+    /**
+     * Учитывает ошибку чтения или разбора, после которой соединение закрыто,
+     * в том числе обрыв соединения без выхода из чата.
+     *
+     * @param type протокол соединения или null, если он еще не определен
+     */
+    public void recordReadError(ProtocolType type) {
+        readErrors[errorIndex(type)].increment();
+    }
+
+    /**
+     * Учитывает ошибку записи, после которой соединение закрыто.
+     *
+     * @param type протокол соединения или null, если он еще не определен
+     */
+    public void recordWriteError(ProtocolType type) {
+        writeErrors[errorIndex(type)].increment();
+    }
+
+    private static int errorIndex(ProtocolType type) {
+        return type != null ? type.ordinal() : ProtocolType.values().length;
+    }
+
+    public long getReadErrors(ProtocolType type) {
+        return readErrors[errorIndex(type)].sum();
+    }
+
+    public long getWriteErrors(ProtocolType type) {
+        return writeErrors[errorIndex(type)].sum();
+    }
+
+    public void recordEncode(ProtocolType type, long nanos) {
+        encode[type.ordinal()].record(nanos);
+    }
+
+    public void recordDecode(ProtocolType type, long nanos) {
+        decode[type.ordinal()].record(nanos);
+    }
+
+    public LatencyHistogram getBroadcast() {
+        return broadcast;
+    }
+
+    /**
+     * @return гистограмма ожидания кадров в исходящих очередях до записи в сокет
+     */
+    public LatencyHistogram getWriteDelay() {
+        return writeDelay;
+    }
+
+    public LatencyHistogram getEncode(ProtocolType type) {
+        return encode[type.ordinal()];
+    }
+
+    public LatencyHistogram getDecode(ProtocolType type) {
+        return decode[type.ordinal()];
+    }
+
+    @Override
+    public int getConnectedClients() {
+        return gauges.connectedClients();
+    }
+
+    @Override
+    public int getLoggedInClients() {
+        return gauges.loggedInClients();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return writeStats.getFrames();
+    }
+
+    @Override
+    public double getMessagesInPerSecond() {
+        return messagesInRate;
+    }
+
+    @Override
+    public double getMessagesOutPerSecond() {
+        return messagesOutRate;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return writeStats.getBytes();
+    }
+
+    @Override
+    public double getBytesInPerSecond() {
+        return bytesInRate;
+    }
+
+    @Override
+    public double getBytesOutPerSecond() {
+        return bytesOutRate;
+    }
+
+    @Override
+    public long getHistorySize() {
+        return gauges.historySize();
+    }
+
+    @Override
+    public long getHistoryBytes() {
+        return gauges.historyBytes();
+    }
+
+    @Override
+    public int getExecutorQueueDepth() {
+        return gauges.executorQueueDepth();
+    }
+
+    @Override
+    public int getTimerQueueDepth() {
+        return gauges.timerQueueDepth();
+    }
+
+    @Override
+    public long getReadErrors() {
+        return sum(readErrors);
+    }
+
+    @Override
+    public long getWriteErrors() {
+        return sum(writeErrors);
+    }
+
+    private static long sum(LongAdder[] counters) {
+        long total = 0;
+        for (LongAdder counter : counters) {
+            total += counter.sum();
+        }
+        return total;
+    }
+
+    ServerGauges getGauges() {
+        return gauges;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder()
+            .append("messages in=").append(getMessagesIn())
+            .append(", bytes in=").append(getBytesIn())
+            .append(", read errors=").append(getReadErrors())
+            .append(", write errors=").append(getWriteErrors())
+            .append(", broadcast {").append(broadcast).append('}')
+            .append(", write delay {").append(writeDelay).append('}');
+        for (ProtocolType type : ProtocolType.values()) {
+            if (encode[type.ordinal()].getCount() > 0 || decode[type.ordinal()].getCount() > 0) {
+                result.append(", ").append(type.getCode())
+                    .append(" encode {").append(encode[type.ordinal()])
+                    .append("} decode {").append(decode[type.ordinal()]).append('}');
+            }
+        }
+        return result.toString();
+    }
+}
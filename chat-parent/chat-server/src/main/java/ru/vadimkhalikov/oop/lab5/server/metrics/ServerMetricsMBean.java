@@ -0,0 +1,42 @@
+package ru.vadimkhalikov.oop.lab5.server.metrics;
+
+/**
+ * Атрибуты сервера, видимые через JMX. Скорости пересчитываются раз в секунду.
+ */
+public interface ServerMetricsMBean {
+
+    int getConnectedClients();
+
+    int getLoggedInClients();
+
+    long getMessagesIn();
+
+    long getMessagesOut();
+
+    double getMessagesInPerSecond();
+
+    double getMessagesOutPerSecond();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    double getBytesInPerSecond();
+
+    double getBytesOutPerSecond();
+
+    long getHistorySize();
+
+    long getHistoryBytes();
+
+    int getExecutorQueueDepth();
+
+    int getTimerQueueDepth();
+
+    /**
+     * @return ошибки чтения и разбора, закрывшие соединение, по всем протоколам
+     */
+    long getReadErrors();
+
+    long getWriteErrors();
+}
@@ -0,0 +1,304 @@
+package ru.vadimkhalikov.oop.lab5.server.nio;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ru.vadimkhalikov.oop.lab5.common.protocol.FrameDecoder;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrame;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+import ru.vadimkhalikov.oop.lab5.server.ClientSession;
+import ru.vadimkhalikov.oop.lab5.server.OutboundQueue;
+import ru.vadimkhalikov.oop.lab5.server.Server;
+import ru.vadimkhalikov.oop.lab5.server.WriteStats;
+import ru.vadimkhalikov.oop.lab5.server.metrics.ServerMetrics;
+
+/**
+ * Неблокирующее соединение, обслуживаемое циклом событий {@link NioEventLoop}.
+ * Кадры, отправляемые из потока цикла этого соединения (рассылка сообщения другого клиента
+ * того же цикла), ставятся в {@link OutboundQueue} и записываются в конце итерации цикла:
+ * все кадры, накопленные за итерацию, уходят одной сборной записью ({@code writev}).
+ * Из других потоков запись выполняется сразу; то, что не поместилось в буфер отправки сокета,
+ * ставится в очередь и дописывается циклом по готовности OP_WRITE.
+ * Место в очереди не ждет ни один поток: при политике {@link ru.vadimkhalikov.oop.lab5.server.OutboundPolicy#BLOCK}
+ * переполнение обрабатывается как при {@code DROP_OLDEST}.
+ */
+public class NioClientSession extends ClientSession {
+
+    private static final Logger log = LoggerFactory.getLogger(NioClientSession.class);
+    // Сколько кадров записывается одним вызовом
+    private static final int MAX_GATHER = 64;
+
+    private final SocketChannel channel;
+    private final NioEventLoop loop;
+    private final FrameDecoder decoder;
+    private final SocketAddress remoteAddress;
+    private final OutboundQueue outbound;
+    private final Object writeLock = new Object();
+    private final AtomicBoolean closing = new AtomicBoolean(false);
+    private final AtomicBoolean resourcesClosed = new AtomicBoolean(false);
+    private final WriteStats writeStats;
+    private final ServerMetrics metrics;
+    // Кадры, взятые из очереди, но еще не записанные полностью: [gatherOffset, gatherCount); доступ под writeLock
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private int gatherOffset;
+    private int gatherCount;
+    // Соединение уже ждет записи в конце итерации цикла; доступ только из потока цикла
+    private boolean flushScheduled;
+    private volatile SelectionKey key;
+
+    /**
+     * @param protocolType протокол соединения; должен использовать заголовок с длиной
+     */
+    public NioClientSession(SocketChannel channel, Server server, ProtocolType protocolType,
+                            NioEventLoop loop) throws IOException {
+        super(server, protocolType);
+        this.channel = channel;
+        this.loop = loop;
+        this.decoder = new FrameDecoder(protocol, protocolType);
+        this.remoteAddress = channel.getRemoteAddress();
+        this.writeStats = server.getWriteStats();
+        this.metrics = server.getMetrics();
+        this.outbound = new OutboundQueue(server.getOutboundLimits(), metrics.getWriteDelay());
+        channel.configureBlocking(false);
+    }
+
+    /**
+     * Передает соединение циклу событий.
+     */
+    public void start() {
+        loop.register(this);
+    }
+
+    void register(Selector selector) throws IOException {
+        synchronized (writeLock) {
+            int ops = hasPendingWrites() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+            key = channel.register(selector, ops, this);
+        }
+    }
+
+    void handleRead() {
+        ByteBuffer buffer = loop.readBuffer();
+        buffer.clear();
+        try {
+            int read = channel.read(buffer);
+            if (read < 0) {
+                log.debug("Client {} closed the connection.", describe());
+                disconnect();
+                return;
+            }
+            metrics.recordBytesIn(read);
+            buffer.flip();
+            decoder.decode(buffer, (message, length, decodeNanos) -> {
+                // Сообщения, пришедшие вслед за выходом или ошибкой, уже некому обрабатывать
+                if (channel.isOpen() && !closing.get()) {
+                    onMessage(message, length, decodeNanos);
+                }
+            });
+        } catch (IOException | ClassNotFoundException e) {
+            if (channel.isOpen()) {
+                metrics.recordReadError(getProtocolType());
+                log.error("Error handling client {}: {}", describe(), e.getMessage());
+            }
+            disconnect();
+        }
+    }
+
+    void handleWrite() {
+        try {
+            synchronized (writeLock) {
+                while (true) {
+                    fillGather();
+                    if (gatherCount == 0) {
+                        break;
+                    }
+                    long written = channel.write(gather, 0, gatherCount);
+                    writeStats.recordWrite(written);
+                    while (gatherOffset < gatherCount && !gather[gatherOffset].hasRemaining()) {
+                        gather[gatherOffset++] = null;
+                    }
+                    if (gatherOffset < gatherCount) {
+                        // Буфер отправки сокета заполнен, остаток допишется по OP_WRITE
+                        requestWrite();
+                        return;
+                    }
+                }
+                SelectionKey currentKey = key;
+                if (currentKey != null) {
+                    currentKey.interestOpsAnd(~SelectionKey.OP_WRITE);
+                }
+            }
+            if (closing.get()) {
+                closeResources();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            metrics.recordWriteError(getProtocolType());
+            log.warn("Socket error for client {}: {}. Disconnecting.", describe(), e.getMessage());
+            // Дописать очередь уже не удастся, ждать перед закрытием незачем
+            closeResources();
+            disconnect();
+        }
+    }
+
+    /**
+     * Сдвигает недописанные кадры в начало массива и добирает кадры из очереди.
+     */
+    private void fillGather() {
+        int remaining = gatherCount - gatherOffset;
+        if (gatherOffset > 0) {
+            System.arraycopy(gather, gatherOffset, gather, 0, remaining);
+            for (int i = remaining; i < gatherCount; i++) {
+                gather[i] = null;
+            }
+            gatherOffset = 0;
+            gatherCount = remaining;
+        }
+        int taken = 0;
+        MessageFrame next;
+        while (gatherCount < MAX_GATHER && (next = outbound.poll()) != null) {
+            gather[gatherCount++] = next.asByteBuffer();
+            taken++;
+        }
+        writeStats.recordFrames(taken);
+    }
+
+    /**
+     * Записывает кадры, накопленные за итерацию цикла. Вызывается циклом после обработки событий.
+     */
+    void flush() {
+        flushScheduled = false;
+        if (channel.isOpen()) {
+            handleWrite();
+        }
+    }
+
+    /**
+     * Удаляет соединение с сервера; сервер сам закроет канал.
+     */
+    void disconnect() {
+        server.removeClient(this);
+    }
+
+    @Override
+    public void sendFrame(MessageFrame frame) throws IOException {
+        if (!channel.isOpen() || closing.get()) {
+            return;
+        }
+        if (loop.inEventLoop()) {
+            // Кадры этой итерации цикла уйдут одной записью после обработки событий
+            enqueue(outbound, frame, false);
+            if (!flushScheduled) {
+                flushScheduled = true;
+                loop.flushLater(this);
+            }
+            return;
+        }
+        synchronized (writeLock) {
+            if (!hasPendingWrites()) {
+                // Кадры протоколов с заголовком длины пишутся в канал как есть
+                ByteBuffer buffer = frame.asByteBuffer();
+                writeStats.recordWrite(channel.write(buffer));
+                writeStats.recordFrames(1);
+                // Кадр записан, не постояв в очереди
+                metrics.getWriteDelay().record(0);
+                if (buffer.hasRemaining()) {
+                    gather[0] = buffer;
+                    gatherOffset = 0;
+                    gatherCount = 1;
+                    requestWrite();
+                }
+                return;
+            }
+        }
+        // Сюда приходят общие потоки сервера (таймер, другие циклы), им ждать места нельзя
+        enqueue(outbound, frame, false);
+        synchronized (writeLock) {
+            requestWrite();
+        }
+    }
+
+    private boolean hasPendingWrites() {
+        return gatherOffset < gatherCount || !outbound.isEmpty();
+    }
+
+    /**
+     * Включает OP_WRITE, чтобы цикл дописал очередь. Вызывается под writeLock,
+     * поэтому не теряется, даже если цикл как раз снимает OP_WRITE.
+     */
+    private void requestWrite() throws IOException {
+        SelectionKey currentKey = key;
+        try {
+            if (currentKey != null && (currentKey.interestOps() & SelectionKey.OP_WRITE) == 0) {
+                currentKey.interestOpsOr(SelectionKey.OP_WRITE);
+                loop.wakeup();
+            }
+        } catch (CancelledKeyException e) {
+            throw new IOException("Connection is closed", e);
+        }
+    }
+
+    /**
+     * Закрывает соединение. Сообщения, уже стоящие в очереди (например, причина отключения),
+     * цикл дописывает перед закрытием канала; если клиент не дочитывает их вовремя,
+     * канал закрывается принудительно.
+     */
+    @Override
+    public void close() {
+        if (!closing.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (writeLock) {
+            if (channel.isOpen() && hasPendingWrites()) {
+                try {
+                    requestWrite();
+                    closeLater(this::closeResources);
+                    return;
+                } catch (IOException e) {
+                    // Ключ уже отменен, дописать очередь некому
+                }
+            }
+        }
+        closeResources();
+    }
+
+    private void closeResources() {
+        if (!resourcesClosed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            protocol.close();
+        } catch (IOException e) {
+            log.error("Error closing protocol for {}: {}", getUsername(), e.getMessage());
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error("Error closing channel for {}: {}", getUsername(), e.getMessage());
+        }
+        outbound.close(null);
+        synchronized (writeLock) {
+            Arrays.fill(gather, null);
+            gatherOffset = 0;
+            gatherCount = 0;
+        }
+        log.debug("Closed resources for client session {}", getUsername());
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    private Object describe() {
+        return getUsername() != null ? getUsername() : remoteAddress;
+    }
+}
@@ -0,0 +1,158 @@
+package ru.vadimkhalikov.oop.lab5.server.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Цикл событий: один поток обслуживает готовность чтения и записи множества соединений.
+ * Буфер чтения общий для всех соединений цикла, поэтому простаивающее соединение
+ * не держит собственных буферов.
+ * <p>
+ * Прочитанные сообщения обрабатываются в потоке цикла, вместе с рассылкой участникам комнаты,
+ * поэтому рассылка в большую комнату задерживает остальные соединения цикла.
+ */
+public class NioEventLoop implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(NioEventLoop.class);
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<NioClientSession> registrations = new ConcurrentLinkedQueue<>();
+    // Соединения с кадрами, накопленными за текущую итерацию; доступ только из потока цикла
+    private final List<NioClientSession> pendingFlushes = new ArrayList<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private volatile boolean running = true;
+
+    public NioEventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Передает соединение циклу. Регистрация в селекторе выполняется в потоке цикла.
+     */
+    void register(NioClientSession session) {
+        registrations.add(session);
+        selector.wakeup();
+    }
+
+    /**
+     * Будит поток цикла, чтобы он учел изменившийся набор интересующих операций.
+     */
+    void wakeup() {
+        selector.wakeup();
+    }
+
+    /**
+     * @return true, если вызывающий поток - поток этого цикла
+     */
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    ByteBuffer readBuffer() {
+        return readBuffer;
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        log.info("Event loop {} started.", thread.getName());
+        while (running) {
+            try {
+                selector.select();
+                registerPending();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    process(key);
+                }
+                flushPending();
+            } catch (IOException e) {
+                log.error("Event loop {} select failed: {}", thread.getName(), e.getMessage());
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            ((NioClientSession) key.attachment()).close();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            log.error("Error closing selector of {}: {}", thread.getName(), e.getMessage());
+        }
+        log.info("Event loop {} stopped.", thread.getName());
+    }
+
+    /**
+     * Откладывает запись кадров соединения до конца текущей итерации цикла,
+     * чтобы кадры, отправленные за итерацию, ушли одним вызовом.
+     * Вызывается только из потока цикла.
+     */
+    void flushLater(NioClientSession session) {
+        pendingFlushes.add(session);
+    }
+
+    private void flushPending() {
+        for (int i = 0; i < pendingFlushes.size(); i++) {
+            NioClientSession session = pendingFlushes.get(i);
+            try {
+                session.flush();
+            } catch (RuntimeException e) {
+                log.error("Unexpected error writing to client {}", session.getRemoteAddress(), e);
+                session.disconnect();
+            }
+        }
+        pendingFlushes.clear();
+    }
+
+    private void registerPending() {
+        NioClientSession session;
+        while ((session = registrations.poll()) != null) {
+            try {
+                session.register(selector);
+            } catch (IOException e) {
+                log.warn("Could not register client {}: {}", session.getRemoteAddress(), e.getMessage());
+                session.disconnect();
+            }
+        }
+    }
+
+    private void process(SelectionKey key) {
+        NioClientSession session = (NioClientSession) key.attachment();
+        try {
+            if (key.isReadable()) {
+                session.handleRead();
+            }
+            if (key.isValid() && key.isWritable()) {
+                session.handleWrite();
+            }
+        } catch (CancelledKeyException e) {
+            session.disconnect();
+        } catch (RuntimeException e) {
+            // Ошибка одного соединения не должна останавливать цикл, обслуживающий остальные
+            log.error("Unexpected error processing client {}", session.getRemoteAddress(), e);
+            session.disconnect();
+        }
+    }
+}
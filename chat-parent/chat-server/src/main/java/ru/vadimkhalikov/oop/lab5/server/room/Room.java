@@ -0,0 +1,99 @@
+package ru.vadimkhalikov.oop.lab5.server.room;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ru.vadimkhalikov.oop.lab5.server.ClientSession;
+import ru.vadimkhalikov.oop.lab5.server.history.HistoryLog;
+import ru.vadimkhalikov.oop.lab5.server.history.MessageHistory;
+
+/**
+ * Комната чата: участники и собственная история сообщений со своей нумерацией.
+ * <p>
+ * Состав комнаты меняется только через {@link RoomRegistry} под блокировкой ее сегмента.
+ * Рассылка перебирает участников без блокировок, поэтому рассылки в разных комнатах,
+ * как и в одной, идут параллельно.
+ */
+public class Room {
+
+    private final String name;
+    private final MessageHistory history;
+    private final HistoryLog log;
+    private final Set<ClientSession> members = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param name имя комнаты
+     * @param history история сообщений комнаты в памяти
+     * @param log журнал истории комнаты на диске или null, если история не сохраняется
+     */
+    public Room(String name, MessageHistory history, HistoryLog log) {
+        this.name = name;
+        this.history = history;
+        this.log = log;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public MessageHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * @return журнал истории комнаты или null, если история хранится только в памяти
+     */
+    public HistoryLog getLog() {
+        return log;
+    }
+
+    /**
+     * Слабо согласованное представление участников для рассылки.
+     */
+    public Collection<ClientSession> getMembers() {
+        return Collections.unmodifiableSet(members);
+    }
+
+    public boolean isMember(ClientSession session) {
+        return members.contains(session);
+    }
+
+    /**
+     * @return отсортированные имена участников
+     */
+    public List<String> getMemberNames() {
+        List<String> names = new ArrayList<>(members.size());
+        for (ClientSession member : members) {
+            if (member.getUsername() != null) {
+                names.add(member.getUsername());
+            }
+        }
+        names.sort(String.CASE_INSENSITIVE_ORDER);
+        return names;
+    }
+
+    boolean add(ClientSession session) {
+        return members.add(session);
+    }
+
+    boolean remove(ClientSession session) {
+        return members.remove(session);
+    }
+
+    boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    /**
+     * Закрывает журнал истории комнаты.
+     */
+    void close() {
+        if (log != null) {
+            log.close();
+        }
+    }
+}
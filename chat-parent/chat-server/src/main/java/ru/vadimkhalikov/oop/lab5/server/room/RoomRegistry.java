@@ -0,0 +1,211 @@
+package ru.vadimkhalikov.oop.lab5.server.room;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import ru.vadimkhalikov.oop.lab5.server.ClientSession;
+
+/**
+ * Реестр комнат, разбитый на сегменты с отдельными блокировками.
+ * <p>
+ * Комната попадает в сегмент по хэшу имени. Вход, выход, создание и удаление комнаты
+ * берут блокировку только ее сегмента, поэтому изменения состава разных комнат
+ * почти никогда не ждут друг друга. Комната создается при первом входе
+ * и удаляется, когда из нее выходит последний участник; общая комната существует всегда.
+ */
+public class RoomRegistry {
+
+    private static final Pattern ROOM_NAME = Pattern.compile("[A-Za-z0-9_-]{1,32}");
+
+    private final Shard[] shards;
+    private final int mask;
+    private final int maxRooms;
+    private final Function<String, Room> factory;
+    private final Room defaultRoom;
+    private final AtomicInteger roomCount = new AtomicInteger();
+
+    /**
+     * @param shardCount число сегментов; округляется вверх до степени двойки
+     * @param maxRooms предельное число комнат, включая общую
+     * @param defaultRoomName имя общей комнаты
+     * @param factory создает комнату с историей; вызывается под блокировкой сегмента
+     */
+    public RoomRegistry(int shardCount, int maxRooms, String defaultRoomName, Function<String, Room> factory) {
+        int size = Integer.highestOneBit(Math.max(1, shardCount - 1) << 1);
+        this.shards = new Shard[size];
+        for (int i = 0; i < size; i++) {
+            shards[i] = new Shard();
+        }
+        this.mask = size - 1;
+        this.maxRooms = Math.max(1, maxRooms);
+        this.factory = factory;
+        this.defaultRoom = factory.apply(defaultRoomName);
+        shardFor(key(defaultRoomName)).rooms.put(key(defaultRoomName), defaultRoom);
+        roomCount.incrementAndGet();
+    }
+
+    /**
+     * @return true, если имя комнаты допустимо: от 1 до 32 латинских букв, цифр, '_' и '-'
+     */
+    public static boolean isValidName(String name) {
+        return name != null && ROOM_NAME.matcher(name).matches();
+    }
+
+    /**
+     * Общая комната, в которую входит каждый пользователь.
+     */
+    public Room getDefaultRoom() {
+        return defaultRoom;
+    }
+
+    public boolean isDefault(Room room) {
+        return room == defaultRoom;
+    }
+
+    /**
+     * @param name имя комнаты или null для общей комнаты
+     * @return комната или null, если такой комнаты нет
+     */
+    public Room find(String name) {
+        if (name == null) {
+            return defaultRoom;
+        }
+        String key = key(name);
+        Shard shard = shardFor(key);
+        synchronized (shard) {
+            return shard.rooms.get(key);
+        }
+    }
+
+    /**
+     * Добавляет участника в комнату, создавая ее при необходимости.
+     *
+     * @return комната или null, если комнаты нет и достигнут предел числа комнат
+     */
+    public Room join(String name, ClientSession session) {
+        String key = key(name);
+        Shard shard = shardFor(key);
+        synchronized (shard) {
+            Room room = shard.rooms.get(key);
+            if (room == null) {
+                if (roomCount.incrementAndGet() > maxRooms) {
+                    roomCount.decrementAndGet();
+                    return null;
+                }
+                room = factory.apply(name);
+                shard.rooms.put(key, room);
+            }
+            room.add(session);
+            return room;
+        }
+    }
+
+    /**
+     * Удаляет участника из комнаты. Опустевшая комната, кроме общей, удаляется.
+     *
+     * @return true, если соединение было участником комнаты
+     */
+    public boolean leave(Room room, ClientSession session) {
+        String key = key(room.getName());
+        Shard shard = shardFor(key);
+        boolean closeRoom;
+        synchronized (shard) {
+            if (!room.remove(session)) {
+                return false;
+            }
+            closeRoom = removeIfEmpty(shard, key, room);
+        }
+        if (closeRoom) {
+            room.close();
+        }
+        return true;
+    }
+
+    /**
+     * Удаляет соединение из всех комнат, например при отключении.
+     *
+     * @return комнаты, участником которых было соединение
+     */
+    public List<Room> leaveAll(ClientSession session) {
+        List<Room> left = new ArrayList<>();
+        List<Room> closed = new ArrayList<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                Iterator<Map.Entry<String, Room>> iterator = shard.rooms.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Room room = iterator.next().getValue();
+                    if (room.remove(session)) {
+                        left.add(room);
+                        if (room != defaultRoom && room.isEmpty()) {
+                            iterator.remove();
+                            roomCount.decrementAndGet();
+                            closed.add(room);
+                        }
+                    }
+                }
+            }
+        }
+        for (Room room : closed) {
+            room.close();
+        }
+        return left;
+    }
+
+    private boolean removeIfEmpty(Shard shard, String key, Room room) {
+        if (room == defaultRoom || !room.isEmpty() || shard.rooms.get(key) != room) {
+            return false;
+        }
+        shard.rooms.remove(key);
+        roomCount.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return текущее число комнат, включая общую
+     */
+    public int size() {
+        return roomCount.get();
+    }
+
+    /**
+     * @return снимок всех комнат; сегменты блокируются по одному только на время копирования
+     */
+    public List<Room> all() {
+        List<Room> result = new ArrayList<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                result.addAll(shard.rooms.values());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Закрывает журналы истории всех комнат. Вызывается при остановке сервера.
+     */
+    public void closeAll() {
+        for (Room room : all()) {
+            room.close();
+        }
+    }
+
+    private Shard shardFor(String key) {
+        int hash = key.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Shard {
+        private final Map<String, Room> rooms = new HashMap<>();
+    }
+}
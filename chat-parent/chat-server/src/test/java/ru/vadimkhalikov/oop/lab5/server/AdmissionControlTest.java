@@ -0,0 +1,67 @@
+package ru.vadimkhalikov.oop.lab5.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Test;
+
+public class AdmissionControlTest {
+
+    private static final InetAddress FIRST = address(1);
+    private static final InetAddress SECOND = address(2);
+
+    @Test
+    public void limitsEachAddressSeparately() {
+        AdmissionControl admission = new AdmissionControl(100, 0, 0, 1, 3);
+
+        for (int i = 0; i < 3; i++) {
+            assertNull(admission.admit(FIRST, 0));
+        }
+        assertEquals(AdmissionControl.Rejection.RATE_LIMITED, admission.admit(FIRST, 0));
+        assertNull(admission.admit(SECOND, 0));
+        assertEquals("max=100, accepted=4, rejected full=0, rejected rate=1, tracked addresses=2", admission.toString());
+    }
+
+    @Test
+    public void limitsAllAddressesTogether() {
+        AdmissionControl admission = new AdmissionControl(100, 1, 4, 0, 0);
+
+        int accepted = 0;
+        for (int i = 0; i < 10; i++) {
+            if (admission.admit(address(i), 0) == null) {
+                accepted++;
+            }
+        }
+
+        assertEquals(4, accepted);
+    }
+
+    @Test
+    public void rejectsOverConnectionLimit() {
+        AdmissionControl admission = new AdmissionControl(2, 0, 0, 0, 0);
+
+        assertNull(admission.admit(FIRST, 1));
+        assertEquals(AdmissionControl.Rejection.SERVER_FULL, admission.admit(FIRST, 2));
+        assertEquals("max=2, accepted=1, rejected full=1, rejected rate=0, tracked addresses=0", admission.toString());
+    }
+
+    @Test
+    public void rateLimitIsCheckedBeforeConnectionLimit() {
+        AdmissionControl admission = new AdmissionControl(1, 0, 0, 1, 1);
+
+        assertEquals(AdmissionControl.Rejection.SERVER_FULL, admission.admit(FIRST, 1));
+        // Отказ по пределу соединений тоже расходует токен адреса
+        assertEquals(AdmissionControl.Rejection.RATE_LIMITED, admission.admit(FIRST, 0));
+    }
+
+    private static InetAddress address(int last) {
+        try {
+            return InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) last});
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package ru.vadimkhalikov.oop.lab5.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.FrameEncoders;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrame;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+import ru.vadimkhalikov.oop.lab5.server.metrics.LatencyHistogram;
+
+public class OutboundQueueTest {
+
+    private static final FrameEncoders ENCODERS = new FrameEncoders();
+
+    @Test
+    public void firstFrameFitsEvenOverByteBudget() throws IOException {
+        OutboundLimits limits = new OutboundLimits(OutboundPolicy.DISCONNECT, 4, 1, 0);
+        OutboundQueue queue = new OutboundQueue(limits, new LatencyHistogram());
+
+        assertTrue(queue.offer(chat("first"), false));
+        assertFalse(queue.offer(chat("second"), false));
+        assertEquals(1, limits.getDisconnected());
+    }
+
+    @Test
+    public void dropOldestDiscardsChatButKeepsServiceMessages() throws IOException {
+        OutboundLimits limits = new OutboundLimits(OutboundPolicy.DROP_OLDEST, 2, Long.MAX_VALUE, 0);
+        OutboundQueue queue = new OutboundQueue(limits, new LatencyHistogram());
+        MessageFrame service = service();
+        MessageFrame oldChat = chat("old");
+        MessageFrame newChat = chat("new");
+
+        assertTrue(queue.offer(service, false));
+        assertTrue(queue.offer(oldChat, false));
+        assertTrue(queue.offer(newChat, false));
+
+        assertSame(service, queue.poll());
+        assertSame(newChat, queue.poll());
+        assertNull(queue.poll());
+        assertEquals(1, limits.getDropped());
+    }
+
+    @Test
+    public void dropOldestDisconnectsWhenServiceMessageDoesNotFit() throws IOException {
+        OutboundLimits limits = new OutboundLimits(OutboundPolicy.DROP_OLDEST, 1, Long.MAX_VALUE, 0);
+        OutboundQueue queue = new OutboundQueue(limits, new LatencyHistogram());
+
+        assertTrue(queue.offer(service(), false));
+        // Сообщение чата отбрасывается само, служебное требует отключения
+        assertTrue(queue.offer(chat("late"), false));
+        assertFalse(queue.offer(service(), false));
+        assertEquals(1, limits.getDropped());
+        assertEquals(1, limits.getDisconnected());
+    }
+
+    @Test
+    public void disconnectPolicyRejectsOverflow() throws IOException {
+        OutboundLimits limits = new OutboundLimits(OutboundPolicy.DISCONNECT, 1, Long.MAX_VALUE, 0);
+        OutboundQueue queue = new OutboundQueue(limits, new LatencyHistogram());
+
+        assertTrue(queue.offer(chat("first"), true));
+        assertFalse(queue.offer(chat("second"), true));
+        assertEquals(0, limits.getDropped());
+        assertEquals(1, limits.getDisconnected());
+    }
+
+    @Test
+    public void blockAcceptsOverBudgetAndTimesOutLater() throws IOException {
+        OutboundLimits limits = new OutboundLimits(OutboundPolicy.BLOCK, 1, Long.MAX_VALUE, 20);
+        OutboundQueue queue = new OutboundQueue(limits, new LatencyHistogram());
+
+        assertTrue(queue.offer(chat("first"), true));
+        // Рассылка не ждет: кадр ставится сверх бюджета
+        assertTrue(queue.offer(chat("second"), true));
+        assertTrue(queue.isOverBudget());
+        assertEquals(0, limits.getBlocked());
+
+        assertFalse(queue.awaitSpace(System.nanoTime() + 20_000_000L));
+        assertEquals(1, limits.getBlocked());
+        assertEquals(1, limits.getBlockTimeouts());
+        assertEquals(1, limits.getDisconnected());
+    }
+
+    @Test
+    public void blockResumesWhenWriterFreesSpace() throws Exception {
+        OutboundLimits limits = new OutboundLimits(OutboundPolicy.BLOCK, 1, Long.MAX_VALUE, 10_000);
+        OutboundQueue queue = new OutboundQueue(limits, new LatencyHistogram());
+        MessageFrame first = chat("first");
+        MessageFrame second = chat("second");
+        assertTrue(queue.offer(first, true));
+        assertTrue(queue.offer(second, true));
+
+        Thread writer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            queue.poll();
+        });
+        writer.start();
+        assertTrue(queue.awaitSpace(System.nanoTime() + 10_000_000_000L));
+        writer.join();
+
+        assertFalse(queue.isOverBudget());
+        assertSame(second, queue.poll());
+        assertEquals(1, limits.getBlocked());
+        assertEquals(0, limits.getBlockTimeouts());
+    }
+
+    @Test
+    public void awaitSpaceReturnsAtOnceWithinBudget() throws IOException {
+        OutboundLimits limits = new OutboundLimits(OutboundPolicy.BLOCK, 2, Long.MAX_VALUE, 0);
+        OutboundQueue queue = new OutboundQueue(limits, new LatencyHistogram());
+
+        assertTrue(queue.offer(chat("first"), true));
+        assertTrue(queue.offer(chat("second"), true));
+
+        assertTrue(queue.awaitSpace(System.nanoTime()));
+        assertEquals(0, limits.getBlocked());
+    }
+
+    @Test
+    public void blockWithoutWaitingDropsOldestChat() throws IOException {
+        OutboundLimits limits = new OutboundLimits(OutboundPolicy.BLOCK, 1, Long.MAX_VALUE, 10_000);
+        OutboundQueue queue = new OutboundQueue(limits, new LatencyHistogram());
+        MessageFrame newChat = chat("new");
+
+        assertTrue(queue.offer(chat("old"), false));
+        // Поток, которому ждать нельзя, не ждет и не отключает клиента из-за сообщения чата
+        assertTrue(queue.offer(newChat, false));
+
+        assertSame(newChat, queue.poll());
+        assertEquals(0, limits.getBlocked());
+        assertEquals(1, limits.getDropped());
+        assertEquals(0, limits.getDisconnected());
+    }
+
+    @Test
+    public void closedQueueKeepsOnlyLastFrame() throws IOException {
+        OutboundLimits limits = new OutboundLimits(OutboundPolicy.DISCONNECT, 1, Long.MAX_VALUE, 0);
+        OutboundQueue queue = new OutboundQueue(limits, new LatencyHistogram());
+        MessageFrame last = service();
+        queue.offer(chat("pending"), false);
+
+        queue.close(last);
+
+        assertTrue(queue.offer(chat("after close"), false));
+        assertSame(last, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    private static MessageFrame chat(String content) throws IOException {
+        return frame(new Message(Message.MessageType.USER_MESSAGE, "alice", content));
+    }
+
+    private static MessageFrame service() throws IOException {
+        return frame(new Message(Message.MessageType.USER_LIST_RESPONSE, "server", "alice"));
+    }
+
+    private static MessageFrame frame(Message message) throws IOException {
+        return ENCODERS.frames(message).get(ProtocolType.REST_JSON);
+    }
+}
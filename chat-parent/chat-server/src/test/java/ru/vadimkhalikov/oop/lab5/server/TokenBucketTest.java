@@ -0,0 +1,90 @@
+package ru.vadimkhalikov.oop.lab5.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+    @Test
+    public void fullBucketAllowsExactlyBurst() {
+        // Интервал в секунду: за время теста корзина не успевает пополниться
+        TokenBucket bucket = new TokenBucket(1, 5);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue("token " + i, bucket.tryAcquire());
+        }
+        assertFalse(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void burstOfOneAllowsSingleEvent() {
+        TokenBucket bucket = new TokenBucket(1, 1);
+
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void refillsAtConfiguredRate() throws InterruptedException {
+        // 20 событий в секунду - токен каждые 50 мс
+        TokenBucket bucket = new TokenBucket(20, 1);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+
+        Thread.sleep(120);
+
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void reportsFullOnlyWhenIdle() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(20, 3);
+        assertTrue(bucket.isFull());
+
+        bucket.tryAcquire();
+        assertFalse(bucket.isFull());
+
+        Thread.sleep(120);
+        assertTrue(bucket.isFull());
+    }
+
+    @Test
+    public void concurrentCallersNeverExceedBurst() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1, 100);
+        AtomicInteger acquired = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 1_000; i++) {
+                    if (bucket.tryAcquire()) {
+                        acquired.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(100, acquired.get());
+    }
+}
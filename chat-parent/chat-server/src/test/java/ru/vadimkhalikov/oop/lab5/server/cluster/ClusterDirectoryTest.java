@@ -0,0 +1,56 @@
+package ru.vadimkhalikov.oop.lab5.server.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class ClusterDirectoryTest {
+
+    @Test
+    public void keepsNameWhileAnotherNodeHoldsIt() {
+        ClusterDirectory directory = new ClusterDirectory();
+        assertTrue(directory.add("node-a", "alice"));
+        assertTrue(directory.add("node-b", "Alice"));
+        assertEquals(1, directory.usernames().size());
+
+        // Проигравший спор за имя узел отключил своего пользователя
+        assertFalse(directory.remove("node-b", "Alice"));
+        assertTrue(directory.contains("alice"));
+        assertEquals(List.of("alice"), directory.usernamesOf("node-a"));
+
+        assertTrue(directory.remove("node-a", "alice"));
+        assertFalse(directory.contains("alice"));
+    }
+
+    @Test
+    public void ignoresRemovalByNodeThatDoesNotHoldName() {
+        ClusterDirectory directory = new ClusterDirectory();
+        directory.add("node-a", "alice");
+
+        assertFalse(directory.remove("node-b", "alice"));
+        assertTrue(directory.contains("alice"));
+    }
+
+    @Test
+    public void repeatedAddIsNotNewJoin() {
+        ClusterDirectory directory = new ClusterDirectory();
+        assertTrue(directory.add("node-a", "alice"));
+        assertFalse(directory.add("node-a", "ALICE"));
+    }
+
+    @Test
+    public void removeNodeReportsOnlyReleasedNames() {
+        ClusterDirectory directory = new ClusterDirectory();
+        directory.add("node-a", "alice");
+        directory.add("node-a", "bob");
+        directory.add("node-b", "bob");
+
+        assertEquals(List.of("alice"), directory.removeNode("node-a"));
+        assertTrue(directory.contains("bob"));
+        assertEquals(List.of(), directory.usernamesOf("node-a"));
+    }
+}
@@ -0,0 +1,171 @@
+package ru.vadimkhalikov.oop.lab5.server.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.FrameEncoders;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrames;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+public class HistoryLogTest {
+
+    private static final FrameEncoders ENCODERS = new FrameEncoders();
+    // Меньше любой записи: каждая запись открывает свой сегмент
+    private static final int TINY_SEGMENT = 64;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void gapsDoNotStartNewSegments() throws Exception {
+        Path dir = folder.getRoot().toPath().resolve("log");
+        HistoryLog log = open(dir, 1024 * 1024, 0);
+        long sequence = 0;
+        List<Long> written = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            log.append(entry(sequence));
+            written.add(sequence);
+            log.skip(sequence + 1);
+            sequence += 2;
+        }
+        awaitNextSequence(log, sequence - 1);
+        log.close();
+
+        assertEquals(1, countSegments(dir));
+        HistoryLog reopened = open(dir, 1024 * 1024, 0);
+        assertEquals(written, sequences(reopened.read(0, sequence)));
+        assertEquals(List.of(4L, 6L), sequences(reopened.read(3, 8)));
+        assertEquals(sequence - 1, reopened.getNextSequence());
+        reopened.close();
+    }
+
+    @Test
+    public void keepsWritingAfterWriteFailure() throws Exception {
+        Path dir = folder.getRoot().toPath().resolve("log");
+        HistoryLog log = open(dir, TINY_SEGMENT, 0);
+        log.append(entry(0));
+        log.append(entry(1));
+        awaitNextSequence(log, 2);
+
+        // Каталог пропал: следующий сегмент создать не удастся
+        deleteRecursively(dir);
+        log.append(entry(2));
+        awaitNextSequence(log, 3);
+        assertEquals(1, log.getDroppedCount());
+
+        Files.createDirectories(dir);
+        log.append(entry(3));
+        log.append(entry(4));
+        awaitNextSequence(log, 5);
+        assertEquals(List.of(3L, 4L), sequences(log.read(2, 5)));
+        log.close();
+
+        HistoryLog reopened = open(dir, TINY_SEGMENT, 0);
+        assertEquals(List.of(3L, 4L), sequences(reopened.read(0, 10)));
+        assertEquals(5, reopened.getNextSequence());
+        reopened.close();
+    }
+
+    @Test
+    public void deletesOldestSegmentsOverRetentionBytes() throws Exception {
+        Path dir = folder.getRoot().toPath().resolve("log");
+        HistoryLog probe = open(dir, TINY_SEGMENT, 0);
+        probe.append(entry(0));
+        awaitNextSequence(probe, 1);
+        probe.close();
+        long segmentSize = Files.size(dir.resolve(LogSegment.fileName(0, ".log")))
+            + Files.size(dir.resolve(LogSegment.fileName(0, ".idx")));
+
+        HistoryLog log = open(dir, TINY_SEGMENT, segmentSize * 3);
+        for (int i = 1; i < 10; i++) {
+            log.append(entry(i));
+        }
+        awaitNextSequence(log, 10);
+        log.close();
+
+        List<Long> kept = sequences(open(dir, TINY_SEGMENT, segmentSize * 3).read(0, 10));
+        assertEquals(List.of(7L, 8L, 9L), kept);
+        assertEquals(3, countSegments(dir));
+        assertFalse(kept.contains(0L));
+    }
+
+    @Test
+    public void readsLatestEntriesAcrossSegments() throws Exception {
+        Path dir = folder.getRoot().toPath().resolve("log");
+        HistoryLog log = open(dir, TINY_SEGMENT, 0);
+        for (int i = 0; i < 5; i++) {
+            log.append(entry(i * 3));
+            log.skip(i * 3 + 1);
+            log.skip(i * 3 + 2);
+        }
+        awaitNextSequence(log, 13);
+
+        List<HistoryEntry> latest = log.readLatest(3, ENCODERS, ProtocolType.REST_JSON);
+        List<Long> result = new ArrayList<>();
+        for (HistoryEntry entry : latest) {
+            result.add(entry.getSequence());
+            assertTrue(entry.size() > 0);
+        }
+        assertEquals(List.of(6L, 9L, 12L), result);
+        assertEquals(0, log.getFirstSequence());
+        log.close();
+    }
+
+    private static HistoryLog open(Path dir, int segmentBytes, long retentionBytes) throws IOException {
+        HistoryLog log = new HistoryLog(dir, segmentBytes, retentionBytes, 0, FsyncPolicy.NONE, 10, 1024);
+        log.start();
+        return log;
+    }
+
+    private static HistoryEntry entry(long sequence) throws IOException {
+        Message message = new Message(Message.MessageType.USER_MESSAGE, "alice", "message " + sequence);
+        message.setSequence(sequence);
+        MessageFrames frames = ENCODERS.frames(message);
+        frames.get(ProtocolType.REST_JSON);
+        return new HistoryEntry(sequence, frames);
+    }
+
+    private static void awaitNextSequence(HistoryLog log, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (log.getNextSequence() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, log.getNextSequence());
+    }
+
+    private static List<Long> sequences(List<Message> messages) {
+        List<Long> result = new ArrayList<>();
+        for (Message message : messages) {
+            result.add(message.getSequence());
+        }
+        return result;
+    }
+
+    private static long countSegments(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> LogSegment.parseBaseSequence(path) >= 0).count();
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,140 @@
+package ru.vadimkhalikov.oop.lab5.server.history;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LogSegmentTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findsRecordsAcrossSequenceGaps() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        LogSegment segment = LogSegment.create(dir, 10, 4096, 16);
+        segment.append(10, payload("a"));
+        segment.append(11, payload("b"));
+        segment.append(15, payload("c"));
+
+        assertEquals(2, segment.find(12));
+        assertEquals(2, segment.find(15));
+        assertEquals(3, segment.find(16));
+        assertEquals(15, segment.sequence(2));
+        assertArrayEquals(payload("c"), segment.read(2));
+        assertEquals(16, segment.getNextSequence());
+
+        segment.seal();
+        segment.close();
+        LogSegment reopened = LogSegment.open(dir, 10);
+        assertEquals(3, reopened.getCount());
+        assertEquals(16, reopened.getNextSequence());
+        assertEquals(1, reopened.find(11));
+        assertArrayEquals(payload("b"), reopened.read(1));
+        reopened.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSequenceNotAfterLastRecord() throws IOException {
+        LogSegment segment = LogSegment.create(folder.getRoot().toPath(), 0, 4096, 16);
+        segment.append(5, payload("a"));
+        segment.append(5, payload("b"));
+    }
+
+    @Test
+    public void reportsFullSegment() throws IOException {
+        LogSegment segment = LogSegment.create(folder.getRoot().toPath(), 0, 4096, 2);
+        segment.append(0, payload("a"));
+        segment.append(1, payload("b"));
+
+        assertFalse(segment.append(2, payload("c")));
+        assertEquals(2, segment.getCount());
+    }
+
+    @Test
+    public void recoversRecordsMissingFromIndex() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        LogSegment segment = LogSegment.create(dir, 0, 4096, 16);
+        segment.append(0, payload("a"));
+        segment.append(2, payload("b"));
+        segment.append(3, payload("c"));
+        segment.force();
+        // Аварийная остановка: индекс успел сохранить только первую запись
+        segment.close();
+        overwrite(dir.resolve(LogSegment.fileName(0, ".idx")), LogSegment.INDEX_ENTRY_SIZE,
+            new byte[2 * LogSegment.INDEX_ENTRY_SIZE]);
+
+        LogSegment recovered = LogSegment.open(dir, 0);
+        assertEquals(3, recovered.getCount());
+        assertEquals(2, recovered.sequence(1));
+        assertArrayEquals(payload("c"), recovered.read(2));
+        assertEquals(4, recovered.getNextSequence());
+        recovered.close();
+    }
+
+    @Test
+    public void dropsTruncatedTail() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        LogSegment segment = LogSegment.create(dir, 0, 4096, 16);
+        segment.append(0, payload("first"));
+        segment.append(1, payload("second"));
+        long intact = segment.sizeBytes() - 2L * LogSegment.INDEX_ENTRY_SIZE;
+        segment.append(2, payload("third"));
+        segment.force();
+        segment.close();
+        // Аварийная остановка посреди третьей записи
+        Path logPath = dir.resolve(LogSegment.fileName(0, ".log"));
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+            channel.truncate(intact + LogSegment.RECORD_HEADER_SIZE + 2);
+        }
+
+        LogSegment recovered = LogSegment.open(dir, 0);
+        assertEquals(2, recovered.getCount());
+        assertEquals(2, recovered.getNextSequence());
+        assertArrayEquals(payload("second"), recovered.read(1));
+        assertEquals(intact, Files.size(logPath));
+        recovered.close();
+    }
+
+    @Test
+    public void rebuildsIndexFromRecordsWhenIndexIsLost() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        LogSegment segment = LogSegment.create(dir, 7, 4096, 16);
+        segment.append(7, payload("a"));
+        segment.append(9, payload("b"));
+        segment.seal();
+        segment.close();
+        Files.delete(dir.resolve(LogSegment.fileName(7, ".idx")));
+
+        LogSegment recovered = LogSegment.open(dir, 7);
+        assertEquals(2, recovered.getCount());
+        assertEquals(1, recovered.find(8));
+        assertArrayEquals(payload("b"), recovered.read(1));
+        recovered.close();
+    }
+
+    private static byte[] payload(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void overwrite(Path path, long position, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        }
+    }
+}
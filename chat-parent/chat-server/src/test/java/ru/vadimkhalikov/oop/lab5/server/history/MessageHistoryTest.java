@@ -0,0 +1,124 @@
+package ru.vadimkhalikov.oop.lab5.server.history;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import ru.vadimkhalikov.oop.lab5.common.Message;
+import ru.vadimkhalikov.oop.lab5.common.protocol.FrameEncoders;
+import ru.vadimkhalikov.oop.lab5.common.protocol.MessageFrames;
+import ru.vadimkhalikov.oop.lab5.common.protocol.ProtocolType;
+
+public class MessageHistoryTest {
+
+    private static final FrameEncoders ENCODERS = new FrameEncoders();
+
+    @Test
+    public void keepsLatestEntriesWithinCapacity() throws IOException {
+        MessageHistory history = new MessageHistory(4, Long.MAX_VALUE);
+        for (int i = 0; i < 10; i++) {
+            history.publish(entry(history.reserve(), "m" + i));
+        }
+
+        assertEquals(List.of(6L, 7L, 8L, 9L), sequences(history.latest(10)));
+        assertEquals(List.of(8L, 9L), sequences(history.latest(2)));
+        assertEquals(List.of(6L, 7L, 8L), sequences(history.range(0, 9)));
+        assertEquals(List.of(7L), sequences(history.range(7, 8)));
+        assertEquals(6, history.earliestSequence());
+    }
+
+    @Test
+    public void evictsOldestEntriesOverByteBudget() throws IOException {
+        int size = entry(0, "m0").size();
+        MessageHistory history = new MessageHistory(16, size * 2L + size / 2);
+        for (int i = 0; i < 5; i++) {
+            history.publish(entry(history.reserve(), "m" + i));
+        }
+
+        assertEquals(List.of(3L, 4L), sequences(history.latest(16)));
+        assertEquals(size * 2L, history.retainedBytes());
+    }
+
+    @Test
+    public void keepsLastEntryLargerThanBudget() throws IOException {
+        MessageHistory history = new MessageHistory(16, 1);
+        history.publish(entry(history.reserve(), "first"));
+        history.publish(entry(history.reserve(), "second"));
+
+        assertEquals(List.of(1L), sequences(history.latest(16)));
+        assertEquals(history.latest(1).get(0).size(), history.retainedBytes());
+    }
+
+    @Test
+    public void latePublishBehindTailIsNotCharged() throws IOException {
+        int size = entry(0, "m").size();
+        MessageHistory history = new MessageHistory(8, size);
+        long late = history.reserve();
+        history.publish(entry(history.reserve(), "m"));
+        history.publish(entry(history.reserve(), "m"));
+
+        // Вытеснение по бюджету прошло мимо еще не опубликованной записи
+        history.publish(entry(late, "m"));
+
+        assertEquals(List.of(2L), sequences(history.latest(8)));
+        assertEquals(size, history.retainedBytes());
+    }
+
+    @Test
+    public void concurrentPublishersKeepByteAccountingExact() throws Exception {
+        int size = entry(0, "m").size();
+        MessageHistory history = new MessageHistory(32, size * 8L);
+        int threads = 4;
+        int perThread = 5_000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        long sequence = history.reserve();
+                        if (i % 7 == 0) {
+                            Thread.yield();
+                        }
+                        history.publish(entry(sequence, "m"));
+                    }
+                } catch (InterruptedException | IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        List<HistoryEntry> retained = history.range(0, history.nextSequence());
+        long bytes = retained.stream().mapToLong(HistoryEntry::size).sum();
+        assertEquals(bytes, history.retainedBytes());
+        assertEquals(threads * perThread - 1, retained.get(retained.size() - 1).getSequence());
+    }
+
+    private static HistoryEntry entry(long sequence, String content) throws IOException {
+        Message message = new Message(Message.MessageType.USER_MESSAGE, "alice", content);
+        message.setSequence(sequence);
+        MessageFrames frames = ENCODERS.frames(message);
+        frames.get(ProtocolType.REST_JSON);
+        return new HistoryEntry(sequence, frames);
+    }
+
+    private static List<Long> sequences(List<HistoryEntry> entries) {
+        List<Long> result = new ArrayList<>();
+        for (HistoryEntry entry : entries) {
+            result.add(entry.getSequence());
+        }
+        return result;
+    }
+}